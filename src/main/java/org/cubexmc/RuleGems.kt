@@ -26,9 +26,11 @@ import org.cubexmc.listeners.GemCustodyListener
 import org.cubexmc.listeners.GemDisplayListener
 import org.cubexmc.listeners.GemInventoryListener
 import org.cubexmc.listeners.GemPlaceListener
+import org.cubexmc.listeners.GemProximityListener
 import org.cubexmc.listeners.PlayerEventListener
 import org.cubexmc.listeners.QuickShopHikariBridge
 import org.cubexmc.listeners.QuickShopIntegrationHealth
+import org.cubexmc.listeners.TerrainChangeListener
 import org.cubexmc.listeners.WorldLoadListener
 import org.cubexmc.manager.ConfigManager
 import org.cubexmc.manager.CustomCommandExecutor
@@ -49,6 +51,7 @@ import org.cubexmc.provider.PermissionProvider
 import org.cubexmc.provider.VaultPermissionProvider
 import org.cubexmc.utils.EffectUtils
 import org.cubexmc.utils.SchedulerUtil
+import org.cubexmc.utils.ServerCompat
 import org.cubexmc.update.OfficialLinkMigrationStep
 import org.cubexmc.update.RuleGemsLinks
 import java.lang.reflect.Field
@@ -101,12 +104,15 @@ class RuleGems : CubexPlugin() {
         effectUtils = EffectUtils(this)
         powerStructureManager = PowerStructureManager(this)
         historyLogger = HistoryLogger(this, languageManager)
+        val history = historyLogger
+        SchedulerUtil.asyncRun(this, { history.rebuildIndex() }, 0L)
         economyProvider = EconomyProvider.hook(this)
         if (economyProvider != null) {
             logger.info("Vault economy hooked. Built-in transfer: directives remain controlled by config.")
         } else {
             logger.info("Vault economy not found; transfer: directives will be unavailable.")
         }
+        ServerCompat.reportCapabilities(logger)
         customCommandExecutor = CustomCommandExecutor(this, languageManager, gameplayConfig, economyProvider)
         gemManager = GemManager(this, configManager, gemParser, gameplayConfig, effectUtils, languageManager)
         gemManager.setHistoryLogger(historyLogger)
@@ -130,6 +136,8 @@ class RuleGems : CubexPlugin() {
         Bukkit.getPluginManager().registerEvents(GemCustodyListener(currentGemManager, currentLanguageManager), this)
         Bukkit.getPluginManager().registerEvents(PlayerEventListener(this, currentGemManager), this)
         Bukkit.getPluginManager().registerEvents(WorldLoadListener(currentGemManager), this)
+        Bukkit.getPluginManager().registerEvents(GemProximityListener(currentGemManager), this)
+        Bukkit.getPluginManager().registerEvents(TerrainChangeListener(currentGemManager), this)
         quickShopIntegrationHealth =
             QuickShopHikariBridge(this, currentGemManager, currentLanguageManager).register()
         if (quickShopIntegrationHealth.releaseBlocking) {
@@ -240,6 +248,14 @@ class RuleGems : CubexPlugin() {
                 gemManager.shutdownEscape()
                 gemManager.saveGemsSync()
             }
+            if (::configManager.isInitialized) {
+                configManager.closeStorage()
+            }
+        }
+        bind {
+            if (::historyLogger.isInitialized) {
+                historyLogger.close()
+            }
         }
         bind {
             val map = getCommandMapSafely()
@@ -34,6 +34,7 @@ class AdminCommandsRegistrar(
     override fun register(manager: CommandManager<RuleGemsCommandActor>) {
         registerReload(manager)
         registerDoctor(manager)
+        registerStorageExport(manager)
         registerTp(manager)
         registerScatter(manager)
         registerPlace(manager)
@@ -71,6 +72,30 @@ class AdminCommandsRegistrar(
         )
     }
 
+    private fun registerStorageExport(manager: CommandManager<RuleGemsCommandActor>) {
+        manager.command(
+            manager.commandBuilder("rulegems", "rg")
+                .literal("storage")
+                .literal("export")
+                .permission("rulegems.admin")
+                .handler { ctx ->
+                    val sender = ctx.sender().sender()
+                    plugin.gemManager.exportGemData { file, failure ->
+                        if (file != null) {
+                            languageManager.sendMessage(
+                                sender,
+                                "command.storage_export.success",
+                                mapOf("file" to file.relativeTo(plugin.dataFolder).path),
+                            )
+                        } else {
+                            plugin.logger.log(java.util.logging.Level.WARNING, "Gem data export failed", failure)
+                            languageManager.sendMessage(sender, "command.storage_export.failed")
+                        }
+                    }
+                },
+        )
+    }
+
     private fun registerTp(manager: CommandManager<RuleGemsCommandActor>) {
         manager.command(
             manager.commandBuilder("rulegems", "rg")
@@ -197,6 +197,7 @@ class InfoCommandsRegistrar(
             sendHelpItem(sender, "removealtar")
             sendHelpItem(sender, "appointees")
             sendHelpItem(sender, "doctor")
+            sendHelpItem(sender, "storage_export")
             sendHelpItem(sender, "reload")
         }
 
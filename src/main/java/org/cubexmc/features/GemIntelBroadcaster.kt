@@ -5,6 +5,7 @@ import org.bukkit.Location
 import org.bukkit.configuration.file.YamlConfiguration
 import org.bukkit.entity.Player
 import org.cubexmc.RuleGems
+import org.cubexmc.manager.BlockPosition
 import org.cubexmc.manager.GemManager
 import org.cubexmc.utils.ColorUtils
 import org.cubexmc.utils.SchedulerUtil
@@ -14,6 +15,7 @@ import java.util.Random
 import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
 import kotlin.math.exp
+import kotlin.math.floor
 import kotlin.math.ln
 import kotlin.math.max
 import kotlin.math.min
@@ -30,6 +32,9 @@ class GemIntelBroadcaster(
     private val recipientCooldowns: MutableMap<UUID, Long> = ConcurrentHashMap()
     private var task: Any? = null
 
+    @Volatile
+    private var clusterSnapshot: ClusterSnapshot? = null
+
     private var intervalSeconds = 1800
     private var initialDelaySeconds = 300
     private var requireNonRuler = true
@@ -60,6 +65,7 @@ class GemIntelBroadcaster(
     override fun shutdown() {
         stopTask()
         recipientCooldowns.clear()
+        clusterSnapshot = null
     }
 
     override fun reload() {
@@ -178,52 +184,95 @@ class GemIntelBroadcaster(
     }
 
     private fun chooseTargetGem(recipientLocation: Location): IntelTarget? {
-        val targets = gemManager.getAllGemLocations()
-            .mapNotNull { (gemId, location) ->
-                if (location.world == null) {
-                    null
-                } else {
-                    IntelTarget(gemId, location.clone())
-                }
-            }
-            .filter { target ->
-                if (minDistanceFromRecipient <= 0) {
-                    return@filter true
-                }
-                if (recipientLocation.world != target.location.world) {
-                    return@filter true
-                }
-                recipientLocation.distance(target.location) >= minDistanceFromRecipient
+        val snapshot = clusterSnapshot()
+        val recipientWorld = recipientLocation.world?.uid
+        val minDistanceSquared = minDistanceFromRecipient * minDistanceFromRecipient
+        val candidates = ArrayList<Int>(snapshot.targets.size)
+        for ((index, target) in snapshot.targets.withIndex()) {
+            val position = target.position
+            if (minDistanceFromRecipient > 0 && position.worldId == recipientWorld) {
+                val dx = position.x - recipientLocation.x
+                val dy = position.y - recipientLocation.y
+                val dz = position.z - recipientLocation.z
+                if (dx * dx + dy * dy + dz * dz < minDistanceSquared) continue
             }
-        if (targets.isEmpty()) {
+            candidates.add(index)
+        }
+        if (candidates.isEmpty()) {
             return null
         }
 
-        val weighted = targets.map { target -> target to weightFor(target, targets) }
-        val totalWeight = weighted.sumOf { it.second }
+        val weights = DoubleArray(candidates.size) { weightFor(snapshot, candidates[it]) }
+        val totalWeight = weights.sum()
         if (totalWeight <= 0.0) {
-            return targets[random.nextInt(targets.size)]
+            return snapshot.targets[candidates[random.nextInt(candidates.size)]]
         }
         var roll = random.nextDouble() * totalWeight
-        for ((target, weight) in weighted) {
-            roll -= weight
+        for (i in candidates.indices) {
+            roll -= weights[i]
             if (roll <= 0.0) {
-                return target
+                return snapshot.targets[candidates[i]]
             }
         }
-        return weighted.last().first
+        return snapshot.targets[candidates.last()]
+    }
+
+    private fun weightFor(snapshot: ClusterSnapshot, index: Int): Double {
+        val neighbors = snapshot.neighbors ?: return 1.0
+        return 1.0 + max(0, neighbors[index] - 1) * (clusterMultiplier - 1.0)
     }
 
-    private fun weightFor(target: IntelTarget, allTargets: List<IntelTarget>): Double {
-        if (!clusterBiasEnabled || clusterMultiplier <= 1.0) {
-            return 1.0
+    /** 放置宝石与聚集度的快照，只在放置状态或聚集半径变化后重建。 */
+    private fun clusterSnapshot(): ClusterSnapshot {
+        val version = gemManager.placementVersion
+        val counted = clusterBiasEnabled && clusterMultiplier > 1.0
+        val cached = clusterSnapshot
+        if (cached != null &&
+            cached.version == version &&
+            cached.radius == clusterRadius &&
+            (cached.neighbors != null) == counted
+        ) {
+            return cached
         }
-        val radiusSquared = clusterRadius * clusterRadius
-        val nearbyCount = allTargets.count { other ->
-            other.location.world == target.location.world &&
-                other.location.distanceSquared(target.location) <= radiusSquared
+        val targets = gemManager.placedGemPositions().map { (gemId, position) -> IntelTarget(gemId, position) }
+        val neighbors = if (counted) clusterNeighborCounts(targets.map { it.position }, clusterRadius) else null
+        return ClusterSnapshot(version, clusterRadius, targets, neighbors).also { clusterSnapshot = it }
+    }
+
+    /**
+     * 每个位置 [radius] 内（含自身）的宝石数量。按边长为 [radius] 的网格分桶，
+     * 只与相邻 3×3 个格子里的宝石比较距离，而不是两两比较全部宝石。
+     */
+    private fun clusterNeighborCounts(positions: List<BlockPosition>, radius: Double): IntArray {
+        val counts = IntArray(positions.size)
+        val cells = HashMap<Triple<UUID, Long, Long>, MutableList<Int>>()
+        for ((index, position) in positions.withIndex()) {
+            val cellX = floor(position.x / radius).toLong()
+            val cellZ = floor(position.z / radius).toLong()
+            val cell = Triple(position.worldId, cellX, cellZ)
+            cells.getOrPut(cell) { ArrayList() }.add(index)
         }
-        return 1.0 + max(0, nearbyCount - 1) * (clusterMultiplier - 1.0)
+        val radiusSquared = radius * radius
+        for ((cell, members) in cells) {
+            for (dx in -1L..1L) {
+                for (dz in -1L..1L) {
+                    val neighbors = cells[Triple(cell.first, cell.second + dx, cell.third + dz)] ?: continue
+                    for (index in members) {
+                        val position = positions[index]
+                        for (other in neighbors) {
+                            val target = positions[other]
+                            val ox = (target.x - position.x).toDouble()
+                            val oy = (target.y - position.y).toDouble()
+                            val oz = (target.z - position.z).toDouble()
+                            if (ox * ox + oy * oy + oz * oz <= radiusSquared) {
+                                counts[index]++
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return counts
     }
 
     private fun buildMessage(target: IntelTarget): String? {
@@ -232,12 +281,12 @@ class GemIntelBroadcaster(
         val placeholders = HashMap<String, String>()
         placeholders["color"] = ""
         placeholders["label"] = labelForGem(target.gemId)
-        placeholders["world"] = target.location.world?.name ?: "unknown"
+        placeholders["world"] = target.position.worldName
 
         val body = when (axis) {
-            "x" -> axisRangeMessage("X", target.location.blockX, placeholders)
-            "y" -> axisRangeMessage("Y", target.location.blockY, placeholders)
-            "z" -> axisRangeMessage("Z", target.location.blockZ, placeholders)
+            "x" -> axisRangeMessage("X", target.position.x, placeholders)
+            "y" -> axisRangeMessage("Y", target.position.y, placeholders)
+            "z" -> axisRangeMessage("Z", target.position.z, placeholders)
             else -> null
         }
         return if (body == null) null else color + body
@@ -376,7 +425,14 @@ class GemIntelBroadcaster(
 
     private class IntelTarget(
         val gemId: UUID,
-        val location: Location,
+        val position: BlockPosition,
+    )
+
+    private class ClusterSnapshot(
+        val version: Long,
+        val radius: Double,
+        val targets: List<IntelTarget>,
+        val neighbors: IntArray?,
     )
 
     companion object {
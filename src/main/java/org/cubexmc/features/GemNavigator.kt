@@ -3,7 +3,6 @@ package org.cubexmc.features
 import org.bukkit.Bukkit
 import org.bukkit.Location
 import org.bukkit.Material
-import org.bukkit.World
 import org.bukkit.configuration.file.YamlConfiguration
 import org.bukkit.entity.Player
 import org.bukkit.event.EventHandler
@@ -15,6 +14,7 @@ import org.bukkit.event.player.PlayerQuitEvent
 import org.bukkit.inventory.EquipmentSlot
 import org.cubexmc.RuleGems
 import org.cubexmc.manager.GemManager
+import org.cubexmc.manager.NearestGem
 import org.cubexmc.utils.ColorUtils
 import org.cubexmc.utils.SchedulerUtil
 import java.io.File
@@ -144,14 +144,13 @@ class GemNavigator(
 
         if (result == null) {
             cancelNavigationSession(player, true)
-            val msg = plugin.languageManager.formatMessage("feature.navigate.no_gem_found", null) ?: ""
-            player.sendMessage(ColorUtils.translateColorCodes(msg) ?: "")
-            return
-        }
-
-        if (maxRange > 0 && result.distance > maxRange) {
-            cancelNavigationSession(player, true)
-            val msg = plugin.languageManager.formatMessage("feature.navigate.out_of_range", null) ?: ""
+            // 查询已按 max_range 剪枝；不限距离能找到未被持有的放置宝石时，才说明只是超出范围。
+            val key = if (maxRange > 0 && gemManager.findNearestPlacedGem(playerLoc, Double.MAX_VALUE) != null) {
+                "feature.navigate.out_of_range"
+            } else {
+                "feature.navigate.no_gem_found"
+            }
+            val msg = plugin.languageManager.formatMessage(key, null) ?: ""
             player.sendMessage(ColorUtils.translateColorCodes(msg) ?: "")
             return
         }
@@ -173,7 +172,7 @@ class GemNavigator(
         }
     }
 
-    private fun applyCompassTarget(player: Player, result: NearestGemResult) {
+    private fun applyCompassTarget(player: Player, result: NearestGem) {
         val playerId = player.uniqueId
         val previousSession = navigationSessions.remove(playerId)
         if (previousSession != null) {
@@ -331,35 +330,10 @@ class GemNavigator(
     }
 
     /**
-     * 找到最近的宝石位置
+     * 找到最近的未被持有的宝石，距离超过 max_range 的宝石直接剪枝
      */
-    private fun findNearestGem(playerLoc: Location): NearestGemResult? {
-        var nearest: Location? = null
-        var nearestGemId: UUID? = null
-        var nearestDist = Double.MAX_VALUE
-        val playerWorld: World? = playerLoc.world
-
-        val gemLocations = gemManager.getAllGemLocations()
-
-        for ((gemId, gemLoc) in gemLocations) {
-            if (gemManager.getGemHolder(gemId) != null) continue
-
-            if (gemLoc.world != playerWorld) {
-                continue
-            }
-
-            val dist = playerLoc.distance(gemLoc)
-            if (dist < nearestDist) {
-                nearestDist = dist
-                nearest = gemLoc
-                nearestGemId = gemId
-            }
-        }
-
-        val location = nearest ?: return null
-        val gemId = nearestGemId ?: return null
-        return NearestGemResult(gemId, location, nearestDist)
-    }
+    private fun findNearestGem(playerLoc: Location): NearestGem? =
+        gemManager.findNearestPlacedGem(playerLoc, if (maxRange > 0) maxRange else Double.MAX_VALUE)
 
     /**
      * 获取方向描述
@@ -390,15 +364,6 @@ class GemNavigator(
         }
     }
 
-    /**
-     * 最近宝石结果
-     */
-    private class NearestGemResult(
-        val gemId: UUID,
-        val location: Location,
-        val distance: Double,
-    )
-
     private class CompassSession(
         val id: Long,
         val originalTarget: Location,
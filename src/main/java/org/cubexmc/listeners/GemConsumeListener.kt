@@ -175,12 +175,12 @@ class GemConsumeListener(
                 }
 
                 // 检查手中物品是否还是同一个宝石
-                val currentItem = player.inventory.itemInMainHand
-                if (!gemManager.isRuleGem(currentItem)) {
+                val current = gemManager.inspectItem(player.inventory.itemInMainHand)
+                if (!current.flagged) {
                     cancelConsuming(player, true)
                     return@entityRun
                 }
-                val currentGemId = gemManager.getGemUUID(currentItem)
+                val currentGemId = current.gemId
                 if (progress.gemId != null && progress.gemId != currentGemId) {
                     cancelConsuming(player, true)
                     return@entityRun
@@ -4,6 +4,7 @@ import org.bukkit.entity.Player
 import org.bukkit.event.EventHandler
 import org.bukkit.event.Listener
 import org.bukkit.event.inventory.ClickType
+import org.bukkit.event.inventory.InventoryAction
 import org.bukkit.event.inventory.InventoryClickEvent
 import org.bukkit.event.inventory.InventoryDragEvent
 import org.bukkit.event.inventory.InventoryMoveItemEvent
@@ -12,6 +13,7 @@ import org.bukkit.event.player.PlayerItemHeldEvent
 import org.bukkit.inventory.ItemStack
 import org.cubexmc.manager.GemManager
 import org.cubexmc.manager.LanguageManager
+import java.util.EnumSet
 import java.util.UUID
 
 class GemInventoryListener(
@@ -31,10 +33,15 @@ class GemInventoryListener(
                 break
             }
         }
-        // 背包即生效：实时重算
+        // 背包即生效：只重读这次拖拽落到玩家背包里的格子
         val player = event.whoClicked
+        if (player is Player) gemManager.noteInventoryChanged(player)
         if (gemManager.isInventoryGrantsEnabled && player is Player) {
-            gemManager.recalculateGrants(player)
+            val view = event.view
+            val slots = event.rawSlots
+                .filter { rawSlot -> view.getInventory(rawSlot) == player.inventory }
+                .map { rawSlot -> view.convertSlot(rawSlot) }
+            gemManager.refreshGrantSlots(player, slots)
         }
     }
 
@@ -102,18 +109,16 @@ class GemInventoryListener(
             }
         }
 
-        // 背包即生效：实时重算
+        gemManager.noteInventoryChanged(player)
+        // 背包即生效：只重读这次点击改动的格子
         if (gemManager.isInventoryGrantsEnabled) {
-            gemManager.recalculateGrants(player)
+            gemManager.refreshGrantSlots(player, affectedPlayerSlots(event, player))
         }
     }
 
     @EventHandler
     fun onItemHeld(event: PlayerItemHeldEvent) {
-        if (gemManager.isInventoryGrantsEnabled) {
-            gemManager.recalculateGrants(event.player)
-        }
-
+        // 切换手持格不改变背包内容，inventory_grants 无需重算。
         val player = event.player
         val nextItem = player.inventory.getItem(event.newSlot)
         if (!gemManager.isRuleGem(nextItem)) {
@@ -157,11 +162,27 @@ class GemInventoryListener(
         }
     }
 
+    /** 这次点击可能改动的玩家背包格子；shift 点击、双击收集等可能改动任意格时返回 null。 */
+    private fun affectedPlayerSlots(event: InventoryClickEvent, player: Player): Collection<Int>? {
+        if (event.action in FULL_RESCAN_ACTIONS) return null
+        val slots = ArrayList<Int>(2)
+        if (event.clickedInventory == player.inventory) slots.add(event.slot)
+        if (event.click == ClickType.NUMBER_KEY && event.hotbarButton >= 0) slots.add(event.hotbarButton)
+        if (event.click == ClickType.SWAP_OFFHAND) slots.add(OFFHAND_SLOT)
+        return slots
+    }
+
     private fun stashesGemIntoContainerItem(currentItem: ItemStack?, cursorItem: ItemStack?): Boolean =
         (gemManager.isContainerItem(currentItem) && gemManager.containsGem(cursorItem)) ||
             (gemManager.isContainerItem(cursorItem) && gemManager.containsGem(currentItem))
 
     companion object {
         private const val HINT_COOLDOWN_MS = 8000L
+        private const val OFFHAND_SLOT = 40
+        private val FULL_RESCAN_ACTIONS: Set<InventoryAction> = EnumSet.of(
+            InventoryAction.MOVE_TO_OTHER_INVENTORY,
+            InventoryAction.COLLECT_TO_CURSOR,
+            InventoryAction.UNKNOWN,
+        )
     }
 }
@@ -0,0 +1,46 @@
+package org.cubexmc.listeners
+
+import org.bukkit.event.EventHandler
+import org.bukkit.event.EventPriority
+import org.bukkit.event.Listener
+import org.bukkit.event.player.PlayerJoinEvent
+import org.bukkit.event.player.PlayerMoveEvent
+import org.bukkit.event.player.PlayerQuitEvent
+import org.bukkit.event.player.PlayerRespawnEvent
+import org.bukkit.event.player.PlayerTeleportEvent
+import org.cubexmc.manager.GemManager
+
+/**
+ * 把玩家位置变化交给靠近提示音追踪器；只有跨过方块边界的移动才会触发一次空间索引查询。
+ */
+class GemProximityListener(private val gemManager: GemManager) : Listener {
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onPlayerMove(event: PlayerMoveEvent) {
+        val from = event.from
+        val to = event.to ?: return
+        if (from.blockX == to.blockX && from.blockY == to.blockY && from.blockZ == to.blockZ && from.world == to.world) {
+            return
+        }
+        gemManager.handleProximityMove(event.player, to)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onPlayerTeleport(event: PlayerTeleportEvent) {
+        gemManager.handleProximityMove(event.player, event.to)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    fun onPlayerRespawn(event: PlayerRespawnEvent) {
+        gemManager.handleProximityMove(event.player, event.respawnLocation)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    fun onPlayerJoin(event: PlayerJoinEvent) {
+        gemManager.checkPlayerNearRuleGems(event.player)
+    }
+
+    @EventHandler
+    fun onPlayerQuit(event: PlayerQuitEvent) {
+        gemManager.forgetProximity(event.player)
+    }
+}
@@ -31,7 +31,7 @@ class PlayerEventListener(
         if (event.isCancelled) return
         gemManager.handleGemDrop(event.player, event.itemDrop.location, event.itemDrop, event.itemDrop.itemStack)
         if (gemManager.isInventoryGrantsEnabled) {
-            gemManager.recalculateGrants(event.player)
+            gemManager.queueGrantRecalculation(event.player)
         }
     }
 
@@ -39,16 +39,13 @@ class PlayerEventListener(
     fun onPlayerDeath(event: PlayerDeathEvent) {
         gemManager.handlePlayerDeathDrops(event.entity, event.entity.location, event.drops)
         if (gemManager.isInventoryGrantsEnabled) {
-            gemManager.recalculateGrants(event.entity)
+            gemManager.queueGrantRecalculation(event.entity)
         }
     }
 
     @EventHandler
     fun onPlayerJoin(event: PlayerJoinEvent) {
         gemManager.handlePlayerJoin(event.player)
-        if (gemManager.isInventoryGrantsEnabled) {
-            gemManager.recalculateGrants(event.player)
-        }
         // 通知功能管理器
         plugin.featureManager?.onPlayerJoin(event.player)
     }
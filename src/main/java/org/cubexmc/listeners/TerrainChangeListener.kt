@@ -0,0 +1,112 @@
+package org.cubexmc.listeners
+
+import org.bukkit.block.Block
+import org.bukkit.event.EventHandler
+import org.bukkit.event.EventPriority
+import org.bukkit.event.Listener
+import org.bukkit.event.block.BlockBreakEvent
+import org.bukkit.event.block.BlockBurnEvent
+import org.bukkit.event.block.BlockExplodeEvent
+import org.bukkit.event.block.BlockFadeEvent
+import org.bukkit.event.block.BlockFormEvent
+import org.bukkit.event.block.BlockFromToEvent
+import org.bukkit.event.block.BlockPistonEvent
+import org.bukkit.event.block.BlockPistonExtendEvent
+import org.bukkit.event.block.BlockPistonRetractEvent
+import org.bukkit.event.block.BlockPlaceEvent
+import org.bukkit.event.block.LeavesDecayEvent
+import org.bukkit.event.entity.EntityChangeBlockEvent
+import org.bukkit.event.entity.EntityExplodeEvent
+import org.bukkit.event.world.StructureGrowEvent
+import org.cubexmc.manager.GemManager
+
+/**
+ * 地形变化时作废散落/逃逸取点缓存中受影响的列，避免按过期的列高度挑选落点。
+ *
+ * 覆盖玩家放置/破坏、燃烧、爆炸、活塞推拉、流体流动、实体改变方块（末影人、下落方块、凋灵等）、
+ * 树叶凋落、方块消退/生成（含蔓延）以及树木/巨型蘑菇生长。
+ */
+class TerrainChangeListener(private val gemManager: GemManager) : Listener {
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onBlockPlace(event: BlockPlaceEvent) {
+        gemManager.invalidateTerrainColumn(event.blockPlaced)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onBlockBreak(event: BlockBreakEvent) {
+        gemManager.invalidateTerrainColumn(event.block)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onBlockBurn(event: BlockBurnEvent) {
+        gemManager.invalidateTerrainColumn(event.block)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onBlockExplode(event: BlockExplodeEvent) {
+        for (block in event.blockList()) {
+            gemManager.invalidateTerrainColumn(block)
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onEntityExplode(event: EntityExplodeEvent) {
+        for (block in event.blockList()) {
+            gemManager.invalidateTerrainColumn(block)
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onPistonExtend(event: BlockPistonExtendEvent) {
+        invalidateMoved(event.blocks, event)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onPistonRetract(event: BlockPistonRetractEvent) {
+        invalidateMoved(event.blocks, event)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onFluidFlow(event: BlockFromToEvent) {
+        gemManager.invalidateTerrainColumn(event.toBlock)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onEntityChangeBlock(event: EntityChangeBlockEvent) {
+        gemManager.invalidateTerrainColumn(event.block)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onLeavesDecay(event: LeavesDecayEvent) {
+        gemManager.invalidateTerrainColumn(event.block)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onBlockFade(event: BlockFadeEvent) {
+        gemManager.invalidateTerrainColumn(event.block)
+    }
+
+    /** 也覆盖其子类 BlockSpreadEvent、EntityBlockFormEvent。 */
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onBlockForm(event: BlockFormEvent) {
+        gemManager.invalidateTerrainColumn(event.block)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    fun onStructureGrow(event: StructureGrowEvent) {
+        for (state in event.blocks) {
+            gemManager.invalidateTerrainColumn(state.block)
+        }
+    }
+
+    /** 活塞推拉：被移动方块的原列、两侧相邻列（推出或拉回的目标）以及活塞头所在列都可能改变高度。 */
+    private fun invalidateMoved(blocks: List<Block>, event: BlockPistonEvent) {
+        val direction = event.direction
+        gemManager.invalidateTerrainColumn(event.block.getRelative(direction))
+        for (block in blocks) {
+            gemManager.invalidateTerrainColumn(block)
+            gemManager.invalidateTerrainColumn(block.getRelative(direction))
+            gemManager.invalidateTerrainColumn(block.getRelative(direction.oppositeFace))
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package org.cubexmc.listeners
 
 import org.bukkit.event.EventHandler
+import org.bukkit.event.EventPriority
 import org.bukkit.event.Listener
+import org.bukkit.event.world.ChunkLoadEvent
+import org.bukkit.event.world.ChunkUnloadEvent
 import org.bukkit.event.world.WorldLoadEvent
 import org.cubexmc.manager.GemManager
 
@@ -10,10 +13,22 @@ import org.cubexmc.manager.GemManager
  *
  * 处理 Multiverse / MultiWorld 等在本插件之后才载入世界的场景：
  * 此前这些宝石会被丢弃，并被 ensureConfiguredGemsPresent 误判为缺失而复制一颗。
+ * 区块加载则用来给逃逸落点池补充落点，补充时不会再额外加载任何区块。
+ * 区块加载、卸载时其中的宝石记入托管变更日志，由下一轮审计复查。
  */
 class WorldLoadListener(private val gemManager: GemManager) : Listener {
     @EventHandler
     fun onWorldLoad(event: WorldLoadEvent) {
         gemManager.handleWorldLoad(event.world)
     }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    fun onChunkLoad(event: ChunkLoadEvent) {
+        gemManager.handleChunkLoad(event.chunk)
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    fun onChunkUnload(event: ChunkUnloadEvent) {
+        gemManager.handleChunkUnload(event.chunk)
+    }
 }
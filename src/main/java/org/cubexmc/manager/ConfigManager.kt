@@ -9,6 +9,8 @@ import org.cubexmc.RuleGems
 import org.cubexmc.model.AllowedCommand
 import org.cubexmc.model.AppointDefinition
 import org.cubexmc.model.PowerStructure
+import org.cubexmc.storage.BinaryStorageProvider
+import org.cubexmc.storage.JournalStorageProvider
 import org.cubexmc.storage.SqliteStorageProvider
 import org.cubexmc.storage.StorageException
 import org.cubexmc.storage.StorageLoadResult
@@ -119,7 +121,25 @@ class ConfigManager(
         getStorageProvider().initialize()
     }
 
-    fun saveGemData(data: FileConfiguration): StorageSaveResult = getStorageProvider().saveGemData(data)
+    /** [changedRoots] names the root keys that may have changed since the last successful save; null means unknown. */
+    fun saveGemData(data: FileConfiguration, changedRoots: Set<String>?): StorageSaveResult =
+        getStorageProvider().saveGemData(data, changedRoots)
+
+    /**
+     * Writes [data] to data/gems.export.yml so operators can inspect binary,
+     * journal or SQLite data as plain YAML. The caller supplies an in-memory
+     * snapshot; the store is not read, so provider-side imports never run here.
+     */
+    fun exportGemDataToYaml(data: FileConfiguration): File {
+        val target = File(File(plugin.dataFolder, "data"), "gems.export.yml")
+        target.parentFile?.mkdirs()
+        data.save(target)
+        return target
+    }
+
+    fun closeStorage() {
+        storageProvider?.close()
+    }
 
     /**
      * Writes a provider-independent recovery file without touching the primary
@@ -240,6 +260,8 @@ class ConfigManager(
     }
 
     private fun initStorageProvider() {
+        storageProvider?.close()
+        storageProvider = null
         var type = config?.getString("storage.type", "yaml") ?: "yaml"
         if (type.isBlank()) {
             type = "yaml"
@@ -248,6 +270,14 @@ class ConfigManager(
             storageProvider = SqliteStorageProvider(plugin, config)
             return
         }
+        if ("journal".equals(type, ignoreCase = true)) {
+            storageProvider = JournalStorageProvider(plugin, config)
+            return
+        }
+        if ("binary".equals(type, ignoreCase = true)) {
+            storageProvider = BinaryStorageProvider(plugin)
+            return
+        }
         if (!"yaml".equals(type, ignoreCase = true)) {
             plugin.logger.warning("storage.type '$type' is not supported. Falling back to YAML storage.")
         }
@@ -122,6 +122,19 @@ class GameplayConfig {
     var effectRefreshIntervalTicks = EffectConfig.DEFAULT_REFRESH_INTERVAL_TICKS
         private set
 
+    // ==================== 保存合并 ====================
+    /** 增量保存请求最多延迟多少 tick 写出；0 表示不合并。 */
+    var saveCoalesceMaxDelayTicks = 10L
+        private set
+    /** 挂起请求达到该数量时立即写出。 */
+    var saveCoalesceMaxPending = 64
+        private set
+
+    // ==================== 历史记录 ====================
+    /** 是否额外写入 history/events 下的结构化 JSONL 事件。 */
+    var isStructuredHistoryEnabled = false
+        private set
+
     // ==================== 安全 ====================
     var isOpEscalationAllowed = false
         private set
@@ -324,6 +337,14 @@ class GameplayConfig {
         effectDurationTicks = EffectConfig.durationTicks
         effectRefreshIntervalTicks = EffectConfig.refreshIntervalTicks
 
+        // 保存合并（毫秒填写，向上取整为 tick）
+        val coalesceSection = config.getConfigurationSection("storage.save_coalescing")
+        val maxDelayMillis = (coalesceSection?.getLong("max_delay_ms", 500L) ?: 500L).coerceIn(0L, 60_000L)
+        saveCoalesceMaxDelayTicks = (maxDelayMillis + 49L) / 50L
+        saveCoalesceMaxPending = (coalesceSection?.getInt("max_pending", 64) ?: 64).coerceAtLeast(1)
+
+        isStructuredHistoryEnabled = config.getBoolean("history.structured_log", false)
+
         // 安全配置
         isOpEscalationAllowed = config.getBoolean("allow_op_escalation", false)
         isTransferDirectivesEnabled =
@@ -51,6 +51,9 @@ class GemAllowanceManager(
 
     private val dirty = AtomicBoolean()
 
+    /** Save revision of the `allowed_uses` root; bumped with every counter change. */
+    val saveRevisions = SaveSectionRevisions(SAVE_ROOT_KEY)
+
     private val labelIndexCache: MutableMap<UUID, Set<String>> = ConcurrentHashMap()
     private val labelIndexDirtyPlayers: MutableSet<UUID> = ConcurrentHashMap.newKeySet()
 
@@ -87,9 +90,11 @@ class GemAllowanceManager(
         playerAppointmentAllowedUses.clear()
         labelIndexCache.clear()
         labelIndexDirtyPlayers.clear()
+        saveRevisions.markAllDirty()
     }
 
     fun loadData(gemsData: FileConfiguration) {
+        saveRevisions.markAllDirty()
         val allowedUses = gemsData.getConfigurationSection("allowed_uses") ?: return
         for (playerId in allowedUses.getKeys(false)) {
             try {
@@ -166,6 +171,10 @@ class GemAllowanceManager(
         if (perSource.isNotEmpty()) target[uid] = perSource
     }
 
+    fun populateSaveSection(rootKey: String, snapshot: MutableMap<String, Any?>) {
+        if (rootKey == SAVE_ROOT_KEY) populateSaveSnapshot(snapshot)
+    }
+
     fun populateSaveSnapshot(snapshot: MutableMap<String, Any?>) {
         for ((playerId, byGem) in playerGemHeldUses) {
             val base = "allowed_uses.$playerId"
@@ -206,6 +215,7 @@ class GemAllowanceManager(
         playerGlobalAllowedUses.remove(uid)
         playerAppointmentAllowedUses.remove(uid)
         invalidateLabelIndex(uid)
+        saveRevisions.markAllDirty()
     }
 
     fun removeRedeemInstanceAllowance(uid: UUID?, gemId: UUID?) {
@@ -865,6 +875,7 @@ class GemAllowanceManager(
 
     private fun markDirty(uid: UUID?) {
         dirty.set(true)
+        saveRevisions.markAllDirty()
         invalidateLabelIndex(uid)
     }
 
@@ -893,5 +904,6 @@ class GemAllowanceManager(
 
     companion object {
         private val ROOT_LOCALE: Locale = Locale.ROOT
+        private const val SAVE_ROOT_KEY = "allowed_uses"
     }
 }
@@ -0,0 +1,90 @@
+package org.cubexmc.manager
+
+import org.bukkit.Location
+import org.bukkit.World
+import java.util.UUID
+
+/**
+ * 随机散落与逃逸取点用的列高度缓存。
+ *
+ * 记录已采样列的最高方块 Y 以及该列是否因地形原因（越出世界高度、落点是实体方块或液体）被拒绝过，
+ * 重试时不必再为同一列调用 `getHighestBlockYAt`、更不必为已知无效的列加载区块。
+ * 容量有上限，按最近使用淘汰；列内方块变化时由 [invalidate] 作废。
+ * 只缓存与宝石无关的地形事实——支撑方块、被其他宝石占用等条件仍在落位时逐次校验。
+ */
+class GemColumnCache(private val capacity: Int = DEFAULT_CAPACITY) {
+    private data class Column(val worldId: UUID, val x: Int, val z: Int)
+
+    class Sample(val highestY: Int, val usable: Boolean)
+
+    private val columns = object : LinkedHashMap<Column, Sample>(INITIAL_SIZE, LOAD_FACTOR, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Column, Sample>?): Boolean = size > capacity
+    }
+
+    val size: Int
+        get() = synchronized(columns) { columns.size }
+
+    fun lookup(worldId: UUID, x: Int, z: Int): Sample? = synchronized(columns) { columns[Column(worldId, x, z)] }
+
+    /** 已缓存时直接返回高度，否则采样并记录。必须在 (x, z) 所属区域线程调用。 */
+    fun highestY(world: World, x: Int, z: Int): Int {
+        lookup(world.uid, x, z)?.let { return it.highestY }
+        val y = world.getHighestBlockYAt(x, z)
+        synchronized(columns) {
+            columns.putIfAbsent(Column(world.uid, x, z), Sample(y, true))
+        }
+        return y
+    }
+
+    /** 该列的落点因地形原因不可用；之后的候选挑选会直接跳过它。 */
+    fun markUnusable(world: World, x: Int, z: Int, highestY: Int) {
+        synchronized(columns) {
+            columns[Column(world.uid, x, z)] = Sample(highestY, false)
+        }
+    }
+
+    fun invalidate(worldId: UUID, x: Int, z: Int) {
+        synchronized(columns) {
+            if (columns.isEmpty()) return
+            columns.remove(Column(worldId, x, z))
+        }
+    }
+
+    fun clear() {
+        synchronized(columns) { columns.clear() }
+    }
+
+    /**
+     * 从 [sampler] 抽取至多 [samples] 个候选列并挑一个：已缓存且可用的列立即返回；
+     * 其次是区块已加载的未知列；最后才退回第一个需要加载区块的未知列。已知不可用的列直接丢弃。
+     */
+    fun pickColumn(samples: Int, sampler: () -> Location?): Location? {
+        var loaded: Location? = null
+        var unloaded: Location? = null
+        repeat(samples.coerceAtLeast(1)) {
+            val candidate = sampler() ?: return@repeat
+            val world = candidate.world ?: return@repeat
+            val sample = lookup(world.uid, candidate.blockX, candidate.blockZ)
+            if (sample != null) {
+                if (sample.usable) return candidate
+                return@repeat
+            }
+            val chunkX = candidate.blockX shr CHUNK_BITS
+            val chunkZ = candidate.blockZ shr CHUNK_BITS
+            if (loaded == null && world.isChunkLoaded(chunkX, chunkZ)) {
+                loaded = candidate
+            } else if (unloaded == null) {
+                unloaded = candidate
+            }
+        }
+        return loaded ?: unloaded
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 4096
+        const val DEFAULT_SAMPLES = 4
+        private const val CHUNK_BITS = 4
+        private const val INITIAL_SIZE = 256
+        private const val LOAD_FACTOR = 0.75f
+    }
+}
@@ -1,6 +1,7 @@
 package org.cubexmc.manager
 
 import org.bukkit.Location
+import org.bukkit.World
 import org.bukkit.entity.Player
 import org.bukkit.event.inventory.InventoryType
 import org.bukkit.inventory.Inventory
@@ -9,6 +10,7 @@ import org.cubexmc.gui.GUIHolder
 import org.cubexmc.utils.SchedulerUtil
 import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
 /**
  * 托管审计：保证"每颗宝石要么在世界某一格，要么在某个在线玩家背包里"这条不变量。
@@ -17,15 +19,20 @@ import java.util.concurrent.ConcurrentHashMap
  * 但事件总有枚举不到的路径——新版本的方块、其它插件用 API 直接搬运物品、服务端崩溃留下的半截状态。
  * 审计不关心宝石"是怎么跑掉的"，只关心"现在状态对不对"，因此对未知路径同样有效。
  *
- * 纠正前要求同一异常**连续观察到两轮**：拾取、逃逸这些操作存在极短的中间态
- * （持有者已设置但坐标尚未解绑），一次性判定会误伤正常流程。
+ * 审计按 [ROUND_TICKS] 一轮增量进行：只检查 [GemCustodyJournal] 记下的宝石与背包变动过的持有者，
+ * 再顺带推进一段全量巡检（每轮至多 [SWEEP_SLICE] 颗，每 [FULL_SWEEP_ROUNDS] 轮起一遍），
+ * 兜住不产生任何事件的改动。同一持有者的多颗宝石只读一次背包。单轮开销有上限，不随宝石数和在线人数增长。
+ *
+ * 纠正前要求同一异常在相隔至少 [CONFIRM_ROUNDS] 轮的两次观察中都出现：拾取、逃逸这些操作存在中间态
+ * （持有者已设置但坐标尚未解绑，物品暂时在光标上），一次性判定会误伤正常流程。
  */
-class GemCustodyAuditor(
+class GemCustodyAuditor @JvmOverloads constructor(
     private val plugin: RuleGems,
     private val stateManager: GemStateManager,
     private val placementManager: GemPlacementManager,
     private val recovery: GemRecovery,
     private val saveAction: Runnable,
+    private val journal: GemCustodyJournal = GemCustodyJournal(),
 ) {
     fun interface GemRecovery {
         /** 把宝石收回世界；返回 true 表示这颗宝石归本插件管理。 */
@@ -46,29 +53,85 @@ class GemCustodyAuditor(
         DOUBLE_BOUND,
     }
 
-    private val suspects: MutableMap<UUID, Anomaly> = ConcurrentHashMap()
+    private class Suspect(val anomaly: Anomaly, val firstRound: Long)
+
+    private class HolderCheck(val holder: Player) {
+        val gemIds: MutableSet<UUID> = LinkedHashSet()
+    }
+
+    private val suspects: MutableMap<UUID, Suspect> = ConcurrentHashMap()
+    private val round = AtomicLong()
+    private val sweepQueue = ArrayDeque<UUID>()
+    private var lastSweepRound = Long.MIN_VALUE / 2
 
     @Volatile
     private var task: Any? = null
 
     fun start() {
         stop()
-        task = SchedulerUtil.globalRun(plugin, { runAudit() }, INITIAL_DELAY_TICKS, INTERVAL_TICKS)
+        task = SchedulerUtil.globalRun(plugin, { runRound() }, INITIAL_DELAY_TICKS, ROUND_TICKS)
     }
 
     fun stop() {
         SchedulerUtil.cancelTask(task)
         task = null
         suspects.clear()
+        synchronized(sweepQueue) {
+            sweepQueue.clear()
+            lastSweepRound = Long.MIN_VALUE / 2
+        }
+    }
+
+    /** 持有者的背包变动过（点击、拖拽等）。 */
+    fun noteInventoryChanged(playerId: UUID?) {
+        journal.markHolder(playerId)
     }
 
+    /** 区块加载或卸载：其中放置的宝石下一轮复查。 */
+    fun noteChunkChanged(world: World?, chunkX: Int, chunkZ: Int) {
+        for (gemId in stateManager.placedGemsInChunk(world, chunkX, chunkZ)) {
+            journal.markGem(gemId)
+        }
+    }
+
+    /** 立即完整审计一遍所有宝石；一次完整审计视作跨过了一个确认间隔。 */
     fun runAudit() {
-        for (gemId in stateManager.getAllGemUuids()) {
-            inspect(gemId)
+        round.addAndGet(CONFIRM_ROUNDS)
+        inspectAll(stateManager.getAllGemUuids(), emptySet())
+    }
+
+    /** 增量审计一轮：变更日志、到期复查的嫌疑、一段全量巡检。 */
+    fun runRound() {
+        val now = round.incrementAndGet()
+        val gemIds = LinkedHashSet<UUID>()
+        journal.drainGems(MAX_JOURNAL_GEMS, gemIds)
+        for ((gemId, suspect) in suspects) {
+            if (now - suspect.firstRound >= CONFIRM_ROUNDS) gemIds.add(gemId)
+        }
+        synchronized(sweepQueue) {
+            if (sweepQueue.isEmpty() && now - lastSweepRound >= FULL_SWEEP_ROUNDS) {
+                sweepQueue.addAll(stateManager.getAllGemUuids())
+                lastSweepRound = now
+            }
+            repeat(minOf(SWEEP_SLICE, sweepQueue.size)) { gemIds.add(sweepQueue.removeFirst()) }
         }
+        inspectAll(gemIds, journal.drainHolders(MAX_JOURNAL_HOLDERS))
     }
 
-    private fun inspect(gemId: UUID) {
+    private fun inspectAll(gemIds: Collection<UUID>, changedHolders: Set<UUID>) {
+        val checks = LinkedHashMap<UUID, HolderCheck>()
+        for (gemId in gemIds) {
+            classify(gemId, checks)
+        }
+        for (gemId in stateManager.heldGemIds(changedHolders)) {
+            classify(gemId, checks)
+        }
+        for (check in checks.values) {
+            inspectHolder(check)
+        }
+    }
+
+    private fun classify(gemId: UUID, checks: MutableMap<UUID, HolderCheck>) {
         val holder = stateManager.getGemHolder(gemId)
         if (holder == null) {
             inspectUnheld(gemId)
@@ -78,16 +141,24 @@ class GemCustodyAuditor(
             flag(gemId, Anomaly.OFFLINE_HOLDER)
             return
         }
-        // 背包读取必须在该玩家所属线程上进行（Folia）。
+        checks.getOrPut(holder.uniqueId) { HolderCheck(holder) }.gemIds.add(gemId)
+    }
+
+    private fun inspectHolder(check: HolderCheck) {
+        val holder = check.holder
+        // 背包读取必须在该玩家所属线程上进行（Folia）；同一持有者的宝石共用一次深扫描。
         SchedulerUtil.entityRun(
             plugin,
             holder,
             {
-                if (stateManager.getGemHolder(gemId) !== holder) return@entityRun
-                when {
-                    !stateManager.playerHoldsGem(holder, gemId) -> flag(gemId, Anomaly.HOLDER_WITHOUT_ITEM)
-                    stateManager.getGemLocation(gemId) != null -> flag(gemId, Anomaly.DOUBLE_BOUND)
-                    else -> suspects.remove(gemId)
+                val carried = stateManager.carriedGemIds(holder)
+                for (gemId in check.gemIds) {
+                    if (stateManager.getGemHolder(gemId) !== holder) continue
+                    when {
+                        gemId !in carried -> flag(gemId, Anomaly.HOLDER_WITHOUT_ITEM)
+                        stateManager.getGemLocation(gemId) != null -> flag(gemId, Anomaly.DOUBLE_BOUND)
+                        else -> suspects.remove(gemId)
+                    }
                 }
             },
             0L,
@@ -110,7 +181,13 @@ class GemCustodyAuditor(
     }
 
     private fun flag(gemId: UUID, anomaly: Anomaly) {
-        if (suspects.put(gemId, anomaly) != anomaly) return
+        val now = round.get()
+        val suspect = suspects[gemId]
+        if (suspect == null || suspect.anomaly != anomaly) {
+            suspects[gemId] = Suspect(anomaly, now)
+            return
+        }
+        if (now - suspect.firstRound < CONFIRM_ROUNDS) return
         suspects.remove(gemId)
         correct(gemId, anomaly)
     }
@@ -182,7 +259,7 @@ class GemCustodyAuditor(
         var removed = 0
         for (slot in contents.indices) {
             val item = contents[slot] ?: continue
-            if (!stateManager.containsGem(item)) continue
+            if (!stateManager.containsGemThoroughly(item)) continue
             val removal = stateManager.stripUnownedGems(item, player.uniqueId)
             if (removal.removedCount == 0) continue
             inventory.setItem(slot, removal.item)
@@ -193,12 +270,24 @@ class GemCustodyAuditor(
                 )
             }
         }
-        if (removed > 0) saveAction.run()
+        if (removed > 0) {
+            stateManager.notifyInventoryEdited(player)
+            saveAction.run()
+        }
         return removed
     }
 
     companion object {
         private const val INITIAL_DELAY_TICKS = 20L * 30
-        private const val INTERVAL_TICKS = 20L * 60 * 5
+        private const val ROUND_TICKS = 20L
+
+        /** 两次观察至少相隔 30 秒才纠正。 */
+        private const val CONFIRM_ROUNDS = 30L
+
+        /** 约 5 分钟起一遍全量巡检（宝石多时一遍会跨更久）。 */
+        private const val FULL_SWEEP_ROUNDS = 300L
+        private const val SWEEP_SLICE = 8
+        private const val MAX_JOURNAL_GEMS = 32
+        private const val MAX_JOURNAL_HOLDERS = 8
     }
 }
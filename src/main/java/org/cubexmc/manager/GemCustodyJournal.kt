@@ -0,0 +1,56 @@
+package org.cubexmc.manager
+
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 托管变更日志 - 记录自上一轮审计以来可能改变了托管状态的宝石和持有者。
+ *
+ * 宝石放置/解绑、持有者变化、所在区块加载卸载时记下宝石；持有者背包变动时记下玩家。
+ * 审计每轮只取出有限数量，剩下的留到下一轮，单轮开销与宝石总数、在线人数无关。
+ */
+class GemCustodyJournal {
+    private val gems: MutableSet<UUID> = ConcurrentHashMap.newKeySet()
+    private val holders: MutableSet<UUID> = ConcurrentHashMap.newKeySet()
+
+    val pendingGems: Int
+        get() = gems.size
+
+    val pendingHolders: Int
+        get() = holders.size
+
+    fun markGem(gemId: UUID?) {
+        if (gemId != null) gems.add(gemId)
+    }
+
+    fun markHolder(playerId: UUID?) {
+        if (playerId != null) holders.add(playerId)
+    }
+
+    /** 取出至多 [limit] 颗宝石放进 [into]。 */
+    fun drainGems(limit: Int, into: MutableCollection<UUID>) {
+        drain(gems, limit, into)
+    }
+
+    /** 取出至多 [limit] 个持有者。 */
+    fun drainHolders(limit: Int): Set<UUID> {
+        val drained = LinkedHashSet<UUID>()
+        drain(holders, limit, drained)
+        return drained
+    }
+
+    fun clear() {
+        gems.clear()
+        holders.clear()
+    }
+
+    private fun drain(source: MutableSet<UUID>, limit: Int, into: MutableCollection<UUID>) {
+        var remaining = limit
+        val iterator = source.iterator()
+        while (remaining > 0 && iterator.hasNext()) {
+            into.add(iterator.next())
+            iterator.remove()
+            remaining--
+        }
+    }
+}
@@ -79,6 +79,9 @@ class GemEscapeCoordinator(
         Random(),
     )
 
+    /** Save revision of the `escape-state` root; see [SaveSectionRevisions]. */
+    val saveRevisions = SaveSectionRevisions(SAVE_ROOT_KEY)
+
     private val lastMovedAt: MutableMap<UUID, Long> = ConcurrentHashMap()
     private val failedRounds: MutableMap<UUID, Int> = ConcurrentHashMap()
     private val localEscapesWithoutPickup: MutableMap<UUID, Int> = ConcurrentHashMap()
@@ -95,6 +98,12 @@ class GemEscapeCoordinator(
 
     @Volatile
     private var nextCycleAtMillis = 0L
+        set(value) {
+            if (field != value) {
+                field = value
+                markSaveStateChanged()
+            }
+        }
 
     fun prepareReload() {
         initialized = false
@@ -105,6 +114,7 @@ class GemEscapeCoordinator(
         localEscapesWithoutPickup.clear()
         inProgress.clear()
         nextCycleAtMillis = 0L
+        markSaveStateChanged()
     }
 
     fun loadState(data: FileConfiguration?) {
@@ -132,6 +142,7 @@ class GemEscapeCoordinator(
                 localEscapesWithoutPickup[gemId] = localEscapes
             }
         }
+        markSaveStateChanged()
     }
 
     fun initialize() {
@@ -149,6 +160,7 @@ class GemEscapeCoordinator(
                 if (stored == null || stored <= 0L || stored > now) now else stored
             }
         }
+        markSaveStateChanged()
         initialized = true
 
         if (!gameplayConfig.isGemEscapeEnabled) {
@@ -173,6 +185,7 @@ class GemEscapeCoordinator(
         localEscapesWithoutPickup.clear()
         inProgress.clear()
         nextCycleAtMillis = 0L
+        markSaveStateChanged()
         if (initialized && gameplayConfig.isGemEscapeEnabled) {
             scheduleNextGlobalCycle(true)
         }
@@ -180,7 +193,9 @@ class GemEscapeCoordinator(
 
     fun ensureTracked(gemId: UUID?) {
         if (gemId == null) return
-        lastMovedAt.putIfAbsent(gemId, nowMillis.asLong)
+        if (lastMovedAt.putIfAbsent(gemId, nowMillis.asLong) == null) {
+            markSaveStateChanged()
+        }
         if (initialized && gameplayConfig.isGemEscapeEnabled) {
             scheduleNextGlobalCycle(false)
         }
@@ -193,6 +208,7 @@ class GemEscapeCoordinator(
         failedRounds.remove(gemId)
         localEscapesWithoutPickup.remove(gemId)
         lastMovedAt[gemId] = nowMillis.asLong
+        markSaveStateChanged()
         if (initialized && gameplayConfig.isGemEscapeEnabled) {
             scheduleNextGlobalCycle(false)
         }
@@ -204,6 +220,7 @@ class GemEscapeCoordinator(
         inProgress.remove(gemId)
         failedRounds.remove(gemId)
         localEscapesWithoutPickup.remove(gemId)
+        markSaveStateChanged()
     }
 
     fun isRelocating(gemId: UUID?): Boolean = gemId != null && inProgress.contains(gemId)
@@ -232,6 +249,10 @@ class GemEscapeCoordinator(
         }
     }
 
+    private fun markSaveStateChanged() {
+        saveRevisions.markDirty(SAVE_ROOT_KEY)
+    }
+
     private fun cancelScheduledTasks() {
         SchedulerUtil.cancelTask(globalTask)
         globalTask = null
@@ -366,6 +387,7 @@ class GemEscapeCoordinator(
                 } else {
                     localEscapesWithoutPickup.remove(request.gemId)
                 }
+                markSaveStateChanged()
                 rescheduleGlobalCycleAfterMovement()
                 try {
                     successListener.onSuccess(request, result)
@@ -388,6 +410,7 @@ class GemEscapeCoordinator(
         if (request.mode == GemEscapeMode.LOCAL) {
             val failures = request.failedRounds + 1
             failedRounds[request.gemId] = failures
+            markSaveStateChanged()
             saveAction.run()
             if (failures >= gameplayConfig.gemEscapeMaxFailedRounds) {
                 attemptEscape(request.gemId, true)
@@ -395,6 +418,7 @@ class GemEscapeCoordinator(
             }
         } else {
             failedRounds[request.gemId] = gameplayConfig.gemEscapeMaxFailedRounds
+            markSaveStateChanged()
             saveAction.run()
         }
         scheduleRetry(request.gemId)
@@ -470,5 +494,6 @@ class GemEscapeCoordinator(
 
     companion object {
         private const val MILLIS_PER_TICK = 50L
+        const val SAVE_ROOT_KEY = "escape-state"
     }
 }
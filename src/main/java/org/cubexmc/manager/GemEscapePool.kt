@@ -0,0 +1,166 @@
+package org.cubexmc.manager
+
+import org.bukkit.Location
+import org.bukkit.World
+import org.cubexmc.RuleGems
+import org.cubexmc.utils.SchedulerUtil
+import java.util.ArrayDeque
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ThreadLocalRandom
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * 逃逸落点池 - 每个合法区域（[GemBoundsService.Bounds]）维护一小批已在区域线程里校验过地形的落点。
+ *
+ * 补充只发生在已加载的区块上：区块加载事件、以及取走落点后对范围内已加载区块的随机补采样，
+ * 因此补充本身永远不会触发区块加载。逃逸时 [take] 以 O(1) 取出落点，
+ * 落位前仍由调用方在目标区域线程做一次完整校验（落点可能已被改动或被其他宝石占用）。
+ * 落点的 Y 是采样时的地表高度，列内方块变化时由 [invalidate] 剔除。
+ */
+class GemEscapePool(
+    private val plugin: RuleGems,
+    private val columnCache: GemColumnCache,
+    /** 在目标区域线程调用；只校验与具体宝石无关的地形条件（合法区域本身已与世界边界取交集）。 */
+    private val validator: (Location) -> Boolean,
+    private val capacity: Int = DEFAULT_CAPACITY,
+) {
+    private class Pool(val bounds: GemBoundsService.Bounds) {
+        val targets = ArrayDeque<BlockPosition>()
+        val pending = AtomicInteger()
+    }
+
+    private val pools: MutableMap<GemBoundsService.Bounds, Pool> = ConcurrentHashMap()
+
+    /**
+     * 取出 [bounds] 池中第一个满足 [accept] 的落点；只检查队首的 [scanLimit] 个，不满足的留在池里。
+     * 确实取走了落点（或池子已空）且池子偏空时，在已加载的区块上补充；只扫描未命中不触发补充。
+     */
+    fun take(
+        bounds: GemBoundsService.Bounds,
+        scanLimit: Int = DEFAULT_SCAN_LIMIT,
+        accept: (BlockPosition) -> Boolean = { true },
+    ): Location? {
+        val pool = pools.computeIfAbsent(bounds) { Pool(it) }
+        var empty = false
+        val taken = synchronized(pool) {
+            empty = pool.targets.isEmpty()
+            val iterator = pool.targets.iterator()
+            var scanned = 0
+            var match: BlockPosition? = null
+            while (iterator.hasNext() && scanned < scanLimit) {
+                val position = iterator.next()
+                scanned++
+                if (accept(position)) {
+                    iterator.remove()
+                    match = position
+                    break
+                }
+            }
+            match
+        }
+        if (taken != null || empty) topUp(pool)
+        return taken?.let { Location(bounds.world, it.x.toDouble(), it.y.toDouble(), it.z.toDouble()) }
+    }
+
+    /** 区块加载完成后调用：与某个池的范围相交且该池未满时，在该区块内采样一列。 */
+    fun onChunkLoad(world: World, chunkX: Int, chunkZ: Int) {
+        if (pools.isEmpty()) return
+        val minX = chunkX shl CHUNK_BITS
+        val minZ = chunkZ shl CHUNK_BITS
+        for (pool in pools.values) {
+            val bounds = pool.bounds
+            if (bounds.world != world) continue
+            val fromX = maxOf(minX, bounds.minX)
+            val toX = minOf(minX + CHUNK_SIZE - 1, bounds.maxX)
+            val fromZ = maxOf(minZ, bounds.minZ)
+            val toZ = minOf(minZ + CHUNK_SIZE - 1, bounds.maxZ)
+            if (fromX > toX || fromZ > toZ || !reserve(pool)) continue
+            val random = ThreadLocalRandom.current()
+            sample(pool, world, random.nextInt(fromX, toX + 1), random.nextInt(fromZ, toZ + 1))
+        }
+    }
+
+    /** 列 (x, z) 的方块变了：剔除所有池中位于该列的落点。 */
+    fun invalidate(worldId: UUID, x: Int, z: Int) {
+        if (pools.isEmpty()) return
+        for (pool in pools.values) {
+            if (pool.bounds.world.uid != worldId || !pool.bounds.contains(x, z)) continue
+            synchronized(pool) {
+                pool.targets.removeIf { it.x == x && it.z == z }
+            }
+        }
+    }
+
+    fun size(bounds: GemBoundsService.Bounds): Int {
+        val pool = pools[bounds] ?: return 0
+        return synchronized(pool) { pool.targets.size }
+    }
+
+    fun clear() {
+        pools.clear()
+    }
+
+    /** 池子低于一半时，在范围内随机挑几列；只采样区块已加载的列。 */
+    private fun topUp(pool: Pool) {
+        val bounds = pool.bounds
+        val random = ThreadLocalRandom.current()
+        repeat(TOP_UP_SAMPLES) {
+            if (synchronized(pool) { pool.targets.size } + pool.pending.get() >= capacity / 2) return
+            val x = random.nextInt(bounds.minX, bounds.maxX + 1)
+            val z = random.nextInt(bounds.minZ, bounds.maxZ + 1)
+            val known = columnCache.lookup(bounds.world.uid, x, z)
+            if (known != null && !known.usable) return@repeat
+            if (!bounds.world.isChunkLoaded(x shr CHUNK_BITS, z shr CHUNK_BITS)) return@repeat
+            if (reserve(pool)) sample(pool, bounds.world, x, z)
+        }
+    }
+
+    private fun reserve(pool: Pool): Boolean {
+        while (true) {
+            val pending = pool.pending.get()
+            if (synchronized(pool) { pool.targets.size } + pending >= capacity) return false
+            if (pool.pending.compareAndSet(pending, pending + 1)) return true
+        }
+    }
+
+    private fun sample(pool: Pool, world: World, x: Int, z: Int) {
+        val column = Location(world, x.toDouble(), 0.0, z.toDouble())
+        val task = SchedulerUtil.regionRun(
+            plugin,
+            column,
+            {
+                try {
+                    if (pools[pool.bounds] !== pool || !world.isChunkLoaded(x shr CHUNK_BITS, z shr CHUNK_BITS)) {
+                        return@regionRun
+                    }
+                    val highest = columnCache.highestY(world, x, z)
+                    val target = Location(world, x.toDouble(), (highest + 1).toDouble(), z.toDouble())
+                    if (!validator(target)) {
+                        columnCache.markUnusable(world, x, z, highest)
+                        return@regionRun
+                    }
+                    val position = BlockPosition(world.uid, world.name, x, highest + 1, z)
+                    synchronized(pool) {
+                        if (pool.targets.size < capacity && position !in pool.targets) pool.targets.addLast(position)
+                    }
+                } catch (error: Exception) {
+                    plugin.logger.fine("Failed to sample escape target at $x,$z: ${error.message}")
+                } finally {
+                    pool.pending.decrementAndGet()
+                }
+            },
+            0L,
+            -1L,
+        )
+        if (task == null) pool.pending.decrementAndGet()
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 32
+        const val DEFAULT_SCAN_LIMIT = 16
+        private const val TOP_UP_SAMPLES = 4
+        private const val CHUNK_BITS = 4
+        private const val CHUNK_SIZE = 16
+    }
+}
@@ -0,0 +1,135 @@
+package org.cubexmc.manager
+
+import org.bukkit.entity.Player
+import org.bukkit.plugin.Plugin
+import org.cubexmc.utils.SchedulerUtil
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 某个玩家待处理的授权重算：进服恢复、离线撤销、背包授权（脏格子或整包重扫）。
+ */
+class GemGrantWork internal constructor() {
+    var restoreRedeemed = false
+        private set
+    var applyPendingRevokes = false
+        private set
+    var inventory = false
+        private set
+
+    /** 需要重读的背包格；null 表示整包重扫。仅在 [inventory] 为 true 时有意义。 */
+    var slots: Set<Int>? = emptySet()
+        private set
+
+    internal fun markJoin() {
+        restoreRedeemed = true
+        applyPendingRevokes = true
+        slots = null
+        inventory = true
+    }
+
+    internal fun markSlots(changed: Collection<Int>?) {
+        inventory = true
+        val current = slots ?: return
+        slots = if (changed == null) null else current + changed
+    }
+}
+
+/**
+ * 授权重算队列 - 把同一玩家一个 tick 内的多次重算请求合并成一次。
+ *
+ * 拖拽一次会连续触发多个点击/拖拽事件，进服时还有恢复兑换权限、补做离线撤销两步；
+ * 第一次标记时在玩家的实体调度器上安排下一 tick 的处理，处理前的后续标记只并入同一份 [GemGrantWork]
+ * （脏格子取并集，任一请求要求整包重扫即整包重扫）。调度失败（插件停用中）时当场处理。
+ * 统计按 50ms 挂钟时间窗累计耗时；时间窗与服务器 tick 并不对齐（Folia 下各区域也没有统一的 tick），
+ * 因此 [Stats.worstWindowNanos] 只是"任意 50ms 时间窗内的最高累计耗时"，不是单 tick 耗时。
+ */
+class GemGrantQueue(
+    private val plugin: Plugin,
+    private val drain: (Player, GemGrantWork) -> Unit,
+) {
+    private val pending: MutableMap<UUID, GemGrantWork> = ConcurrentHashMap()
+
+    private val requests = AtomicLong()
+    private val drains = AtomicLong()
+    private val tickLock = Any()
+    private var windowBucket = Long.MIN_VALUE
+    private var windowNanos = 0L
+    private var worstWindowNanos = 0L
+    private var worstDrainNanos = 0L
+
+    class Stats(
+        val requests: Long,
+        val drains: Long,
+        val worstDrainNanos: Long,
+        /** 任意一个 50ms 挂钟时间窗内的最高累计耗时。 */
+        val worstWindowNanos: Long,
+    ) {
+        /** 平均每次实际重算合并了多少个请求。 */
+        val coalescingRatio: Double
+            get() = if (drains == 0L) 0.0 else requests.toDouble() / drains
+    }
+
+    /** 背包 [slots] 这几格可能变了；null 表示整包重扫。 */
+    fun markSlots(player: Player, slots: Collection<Int>?) {
+        mark(player) { it.markSlots(slots) }
+    }
+
+    /** 进服：恢复兑换权限、补做离线撤销、整包重扫背包授权。 */
+    fun markJoin(player: Player) {
+        mark(player) { it.markJoin() }
+    }
+
+    fun forget(playerId: UUID) {
+        pending.remove(playerId)
+    }
+
+    fun stats(): Stats = synchronized(tickLock) {
+        Stats(requests.get(), drains.get(), worstDrainNanos, worstWindowNanos)
+    }
+
+    private fun mark(player: Player, update: (GemGrantWork) -> Unit) {
+        requests.incrementAndGet()
+        var created = false
+        pending.compute(player.uniqueId) { _, existing ->
+            val work = existing ?: GemGrantWork().also { created = true }
+            update(work)
+            work
+        }
+        if (!created) return
+        val task = SchedulerUtil.entityRun(plugin, player, Runnable { drainPending(player) }, 1L, -1L)
+        if (task == null) drainPending(player)
+    }
+
+    private fun drainPending(player: Player) {
+        val work = pending.remove(player.uniqueId) ?: return
+        drains.incrementAndGet()
+        val startedAt = System.nanoTime()
+        try {
+            drain(player, work)
+        } catch (e: Exception) {
+            plugin.logger.warning("Failed to recalculate grants for ${player.name}: ${e.message}")
+        } finally {
+            record(startedAt, System.nanoTime() - startedAt)
+        }
+    }
+
+    private fun record(startedAt: Long, elapsed: Long) {
+        synchronized(tickLock) {
+            val bucket = startedAt / WINDOW_NANOS
+            if (bucket != windowBucket) {
+                windowBucket = bucket
+                windowNanos = 0L
+            }
+            windowNanos += elapsed
+            if (windowNanos > worstWindowNanos) worstWindowNanos = windowNanos
+            if (elapsed > worstDrainNanos) worstDrainNanos = elapsed
+        }
+    }
+
+    companion object {
+        private val WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(50L)
+    }
+}
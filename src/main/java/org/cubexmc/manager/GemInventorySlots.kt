@@ -0,0 +1,52 @@
+package org.cubexmc.manager
+
+/**
+ * inventory_grants 模式下某个玩家背包各格的宝石 key 快照（已小写）。
+ *
+ * 背包事件只重读受影响的格子，同时维护每个 key 占了几格；
+ * 只有"背包里有哪些 key"这个集合真的变化时，才需要重新挑选生效的 key、改动权限。
+ * 非线程安全，调用方按玩家加锁。
+ */
+class GemInventorySlots {
+    private var keys: Array<String?> = emptyArray()
+    private val counts = HashMap<String, Int>()
+
+    /**
+     * 用 [reader] 重读 [slots] 中的格子；[slots] 为 null 或背包大小变化时重读全部 [size] 格。
+     * 返回背包里的 key 集合是否变化。
+     */
+    fun update(size: Int, slots: Collection<Int>?, reader: (Int) -> String?): Boolean {
+        val touched = HashMap<String, Boolean>()
+        if (slots == null || size != keys.size) {
+            for (key in counts.keys) touched[key] = true
+            keys = arrayOfNulls(size)
+            counts.clear()
+            for (slot in 0 until size) {
+                val key = reader(slot) ?: continue
+                touched.putIfAbsent(key, false)
+                keys[slot] = key
+                counts.merge(key, 1, Int::plus)
+            }
+        } else {
+            for (slot in slots) {
+                if (slot !in keys.indices) continue
+                val key = reader(slot)
+                val old = keys[slot]
+                if (key == old) continue
+                if (old != null) {
+                    touched.putIfAbsent(old, true)
+                    counts.computeIfPresent(old) { _, count -> if (count > 1) count - 1 else null }
+                }
+                if (key != null) {
+                    touched.putIfAbsent(key, counts.containsKey(key))
+                    counts.merge(key, 1, Int::plus)
+                }
+                keys[slot] = key
+            }
+        }
+        return touched.any { (key, wasPresent) -> wasPresent != counts.containsKey(key) }
+    }
+
+    /** 背包里的 key，按首次出现的格子顺序（与原先整包扫描的顺序一致）。 */
+    fun presentKeys(): List<String> = keys.filterNotNullTo(LinkedHashSet(counts.size)).toList()
+}
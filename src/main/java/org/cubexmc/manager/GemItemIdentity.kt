@@ -0,0 +1,100 @@
+package org.cubexmc.manager
+
+import org.bukkit.Material
+import org.bukkit.NamespacedKey
+import org.bukkit.inventory.ItemStack
+import org.bukkit.persistence.PersistentDataType
+import java.util.UUID
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicReferenceArray
+
+/**
+ * 一摞物品的宝石身份：是否带宝石标记，以及记录的宝石 UUID（两者相互独立，见 [GemStateManager.getGemUUID]）。
+ */
+data class GemItemInspection(val flagged: Boolean, val gemId: UUID?) {
+    companion object {
+        @JvmField
+        val NONE = GemItemInspection(false, null)
+    }
+}
+
+/**
+ * 物品宝石身份识别 - 一次 `itemMeta` 读取同时得到宝石标记和 UUID。
+ *
+ * Spigot 上每次读 `itemMeta` 都会克隆整份 meta，而点击、拖拽、拾取等处理器对同一摞物品往往连续检查好几次。
+ * 这里按物品对象身份做一个小的直接映射缓存：条目只在 [TTL_MILLIS] 内（约一个 tick）有效，
+ * 命中时还要求材质和"是否有 meta"不变；插件自己铸造或改写宝石 meta 后调用 [forget]。
+ *
+ * 默认只缓存服务端的物品包装（CraftItemStack）：事件和背包每次都给出新的包装对象，缓存不会跨事件复用。
+ * 普通 [ItemStack] 可能被别的插件长期持有并在 TTL 内换掉 meta，按对象身份无法察觉，因此每次都重新读取。
+ */
+class GemItemIdentity @JvmOverloads constructor(
+    private val ruleGemKey: NamespacedKey,
+    private val uniqueIdKey: NamespacedKey,
+    capacity: Int = DEFAULT_CAPACITY,
+    /** 哪些物品可以进缓存。 */
+    private val cacheable: (ItemStack) -> Boolean = { isServerWrapper(it) },
+) {
+    private class Entry(
+        val item: ItemStack,
+        val type: Material?,
+        val inspectedAt: Long,
+        val inspection: GemItemInspection,
+    )
+
+    private val mask = Integer.highestOneBit(capacity.coerceAtLeast(2) - 1) * 2 - 1
+    private val slots = AtomicReferenceArray<Entry?>(mask + 1)
+
+    fun inspect(item: ItemStack?): GemItemInspection {
+        if (item == null || !item.hasItemMeta()) return GemItemInspection.NONE
+        if (!cacheable(item)) return read(item)
+        val slot = System.identityHashCode(item) and mask
+        val type = item.type
+        val now = System.nanoTime()
+        val cached = slots.get(slot)
+        if (cached != null && cached.item === item && cached.type == type && now - cached.inspectedAt < TTL_NANOS) {
+            return cached.inspection
+        }
+        val inspection = read(item)
+        slots.set(slot, Entry(item, type, now, inspection))
+        return inspection
+    }
+
+    /** 插件改写了 [item] 的 meta 后调用。 */
+    fun forget(item: ItemStack?) {
+        if (item == null) return
+        val slot = System.identityHashCode(item) and mask
+        val cached = slots.get(slot) ?: return
+        if (cached.item === item) slots.compareAndSet(slot, cached, null)
+    }
+
+    fun clear() {
+        for (slot in 0 until slots.length()) {
+            slots.set(slot, null)
+        }
+    }
+
+    private fun read(item: ItemStack): GemItemInspection {
+        val meta = item.itemMeta ?: return GemItemInspection.NONE
+        val pdc = meta.persistentDataContainer
+        val flagged = pdc.has(ruleGemKey, PersistentDataType.BYTE)
+        val gemId = pdc.get(uniqueIdKey, PersistentDataType.STRING)?.let { raw ->
+            try {
+                UUID.fromString(raw)
+            } catch (_: IllegalArgumentException) {
+                null
+            }
+        }
+        if (!flagged && gemId == null) return GemItemInspection.NONE
+        return GemItemInspection(flagged, gemId)
+    }
+
+    companion object {
+        const val DEFAULT_CAPACITY = 256
+        const val TTL_MILLIS = 50L
+        private val TTL_NANOS = TimeUnit.MILLISECONDS.toNanos(TTL_MILLIS)
+        private const val SERVER_WRAPPER = "CraftItemStack"
+
+        private fun isServerWrapper(item: ItemStack): Boolean = item.javaClass.simpleName == SERVER_WRAPPER
+    }
+}
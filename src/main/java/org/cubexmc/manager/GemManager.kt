@@ -2,6 +2,7 @@ package org.cubexmc.manager
 
 import com.google.common.base.Preconditions
 import org.bukkit.Bukkit
+import org.bukkit.Chunk
 import org.bukkit.Location
 import org.bukkit.Material
 import org.bukkit.Particle
@@ -75,7 +76,7 @@ class GemManager(
             permissionManager.resetForScatter()
             allowanceManager.clearAll()
         },
-        Runnable { saveGems() },
+        Runnable { saveGemsIncremental() },
     )
 
     val custodyAuditor: GemCustodyAuditor = GemCustodyAuditor(
@@ -83,11 +84,21 @@ class GemManager(
         stateManager,
         placementManager,
         GemCustodyAuditor.GemRecovery { gemId, location -> recoverStrayGem(gemId, location) },
-        Runnable { saveGems() },
+        Runnable { saveGemsIncremental() },
+        stateManager.custodyJournal,
     )
 
     private val saveLock = Any()
     private val saveRevision = AtomicLong()
+    private val saveCoalescer = SaveCoalescer(plugin, gameplayConfig) { saveGemsInternal(true, false) }
+    private val saveSections: List<SaveSection> = SAVE_ROOT_KEYS.map(::createSaveSection)
+
+    /** gems.yml instance last written by a save task and the section entries applied to it; guarded by [saveLock]. */
+    private var writtenGemsData: org.bukkit.configuration.file.FileConfiguration? = null
+    private val writtenSections: MutableMap<String, Map<String, Any?>> = HashMap()
+
+    /** Roots rewritten since the last successful save, handed to the provider as a hint; null means unknown. Guarded by [saveLock]. */
+    private var unsavedRoots: MutableSet<String>? = null
 
     @Volatile
     private var lastWrittenSaveRevision = 0L
@@ -99,13 +110,14 @@ class GemManager(
         private set
 
     init {
-        allowanceManager.setSaveCallback(Runnable { saveGems() })
+        allowanceManager.setSaveCallback(Runnable { saveGemsIncremental() })
         allowanceManager.setIsToggledOffCheck { playerId, gemId -> isGemIdToggledOff(playerId, gemId) }
         allowanceManager.setGemKeyLookup { gemId -> stateManager.getGemKey(gemId) }
-        permissionManager.setSaveCallback(Runnable { saveGems() })
+        permissionManager.setSaveCallback(Runnable { saveGemsIncremental() })
         permissionManager.setAllowanceManager(allowanceManager)
         placementManager.setEffectUtils(effectUtils)
-        placementManager.setSaveCallback(Runnable { saveGems() })
+        placementManager.setSaveCallback(Runnable { saveGemsIncremental() })
+        stateManager.setInventoryEditCallback(Consumer { player -> permissionManager.queueGrantRecalculation(player) })
 
         SchedulerUtil.globalRun(plugin, { allowanceManager.flushIfDirty() }, 20L * 60, 20L * 60)
     }
@@ -193,31 +205,71 @@ class GemManager(
         return true
     }
 
-    fun saveGems(): Boolean = saveGemsInternal(true)
+    /** 完整保存：重建所有分区，同时兜住绕过管理器直接修改公开 Map 的调用方。 */
+    fun saveGems(): Boolean = saveGemsInternal(true, true)
+
+    fun saveGemsSync(): Boolean = saveGemsInternal(false, true)
 
-    fun saveGemsSync(): Boolean = saveGemsInternal(false)
+    /**
+     * 增量保存：只重建修订号变化过的分区，其余分区沿用上次构建的快照。
+     * 连续请求经 [saveCoalescer] 合并，最迟在 max_delay_ms 后写出。
+     */
+    fun saveGemsIncremental(): Boolean = saveCoalescer.request()
+
+    fun saveStats(): SaveCoalescer.Stats = saveCoalescer.stats()
+
+    /**
+     * 把当前内存状态导出为 data/gems.export.yml。分区快照在调用线程上取（与增量保存相同，含尚未写盘的改动），
+     * 写文件在异步线程进行；不读取存储，因此不会触发存储自身的导入/轮换流程。[onComplete] 回到全局线程调用。
+     */
+    fun exportGemData(onComplete: (File?, Exception?) -> Unit) {
+        val sections = synchronized(saveSections) {
+            saveSections.map { section -> section.refresh(false) }
+        }
+        SchedulerUtil.asyncRun(
+            plugin,
+            Runnable {
+                var file: File? = null
+                var failure: Exception? = null
+                try {
+                    val data = org.bukkit.configuration.file.YamlConfiguration()
+                    for (entries in sections) {
+                        for ((key, value) in entries) {
+                            data.set(key, value)
+                        }
+                    }
+                    file = configManager.exportGemDataToYaml(data)
+                } catch (e: Exception) {
+                    failure = e
+                }
+                SchedulerUtil.globalRun(plugin, Runnable { onComplete(file, failure) }, 0L, -1L)
+            },
+            0L,
+        )
+    }
 
-    private fun saveGemsInternal(asyncWhenEnabled: Boolean): Boolean {
+    private fun saveGemsInternal(asyncWhenEnabled: Boolean, rebuildAll: Boolean): Boolean {
+        if (rebuildAll) {
+            saveCoalescer.cancelPending()
+        }
         val revision = saveRevision.incrementAndGet()
-        val mutableSnapshot: MutableMap<String, Any?> = HashMap()
-        stateManager.populateSaveSnapshot(mutableSnapshot)
-        permissionManager.populateSaveSnapshot(mutableSnapshot)
-        allowanceManager.populateSaveSnapshot(mutableSnapshot)
-        placementManager.populateEscapeSaveSnapshot(mutableSnapshot)
-        val snapshot = Collections.unmodifiableMap(HashMap(mutableSnapshot))
+        val sections = synchronized(saveSections) {
+            saveSections.map { section -> section.rootKey to section.refresh(rebuildAll) }
+        }
 
         val accepted = AtomicBoolean(true)
         val saveTask = Runnable {
             synchronized(saveLock) {
-                if (revision < saveRevision.get() || revision < lastWrittenSaveRevision) return@synchronized
-                val gemsData = configManager.getGemsData()
-                for (key in SAVE_ROOT_KEYS) {
-                    gemsData.set(key, null)
-                }
-                for ((key, value) in snapshot) {
-                    gemsData.set(key, value)
+                if (revision < saveRevision.get() || revision < lastWrittenSaveRevision) {
+                    saveCoalescer.recordStaleWriteSkipped()
+                    return@synchronized
                 }
-                val result: org.cubexmc.storage.StorageSaveResult? = configManager.saveGemData(gemsData)
+                val gemsData = configManager.getGemsData()
+                val rewritten = applySections(gemsData, sections)
+                val pending = unsavedRoots
+                unsavedRoots = if (rewritten == null || pending == null) null else pending.apply { addAll(rewritten) }
+                val result: org.cubexmc.storage.StorageSaveResult? =
+                    configManager.saveGemData(gemsData, unsavedRoots?.toSet())
                 if (result == null || !result.successful) {
                     accepted.set(false)
                     val failure = result?.error
@@ -234,6 +286,7 @@ class GemManager(
                     return@synchronized
                 }
                 lastWrittenSaveRevision = revision
+                unsavedRoots = HashSet()
                 lastStorageError = null
                 lastEmergencySnapshot = null
             }
@@ -247,6 +300,64 @@ class GemManager(
         return accepted.get()
     }
 
+    /**
+     * Rewrites only the roots whose entries differ from what was last applied to this gems.yml instance.
+     * Returns the rewritten roots, or null when [gemsData] is a new instance and every root was rewritten.
+     */
+    private fun applySections(
+        gemsData: org.bukkit.configuration.file.FileConfiguration,
+        sections: List<Pair<String, Map<String, Any?>>>,
+    ): Set<String>? {
+        val fresh = gemsData !== writtenGemsData
+        if (fresh) {
+            writtenSections.clear()
+            writtenGemsData = gemsData
+        }
+        val rewritten = HashSet<String>()
+        for ((rootKey, entries) in sections) {
+            if (writtenSections[rootKey] === entries) continue
+            gemsData.set(rootKey, null)
+            for ((key, value) in entries) {
+                gemsData.set(key, value)
+            }
+            writtenSections[rootKey] = entries
+            rewritten.add(rootKey)
+        }
+        return if (fresh) null else rewritten
+    }
+
+    private fun createSaveSection(rootKey: String): SaveSection {
+        val stateRevisions = stateManager.saveRevisions
+        val permissionRevisions = permissionManager.saveRevisions
+        val allowanceRevisions = allowanceManager.saveRevisions
+        return when (rootKey) {
+            in stateRevisions.rootKeys ->
+                SaveSection(rootKey, { stateRevisions.revision(rootKey) }) {
+                    stateManager.populateSaveSection(rootKey, it)
+                }
+            in permissionRevisions.rootKeys ->
+                SaveSection(rootKey, { permissionRevisions.revision(rootKey) }) {
+                    permissionManager.populateSaveSection(rootKey, it)
+                }
+            in allowanceRevisions.rootKeys ->
+                SaveSection(rootKey, { allowanceRevisions.revision(rootKey) }) {
+                    allowanceManager.populateSaveSection(rootKey, it)
+                }
+            // 逃逸快照只覆盖仍存在的宝石，因此宝石集合（放置/持有分区）变化时也要重建。
+            GemEscapeCoordinator.SAVE_ROOT_KEY ->
+                SaveSection(
+                    rootKey,
+                    {
+                        placementManager.escapeSaveRevision() +
+                            stateRevisions.revision("placed-gems") +
+                            stateRevisions.revision("held-gems")
+                    },
+                ) { placementManager.populateEscapeSaveSnapshot(it) }
+            // 旧版根键（如 redeem_owner）没有写入方，只需在写入时清空一次。
+            else -> SaveSection(rootKey, { 0L }) { }
+        }
+    }
+
     private fun writeEmergencySnapshot(gemsData: org.bukkit.configuration.file.FileConfiguration, revision: Long) {
         try {
             val recoveryFile = configManager.saveEmergencyGemData(gemsData)
@@ -281,7 +392,7 @@ class GemManager(
             placementManager.scheduleEscape(gemId)
         }
         plugin.logger.info("Bound " + rebound.size + " deferred gem(s) in world '" + world.name + "'.")
-        saveGems()
+        saveGemsIncremental()
     }
 
     fun handleBlockDamage(event: BlockDamageEvent) {
@@ -364,7 +475,7 @@ class GemManager(
         } else {
             placementManager.randomPlaceGem(gemId)
         }
-        saveGems()
+        saveGemsIncremental()
         plugin.logger.info("Recovered stray gem $gemId back into the world.")
         return true
     }
@@ -501,6 +612,7 @@ class GemManager(
             if (pickupEvent.isCancelled) return PickupResult.CANCELLED
 
             inventory.addItem(stateManager.createRuleGem(gemId))
+            stateManager.notifyInventoryEdited(player)
             stateManager.setGemHolder(gemId, player)
             placementManager.cancelEscape(gemId)
             placementManager.unplaceRuleGem(currentLocation, gemId)
@@ -513,7 +625,7 @@ class GemManager(
                 effectUtils.playLocalSound(player.location, onPickup, 1.0f, 1.0f)
                 effectUtils.playParticle(player.location, onPickup)
             }
-            saveGems()
+            saveGemsIncremental()
             return PickupResult.SUCCESS
         } finally {
             placementManager.endPickup(gemId)
@@ -536,6 +648,7 @@ class GemManager(
             stateManager.clearGemHolder(gemId)
             placementManager.placeRuleGem(player.location, gemId)
         }
+        permissionManager.forgetInventorySlots(player.uniqueId)
     }
 
     fun handleGemDrop(player: Player, loc: Location, droppedItemEntity: org.bukkit.entity.Item, item: ItemStack?) {
@@ -576,8 +689,8 @@ class GemManager(
         Preconditions.checkState(Bukkit.isPrimaryThread(), "State mutation must occur on primary thread")
         // 删除"不属于本人"的宝石副本：本体已被收回世界后残留在背包里的那些。
         custodyAuditor.sweepPlayerInventory(player)
-        permissionManager.restoreRedeemedPermissions(player)
-        permissionManager.applyPendingRevokesIfAny(player)
+        // 兑换权限恢复、离线撤销和背包授权合并到下一 tick 一次处理，只刷新一次权限。
+        permissionManager.queueJoinPermissions(player)
         placementManager.refreshDisplayForPlayer(player)
     }
 
@@ -585,12 +698,15 @@ class GemManager(
         if (!globalOperationCoordinator.tryBegin(GlobalOperation.SCATTER)) {
             return false
         }
-        return try {
-            scatterService.scatterGems()
-            true
+        // 散落异步完成：SCATTER 一直保持到全部落位并存盘之后，期间拒绝重载和再次散落。
+        var handedOff = false
+        try {
+            scatterService.scatterGems { globalOperationCoordinator.end(GlobalOperation.SCATTER) }
+            handedOff = true
         } finally {
-            globalOperationCoordinator.end(GlobalOperation.SCATTER)
+            if (!handedOff) globalOperationCoordinator.end(GlobalOperation.SCATTER)
         }
+        return true
     }
 
     fun redeemGemInHand(player: Player?): Boolean {
@@ -694,7 +810,7 @@ class GemManager(
             val gid = keyToGemId[normalizedKey]
             permissionManager.markGemRedeemed(player, definition.gemKey)
             if (gid != null) {
-                val old = permissionManager.gemIdToRedeemer.put(gid, player.uniqueId)
+                val old = permissionManager.assignRedeemer(gid, player.uniqueId)
                 if (old != null && old != player.uniqueId) {
                     permissionManager.decrementOwnerKeyCount(old, normalizedKey, definition)
                 }
@@ -737,7 +853,7 @@ class GemManager(
         applyRedeemRewards(player, definition)
 
         val normalizedKey = targetKey.lowercase(Locale.ROOT)
-        val old = permissionManager.gemIdToRedeemer.put(gemId, player.uniqueId)
+        val old = permissionManager.assignRedeemer(gemId, player.uniqueId)
         var previousOwnerName: String? = null
         if (old != null && old != player.uniqueId) {
             permissionManager.decrementOwnerKeyCount(old, normalizedKey, definition)
@@ -1207,6 +1323,9 @@ class GemManager(
 
     fun getGemUUID(item: ItemStack?): UUID? = stateManager.getGemUUID(item)
 
+    /** 同时需要宝石标记和 UUID 时用它，只读一次 meta。 */
+    fun inspectItem(item: ItemStack?): GemItemInspection = stateManager.inspect(item)
+
     fun getGemLocation(gemId: UUID?): Location? = stateManager.getGemLocation(gemId)
 
     fun getGemHolder(gemId: UUID?): Player? = stateManager.getGemHolder(gemId)
@@ -1226,6 +1345,16 @@ class GemManager(
 
     fun getAllGemLocations(): Map<UUID, Location> = stateManager.getAllGemLocations()
 
+    /** 放置宝石的方块坐标快照；配合 [placementVersion] 判断按位置缓存的结果是否过期。 */
+    fun placedGemPositions(): Map<UUID, BlockPosition> = stateManager.placedGemPositions()
+
+    val placementVersion: Long
+        get() = stateManager.placementVersion
+
+    /** 最近的未被持有的放置宝石，供导航等需要最近邻的功能复用；[maxRange] 以外的宝石不参与比较。 */
+    fun findNearestPlacedGem(location: Location?, maxRange: Double): NearestGem? =
+        stateManager.findNearestPlacedGem(location, maxRange)
+
     fun findGemDefinitionByKey(gemKey: String?): GemDefinition? = stateManager.findGemDefinition(gemKey)
 
     fun getCachedPlayerName(uuid: UUID?): String = stateManager.getCachedPlayerName(uuid)
@@ -1234,6 +1363,16 @@ class GemManager(
         permissionManager.recalculateGrants(player)
     }
 
+    fun refreshGrantSlots(player: Player?, slots: Collection<Int>?) {
+        permissionManager.refreshGrantSlots(player, slots)
+    }
+
+    fun queueGrantRecalculation(player: Player?) {
+        permissionManager.queueGrantRecalculation(player)
+    }
+
+    fun grantQueueStats(): GemGrantQueue.Stats = permissionManager.grantQueueStats()
+
     fun revokeAllPlayerPermissions(player: Player?): Boolean = permissionManager.revokeAllPlayerPermissions(player)
 
     val currentRulers: Map<UUID, Set<String>>
@@ -1255,6 +1394,37 @@ class GemManager(
         placementManager.checkPlayersNearRuleGems()
     }
 
+    fun checkPlayerNearRuleGems(player: Player?) {
+        placementManager.checkPlayerNearRuleGems(player)
+    }
+
+    fun handleProximityMove(player: Player, to: Location?) {
+        placementManager.proximityTracker.onMove(player, to)
+    }
+
+    fun forgetProximity(player: Player) {
+        placementManager.proximityTracker.forget(player.uniqueId)
+    }
+
+    fun handleChunkLoad(chunk: Chunk) {
+        placementManager.escapePool.onChunkLoad(chunk.world, chunk.x, chunk.z)
+        custodyAuditor.noteChunkChanged(chunk.world, chunk.x, chunk.z)
+    }
+
+    fun handleChunkUnload(chunk: Chunk) {
+        custodyAuditor.noteChunkChanged(chunk.world, chunk.x, chunk.z)
+    }
+
+    /** 玩家背包有变动；若其持有宝石，下一轮托管审计复查。 */
+    fun noteInventoryChanged(player: Player?) {
+        custodyAuditor.noteInventoryChanged(player?.uniqueId)
+    }
+
+    /** 方块变化后作废散落/逃逸取点缓存的该列高度及落点池中该列的落点。 */
+    fun invalidateTerrainColumn(block: Block) {
+        placementManager.invalidateColumn(block.world.uid, block.x, block.z)
+    }
+
     fun handleDisplayViewerQuit(player: Player?) {
         placementManager.removeDisplayViewer(player)
     }
@@ -1292,6 +1462,7 @@ class GemManager(
             "allowed_uses",
             "player_names",
             "escape-state",
+            "toggled_off_gems",
         )
     }
 
@@ -1302,6 +1473,36 @@ class GemManager(
             first.blockZ == second.blockZ
     }
 
+    /**
+     * One persisted root of gems.yml and the entries last built for it.
+     *
+     * Entries are rebuilt only when the owning manager's revision moved (or when a full save
+     * asks for it) and are kept as the same immutable map while their content is unchanged,
+     * which lets [applySections] skip roots that were already written.
+     */
+    private class SaveSection(
+        val rootKey: String,
+        private val revision: () -> Long,
+        private val populate: (MutableMap<String, Any?>) -> Unit,
+    ) {
+        private var builtRevision = -1L
+        private var entries: Map<String, Any?> = emptyMap()
+
+        fun refresh(rebuild: Boolean): Map<String, Any?> {
+            val current = revision()
+            if (rebuild || current != builtRevision) {
+                // 先读修订号再构建：构建期间的并发修改会让下次保存再重建一次，而不会被漏掉。
+                val built = HashMap<String, Any?>()
+                populate(built)
+                if (built != entries) {
+                    entries = Collections.unmodifiableMap(built)
+                }
+                builtRevision = current
+            }
+            return entries
+        }
+    }
+
     private enum class PickupResult {
         SUCCESS,
         INVENTORY_FULL,
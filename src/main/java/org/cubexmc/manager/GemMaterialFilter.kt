@@ -0,0 +1,57 @@
+package org.cubexmc.manager
+
+import org.bukkit.Material
+
+/**
+ * 材质级快速排除表 - 按 `Material.ordinal` 记录"可能是宝石"和"可能装着宝石"两个标志位。
+ *
+ * 点击、漏斗等热路径上绝大多数物品既不是宝石材质也不是容器材质，一次数组查找即可排除，不必再读 meta。
+ * 宝石材质在每次载入宝石定义时重建，但只增不减：玩家手里可能还有按旧配置材质生成的宝石；
+ * 完整检查（托管审计、进服清点）发现的宝石材质也会经 [learn] 补进来。
+ * 材质未知（测试替身）时一律按"可能"处理。
+ */
+class GemMaterialFilter {
+    @Volatile
+    private var flags: ByteArray = CONTAINER_FLAGS.copyOf().also { it[DEFAULT_GEM_MATERIAL.ordinal] = GEM_BIT }
+
+    fun mayBeGem(type: Material?): Boolean = type == null || (flags[type.ordinal].toInt() and GEM_BIT.toInt()) != 0
+
+    fun mayHoldItems(type: Material?): Boolean = type != null && CONTAINER_FLAGS[type.ordinal] != NONE
+
+    /** 这一摞物品本身或其内部可能有宝石。 */
+    fun mayContainGem(type: Material?): Boolean = type == null || flags[type.ordinal] != NONE
+
+    /** 载入宝石定义后调用。 */
+    fun rebuild(gemMaterials: Collection<Material>) {
+        synchronized(this) {
+            val rebuilt = flags.copyOf()
+            for (material in gemMaterials) {
+                rebuilt[material.ordinal] = (rebuilt[material.ordinal].toInt() or GEM_BIT.toInt()).toByte()
+            }
+            flags = rebuilt
+        }
+    }
+
+    /** 完整检查确认 [type] 上有宝石。 */
+    fun learn(type: Material?) {
+        if (type == null || mayBeGem(type)) return
+        rebuild(listOf(type))
+    }
+
+    companion object {
+        private const val NONE: Byte = 0x0
+        private const val GEM_BIT: Byte = 0x1
+        private const val CONTAINER_BIT: Byte = 0x2
+
+        /** 与 [GemStateManager.createRuleGem] 找不到定义时使用的材质一致。 */
+        private val DEFAULT_GEM_MATERIAL = Material.RED_STAINED_GLASS
+
+        private val CONTAINER_FLAGS: ByteArray = Material.values().let { materials ->
+            ByteArray(materials.size) { index ->
+                val name = materials[index].name
+                val container = name.endsWith("SHULKER_BOX") || name == "BUNDLE" || name.endsWith("_BUNDLE")
+                if (container) CONTAINER_BIT else NONE
+            }
+        }
+    }
+}
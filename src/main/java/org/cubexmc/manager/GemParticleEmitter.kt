@@ -0,0 +1,109 @@
+package org.cubexmc.manager
+
+import org.bukkit.Bukkit
+import org.bukkit.Location
+import org.bukkit.Particle
+import org.bukkit.World
+import org.cubexmc.RuleGems
+import org.cubexmc.utils.SchedulerUtil
+import java.util.UUID
+
+/**
+ * 放置宝石的环境粒子 - 按区块分组，每个周期每个区块只调度一次区域任务。
+ *
+ * 粒子类型和坐标在放置状态或宝石定义变化时预先算好，周期任务不再逐个解析 gemId 和定义；
+ * 附近没有玩家的区块直接跳过（非强制粒子本来也只会发给 [VISIBLE_RANGE] 格内的玩家）。
+ */
+class GemParticleEmitter(
+    private val plugin: RuleGems,
+    private val stateManager: GemStateManager,
+    private val proximityTracker: GemProximityTracker,
+) {
+    private class Emission(val particle: Particle, val x: Double, val y: Double, val z: Double)
+
+    private class RegionBatch(
+        val world: World,
+        val anchor: Location,
+        val centerX: Double,
+        val centerZ: Double,
+        val emissions: List<Emission>,
+    )
+
+    private data class PlanKey(val placementVersion: Long, val definitionVersion: Long, val defaultParticle: Particle?)
+
+    @Volatile
+    private var planKey: PlanKey? = null
+
+    @Volatile
+    private var plan: List<RegionBatch> = emptyList()
+
+    /** 周期任务入口，在全局线程调用。 */
+    fun tick(defaultParticle: Particle?) {
+        val batches = currentPlan(defaultParticle)
+        for (batch in batches) {
+            if (!proximityTracker.hasPlayerNear(batch.world.uid, batch.centerX, batch.centerZ, REGION_VISIBLE_RANGE)) {
+                continue
+            }
+            SchedulerUtil.regionRun(plugin, batch.anchor, { emit(batch) }, 0L, -1L)
+        }
+    }
+
+    val regionCount: Int
+        get() = plan.size
+
+    private fun currentPlan(defaultParticle: Particle?): List<RegionBatch> {
+        val key = PlanKey(stateManager.placementVersion, stateManager.definitionVersion, defaultParticle)
+        if (key == planKey) return plan
+        val rebuilt = buildPlan(defaultParticle)
+        plan = rebuilt
+        planKey = key
+        return rebuilt
+    }
+
+    private fun buildPlan(defaultParticle: Particle?): List<RegionBatch> {
+        val grouped = LinkedHashMap<Triple<UUID, Int, Int>, MutableList<Pair<UUID, BlockPosition>>>()
+        for ((gemId, position) in stateManager.placedGemPositions()) {
+            val region = Triple(position.worldId, position.x shr CHUNK_BITS, position.z shr CHUNK_BITS)
+            grouped.getOrPut(region) { ArrayList() }.add(gemId to position)
+        }
+        val batches = ArrayList<RegionBatch>(grouped.size)
+        for ((region, gems) in grouped) {
+            val world = Bukkit.getWorld(region.first) ?: continue
+            val emissions = gems.mapNotNull { (gemId, position) ->
+                val particle = stateManager.findGemDefinition(stateManager.getGemKey(gemId))?.particle ?: defaultParticle
+                particle?.let { Emission(it, position.x + 0.5, position.y + 0.5, position.z + 0.5) }
+            }
+            if (emissions.isEmpty()) continue
+            val first = gems[0].second
+            batches.add(
+                RegionBatch(
+                    world,
+                    Location(world, first.x.toDouble(), first.y.toDouble(), first.z.toDouble()),
+                    ((region.second shl CHUNK_BITS) + HALF_CHUNK).toDouble(),
+                    ((region.third shl CHUNK_BITS) + HALF_CHUNK).toDouble(),
+                    emissions,
+                ),
+            )
+        }
+        return batches
+    }
+
+    private fun emit(batch: RegionBatch) {
+        for (emission in batch.emissions) {
+            try {
+                batch.world.spawnParticle(emission.particle, emission.x, emission.y, emission.z, 1)
+            } catch (_: IllegalArgumentException) {
+                // Continuous particles may require BlockData on some server versions.
+            }
+        }
+    }
+
+    companion object {
+        private const val CHUNK_BITS = GemSpatialIndex.CHUNK_BITS
+        private const val HALF_CHUNK = 8
+        private const val VISIBLE_RANGE = 32.0
+
+        /** 区块中心到区块内最远宝石的水平距离约 11.3 格。 */
+        private const val REGION_VISIBLE_RANGE = VISIBLE_RANGE + 12.0
+    }
+}
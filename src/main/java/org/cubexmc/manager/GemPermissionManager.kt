@@ -33,8 +33,25 @@ class GemPermissionManager(
     val ownerKeyCount: MutableMap<UUID, MutableMap<String, Int>> = ConcurrentHashMap()
     val playerActiveHeldKeys: MutableMap<UUID, MutableSet<String>> = ConcurrentHashMap()
     val invAttachments: MutableMap<UUID, PermissionAttachment> = ConcurrentHashMap()
+    private val inventoryGrantSlots: MutableMap<UUID, GemInventorySlots> = ConcurrentHashMap()
+    private val grantQueue = GemGrantQueue(plugin) { player, work -> drainGrantWork(player, work) }
     val redeemAttachments: MutableMap<UUID, PermissionAttachment> = ConcurrentHashMap()
     var fullSetOwner: UUID? = null
+        set(value) {
+            if (field != value) {
+                field = value
+                saveRevisions.markDirty(FULL_SET_OWNER_ROOT)
+            }
+        }
+
+    /** Save revisions of the roots written by [populateSaveSection]. */
+    val saveRevisions = SaveSectionRevisions(
+        REDEEMED_ROOT,
+        REDEEM_OWNER_BY_ID_ROOT,
+        FULL_SET_OWNER_ROOT,
+        PENDING_REVOKES_ROOT,
+        TOGGLED_OFF_ROOT,
+    )
 
     private val pendingRevokes: MutableMap<UUID, PendingRevoke> = ConcurrentHashMap()
     private val toggledOffGems: MutableMap<UUID, MutableSet<String>> = ConcurrentHashMap()
@@ -115,6 +132,7 @@ class GemPermissionManager(
 
         if (enabled && currentlyOff) {
             toggledOff.remove(normalizedKey)
+            saveRevisions.markDirty(TOGGLED_OFF_ROOT)
             val definition = stateManager.findGemDefinition(gemKey)
             val psm = getPSM()
             if (definition?.powerStructure != null && psm != null) {
@@ -123,6 +141,7 @@ class GemPermissionManager(
             save()
         } else if (!enabled && !currentlyOff) {
             toggledOff.add(normalizedKey)
+            saveRevisions.markDirty(TOGGLED_OFF_ROOT)
             val definition = stateManager.findGemDefinition(gemKey)
             val psm = getPSM()
             if (definition?.powerStructure != null && psm != null) {
@@ -137,10 +156,12 @@ class GemPermissionManager(
         playerUuidToRedeemedKeys.clear()
         ownerKeyCount.clear()
         playerActiveHeldKeys.clear()
+        inventoryGrantSlots.clear()
         pendingRevokes.clear()
         fullSetOwner = null
         toggledOffGems.clear()
         collectThresholdGroups.clear()
+        saveRevisions.markAllDirty()
     }
 
     fun clearRuntimeState() {
@@ -193,6 +214,7 @@ class GemPermissionManager(
         clearRuntimeState()
         if (offlinePending.isNotEmpty()) {
             pendingRevokes.putAll(offlinePending)
+            saveRevisions.markDirty(PENDING_REVOKES_ROOT)
             save()
         }
     }
@@ -311,6 +333,7 @@ class GemPermissionManager(
         }
 
         loadPendingRevokes(gemsData)
+        saveRevisions.markAllDirty()
     }
 
     fun rebuildOwnerKeyCountFromOwnership() {
@@ -326,6 +349,12 @@ class GemPermissionManager(
 
     fun restoreRedeemedPermissions(player: Player?) {
         if (player == null) return
+        restoreRedeemedPermissionsQuietly(player)
+        player.recalculatePermissions()
+    }
+
+    /** 同 [restoreRedeemedPermissions]，但不调用 `recalculatePermissions`。 */
+    private fun restoreRedeemedPermissionsQuietly(player: Player) {
         val playerId = player.uniqueId
         val psm = getPSM()
 
@@ -361,7 +390,6 @@ class GemPermissionManager(
         }
 
         reconcileCollectThresholdGroups(player)
-        player.recalculatePermissions()
     }
 
     fun restoreRedeemedPermissionsForOnlinePlayers() {
@@ -400,27 +428,37 @@ class GemPermissionManager(
     }
 
     fun populateSaveSnapshot(snapshot: MutableMap<String, Any?>) {
-        for ((playerId, keys) in playerUuidToRedeemedKeys) {
-            snapshot["redeemed.$playerId"] = ArrayList(keys)
-        }
-        for ((gemId, owner) in gemIdToRedeemer) {
-            snapshot["redeem_owner_by_id.$gemId"] = owner.toString()
+        for (rootKey in saveRevisions.rootKeys) {
+            populateSaveSection(rootKey, snapshot)
         }
-        val fullOwner = fullSetOwner
-        if (fullOwner != null) {
-            snapshot["full_set_owner.uuid"] = fullOwner.toString()
-        }
-        for ((playerId, keys) in toggledOffGems) {
-            if (keys.isNotEmpty()) {
-                snapshot["toggled_off_gems.$playerId"] = ArrayList(keys)
+    }
+
+    fun populateSaveSection(rootKey: String, snapshot: MutableMap<String, Any?>) {
+        when (rootKey) {
+            REDEEMED_ROOT -> for ((playerId, keys) in playerUuidToRedeemedKeys) {
+                snapshot["redeemed.$playerId"] = ArrayList(keys)
+            }
+            REDEEM_OWNER_BY_ID_ROOT -> for ((gemId, owner) in gemIdToRedeemer) {
+                snapshot["redeem_owner_by_id.$gemId"] = owner.toString()
+            }
+            FULL_SET_OWNER_ROOT -> {
+                val fullOwner = fullSetOwner
+                if (fullOwner != null) {
+                    snapshot["full_set_owner.uuid"] = fullOwner.toString()
+                }
+            }
+            TOGGLED_OFF_ROOT -> for ((playerId, keys) in toggledOffGems) {
+                if (keys.isNotEmpty()) {
+                    snapshot["toggled_off_gems.$playerId"] = ArrayList(keys)
+                }
+            }
+            PENDING_REVOKES_ROOT -> for ((playerId, pending) in pendingRevokes) {
+                val uuid = playerId.toString()
+                if (pending.permissions.isNotEmpty()) snapshot["pending_revokes.permissions.$uuid"] = ArrayList(pending.permissions)
+                if (pending.groups.isNotEmpty()) snapshot["pending_revokes.groups.$uuid"] = ArrayList(pending.groups)
+                if (pending.keys.isNotEmpty()) snapshot["pending_revokes.keys.$uuid"] = ArrayList(pending.keys)
+                if (pending.effects.isNotEmpty()) snapshot["pending_revokes.effects.$uuid"] = ArrayList(pending.effects)
             }
-        }
-        for ((playerId, pending) in pendingRevokes) {
-            val uuid = playerId.toString()
-            if (pending.permissions.isNotEmpty()) snapshot["pending_revokes.permissions.$uuid"] = ArrayList(pending.permissions)
-            if (pending.groups.isNotEmpty()) snapshot["pending_revokes.groups.$uuid"] = ArrayList(pending.groups)
-            if (pending.keys.isNotEmpty()) snapshot["pending_revokes.keys.$uuid"] = ArrayList(pending.keys)
-            if (pending.effects.isNotEmpty()) snapshot["pending_revokes.effects.$uuid"] = ArrayList(pending.effects)
         }
     }
 
@@ -506,6 +544,7 @@ class GemPermissionManager(
                 if (group.isNotBlank()) pending.groups.add(group)
             }
         }
+        saveRevisions.markDirty(PENDING_REVOKES_ROOT)
         save()
     }
 
@@ -516,14 +555,21 @@ class GemPermissionManager(
             val type = effect.effectType
             if (type != null) pending.effects.add(type.name)
         }
+        saveRevisions.markDirty(PENDING_REVOKES_ROOT)
         save()
     }
 
     fun applyPendingRevokesIfAny(player: Player?) {
         if (player == null) return
+        if (applyPendingRevokesQuietly(player)) recalculatePermissionsSafely(player)
+    }
+
+    /** 同 [applyPendingRevokesIfAny]，但不调用 `recalculatePermissions`；返回是否撤销了任何东西。 */
+    private fun applyPendingRevokesQuietly(player: Player): Boolean {
         val uid = player.uniqueId
-        val pending = pendingRevokes.remove(uid)
-        if (pending == null || pending.isEmpty()) return
+        val pending = pendingRevokes.remove(uid) ?: return false
+        saveRevisions.markDirty(PENDING_REVOKES_ROOT)
+        if (pending.isEmpty()) return false
 
         var changed = false
         if (pending.permissions.isNotEmpty()) {
@@ -554,13 +600,15 @@ class GemPermissionManager(
             changed = true
         }
 
-        if (changed) {
-            try {
-                player.recalculatePermissions()
-            } catch (e: Throwable) {
-                plugin.logger.fine("Failed to recalculate permissions after pending revokes: " + e.message)
-            }
-            save()
+        if (changed) save()
+        return changed
+    }
+
+    private fun recalculatePermissionsSafely(player: Player) {
+        try {
+            player.recalculatePermissions()
+        } catch (e: Throwable) {
+            plugin.logger.fine("Failed to recalculate permissions: " + e.message)
         }
     }
 
@@ -625,6 +673,7 @@ class GemPermissionManager(
                 permsToRevoke.addAll(definition.permissions)
                 permsToRevoke.addAll(getAppointPermissionNodes(definition))
                 pendingRevokes.computeIfAbsent(owner) { PendingRevoke() }.keys.add(key)
+                saveRevisions.markDirty(PENDING_REVOKES_ROOT)
                 val vaultGroup = definition.vaultGroup
                 queueOfflineRevokes(
                     owner,
@@ -642,18 +691,14 @@ class GemPermissionManager(
                 }
 
                 val currentAllowanceManager = allowanceManager
-                if (currentAllowanceManager != null) {
-                    val perRedeemed = currentAllowanceManager.playerGemRedeemUses[owner]
-                    if (perRedeemed != null) {
-                        for ((gemId, redeemer) in gemIdToRedeemer) {
-                            if (owner == redeemer) {
-                                val gemKey = stateManager.gemUuidToKey[gemId]
-                                if (key.equals(gemKey, ignoreCase = true)) {
-                                    perRedeemed.remove(gemId)
-                                }
+                if (currentAllowanceManager != null && currentAllowanceManager.playerGemRedeemUses.containsKey(owner)) {
+                    for ((gemId, redeemer) in gemIdToRedeemer) {
+                        if (owner == redeemer) {
+                            val gemKey = stateManager.gemUuidToKey[gemId]
+                            if (key.equals(gemKey, ignoreCase = true)) {
+                                currentAllowanceManager.removeRedeemInstanceAllowance(owner, gemId)
                             }
                         }
-                        if (perRedeemed.isEmpty()) currentAllowanceManager.playerGemRedeemUses.remove(owner)
                     }
                 }
 
@@ -777,20 +822,81 @@ class GemPermissionManager(
         }
     }
 
+    /** 整包重扫；权限只在生效的 key 集合变化时才改动。 */
     fun recalculateGrants(player: Player?) {
         if (player == null || !gameplayConfig.isInventoryGrantsEnabled) return
-        val psm = getPSM()
+        if (recalculateGrantSlots(player, null)) player.recalculatePermissions()
+    }
+
+    /**
+     * 背包点击/拖拽只改动了 [slotIndexes] 这几格（null 表示可能改动任意格）。
+     * 这类事件在物品真正移动前触发，所以交给 [GemGrantQueue] 在下一 tick 重读；同一 tick 的多次事件合并处理。
+     */
+    fun refreshGrantSlots(player: Player?, slotIndexes: Collection<Int>?) {
+        if (player == null || !gameplayConfig.isInventoryGrantsEnabled) return
+        if (slotIndexes != null && slotIndexes.isEmpty()) return
+        grantQueue.markSlots(player, slotIndexes)
+    }
+
+    /** 下一 tick 整包重扫背包授权（与同一 tick 的其他请求合并）。 */
+    fun queueGrantRecalculation(player: Player?) {
+        refreshGrantSlots(player, null)
+    }
+
+    /** 进服：下一 tick 依次恢复兑换权限、补做离线撤销、重算背包授权，最后只刷新一次权限。 */
+    fun queueJoinPermissions(player: Player?) {
+        if (player == null) return
+        grantQueue.markJoin(player)
+    }
+
+    fun grantQueueStats(): GemGrantQueue.Stats = grantQueue.stats()
+
+    fun forgetInventorySlots(playerId: UUID) {
+        inventoryGrantSlots.remove(playerId)
+        grantQueue.forget(playerId)
+    }
+
+    private fun drainGrantWork(player: Player, work: GemGrantWork) {
+        if (!player.isOnline) return
+        var changed = false
+        if (work.restoreRedeemed) {
+            restoreRedeemedPermissionsQuietly(player)
+            changed = true
+        }
+        if (work.applyPendingRevokes && applyPendingRevokesQuietly(player)) changed = true
+        if (work.inventory && gameplayConfig.isInventoryGrantsEnabled && recalculateGrantSlots(player, work.slots)) {
+            changed = true
+        }
+        if (changed) recalculatePermissionsSafely(player)
+    }
 
-        val presentKeysOrdered = ArrayList<String>()
+    /** 重读 [slotIndexes]（null 为整包）并应用背包授权；返回权限是否有变化，不调用 `recalculatePermissions`。 */
+    private fun recalculateGrantSlots(player: Player, slotIndexes: Collection<Int>?): Boolean {
         val inventory = player.inventory
-        for (item: ItemStack? in inventory.contents) {
-            if (!stateManager.isRuleGem(item)) continue
-            val id = stateManager.getGemUUID(item)
-            val key = stateManager.gemUuidToKey[id] ?: continue
-            val normalized = key.lowercase(ROOT_LOCALE)
-            if (!presentKeysOrdered.contains(normalized)) presentKeysOrdered.add(normalized)
+        val tracked = inventoryGrantSlots[player.uniqueId]
+        val slots = tracked ?: inventoryGrantSlots.computeIfAbsent(player.uniqueId) { GemInventorySlots() }
+        val presentKeys = synchronized(slots) {
+            if (tracked == null || slotIndexes == null) {
+                // 整包重扫总是重新挑选一次生效的 key，未变化时 applyInventoryGrants 本身不会改动权限。
+                val contents = inventory.contents
+                slots.update(contents.size, null) { slot -> heldGemKey(contents[slot]) }
+            } else if (!slots.update(inventory.size, slotIndexes) { slot -> heldGemKey(inventory.getItem(slot)) }) {
+                return false
+            }
+            slots.presentKeys()
         }
+        return applyInventoryGrants(player, presentKeys)
+    }
+
+    private fun heldGemKey(item: ItemStack?): String? {
+        if (!stateManager.isRuleGem(item)) return null
+        val id = stateManager.getGemUUID(item) ?: return null
+        return stateManager.gemUuidToKey[id]?.lowercase(ROOT_LOCALE)
+    }
 
+    /** 返回权限是否有变化；调用方负责 `recalculatePermissions`。 */
+    private fun applyInventoryGrants(player: Player, presentKeysOrdered: List<String>): Boolean {
+        val psm = getPSM()
         val previouslyActive = playerActiveHeldKeys.getOrDefault(player.uniqueId, emptySet())
         val selectedKeys: MutableSet<String> = LinkedHashSet()
         for (key in presentKeysOrdered) {
@@ -818,7 +924,9 @@ class GemPermissionManager(
 
         playerActiveHeldKeys[player.uniqueId] = selectedKeys
 
+        var changed = false
         if (psm != null) {
+            changed = keysToRemove.isNotEmpty() || keysToAdd.isNotEmpty()
             for (key in keysToRemove) {
                 val definition = stateManager.findGemDefinition(key)
                 if (definition != null) {
@@ -844,13 +952,19 @@ class GemPermissionManager(
             val attachment = invAttachments.computeIfAbsent(player.uniqueId) { player.addAttachment(plugin) }
             val current: Set<String> = HashSet(attachment.permissions.keys)
             for (node in shouldHave) {
-                if (!current.contains(node)) attachment.setPermission(node, true)
+                if (!current.contains(node)) {
+                    attachment.setPermission(node, true)
+                    changed = true
+                }
             }
             for (node in current) {
-                if (!shouldHave.contains(node)) attachment.unsetPermission(node)
+                if (!shouldHave.contains(node)) {
+                    attachment.unsetPermission(node)
+                    changed = true
+                }
             }
         }
-        player.recalculatePermissions()
+        return changed
     }
 
     fun conflictsWithSelected(candidateKey: String?, selectedKeys: Set<String>?): Boolean {
@@ -908,7 +1022,9 @@ class GemPermissionManager(
         allowanceManager?.clearPlayerData(uid)
         playerUuidToRedeemedKeys.remove(uid)
         playerActiveHeldKeys.remove(uid)
+        inventoryGrantSlots.remove(uid)
         gemIdToRedeemer.entries.removeIf { entry -> uid == entry.value }
+        saveRevisions.markDirty(REDEEMED_ROOT, REDEEM_OWNER_BY_ID_ROOT)
 
         val invAtt = invAttachments.remove(uid)
         if (invAtt != null) {
@@ -954,7 +1070,16 @@ class GemPermissionManager(
     fun markGemRedeemed(player: Player?, gemKey: String?) {
         if (player == null || gemKey.isNullOrEmpty()) return
         val normalizedKey = gemKey.lowercase(ROOT_LOCALE)
-        playerUuidToRedeemedKeys.computeIfAbsent(player.uniqueId) { ConcurrentHashMap.newKeySet() }.add(normalizedKey)
+        if (playerUuidToRedeemedKeys.computeIfAbsent(player.uniqueId) { ConcurrentHashMap.newKeySet() }.add(normalizedKey)) {
+            saveRevisions.markDirty(REDEEMED_ROOT)
+        }
+    }
+
+    /** Records [owner] as the redeemer of [gemId] and returns the previous redeemer. */
+    fun assignRedeemer(gemId: UUID, owner: UUID): UUID? {
+        val old = gemIdToRedeemer.put(gemId, owner)
+        if (old != owner) saveRevisions.markDirty(REDEEM_OWNER_BY_ID_ROOT)
+        return old
     }
 
     fun getCurrentRulers(): Map<UUID, Set<String>> {
@@ -982,7 +1107,7 @@ class GemPermissionManager(
         val gemKey = stateManager.gemUuidToKey[gemId] ?: return
         val definition = stateManager.findGemDefinition(gemKey) ?: return
         allowanceManager?.reassignHeldInstanceAllowance(gemId, player.uniqueId, definition)
-        val old = gemIdToRedeemer.put(gemId, player.uniqueId)
+        val old = assignRedeemer(gemId, player.uniqueId)
         val key = gemKey.lowercase(ROOT_LOCALE)
         if (old != null && old != player.uniqueId) {
             decrementOwnerKeyCount(old, key, definition)
@@ -992,5 +1117,10 @@ class GemPermissionManager(
 
     companion object {
         private val ROOT_LOCALE: Locale = Locale.ROOT
+        private const val REDEEMED_ROOT = "redeemed"
+        private const val REDEEM_OWNER_BY_ID_ROOT = "redeem_owner_by_id"
+        private const val FULL_SET_OWNER_ROOT = "full_set_owner"
+        private const val PENDING_REVOKES_ROOT = "pending_revokes"
+        private const val TOGGLED_OFF_ROOT = "toggled_off_gems"
     }
 }
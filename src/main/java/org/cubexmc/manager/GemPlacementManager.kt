@@ -5,6 +5,7 @@ import org.bukkit.Location
 import org.bukkit.Material
 import org.bukkit.Particle
 import org.bukkit.Sound
+import org.bukkit.World
 import org.bukkit.configuration.file.YamlConfiguration
 import org.bukkit.entity.Player
 import org.cubexmc.RuleGems
@@ -42,6 +43,16 @@ class GemPlacementManager(
     private var saveCallback: Runnable? = null
     private val random = Random()
     val presentationManager = GemPresentationManager(plugin, gameplayConfig, stateManager)
+    val proximityTracker = GemProximityTracker(plugin, stateManager)
+    val particleEmitter = GemParticleEmitter(plugin, stateManager, proximityTracker)
+    val columnCache = GemColumnCache()
+    val escapePool = GemEscapePool(plugin, columnCache, { !isUnusableTerrain(it) })
+    private val scatterPipeline = GemScatterPipeline(
+        plugin,
+        boundsService,
+        columnCache,
+        GemScatterCommitter { gemId, column, center -> commitScatterTarget(gemId, column, center) },
+    )
 
     val gemEscapeTasks: MutableMap<UUID, Any> = ConcurrentHashMap()
     private val gemTransitions: MutableMap<UUID, GemTransition> = ConcurrentHashMap()
@@ -81,23 +92,13 @@ class GemPlacementManager(
             plugin,
             base,
             {
-                val world = base.world ?: return@regionRun
+                if (base.world == null) return@regionRun
                 val replacingExistingGem = stateManager.findLocationByGemId(gemId) != null ||
                     stateManager.getGemHolder(gemId) != null
                 if (!ignoreLimit && !replacingExistingGem && stateManager.getTotalGemCount() >= gemParser.requiredCount) {
                     plugin.logger.info("Gem limit reached, skipping placement")
                     return@regionRun
                 }
-                val border = world.worldBorder
-                val target = base.block.location
-                var tries = 0
-                while (
-                    tries < MAX_VERTICAL_SEARCH &&
-                    (target.block.type.isSolid || occupiedByAnotherGem(target, gemId))
-                ) {
-                    target.add(0.0, 1.0, 0.0)
-                    tries++
-                }
                 // 这里**只**校验原版世界边界与世界高度，绝不校验 random_place_range。
                 //
                 // random_place_range 的语义是"随机散落取点的范围"，不是"宝石唯一可存在的区域"。
@@ -107,7 +108,8 @@ class GemPlacementManager(
                 //
                 // 需要把宝石约束在可玩区域内的只有"插件主动搬动"的场景（随机散落、逃逸），
                 // 那些路径走 boundsService，不经过这里。
-                if (!border.isInside(target) || target.blockY < world.minHeight || target.blockY > world.maxHeight) {
+                val target = standingBlock(base, gemId)
+                if (target == null) {
                     // 越界时只允许回退一次到随机放置。随机放置耗尽后会调用
                     // placeAtBoundsCenter（allowRandomFallback = false），因此不会再绕回这里，
                     // 避免"随机 -> 越界 -> 随机"的无界递归调度。
@@ -125,16 +127,38 @@ class GemPlacementManager(
         )
     }
 
+    /**
+     * 从 [base] 向上越过实体方块和其他宝石，返回可落位的方块坐标；越出原版世界边界或世界高度时返回 null。
+     * 必须在 [base] 所属区域线程调用。
+     */
+    private fun standingBlock(base: Location, gemId: UUID): Location? {
+        val world = base.world ?: return null
+        val target = base.block.location
+        var tries = 0
+        while (
+            tries < MAX_VERTICAL_SEARCH &&
+            (target.block.type.isSolid || occupiedByAnotherGem(target, gemId))
+        ) {
+            target.add(0.0, 1.0, 0.0)
+            tries++
+        }
+        if (!world.worldBorder.isInside(target) || target.blockY < world.minHeight || target.blockY > world.maxHeight) {
+            return null
+        }
+        return target
+    }
+
     /** 落位的公共尾段：解绑旧坐标、渲染、绑定、记录移动、存盘。必须在目标区域线程调用。 */
-    private fun commitPlacement(gemId: UUID, target: Location) {
+    private fun commitPlacement(gemId: UUID, target: Location, save: Boolean = true) {
         val oldLocation = stateManager.findLocationByGemId(gemId)
         if (oldLocation != null && !isSameBlock(oldLocation, target)) {
             unplaceRuleGem(oldLocation, gemId)
         }
         presentationManager.renderPlacedGem(gemId, target, stateManager.getGemMaterial(gemId))
         stateManager.bindPlacedGem(target, gemId)
+        forgetColumn(target)
         recordGemMovement(gemId)
-        savePlacementState()
+        if (save) savePlacementState()
     }
 
     /**
@@ -155,11 +179,10 @@ class GemPlacementManager(
             column,
             {
                 val world = column.world ?: return@regionRun
-                val y = world.getHighestBlockYAt(column.blockX, column.blockZ) + 1
-                commitPlacement(
-                    gemId,
-                    Location(world, column.blockX.toDouble(), y.toDouble(), column.blockZ.toDouble()),
-                )
+                val y = columnCache.highestY(world, column.blockX, column.blockZ) + 1
+                // 缓存的列高度可能已过期，与 commitScatterTarget 一样经 standingBlock 越过实体方块和其他宝石。
+                val base = Location(world, column.blockX.toDouble(), y.toDouble(), column.blockZ.toDouble())
+                commitPlacement(gemId, standingBlock(base, gemId) ?: base)
             },
             0L,
             -1L,
@@ -175,6 +198,7 @@ class GemPlacementManager(
         val fLoc = toBlockLocation(loc) ?: return
         presentationManager.detachPlacedGem(gemId, fLoc)
         stateManager.unbindPlacedGem(fLoc, gemId)
+        forgetColumn(fLoc)
         SchedulerUtil.regionRun(
             plugin,
             fLoc,
@@ -221,6 +245,7 @@ class GemPlacementManager(
 
                 presentationManager.renderPlacedGem(gemId, t, mat)
                 stateManager.bindPlacedGem(t, gemId)
+                forgetColumn(t)
                 recordGemMovement(gemId)
                 savePlacementState()
             },
@@ -252,6 +277,41 @@ class GemPlacementManager(
         scheduleRandomAttempt(gemId, MAX_RANDOM_ATTEMPTS)
     }
 
+    /**
+     * 批量散落：有合法区域的宝石交给 [GemScatterPipeline] 按区块分组落位，落位过程不逐个存盘；
+     * 没有配置范围的宝石仍走 [randomPlaceGem] 的出生点兜底。[completion] 在全局线程回调。
+     */
+    fun scatterGems(gemIds: Collection<UUID>, completion: GemScatterCompletion) {
+        val batched = ArrayList<UUID>(gemIds.size)
+        for (gemId in gemIds) {
+            stateManager.ensureGemKeyAssigned(gemId)
+            if (boundsService.boundsFor(gemId) == null) {
+                randomPlaceGem(gemId)
+            } else {
+                batched.add(gemId)
+            }
+        }
+        scatterPipeline.scatter(batched, completion)
+    }
+
+    private fun commitScatterTarget(gemId: UUID, column: Location, center: Boolean): Boolean {
+        val world = column.world ?: return false
+        val highest = columnCache.highestY(world, column.blockX, column.blockZ)
+        val base = Location(world, column.blockX.toDouble(), (highest + 1).toDouble(), column.blockZ.toDouble())
+        if (center) {
+            // 中心列按定义就在合法区域内，与 placeAtBoundsCenter 一样无条件落位。
+            commitPlacement(gemId, standingBlock(base, gemId) ?: base, save = false)
+            return true
+        }
+        if (base.blockY < world.minHeight || base.blockY > world.maxHeight) {
+            columnCache.markUnusable(world, column.blockX, column.blockZ, highest)
+            return false
+        }
+        val target = standingBlock(base, gemId) ?: return false
+        commitPlacement(gemId, target, save = false)
+        return true
+    }
+
     fun adoptPlayerPlacedGem(gemId: UUID?, location: Location?) {
         if (gemId == null || location == null) return
         val target = location.block.location
@@ -275,7 +335,9 @@ class GemPlacementManager(
             return
         }
 
-        val candidate = boundsService.randomColumn(gemId, random)
+        val candidate = columnCache.pickColumn(GemColumnCache.DEFAULT_SAMPLES) {
+            boundsService.randomColumn(gemId, random)
+        }
         if (candidate == null) {
             placeAtBoundsCenter(gemId)
             return
@@ -286,8 +348,10 @@ class GemPlacementManager(
             candidate,
             {
                 try {
-                    val y = world.getHighestBlockYAt(candidate.blockX, candidate.blockZ) + 1
+                    val highest = columnCache.highestY(world, candidate.blockX, candidate.blockZ)
+                    val y = highest + 1
                     if (y < world.minHeight || y > world.maxHeight) {
+                        columnCache.markUnusable(world, candidate.blockX, candidate.blockZ, highest)
                         scheduleRandomAttempt(gemId, attemptsLeft - 1)
                         return@regionRun
                     }
@@ -373,6 +437,7 @@ class GemPlacementManager(
     }
 
     fun prepareEscapeReload() {
+        escapePool.clear()
         synchronized(transitionLock) {
             escapeOperationGeneration.incrementAndGet()
             gemTransitions.clear()
@@ -388,6 +453,9 @@ class GemPlacementManager(
         escapeCoordinator.populateSaveSnapshot(snapshot)
     }
 
+    fun escapeSaveRevision(): Long =
+        escapeCoordinator.saveRevisions.revision(GemEscapeCoordinator.SAVE_ROOT_KEY)
+
     fun resetEscapeStateForScatter() {
         synchronized(transitionLock) {
             escapeOperationGeneration.incrementAndGet()
@@ -458,7 +526,9 @@ class GemPlacementManager(
                 return
             }
 
-            val candidate = createEscapeCandidate(request)
+            val pooled = takePooledEscapeTarget(request)
+            val candidate = pooled
+                ?: columnCache.pickColumn(GemColumnCache.DEFAULT_SAMPLES) { createEscapeCandidate(request) }
             if (candidate == null) {
                 finish(GemEscapeRelocationResult(GemEscapeRelocationStatus.FAILED))
                 return
@@ -477,14 +547,27 @@ class GemPlacementManager(
                         return@regionRun
                     }
                     val target = try {
-                        val y = world.getHighestBlockYAt(candidate.blockX, candidate.blockZ) + 1
-                        Location(world, candidate.blockX.toDouble(), y.toDouble(), candidate.blockZ.toDouble())
+                        pooled ?: Location(
+                            world,
+                            candidate.blockX.toDouble(),
+                            (columnCache.highestY(world, candidate.blockX, candidate.blockZ) + 1).toDouble(),
+                            candidate.blockZ.toDouble(),
+                        )
                     } catch (_: Throwable) {
                         attemptCandidate(attempt + 1)
                         return@regionRun
                     }
 
+                    // 池中落点的 Y 是采样时的地表；若期间有未触发事件的地形变化，落点可能悬空或已被埋住。
+                    if (pooled != null && !isSurfaceTarget(world, target)) {
+                        invalidateColumn(world.uid, target.blockX, target.blockZ)
+                        attemptCandidate(attempt + 1)
+                        return@regionRun
+                    }
                     if (!isValidEscapeTarget(request, target)) {
+                        if (isUnusableTerrain(target)) {
+                            columnCache.markUnusable(world, target.blockX, target.blockZ, target.blockY - 1)
+                        }
                         attemptCandidate(attempt + 1)
                         return@regionRun
                     }
@@ -500,6 +583,7 @@ class GemPlacementManager(
                                     stateManager.getGemMaterial(request.gemId),
                                 )
                                 stateManager.bindPlacedGem(target, request.gemId)
+                                forgetColumn(target)
                                 committed = true
                             } catch (error: Throwable) {
                                 commitError = error
@@ -567,6 +651,26 @@ class GemPlacementManager(
         return !stateManager.isSupportRequired(material) || stateManager.hasBlockSupport(target)
     }
 
+    /** 与具体宝石无关的地形拒绝原因；只有这类拒绝才会写入 [columnCache]。 */
+    private fun isUnusableTerrain(target: Location): Boolean {
+        val world = target.world ?: return true
+        if (target.blockY < world.minHeight || target.blockY >= world.maxHeight) return true
+        val block = target.block
+        return block.type.isSolid || block.isLiquid
+    }
+
+    /** 宝石方块本身会改变列高度（BLOCK 模式），落位或移走后作废该列的缓存。 */
+    private fun forgetColumn(location: Location) {
+        val world = location.world ?: return
+        invalidateColumn(world.uid, location.blockX, location.blockZ)
+    }
+
+    /** 列 (x, z) 的地形变了：同时作废列高度缓存和落点池中该列的落点。 */
+    fun invalidateColumn(worldId: UUID, x: Int, z: Int) {
+        columnCache.invalidate(worldId, x, z)
+        escapePool.invalidate(worldId, x, z)
+    }
+
     private fun createEscapeCandidate(request: GemEscapeRequest): Location? {
         return if (request.mode == GemEscapeMode.GLOBAL_FALLBACK) {
             boundsService.randomColumn(request.gemId, ThreadLocalRandom.current())
@@ -575,13 +679,52 @@ class GemPlacementManager(
         }
     }
 
-    private fun createLocalEscapeCandidate(gemId: UUID, origin: Location, failedRound: Int): Location? {
-        val world = origin.world ?: return null
+    /** 目标仍紧贴该列当前的最高方块之上。必须在目标所属区域线程调用。 */
+    private fun isSurfaceTarget(world: World, target: Location): Boolean {
+        return try {
+            world.getHighestBlockYAt(target.blockX, target.blockZ) + 1 == target.blockY
+        } catch (_: Throwable) {
+            false
+        }
+    }
+
+    /**
+     * 从落点池里取一个预校验的目标。全局兜底接受范围内任意落点；
+     * 局部逃逸只接受落在本轮距离环带内的落点，池里没有合适的就退回逐个采样。
+     * 环带面积太小、扫描一遍池子也不太可能命中时直接跳过池子，免得白扫一遍。
+     */
+    private fun takePooledEscapeTarget(request: GemEscapeRequest): Location? {
+        val bounds = boundsService.boundsFor(request.gemId) ?: return null
+        if (request.mode == GemEscapeMode.GLOBAL_FALLBACK) {
+            return escapePool.take(bounds)
+        }
+        val origin = request.expectedLocation
+        if (origin.world != bounds.world) return null
+        val (minDistance, maxDistance) = localEscapeRing(request.failedRounds)
+        val ringArea = PI * (maxDistance * maxDistance - minDistance * minDistance)
+        val boundsArea = (bounds.maxX - bounds.minX + 1).toDouble() * (bounds.maxZ - bounds.minZ + 1)
+        if (ringArea * GemEscapePool.DEFAULT_SCAN_LIMIT < boundsArea) return null
+        return escapePool.take(bounds) { position ->
+            val dx = position.x - origin.x
+            val dz = position.z - origin.z
+            val squared = dx * dx + dz * dz
+            squared >= minDistance * minDistance && squared <= maxDistance * maxDistance
+        }
+    }
+
+    /** 局部逃逸第 [failedRound] 轮的水平距离环带 (min, max)。 */
+    private fun localEscapeRing(failedRound: Int): Pair<Double, Double> {
         val baseMin = gameplayConfig.gemEscapeLocalMinDistance.coerceAtLeast(1.0)
         val baseMax = gameplayConfig.gemEscapeLocalMaxDistance.coerceAtLeast(baseMin)
         val growth = gameplayConfig.gemEscapeDistanceGrowth.coerceAtLeast(0.0)
         val minDistance = if (failedRound <= 0) baseMin else baseMax + growth * (failedRound - 1)
         val maxDistance = (baseMax + growth * failedRound).coerceAtLeast(minDistance)
+        return minDistance to maxDistance
+    }
+
+    private fun createLocalEscapeCandidate(gemId: UUID, origin: Location, failedRound: Int): Location? {
+        val world = origin.world ?: return null
+        val (minDistance, maxDistance) = localEscapeRing(failedRound)
         val threadRandom = ThreadLocalRandom.current()
         val squaredDistance = minDistance * minDistance +
             threadRandom.nextDouble() * (maxDistance * maxDistance - minDistance * minDistance)
@@ -763,45 +906,7 @@ class GemPlacementManager(
     }
 
     fun startParticleEffectTask(defaultParticle: Particle?) {
-        SchedulerUtil.globalRun(
-            plugin,
-            {
-                for (loc in stateManager.locationToGemUuid.keys) {
-                    val target = loc
-                    SchedulerUtil.regionRun(
-                        plugin,
-                        target,
-                        {
-                            val world = target.world ?: return@regionRun
-                            val id = stateManager.locationToGemUuid[target]
-                            val definition = if (id != null) {
-                                stateManager.findGemDefinition(stateManager.gemUuidToKey[id])
-                            } else {
-                                null
-                            }
-                            val particle = definition?.particle ?: defaultParticle
-                            if (particle != null) {
-                                try {
-                                    world.spawnParticle(
-                                        particle,
-                                        target.x + 0.5,
-                                        target.y + 0.5,
-                                        target.z + 0.5,
-                                        1,
-                                    )
-                                } catch (_: IllegalArgumentException) {
-                                    // Continuous particles may require BlockData on some server versions.
-                                }
-                            }
-                        },
-                        0L,
-                        -1L,
-                    )
-                }
-            },
-            0L,
-            20L,
-        )
+        SchedulerUtil.globalRun(plugin, { particleEmitter.tick(defaultParticle) }, 0L, 20L)
     }
 
     fun initializePlacedGemBlocks() {
@@ -968,15 +1073,13 @@ class GemPlacementManager(
 
     fun checkPlayersNearRuleGems() {
         presentationManager.refreshAllPlayers()
-        if (stateManager.locationToGemUuid.isEmpty()) return
-        for (player in Bukkit.getOnlinePlayers()) {
-            checkPlayerNearRuleGems(player)
-        }
+        proximityTracker.tick()
     }
 
+    /** 在玩家所在线程按当前位置重新评估靠近提示（加入、重生等没有移动事件的场景）。 */
     fun checkPlayerNearRuleGems(player: Player?) {
-        if (player == null || stateManager.locationToGemUuid.isEmpty()) return
-        SchedulerUtil.entityRun(plugin, player, { doPlayerNearCheck(player) }, 0L, -1L)
+        if (player == null) return
+        SchedulerUtil.entityRun(plugin, player, { proximityTracker.evaluate(player, player.location) }, 0L, -1L)
     }
 
     fun refreshDisplayForPlayer(player: Player?) {
@@ -1003,25 +1106,9 @@ class GemPlacementManager(
         )
     }
 
-    private fun doPlayerNearCheck(player: Player?) {
-        if (player == null) return
-        val playerLoc = player.location
-        val playerWorld = playerLoc.world ?: return
-        for (blockLoc in stateManager.locationToGemUuid.keys) {
-            val world = blockLoc.world
-            if (world == null || world != playerWorld) continue
-            val distance = playerLoc.distance(blockLoc)
-            if (distance < PROXIMITY_DETECTION_RANGE) {
-                val volume = (1.0 - distance / PROXIMITY_DETECTION_RANGE).toFloat()
-                player.playSound(playerLoc, Sound.BLOCK_NOTE_BLOCK_PLING, volume, 1.0f)
-            }
-        }
-    }
-
     companion object {
         private const val MAX_VERTICAL_SEARCH = 6
         private const val MAX_RANDOM_ATTEMPTS = 12
-        private const val PROXIMITY_DETECTION_RANGE = 16.0
     }
 
     private enum class GemTransition {
@@ -4,6 +4,7 @@ import org.bukkit.Bukkit
 import org.bukkit.Location
 import org.bukkit.Material
 import org.bukkit.NamespacedKey
+import org.bukkit.World
 import org.bukkit.entity.ArmorStand
 import org.bukkit.entity.Entity
 import org.bukkit.entity.EntityType
@@ -12,10 +13,11 @@ import org.bukkit.inventory.ItemStack
 import org.bukkit.persistence.PersistentDataType
 import org.cubexmc.RuleGems
 import org.cubexmc.utils.SchedulerUtil
-import java.lang.reflect.Method
+import org.cubexmc.utils.ServerCompat
 import java.util.UUID
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicBoolean
+import kotlin.math.floor
 
 /**
  * Owns the runtime representation of placed gems.
@@ -23,6 +25,10 @@ import java.util.concurrent.atomic.AtomicBoolean
  * BLOCK mode writes the configured material into the world. PROXIMITY_DISPLAY
  * keeps the world block empty and creates non-persistent display entities only
  * while at least one player is within the configured reveal/hide radius.
+ *
+ * Records are bucketed by chunk so a refresh only inspects records in the
+ * cells around the player, and each player's visible set is diffed against
+ * the previous refresh so show/hide calls are issued only on change.
  */
 class GemPresentationManager(
     private val plugin: RuleGems,
@@ -31,6 +37,12 @@ class GemPresentationManager(
 ) {
     private val records: MutableMap<UUID, DisplayRecord> = ConcurrentHashMap()
     private val entityToGem: MutableMap<UUID, UUID> = ConcurrentHashMap()
+
+    /** Records bucketed by chunk; guarded by its own monitor. */
+    private val recordCells: MutableMap<DisplayCell, MutableSet<DisplayRecord>> = HashMap()
+
+    /** Records each player saw on their last refresh. Values are replaced, never mutated. */
+    private val playerViews: MutableMap<UUID, Set<DisplayRecord>> = ConcurrentHashMap()
     private val displayMarkerKey = NamespacedKey(plugin, "proximity_display")
     private val displayGemIdKey = NamespacedKey(plugin, "proximity_display_gem_id")
     private val modernBackendDisabled = AtomicBoolean(false)
@@ -40,19 +52,9 @@ class GemPresentationManager(
     } catch (_: IllegalArgumentException) {
         null
     }
-    private val showEntityMethod: Method? = findPlayerEntityVisibilityMethod("showEntity")
-    private val hideEntityMethod: Method? = findPlayerEntityVisibilityMethod("hideEntity")
-    private val visibleByDefaultMethod: Method? = try {
-        Entity::class.java.getMethod("setVisibleByDefault", Boolean::class.javaPrimitiveType)
-    } catch (_: ReflectiveOperationException) {
-        null
-    }
-
     private val hasModernBackend: Boolean
         get() = blockDisplayType != null &&
-            showEntityMethod != null &&
-            hideEntityMethod != null &&
-            visibleByDefaultMethod != null &&
+            ServerCompat.supportsEntityVisibility &&
             !modernBackendDisabled.get()
 
     fun synchronizePlacedGems(gems: Map<UUID, Location>?) {
@@ -88,9 +90,11 @@ class GemPresentationManager(
             return
         }
 
+        val world = target.world ?: return
         target.block.type = Material.AIR
-        val replacement = DisplayRecord(gemId, target, material)
-        val previous = records.put(gemId, replacement)
+        val cell = DisplayCell(world, target.blockX shr CELL_BITS, target.blockZ shr CELL_BITS)
+        val replacement = DisplayRecord(gemId, target, material, cell)
+        val previous = putRecord(replacement)
         if (previous != null) {
             scheduleEntityRemoval(previous, false)
         }
@@ -130,7 +134,8 @@ class GemPresentationManager(
 
     fun removeViewer(player: Player?) {
         val playerId = player?.uniqueId ?: return
-        for (record in records.values) {
+        val viewed = playerViews.remove(playerId) ?: return
+        for (record in viewed) {
             if (record.viewers.remove(playerId) && record.viewers.isEmpty()) {
                 scheduleEntityRemoval(record, true)
             }
@@ -165,24 +170,78 @@ class GemPresentationManager(
 
         val playerLocation = player.location
         val playerId = player.uniqueId
-        val revealSquared = gameplayConfig.gemDisplayRevealRange * gameplayConfig.gemDisplayRevealRange
-        val hideSquared = gameplayConfig.gemDisplayHideRange * gameplayConfig.gemDisplayHideRange
-        for (record in records.values) {
-            val wasViewing = record.viewers.contains(playerId)
-            val threshold = if (wasViewing) hideSquared else revealSquared
-            val shouldView = playerLocation.world == record.location.world &&
-                playerLocation.distanceSquared(record.location) <= threshold
-            if (shouldView) {
-                record.viewers.add(playerId)
+        val revealRange = gameplayConfig.gemDisplayRevealRange
+        val hideRange = gameplayConfig.gemDisplayHideRange
+        val revealSquared = revealRange * revealRange
+        val hideSquared = hideRange * hideRange
+        val previous = playerViews[playerId] ?: emptySet()
+        val visible = HashSet<DisplayRecord>()
+        for (record in recordsNear(playerLocation, maxOf(revealRange, hideRange))) {
+            if (records[record.gemId] !== record) continue
+            val threshold = if (record in previous) hideSquared else revealSquared
+            if (playerLocation.distanceSquared(record.location) <= threshold) {
+                visible.add(record)
+            }
+        }
+
+        val entered = ArrayList<DisplayRecord>()
+        for (record in visible) {
+            record.viewers.add(playerId)
+            if (record !in previous) {
+                entered.add(record)
+            }
+            if (record.entities.isEmpty() || record.entities.any { !it.isValid }) {
                 requestEntitySpawn(record)
-                showRecord(player, record)
-            } else if (record.viewers.remove(playerId)) {
-                hideRecord(player, record)
-                if (record.viewers.isEmpty()) {
-                    scheduleEntityRemoval(record, true)
+            }
+        }
+        val left = previous.filter { it !in visible }
+        if (visible.isEmpty()) {
+            playerViews.remove(playerId)
+        } else {
+            playerViews[playerId] = visible
+        }
+
+        showRecords(player, entered)
+        hideRecords(player, left)
+        for (record in left) {
+            if (record.viewers.remove(playerId) && record.viewers.isEmpty()) {
+                scheduleEntityRemoval(record, true)
+            }
+        }
+    }
+
+    private fun recordsNear(location: Location, radius: Double): List<DisplayRecord> {
+        val world = location.world ?: return emptyList()
+        val minX = floor(location.x - radius).toInt() shr CELL_BITS
+        val maxX = floor(location.x + radius).toInt() shr CELL_BITS
+        val minZ = floor(location.z - radius).toInt() shr CELL_BITS
+        val maxZ = floor(location.z + radius).toInt() shr CELL_BITS
+        val result = ArrayList<DisplayRecord>()
+        synchronized(recordCells) {
+            for (x in minX..maxX) {
+                for (z in minZ..maxZ) {
+                    recordCells[DisplayCell(world, x, z)]?.let { result.addAll(it) }
                 }
             }
         }
+        return result
+    }
+
+    private fun putRecord(record: DisplayRecord): DisplayRecord? = synchronized(recordCells) {
+        val previous = records.put(record.gemId, record)
+        if (previous != null) {
+            unindex(previous)
+        }
+        recordCells.getOrPut(record.cell) { HashSet() }.add(record)
+        previous
+    }
+
+    /** Caller must hold the [recordCells] monitor. */
+    private fun unindex(record: DisplayRecord) {
+        val bucket = recordCells[record.cell] ?: return
+        if (bucket.remove(record) && bucket.isEmpty()) {
+            recordCells.remove(record.cell)
+        }
     }
 
     private fun requestEntitySpawn(record: DisplayRecord) {
@@ -274,7 +333,7 @@ class GemPresentationManager(
         entity.persistentDataContainer.set(displayMarkerKey, PersistentDataType.BYTE, 1.toByte())
         entity.persistentDataContainer.set(displayGemIdKey, PersistentDataType.STRING, gemId.toString())
         if (hiddenByDefault) {
-            visibleByDefaultMethod?.invoke(entity, false)
+            ServerCompat.setVisibleByDefault(entity, false)
         }
     }
 
@@ -285,23 +344,35 @@ class GemPresentationManager(
         }
     }
 
+    private fun showRecords(player: Player, batch: List<DisplayRecord>) {
+        for (record in batch) {
+            showRecord(player, record)
+        }
+    }
+
+    private fun hideRecords(player: Player, batch: List<DisplayRecord>) {
+        for (record in batch) {
+            hideRecord(player, record)
+        }
+    }
+
     private fun showRecord(player: Player, record: DisplayRecord) {
-        val method = showEntityMethod ?: return
+        if (!ServerCompat.supportsEntityVisibility) return
         for (entity in record.entities) {
             try {
-                method.invoke(player, plugin, entity)
-            } catch (error: ReflectiveOperationException) {
+                ServerCompat.showEntity(player, plugin, entity)
+            } catch (error: Exception) {
                 plugin.logger.fine("Failed to show gem display to ${player.name}: ${error.message}")
             }
         }
     }
 
     private fun hideRecord(player: Player, record: DisplayRecord) {
-        val method = hideEntityMethod ?: return
+        if (!ServerCompat.supportsEntityVisibility) return
         for (entity in record.entities) {
             try {
-                method.invoke(player, plugin, entity)
-            } catch (error: ReflectiveOperationException) {
+                ServerCompat.hideEntity(player, plugin, entity)
+            } catch (error: Exception) {
                 plugin.logger.fine("Failed to hide gem display from ${player.name}: ${error.message}")
             }
         }
@@ -310,7 +381,10 @@ class GemPresentationManager(
     private fun removeRecord(gemId: UUID, location: Location) {
         val record = records[gemId] ?: return
         if (!sameBlock(record.location, location)) return
-        if (records.remove(gemId, record)) {
+        val removed = synchronized(recordCells) {
+            records.remove(gemId, record).also { if (it) unindex(record) }
+        }
+        if (removed) {
             scheduleEntityRemoval(record, false)
         }
     }
@@ -342,22 +416,19 @@ class GemPresentationManager(
     }
 
     private fun clearDisplayEntities() {
-        val snapshot = records.values.toList()
-        records.clear()
+        val snapshot = synchronized(recordCells) {
+            val values = records.values.toList()
+            records.clear()
+            recordCells.clear()
+            values
+        }
         entityToGem.clear()
+        playerViews.clear()
         for (record in snapshot) {
             scheduleEntityRemoval(record, false)
         }
     }
 
-    private fun findPlayerEntityVisibilityMethod(name: String): Method? {
-        return try {
-            Player::class.java.getMethod(name, org.bukkit.plugin.Plugin::class.java, Entity::class.java)
-        } catch (_: ReflectiveOperationException) {
-            null
-        }
-    }
-
     private fun toBlockLocation(location: Location?): Location? {
         val world = location?.world ?: return null
         return Location(
@@ -375,10 +446,13 @@ class GemPresentationManager(
             first.blockZ == second.blockZ
     }
 
+    private data class DisplayCell(val world: World, val x: Int, val z: Int)
+
     private class DisplayRecord(
         val gemId: UUID,
         val location: Location,
         val material: Material,
+        val cell: DisplayCell,
     ) {
         val viewers: MutableSet<UUID> = ConcurrentHashMap.newKeySet()
         val spawnScheduled = AtomicBoolean(false)
@@ -389,5 +463,6 @@ class GemPresentationManager(
 
     companion object {
         private const val DISPLAY_SCOREBOARD_TAG = "rulegems_proximity_display"
+        private const val CELL_BITS = 4
     }
 }
@@ -0,0 +1,231 @@
+package org.cubexmc.manager
+
+import org.bukkit.Bukkit
+import org.bukkit.Location
+import org.bukkit.Sound
+import org.bukkit.entity.Player
+import org.cubexmc.RuleGems
+import org.cubexmc.utils.SchedulerUtil
+import java.util.UUID
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.floor
+import kotlin.math.sqrt
+
+/**
+ * 宝石靠近提示音 - 由玩家移动驱动，而不是每个周期遍历 玩家 × 宝石。
+ *
+ * 玩家跨过方块边界（或传送、重生、加入）时才查询一次空间索引，把附近的宝石位置缓存下来；
+ * 周期任务只为附近确实有宝石的玩家播放提示音，其余玩家没有任何开销。
+ * 宝石放置状态变化（[GemStateManager.placementVersion] 改变）后，下一个周期找出增删的坐标，
+ * 只重新评估缓存位置在这些坐标附近的玩家；其他玩家的缓存不受影响，照常在下次跨方块时刷新。
+ */
+class GemProximityTracker(
+    private val plugin: RuleGems,
+    private val stateManager: GemStateManager,
+    private val range: Double = DEFAULT_RANGE,
+) {
+    private class Tracked(
+        val worldId: UUID,
+        val blockX: Int,
+        val blockY: Int,
+        val blockZ: Int,
+        val nearby: List<BlockPosition>,
+    ) {
+        val cell = Cell(worldId, blockX shr CHUNK_BITS, blockZ shr CHUNK_BITS)
+
+        fun sameBlock(location: Location, worldId: UUID): Boolean =
+            this.worldId == worldId && blockX == location.blockX && blockY == location.blockY && blockZ == location.blockZ
+    }
+
+    private data class Cell(val worldId: UUID, val chunkX: Int, val chunkZ: Int)
+
+    private val tracked: MutableMap<UUID, Tracked> = ConcurrentHashMap()
+
+    /** 按玩家最近一次评估所在区块分桶，按坐标找附近玩家时只看周围几个区块。 */
+    private val cells: MutableMap<Cell, MutableSet<UUID>> = ConcurrentHashMap()
+    private val nearbyPlayers: MutableSet<UUID> = ConcurrentHashMap.newKeySet()
+
+    @Volatile
+    private var evaluatedVersion = -1L
+
+    /** 上次评估时的放置坐标，只在 [tick] 中读写。 */
+    private var evaluatedPositions: Set<BlockPosition> = emptySet()
+
+    /** 玩家移动到 [to]；仍在上次评估的方块内时直接返回。 */
+    fun onMove(player: Player, to: Location?) {
+        val worldId = to?.world?.uid ?: return
+        val previous = tracked[player.uniqueId]
+        if (previous != null && previous.sameBlock(to, worldId)) return
+        evaluate(player, to)
+    }
+
+    /** 以 [location] 重新查询附近的宝石。查询半径多留一格，抵消只按方块边界刷新带来的误差。 */
+    fun evaluate(player: Player, location: Location?) {
+        val playerId = player.uniqueId
+        val world = location?.world
+        if (world == null) {
+            forget(playerId)
+            return
+        }
+        val nearby = stateManager.placedGemsWithin(location, range + BLOCK_MARGIN).map { it.position }
+        val entry = Tracked(world.uid, location.blockX, location.blockY, location.blockZ, nearby)
+        val previous = tracked.put(playerId, entry)
+        moveCell(playerId, previous?.cell, entry.cell)
+        if (nearby.isEmpty()) {
+            nearbyPlayers.remove(playerId)
+        } else {
+            nearbyPlayers.add(playerId)
+        }
+    }
+
+    fun forget(playerId: UUID) {
+        val previous = tracked.remove(playerId)
+        moveCell(playerId, previous?.cell, null)
+        nearbyPlayers.remove(playerId)
+    }
+
+    private fun moveCell(playerId: UUID, from: Cell?, to: Cell?) {
+        if (from == to) return
+        if (from != null) {
+            cells.computeIfPresent(from) { _, ids ->
+                ids.remove(playerId)
+                if (ids.isEmpty()) null else ids
+            }
+        }
+        if (to != null) {
+            cells.compute(to) { _, ids -> (ids ?: ConcurrentHashMap.newKeySet()).also { it.add(playerId) } }
+        }
+    }
+
+    /**
+     * 依次把区块桶覆盖 (x, z) 周围 [radius] 格内的已跟踪玩家交给 [visit]；[visit] 返回 true 时停止并返回 true。
+     * 开销只与范围内的区块数和其中的玩家数有关，与在线人数无关。
+     */
+    private inline fun anyTrackedNear(
+        worldId: UUID,
+        x: Double,
+        z: Double,
+        radius: Double,
+        visit: (UUID, Tracked) -> Boolean,
+    ): Boolean {
+        val minChunkX = floor(x - radius).toInt() shr CHUNK_BITS
+        val maxChunkX = floor(x + radius).toInt() shr CHUNK_BITS
+        val minChunkZ = floor(z - radius).toInt() shr CHUNK_BITS
+        val maxChunkZ = floor(z + radius).toInt() shr CHUNK_BITS
+        for (chunkX in minChunkX..maxChunkX) {
+            for (chunkZ in minChunkZ..maxChunkZ) {
+                val ids = cells[Cell(worldId, chunkX, chunkZ)] ?: continue
+                for (playerId in ids) {
+                    val entry = tracked[playerId] ?: continue
+                    if (visit(playerId, entry)) return true
+                }
+            }
+        }
+        return false
+    }
+
+    /** 周期任务入口，在全局线程调用。 */
+    fun tick() {
+        val version = stateManager.placementVersion
+        val reevaluate = if (version != evaluatedVersion) {
+            evaluatedVersion = version
+            playersNear(changedPositions())
+        } else {
+            emptySet()
+        }
+        for (playerId in reevaluate) {
+            val player = Bukkit.getPlayer(playerId)
+            if (player == null || !player.isOnline) {
+                forget(playerId)
+                continue
+            }
+            SchedulerUtil.entityRun(
+                plugin,
+                player,
+                {
+                    evaluate(player, player.location)
+                    ping(player)
+                },
+                0L,
+                -1L,
+            )
+        }
+        if (nearbyPlayers.isEmpty()) return
+        for (playerId in nearbyPlayers) {
+            if (playerId in reevaluate) continue
+            val player = Bukkit.getPlayer(playerId)
+            if (player == null || !player.isOnline) {
+                forget(playerId)
+                continue
+            }
+            SchedulerUtil.entityRun(plugin, player, { ping(player) }, 0L, -1L)
+        }
+    }
+
+    /** 与上次评估相比新增或移除的放置坐标。 */
+    private fun changedPositions(): Set<BlockPosition> {
+        val current = HashSet(stateManager.placedGemPositions().values)
+        val previous = evaluatedPositions
+        evaluatedPositions = current
+        val changed = HashSet<BlockPosition>()
+        for (position in current) if (position !in previous) changed.add(position)
+        for (position in previous) if (position !in current) changed.add(position)
+        return changed
+    }
+
+    /** 缓存位置与 [positions] 中任一坐标的距离在查询半径内的已跟踪玩家。 */
+    private fun playersNear(positions: Set<BlockPosition>): Set<UUID> {
+        if (positions.isEmpty() || tracked.isEmpty()) return emptySet()
+        val radius = range + BLOCK_MARGIN
+        val radiusSquared = radius * radius
+        val players = HashSet<UUID>()
+        for (position in positions) {
+            anyTrackedNear(position.worldId, position.x.toDouble(), position.z.toDouble(), radius) { playerId, entry ->
+                val dx = (position.x - entry.blockX).toDouble()
+                val dy = (position.y - entry.blockY).toDouble()
+                val dz = (position.z - entry.blockZ).toDouble()
+                if (dx * dx + dy * dy + dz * dz <= radiusSquared) players.add(playerId)
+                false
+            }
+        }
+        return players
+    }
+
+    /** 是否有已跟踪的玩家与 (x, z) 的水平距离不超过 [radius]；按玩家最近一次评估时所在的方块判断。 */
+    fun hasPlayerNear(worldId: UUID, x: Double, z: Double, radius: Double): Boolean {
+        val radiusSquared = radius * radius
+        return anyTrackedNear(worldId, x, z, radius) { _, entry ->
+            val dx = entry.blockX + 0.5 - x
+            val dz = entry.blockZ + 0.5 - z
+            dx * dx + dz * dz <= radiusSquared
+        }
+    }
+
+    val trackedNearbyCount: Int
+        get() = nearbyPlayers.size
+
+    /** 按玩家当前位置计算音量，只遍历缓存的附近宝石。 */
+    private fun ping(player: Player) {
+        val nearby = tracked[player.uniqueId]?.nearby ?: return
+        if (nearby.isEmpty()) return
+        val location = player.location
+        val worldId = location.world?.uid ?: return
+        for (position in nearby) {
+            if (position.worldId != worldId) continue
+            val dx = position.x - location.x
+            val dy = position.y - location.y
+            val dz = position.z - location.z
+            val distance = sqrt(dx * dx + dy * dy + dz * dz)
+            if (distance < range) {
+                val volume = (1.0 - distance / range).toFloat()
+                player.playSound(location, Sound.BLOCK_NOTE_BLOCK_PLING, volume, 1.0f)
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_RANGE = 16.0
+        private const val BLOCK_MARGIN = 2.0
+        private const val CHUNK_BITS = 4
+    }
+}
@@ -0,0 +1,188 @@
+package org.cubexmc.manager
+
+import org.bukkit.Location
+import org.cubexmc.RuleGems
+import org.cubexmc.utils.SchedulerUtil
+import java.util.Random
+import java.util.UUID
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/** 一次批量散落的统计结果。 */
+data class GemScatterReport(
+    val placed: Int,
+    val centerFallbacks: Int,
+    val unplaced: Int,
+    val regionTasks: Int,
+    val chunkLoads: Int,
+    val durationMillis: Long,
+)
+
+fun interface GemScatterCommitter {
+    /**
+     * 在 [column] 所属区域线程调用，把宝石落到该列顶部；返回 false 表示该列不可用、需要换列重试。
+     * [center] 为 true 时是合法区域中心列的最终兜底，应无条件落位。实现不应逐个存盘。
+     */
+    fun commit(gemId: UUID, column: Location, center: Boolean): Boolean
+}
+
+fun interface GemScatterCompletion {
+    fun onComplete(report: GemScatterReport)
+}
+
+/**
+ * 批量散落流水线 - 先为所有宝石一次性采样目标列，再按区块分组，每组只调度一个区域任务落位。
+ *
+ * 落位失败的宝石进入下一轮重新采样；第 [maxRounds] 轮改用合法区域中心列兜底。
+ * 全部轮次结束后在全局线程回调 [GemScatterCompletion]，由调用方统一存盘一次。
+ */
+class GemScatterPipeline(
+    private val plugin: RuleGems,
+    private val boundsService: GemBoundsService,
+    private val columnCache: GemColumnCache,
+    private val committer: GemScatterCommitter,
+    private val maxRounds: Int = DEFAULT_MAX_ROUNDS,
+) {
+    private class Target(val gemId: UUID, val column: Location, val center: Boolean)
+
+    private data class RegionKey(val worldId: UUID, val chunkX: Int, val chunkZ: Int)
+
+    private data class ColumnKey(val worldId: UUID, val x: Int, val z: Int)
+
+    private inner class Run(val completion: GemScatterCompletion) {
+        val startedAt = System.nanoTime()
+        val placed = AtomicInteger()
+        val centerFallbacks = AtomicInteger()
+        val unplaced = AtomicInteger()
+        val regionTasks = AtomicInteger()
+        val chunkLoads = AtomicInteger()
+
+        fun finish() {
+            val report = GemScatterReport(
+                placed.get(),
+                centerFallbacks.get(),
+                unplaced.get(),
+                regionTasks.get(),
+                chunkLoads.get(),
+                TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt),
+            )
+            SchedulerUtil.globalRun(plugin, { completion.onComplete(report) }, 0L, -1L)
+        }
+    }
+
+    private val random = Random()
+
+    /** 在全局线程调用；[gemIds] 必须都已分配 gemKey 且配置了合法区域。 */
+    fun scatter(gemIds: Collection<UUID>, completion: GemScatterCompletion) {
+        runRound(Run(completion), gemIds.toList(), 1)
+    }
+
+    private fun runRound(run: Run, gemIds: List<UUID>, round: Int) {
+        if (gemIds.isEmpty()) {
+            run.finish()
+            return
+        }
+        if (round > maxRounds) {
+            run.unplaced.addAndGet(gemIds.size)
+            plugin.logger.severe("Scatter could not place ${gemIds.size} gem(s); the custody audit will retry them.")
+            run.finish()
+            return
+        }
+        val groups = plan(run, gemIds, round == maxRounds)
+        if (groups.isEmpty()) {
+            run.finish()
+            return
+        }
+        val retries = ConcurrentLinkedQueue<UUID>()
+        val remaining = AtomicInteger(groups.size)
+        val groupDone = Runnable {
+            if (remaining.decrementAndGet() == 0) runRound(run, retries.toList(), round + 1)
+        }
+        for ((key, targets) in groups) {
+            run.regionTasks.incrementAndGet()
+            val task = SchedulerUtil.regionRun(
+                plugin,
+                targets[0].column,
+                {
+                    try {
+                        commitGroup(run, key, targets, retries)
+                    } finally {
+                        groupDone.run()
+                    }
+                },
+                0L,
+                -1L,
+            )
+            if (task == null) {
+                targets.forEach { retries.add(it.gemId) }
+                groupDone.run()
+            }
+        }
+    }
+
+    /** 为本轮每颗宝石挑一列（同一轮内不复用同一列），按区块分组。 */
+    private fun plan(run: Run, gemIds: List<UUID>, lastRound: Boolean): Map<RegionKey, List<Target>> {
+        val groups = LinkedHashMap<RegionKey, MutableList<Target>>()
+        val claimed = HashSet<ColumnKey>()
+        for (gemId in gemIds) {
+            val sampled = if (lastRound) {
+                null
+            } else {
+                columnCache.pickColumn(GemColumnCache.DEFAULT_SAMPLES) {
+                    boundsService.randomColumn(gemId, random)?.takeUnless { columnKey(it) in claimed }
+                }
+            }
+            val column = sampled ?: boundsService.centerColumn(gemId)
+            val world = column?.world
+            if (column == null || world == null) {
+                run.unplaced.incrementAndGet()
+                plugin.logger.severe(
+                    "Cannot scatter gem $gemId: no usable random_place_range; " +
+                        "it stays unplaced until the next custody audit.",
+                )
+                continue
+            }
+            columnKey(column)?.let { claimed.add(it) }
+            val key = RegionKey(world.uid, column.blockX shr CHUNK_BITS, column.blockZ shr CHUNK_BITS)
+            groups.getOrPut(key) { ArrayList() }.add(Target(gemId, column, sampled == null))
+        }
+        return groups
+    }
+
+    private fun commitGroup(run: Run, key: RegionKey, targets: List<Target>, retries: MutableCollection<UUID>) {
+        val world = targets[0].column.world
+        if (world == null) {
+            targets.forEach { retries.add(it.gemId) }
+            return
+        }
+        if (!world.isChunkLoaded(key.chunkX, key.chunkZ)) run.chunkLoads.incrementAndGet()
+        for (target in targets) {
+            val committed = try {
+                committer.commit(target.gemId, target.column, target.center)
+            } catch (e: Exception) {
+                plugin.logger.fine("Failed to scatter gem ${target.gemId}: ${e.message}")
+                false
+            }
+            when {
+                committed && target.center -> {
+                    run.placed.incrementAndGet()
+                    run.centerFallbacks.incrementAndGet()
+                }
+                committed -> run.placed.incrementAndGet()
+                target.center -> run.unplaced.incrementAndGet()
+                else -> retries.add(target.gemId)
+            }
+        }
+    }
+
+    private fun columnKey(location: Location): ColumnKey? {
+        val world = location.world ?: return null
+        return ColumnKey(world.uid, location.blockX, location.blockZ)
+    }
+
+    companion object {
+        const val DEFAULT_MAX_ROUNDS = 12
+        private const val CHUNK_BITS = 4
+    }
+}
@@ -12,6 +12,9 @@ import kotlin.math.max
 
 /**
  * 专注散落流程，避免 GemManager 继续膨胀。
+ *
+ * 宝石实例一次性交给 [GemPlacementManager.scatterGems] 批量落位；全部落位完成后才触发散落特效、
+ * 公告并存盘一次，同时记录本次散落耗时与加载的区块数。
  */
 class GemScatterService(
     private val stateManager: GemStateManager,
@@ -23,10 +26,11 @@ class GemScatterService(
     private val resetOwnershipStateAction: Runnable?,
     private val saveAction: Runnable,
 ) {
-    fun scatterGems() {
+    /** [onComplete] 在散落全部落位、存盘之后调用（可能晚于本方法返回）。 */
+    @JvmOverloads
+    fun scatterGems(onComplete: Runnable? = null) {
         placementManager.resetEscapeStateForScatter()
         languageManager.logMessage("scatter_start")
-        var scatteredCount = 0
 
         val placedSnapshot: Map<Location, UUID> = stateManager.snapshotPlacedGems()
         val keySnapshot: Map<UUID, String> = stateManager.snapshotGemKeys()
@@ -41,6 +45,7 @@ class GemScatterService(
                     player.inventory.remove(item)
                 }
             }
+            stateManager.notifyInventoryEdited(player)
         }
         stateManager.clearHolderMappings()
         stateManager.clearGemKeys()
@@ -49,7 +54,8 @@ class GemScatterService(
         languageManager.logMessage("gems_recollected")
 
         val definitions: List<GemDefinition>? = gemParser.gemDefinitions
-        val sampleGemIds = HashMap<GemDefinition, UUID>()
+        val sampleGemIds = LinkedHashMap<GemDefinition, UUID>()
+        val gemIds = ArrayList<UUID>()
         if (!definitions.isNullOrEmpty()) {
             val reusableIds = reusableIdsByKey(keySnapshot)
             for (definition in definitions) {
@@ -58,25 +64,63 @@ class GemScatterService(
                     val normalizedKey = definition.gemKey.lowercase(Locale.ROOT)
                     val gemId = reusableIds[normalizedKey]?.pollFirst() ?: UUID.randomUUID()
                     stateManager.setGemKey(gemId, definition.gemKey)
-                    placementManager.randomPlaceGem(gemId)
+                    gemIds.add(gemId)
                     sampleGemIds.putIfAbsent(definition, gemId)
-                    scatteredCount++
                 }
             }
-            for ((definition, gemId) in sampleGemIds) {
-                if (definition.onScatter == null) {
-                    continue
-                }
-                val location = stateManager.getGemLocation(gemId)
-                if (location != null) {
-                    placementManager.triggerScatterEffects(gemId, location, null, false)
-                }
+        }
+        if (gemIds.isEmpty()) {
+            finishScatter(0, sampleGemIds, null, onComplete)
+            return
+        }
+        placementManager.scatterGems(gemIds) { report -> finishScatter(gemIds.size, sampleGemIds, report, onComplete) }
+    }
+
+    private fun finishScatter(
+        scatteredCount: Int,
+        sampleGemIds: Map<GemDefinition, UUID>,
+        report: GemScatterReport?,
+        onComplete: Runnable?,
+    ) {
+        try {
+            announceScatter(scatteredCount, sampleGemIds, report)
+            saveAction.run()
+        } finally {
+            onComplete?.run()
+        }
+    }
+
+    private fun announceScatter(
+        scatteredCount: Int,
+        sampleGemIds: Map<GemDefinition, UUID>,
+        report: GemScatterReport?,
+    ) {
+        for ((definition, gemId) in sampleGemIds) {
+            if (definition.onScatter == null) {
+                continue
+            }
+            val location = stateManager.getGemLocation(gemId)
+            if (location != null) {
+                placementManager.triggerScatterEffects(gemId, location, null, false)
             }
         }
 
         val placeholders = HashMap<String, String>()
         placeholders["count"] = scatteredCount.toString()
         languageManager.logMessage("gems_scattered", placeholders)
+        if (report != null) {
+            languageManager.logMessage(
+                "scatter_report",
+                mapOf(
+                    "duration" to report.durationMillis.toString(),
+                    "placed" to report.placed.toString(),
+                    "center" to report.centerFallbacks.toString(),
+                    "unplaced" to report.unplaced.toString(),
+                    "region_tasks" to report.regionTasks.toString(),
+                    "chunk_loads" to report.chunkLoads.toString(),
+                ),
+            )
+        }
 
         val gemScatterExecute: ExecuteConfig? = gameplayConfig.gemScatterExecute
         effectUtils.executeCommands(gemScatterExecute, placeholders)
@@ -84,7 +128,6 @@ class GemScatterService(
         for (player in Bukkit.getOnlinePlayers()) {
             languageManager.showTitle(player, "gems_scattered", placeholders)
         }
-        saveAction.run()
     }
 
     private fun reusableIdsByKey(snapshot: Map<UUID, String>): Map<String, ArrayDeque<UUID>> {
@@ -0,0 +1,193 @@
+package org.cubexmc.manager
+
+import java.util.UUID
+import kotlin.math.floor
+
+/**
+ * 放置宝石的空间索引 - 按 (世界, 单元格) 分桶，单元格默认与区块对齐（16 格）。
+ *
+ * 由 [GemStateManager] 在写锁内与 `positionToGemUuid` 同步维护，本身不做同步；
+ * 范围与最近邻查询只访问与查询范围相交的单元格，开销取决于附近的宝石数量而不是总数。
+ * 距离按方块坐标（方块角点）计算，与原先 `Location.distance(blockLocation)` 的口径一致。
+ */
+class GemSpatialIndex(private val cellBits: Int = CHUNK_BITS) {
+    private data class Cell(val worldId: UUID, val x: Int, val z: Int)
+
+    /** 每个世界已占用单元格的外包范围；删除时不收缩，只用于决定最近邻搜索何时可以停止。 */
+    private class WorldBounds(x: Int, z: Int) {
+        var count = 0
+        var occupiedCells = 0
+        var minX = x
+        var maxX = x
+        var minZ = z
+        var maxZ = z
+    }
+
+    class Hit(val gemId: UUID, val position: BlockPosition, val distanceSquared: Double)
+
+    private val cells: MutableMap<Cell, MutableMap<BlockPosition, UUID>> = HashMap()
+    private val worlds: MutableMap<UUID, WorldBounds> = HashMap()
+    private val cellSize = 1 shl cellBits
+
+    val size: Int
+        get() = worlds.values.sumOf { it.count }
+
+    fun add(position: BlockPosition, gemId: UUID) {
+        val cell = cellOf(position)
+        var bucket = cells[cell]
+        val newCell = bucket == null
+        if (bucket == null) {
+            bucket = HashMap()
+            cells[cell] = bucket
+        }
+        if (bucket.put(position, gemId) != null) return
+        val bounds = worlds.getOrPut(position.worldId) { WorldBounds(cell.x, cell.z) }
+        bounds.count++
+        if (newCell) bounds.occupiedCells++
+        bounds.minX = minOf(bounds.minX, cell.x)
+        bounds.maxX = maxOf(bounds.maxX, cell.x)
+        bounds.minZ = minOf(bounds.minZ, cell.z)
+        bounds.maxZ = maxOf(bounds.maxZ, cell.z)
+    }
+
+    fun remove(position: BlockPosition, gemId: UUID) {
+        val cell = cellOf(position)
+        val bucket = cells[cell] ?: return
+        if (!bucket.remove(position, gemId)) return
+        val bounds = worlds[position.worldId] ?: return
+        if (bucket.isEmpty()) {
+            cells.remove(cell)
+            bounds.occupiedCells--
+        }
+        if (--bounds.count <= 0) worlds.remove(position.worldId)
+    }
+
+    /** 落在区块 ([chunkX], [chunkZ]) 内的宝石。 */
+    fun inChunk(worldId: UUID, chunkX: Int, chunkZ: Int): List<UUID> {
+        val result = ArrayList<UUID>()
+        val minCellX = (chunkX shl CHUNK_BITS) shr cellBits
+        val maxCellX = ((chunkX shl CHUNK_BITS) + CHUNK_MASK) shr cellBits
+        val minCellZ = (chunkZ shl CHUNK_BITS) shr cellBits
+        val maxCellZ = ((chunkZ shl CHUNK_BITS) + CHUNK_MASK) shr cellBits
+        for (cellX in minCellX..maxCellX) {
+            for (cellZ in minCellZ..maxCellZ) {
+                val bucket = cells[Cell(worldId, cellX, cellZ)] ?: continue
+                for ((position, gemId) in bucket) {
+                    if (position.x shr CHUNK_BITS == chunkX && position.z shr CHUNK_BITS == chunkZ) result.add(gemId)
+                }
+            }
+        }
+        return result
+    }
+
+    fun clear() {
+        cells.clear()
+        worlds.clear()
+    }
+
+    /** 与 (x, y, z) 距离不超过 [radius] 的宝石，无序。 */
+    fun withinRange(worldId: UUID, x: Double, y: Double, z: Double, radius: Double): List<Hit> {
+        if (radius < 0.0 || worldId !in worlds) return emptyList()
+        val radiusSquared = radius * radius
+        val hits = ArrayList<Hit>()
+        for (cx in cellCoord(x - radius)..cellCoord(x + radius)) {
+            for (cz in cellCoord(z - radius)..cellCoord(z + radius)) {
+                collect(cells[Cell(worldId, cx, cz)], x, y, z, radiusSquared, hits)
+            }
+        }
+        return hits
+    }
+
+    /**
+     * 最近的 [limit] 个宝石（不超过 [maxRange]），按距离升序。
+     * 以查询点所在单元格为中心逐圈向外扩展，已找到的第 k 近距离不超过未搜索区域的最近边界时停止；
+     * 宝石稀疏、需要扫过的空单元格远多于已占用单元格时，改为直接遍历该世界的全部单元格。
+     */
+    fun nearest(worldId: UUID, x: Double, y: Double, z: Double, limit: Int, maxRange: Double = Double.MAX_VALUE): List<Hit> {
+        val bounds = worlds[worldId] ?: return emptyList()
+        if (limit <= 0) return emptyList()
+        val maxRangeSquared = if (maxRange == Double.MAX_VALUE) Double.MAX_VALUE else maxRange * maxRange
+        val centerX = cellCoord(x)
+        val centerZ = cellCoord(z)
+        val candidates = ArrayList<Hit>()
+        var ring = 0
+        while (true) {
+            val side = 2L * ring + 1L
+            if (side * side > bounds.occupiedCells.toLong() * SPARSE_SCAN_FACTOR) {
+                candidates.clear()
+                for ((cell, bucket) in cells) {
+                    if (cell.worldId == worldId) collect(bucket, x, y, z, maxRangeSquared, candidates)
+                }
+                break
+            }
+            forEachRingCell(centerX, centerZ, ring) { cx, cz ->
+                collect(cells[Cell(worldId, cx, cz)], x, y, z, maxRangeSquared, candidates)
+            }
+            val covered = centerX - ring <= bounds.minX && centerX + ring >= bounds.maxX &&
+                centerZ - ring <= bounds.minZ && centerZ + ring >= bounds.maxZ
+            // 未搜索的单元格与查询点的最短水平距离。
+            val reach = minOf(
+                x - ((centerX - ring).toDouble() * cellSize),
+                ((centerX + ring + 1).toDouble() * cellSize) - x,
+                minOf(
+                    z - ((centerZ - ring).toDouble() * cellSize),
+                    ((centerZ + ring + 1).toDouble() * cellSize) - z,
+                ),
+            )
+            if (covered || reach * reach > maxRangeSquared) break
+            if (candidates.size >= limit) {
+                candidates.sortBy { it.distanceSquared }
+                if (candidates[limit - 1].distanceSquared <= reach * reach) break
+            }
+            ring++
+        }
+        candidates.sortBy { it.distanceSquared }
+        return if (candidates.size > limit) ArrayList(candidates.subList(0, limit)) else candidates
+    }
+
+    private fun collect(
+        bucket: Map<BlockPosition, UUID>?,
+        x: Double,
+        y: Double,
+        z: Double,
+        limitSquared: Double,
+        into: MutableList<Hit>,
+    ) {
+        if (bucket == null) return
+        for ((position, gemId) in bucket) {
+            val dx = position.x - x
+            val dy = position.y - y
+            val dz = position.z - z
+            val distanceSquared = dx * dx + dy * dy + dz * dz
+            if (distanceSquared <= limitSquared) {
+                into.add(Hit(gemId, position, distanceSquared))
+            }
+        }
+    }
+
+    private inline fun forEachRingCell(centerX: Int, centerZ: Int, ring: Int, action: (Int, Int) -> Unit) {
+        if (ring == 0) {
+            action(centerX, centerZ)
+            return
+        }
+        for (cx in centerX - ring..centerX + ring) {
+            action(cx, centerZ - ring)
+            action(cx, centerZ + ring)
+        }
+        for (cz in centerZ - ring + 1 until centerZ + ring) {
+            action(centerX - ring, cz)
+            action(centerX + ring, cz)
+        }
+    }
+
+    private fun cellOf(position: BlockPosition): Cell =
+        Cell(position.worldId, position.x shr cellBits, position.z shr cellBits)
+
+    private fun cellCoord(value: Double): Int = floor(value).toInt() shr cellBits
+
+    companion object {
+        const val CHUNK_BITS = 4
+        private const val CHUNK_MASK = (1 shl CHUNK_BITS) - 1
+        private const val SPARSE_SCAN_FACTOR = 16L
+    }
+}
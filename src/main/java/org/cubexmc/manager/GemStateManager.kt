@@ -16,13 +16,12 @@ import org.bukkit.inventory.ItemFlag
 import org.bukkit.inventory.ItemStack
 import org.bukkit.inventory.meta.BlockStateMeta
 import org.bukkit.inventory.meta.ItemMeta
-import org.bukkit.persistence.PersistentDataContainer
 import org.bukkit.persistence.PersistentDataType
 import org.cubexmc.RuleGems
 import org.cubexmc.gui.ItemBuilder
 import org.cubexmc.model.GemDefinition
 import org.cubexmc.utils.ColorUtils
-import java.lang.reflect.Method
+import org.cubexmc.utils.ServerCompat
 import java.lang.ref.WeakReference
 import java.util.Locale
 import java.util.Random
@@ -41,10 +40,31 @@ class GemStateManager(
     val ruleGemKey: NamespacedKey = NamespacedKey(plugin, "rule_gem")
     val uniqueIdKey: NamespacedKey = NamespacedKey(plugin, "unique_id")
     val gemKeyKey: NamespacedKey = NamespacedKey(plugin, "gem_key")
+    private val itemIdentity = GemItemIdentity(ruleGemKey, uniqueIdKey)
+    private val materialFilter = GemMaterialFilter()
+
+    /** 托管状态变更日志，供 [GemCustodyAuditor] 增量审计。 */
+    val custodyJournal = GemCustodyJournal()
+
+    /** 插件绕过背包事件直接改动了玩家背包时回调（背包授权据此整包重扫）。 */
+    private var inventoryEditCallback: Consumer<Player>? = null
 
     private val positionToGemUuid: MutableMap<BlockPosition, UUID> = ConcurrentHashMap()
     private val gemUuidToPosition: MutableMap<UUID, BlockPosition> = ConcurrentHashMap()
     private val locationViews: MutableMap<BlockPosition, WeakReference<Location>> = ConcurrentHashMap()
+
+    /** 与 [positionToGemUuid] 同步的按区块分桶索引，只在 [stateLock] 内读写。 */
+    private val spatialIndex = GemSpatialIndex()
+
+    /** 放置位置每次变化都会递增，供按需重新评估的功能（如靠近提示音）判断缓存是否过期。 */
+    @Volatile
+    var placementVersion = 0L
+        private set
+
+    /** 宝石定义或宝石 key 变化时递增，供预计算了外观（如粒子）的缓存判断是否过期。 */
+    @Volatile
+    var definitionVersion = 0L
+        private set
     val locationToGemUuid: Map<Location, UUID>
         get() = snapshotPlacedGems()
     val gemUuidToLocation: Map<UUID, Location>
@@ -56,6 +76,9 @@ class GemStateManager(
     private val pendingWorldGems: MutableMap<UUID, PendingPlacedGem> = ConcurrentHashMap()
     private val stateLock = ReentrantReadWriteLock()
 
+    /** Save revisions of the roots written by [populateSaveSection]. */
+    val saveRevisions = SaveSectionRevisions(PLACED_GEMS_ROOT, HELD_GEMS_ROOT, PLAYER_NAMES_ROOT)
+
     private class PendingPlacedGem(
         val gemId: UUID,
         val worldName: String?,
@@ -72,16 +95,19 @@ class GemStateManager(
         stateLock.write {
             val previousPosition = gemUuidToPosition.put(gemId, position)
             if (previousPosition != null && previousPosition != position) {
-                positionToGemUuid.remove(previousPosition, gemId)
+                removePlacedLocked(previousPosition, gemId)
             }
-            val previousGemId = positionToGemUuid.put(position, gemId)
+            val previousGemId = putPlacedLocked(position, gemId)
             if (previousGemId != null && previousGemId != gemId) {
                 gemUuidToPosition.remove(previousGemId, position)
                 gemUuidToHolder.remove(previousGemId)
+                custodyJournal.markGem(previousGemId)
             }
             pendingWorldGems.remove(gemId)
             gemUuidToHolder.remove(gemId)
+            saveRevisions.markDirty(PLACED_GEMS_ROOT, HELD_GEMS_ROOT)
         }
+        custodyJournal.markGem(gemId)
     }
 
     fun unbindPlacedGem(location: Location?, gemId: UUID?) {
@@ -89,11 +115,11 @@ class GemStateManager(
         val position = BlockPosition.from(location)
         stateLock.write {
             if (position != null) {
-                positionToGemUuid.remove(position, gemId)
+                removePlacedLocked(position, gemId)
             } else {
                 val old = gemUuidToPosition[gemId]
                 if (old != null) {
-                    positionToGemUuid.remove(old, gemId)
+                    removePlacedLocked(old, gemId)
                 }
             }
             if (position == null) {
@@ -102,6 +128,26 @@ class GemStateManager(
                 gemUuidToPosition.remove(gemId, position)
             }
             pendingWorldGems.remove(gemId)
+            saveRevisions.markDirty(PLACED_GEMS_ROOT)
+        }
+        custodyJournal.markGem(gemId)
+    }
+
+    /** 调用方持有写锁；放置表与 [spatialIndex] 一起更新。返回该位置原先的宝石。 */
+    private fun putPlacedLocked(position: BlockPosition, gemId: UUID): UUID? {
+        val previous = positionToGemUuid.put(position, gemId)
+        if (previous != null) {
+            spatialIndex.remove(position, previous)
+        }
+        spatialIndex.add(position, gemId)
+        placementVersion++
+        return previous
+    }
+
+    private fun removePlacedLocked(position: BlockPosition, gemId: UUID) {
+        if (positionToGemUuid.remove(position, gemId)) {
+            spatialIndex.remove(position, gemId)
+            placementVersion++
         }
     }
 
@@ -112,17 +158,22 @@ class GemStateManager(
         stateLock.write {
             val previousPosition = gemUuidToPosition.remove(gemId)
             if (previousPosition != null) {
-                positionToGemUuid.remove(previousPosition, gemId)
+                removePlacedLocked(previousPosition, gemId)
             }
             pendingWorldGems.remove(gemId)
             gemUuidToHolder[gemId] = playerId
-            playerNameCache[playerId] = playerName
+            rememberPlayerName(playerId, playerName)
+            saveRevisions.markDirty(PLACED_GEMS_ROOT, HELD_GEMS_ROOT)
         }
+        custodyJournal.markGem(gemId)
     }
 
     fun clearGemHolder(gemId: UUID?) {
         if (gemId == null) return
-        stateLock.write { gemUuidToHolder.remove(gemId) }
+        stateLock.write {
+            if (gemUuidToHolder.remove(gemId) != null) saveRevisions.markDirty(HELD_GEMS_ROOT)
+        }
+        custodyJournal.markGem(gemId)
     }
 
     fun setGemKey(gemId: UUID?, gemKey: String?) {
@@ -133,24 +184,36 @@ class GemStateManager(
             } else {
                 gemUuidToKey[gemId] = gemKey
             }
+            definitionVersion++
+            saveRevisions.markDirty(PLACED_GEMS_ROOT, HELD_GEMS_ROOT)
         }
     }
 
     fun clearPlacedMappings() {
         stateLock.write {
             positionToGemUuid.clear()
+            spatialIndex.clear()
+            placementVersion++
             gemUuidToPosition.clear()
             locationViews.clear()
             pendingWorldGems.clear()
+            saveRevisions.markDirty(PLACED_GEMS_ROOT)
         }
     }
 
     fun clearHolderMappings() {
-        stateLock.write { gemUuidToHolder.clear() }
+        stateLock.write {
+            gemUuidToHolder.clear()
+            saveRevisions.markDirty(HELD_GEMS_ROOT)
+        }
     }
 
     fun clearGemKeys() {
-        stateLock.write { gemUuidToKey.clear() }
+        stateLock.write {
+            gemUuidToKey.clear()
+            definitionVersion++
+            saveRevisions.markDirty(PLACED_GEMS_ROOT, HELD_GEMS_ROOT)
+        }
     }
 
     fun snapshotPlacedGems(): Map<Location, UUID> = stateLock.read {
@@ -161,16 +224,23 @@ class GemStateManager(
 
     fun snapshotGemKeys(): Map<UUID, String> = stateLock.read { HashMap(gemUuidToKey) }
 
+    /** 放置宝石的方块坐标快照，不解析 [Location]。 */
+    fun placedGemPositions(): Map<UUID, BlockPosition> = stateLock.read { HashMap(gemUuidToPosition) }
+
     fun clearAll() {
         stateLock.write {
             positionToGemUuid.clear()
+            spatialIndex.clear()
+            placementVersion++
             gemUuidToPosition.clear()
             locationViews.clear()
             gemUuidToHolder.clear()
             gemUuidToKey.clear()
             gemDefinitionCache.clear()
+            definitionVersion++
             playerNameCache.clear()
             pendingWorldGems.clear()
+            saveRevisions.markAllDirty()
         }
     }
 
@@ -199,6 +269,7 @@ class GemStateManager(
     }
 
     fun loadData(gemsData: FileConfiguration, randomPlaceGemFn: Consumer<UUID>) {
+        saveRevisions.markAllDirty()
         val configuredKeys = configuredGemKeys()
         var placedGemsSection: ConfigurationSection? = gemsData.getConfigurationSection("placed-gems")
         if (placedGemsSection == null) {
@@ -234,8 +305,10 @@ class GemStateManager(
                 val loc = Location(world, x, y, z)
                 val position = BlockPosition.from(loc) ?: continue
                 locationViews[position] = WeakReference(loc)
-                positionToGemUuid[position] = gemId
-                gemUuidToPosition[gemId] = position
+                stateLock.write {
+                    putPlacedLocked(position, gemId)
+                    gemUuidToPosition[gemId] = position
+                }
             }
         }
 
@@ -289,36 +362,44 @@ class GemStateManager(
     }
 
     fun populateSaveSnapshot(snapshot: MutableMap<String, Any?>) = stateLock.read {
-        populateSaveSnapshotLocked(snapshot)
+        for (rootKey in saveRevisions.rootKeys) {
+            populateSaveSectionLocked(rootKey, snapshot)
+        }
     }
 
-    private fun populateSaveSnapshotLocked(snapshot: MutableMap<String, Any?>) {
-        for ((position, gemId) in positionToGemUuid) {
-            val path = "placed-gems.$gemId"
-            snapshot["$path.world"] = position.worldName
-            snapshot["$path.x"] = position.x
-            snapshot["$path.y"] = position.y
-            snapshot["$path.z"] = position.z
-            snapshot["$path.gem_key"] = gemUuidToKey[gemId]
-        }
-        for (pending in pendingWorldGems.values) {
-            val path = "placed-gems.${pending.gemId}"
-            val worldName = pending.worldName
-            val gemKey = pending.gemKey
-            snapshot["$path.world"] = worldName
-            snapshot["$path.x"] = pending.x
-            snapshot["$path.y"] = pending.y
-            snapshot["$path.z"] = pending.z
-            snapshot["$path.gem_key"] = gemKey
-        }
-        for ((gemId, playerId) in gemUuidToHolder) {
-            val path = "held-gems.$gemId"
-            snapshot["$path.player"] = playerNameCache[playerId] ?: playerId.toString()
-            snapshot["$path.player_uuid"] = playerId.toString()
-            snapshot["$path.gem_key"] = gemUuidToKey[gemId]
-        }
-        for ((uuid, name) in playerNameCache) {
-            snapshot["player_names.$uuid"] = name
+    fun populateSaveSection(rootKey: String, snapshot: MutableMap<String, Any?>) = stateLock.read {
+        populateSaveSectionLocked(rootKey, snapshot)
+    }
+
+    private fun populateSaveSectionLocked(rootKey: String, snapshot: MutableMap<String, Any?>) {
+        when (rootKey) {
+            PLACED_GEMS_ROOT -> {
+                for ((position, gemId) in positionToGemUuid) {
+                    val path = "placed-gems.$gemId"
+                    snapshot["$path.world"] = position.worldName
+                    snapshot["$path.x"] = position.x
+                    snapshot["$path.y"] = position.y
+                    snapshot["$path.z"] = position.z
+                    snapshot["$path.gem_key"] = gemUuidToKey[gemId]
+                }
+                for (pending in pendingWorldGems.values) {
+                    val path = "placed-gems.${pending.gemId}"
+                    snapshot["$path.world"] = pending.worldName
+                    snapshot["$path.x"] = pending.x
+                    snapshot["$path.y"] = pending.y
+                    snapshot["$path.z"] = pending.z
+                    snapshot["$path.gem_key"] = pending.gemKey
+                }
+            }
+            HELD_GEMS_ROOT -> for ((gemId, playerId) in gemUuidToHolder) {
+                val path = "held-gems.$gemId"
+                snapshot["$path.player"] = playerNameCache[playerId] ?: playerId.toString()
+                snapshot["$path.player_uuid"] = playerId.toString()
+                snapshot["$path.gem_key"] = gemUuidToKey[gemId]
+            }
+            PLAYER_NAMES_ROOT -> for ((uuid, name) in playerNameCache) {
+                snapshot["player_names.$uuid"] = name
+            }
         }
     }
 
@@ -337,11 +418,14 @@ class GemStateManager(
             val loc = Location(world, pending.x, pending.y, pending.z)
             val position = BlockPosition.from(loc) ?: continue
             locationViews[position] = WeakReference(loc)
-            positionToGemUuid[position] = pending.gemId
-            gemUuidToPosition[pending.gemId] = position
+            stateLock.write {
+                putPlacedLocked(position, pending.gemId)
+                gemUuidToPosition[pending.gemId] = position
+            }
             rebound[pending.gemId] = loc
             iterator.remove()
         }
+        if (rebound.isNotEmpty()) saveRevisions.markDirty(PLACED_GEMS_ROOT)
         return rebound
     }
 
@@ -361,6 +445,7 @@ class GemStateManager(
             for (i in have until need) {
                 val newId = UUID.randomUUID()
                 gemUuidToKey[newId] = key
+                saveRevisions.markDirty(PLACED_GEMS_ROOT, HELD_GEMS_ROOT)
                 randomPlaceGemFn.accept(newId)
             }
         }
@@ -377,12 +462,57 @@ class GemStateManager(
 
     fun getAllGemUuids(): Set<UUID> = stateLock.read { HashSet(gemUuidToKey.keys) }
 
+    /** 登记为 [holderIds] 中某人持有的宝石。 */
+    fun heldGemIds(holderIds: Set<UUID>): List<UUID> {
+        if (holderIds.isEmpty()) return emptyList()
+        return gemUuidToHolder.entries.filter { it.value in holderIds }.map { it.key }
+    }
+
+    /** 放置在区块 ([chunkX], [chunkZ]) 内的宝石。 */
+    fun placedGemsInChunk(world: World?, chunkX: Int, chunkZ: Int): List<UUID> {
+        if (world == null) return emptyList()
+        return stateLock.read { spatialIndex.inChunk(world.uid, chunkX, chunkZ) }
+    }
+
     fun getGemUuidByLocation(loc: Location?): UUID? = positionToGemUuid[BlockPosition.from(loc)]
 
     fun findLocationByGemId(gemId: UUID?): Location? = getGemLocation(gemId)
 
     fun getPlacedCount(): Int = positionToGemUuid.size
 
+    /** 与 [center] 同一世界、距离不超过 [radius] 的放置宝石，无序。 */
+    fun placedGemsWithin(center: Location?, radius: Double): List<GemSpatialIndex.Hit> {
+        val world = center?.world ?: return emptyList()
+        return stateLock.read { spatialIndex.withinRange(world.uid, center.x, center.y, center.z, radius) }
+    }
+
+    /**
+     * 与 [center] 同一世界、距离不超过 [maxRange] 的最近一颗未被持有的放置宝石。
+     * 先取少量候选，全部被过滤（残留的已持有宝石）时再扩大候选数量。
+     */
+    @JvmOverloads
+    fun findNearestPlacedGem(center: Location?, maxRange: Double = Double.MAX_VALUE): NearestGem? {
+        val world = center?.world ?: return null
+        var limit = NEAREST_CANDIDATES
+        while (true) {
+            val hits = stateLock.read { spatialIndex.nearest(world.uid, center.x, center.y, center.z, limit, maxRange) }
+            for (hit in hits) {
+                if (gemUuidToHolder.containsKey(hit.gemId)) continue
+                val location = resolveLocation(hit.position) ?: continue
+                return NearestGem(hit.gemId, location, hit.distanceSquared)
+            }
+            if (hits.size < limit) return null
+            limit *= 2
+        }
+    }
+
+    /** 与 [center] 同一世界最近的 [limit] 个放置宝石（不超过 [maxRange]），按距离升序。 */
+    @JvmOverloads
+    fun nearestPlacedGems(center: Location?, limit: Int, maxRange: Double = Double.MAX_VALUE): List<GemSpatialIndex.Hit> {
+        val world = center?.world ?: return emptyList()
+        return stateLock.read { spatialIndex.nearest(world.uid, center.x, center.y, center.z, limit, maxRange) }
+    }
+
     fun getHeldCount(): Int = stateLock.read { gemUuidToHolder.size }
 
     val allGemUuidsAndKeys: Set<Map.Entry<UUID, String>>
@@ -415,7 +545,13 @@ class GemStateManager(
 
     fun cachePlayerName(player: Player?) {
         if (player != null) {
-            playerNameCache[player.uniqueId] = player.name
+            rememberPlayerName(player.uniqueId, player.name)
+        }
+    }
+
+    private fun rememberPlayerName(playerId: UUID, name: String) {
+        if (playerNameCache.put(playerId, name) != name) {
+            saveRevisions.markDirty(HELD_GEMS_ROOT, PLAYER_NAMES_ROOT)
         }
     }
 
@@ -423,7 +559,7 @@ class GemStateManager(
         if (uuid == null) return "Unknown"
         val online = Bukkit.getPlayer(uuid)
         if (online != null) {
-            playerNameCache[uuid] = online.name
+            rememberPlayerName(uuid, online.name)
             return online.name
         }
         val cached = playerNameCache[uuid]
@@ -432,7 +568,7 @@ class GemStateManager(
             val offline = Bukkit.getOfflinePlayer(uuid)
             val name = offline.name
             if (!name.isNullOrEmpty()) {
-                playerNameCache[uuid] = name
+                rememberPlayerName(uuid, name)
                 return name
             }
         } catch (e: Exception) {
@@ -441,8 +577,19 @@ class GemStateManager(
         return uuid.toString().substring(0, 8)
     }
 
+    fun setInventoryEditCallback(callback: Consumer<Player>?) {
+        inventoryEditCallback = callback
+    }
+
+    /** 插件直接改动了 [player] 的背包（不会产生点击/拖拽事件）。 */
+    fun notifyInventoryEdited(player: Player?) {
+        if (player != null) inventoryEditCallback?.accept(player)
+    }
+
     fun removeGemItemFromInventory(player: Player?, targetId: UUID?) {
         if (player == null || targetId == null) return
+        // 调用方都是"宝石离开玩家"的流程；即使这里没找到物品（例如放置时已被服务端扣掉），背包也已变化。
+        notifyInventoryEdited(player)
         val inventory = player.inventory ?: return
         val offHandResult = stripGem(inventory.itemInOffHand, targetId)
         if (offHandResult.removedCount > 0) {
@@ -463,7 +610,7 @@ class GemStateManager(
         if (gemUuidToHolder.keys.any { gemUuidToPosition.containsKey(it) || pendingWorldGems.containsKey(it) }) {
             return@read false
         }
-        if (positionToGemUuid.size != gemUuidToPosition.size) {
+        if (positionToGemUuid.size != gemUuidToPosition.size || spatialIndex.size != positionToGemUuid.size) {
             return@read false
         }
         positionToGemUuid.all { (position, gemId) -> gemUuidToPosition[gemId] == position } &&
@@ -478,13 +625,16 @@ class GemStateManager(
         }
     }
 
+    /** 一次 meta 读取得到宝石标记与 UUID；同一摞物品在一个 tick 内重复检查会命中缓存。 */
+    fun inspect(item: ItemStack?): GemItemInspection {
+        val inspection = itemIdentity.inspect(item)
+        if (inspection.flagged) materialFilter.learn(item?.type)
+        return inspection
+    }
+
     fun isRuleGem(item: ItemStack?): Boolean {
-        if (item == null || !item.hasItemMeta()) {
-            return false
-        }
-        val meta = item.itemMeta ?: return false
-        val pdc: PersistentDataContainer = meta.persistentDataContainer
-        return pdc.has(ruleGemKey, PersistentDataType.BYTE)
+        if (item == null || !materialFilter.mayBeGem(item.type)) return false
+        return inspect(item).flagged
     }
 
     /**
@@ -494,7 +644,13 @@ class GemStateManager(
      * containsGem 还会下潜进收纳袋、潜影盒这类"物品形态的容器"。
      * 没有这一层的话，把宝石塞进收纳袋再把收纳袋丢进箱子就能绕过全部容器保护。
      */
-    fun containsGem(item: ItemStack?): Boolean = containsGem(item, 0)
+    fun containsGem(item: ItemStack?): Boolean = containsGem(item, 0, true)
+
+    /**
+     * 与 [containsGem] 相同，但不走材质快速排除：进服清点这类低频路径用它，
+     * 这样按旧配置材质生成、尚未被排除表认识的宝石也能被发现（并补进排除表）。
+     */
+    fun containsGemThoroughly(item: ItemStack?): Boolean = containsGem(item, 0, false)
 
     /** 收集这一摞物品（含嵌套容器）中所有宝石的 UUID，用于走失回收。 */
     fun collectGemIds(item: ItemStack?): List<UUID> {
@@ -550,20 +706,35 @@ class GemStateManager(
         return false
     }
 
-    private fun containsGem(item: ItemStack?, depth: Int): Boolean {
-        if (isRuleGem(item)) return true
-        if (item == null || depth >= MAX_CONTAINER_NESTING) return false
+    /** 玩家身上（含副手和嵌套容器）所有宝石的 UUID；一次遍历，供审计批量核对同一持有者的多颗宝石。 */
+    fun carriedGemIds(player: Player?): Set<UUID> {
+        val inventory = player?.inventory ?: return emptySet()
+        val result = HashSet<UUID>()
+        result.addAll(collectGemIds(inventory.itemInOffHand))
+        for (item in inventory.contents ?: return result) {
+            result.addAll(collectGemIds(item))
+        }
+        return result
+    }
+
+    private fun containsGem(item: ItemStack?, depth: Int, filtered: Boolean): Boolean {
+        if (item == null) return false
+        // 既不可能是宝石也不可能装东西的材质，一次数组查找就排除，不读 meta。
+        if (filtered && !materialFilter.mayContainGem(item.type)) return false
+        if (inspect(item).flagged) return true
+        if (depth >= MAX_CONTAINER_NESTING) return false
         for (nested in nestedItems(item)) {
-            if (containsGem(nested, depth + 1)) return true
+            if (containsGem(nested, depth + 1, filtered)) return true
         }
         return false
     }
 
     private fun collectGemIds(item: ItemStack?, depth: Int, out: MutableList<UUID>) {
         if (item == null) return
-        val id = getGemUUID(item)
-        if (id != null && isRuleGem(item)) {
-            out.add(id)
+        val inspection = inspect(item)
+        val gemId = inspection.gemId
+        if (inspection.flagged && gemId != null) {
+            out.add(gemId)
             return
         }
         if (depth >= MAX_CONTAINER_NESTING) return
@@ -585,8 +756,9 @@ class GemStateManager(
         accumulator: RemovalAccumulator,
     ): StripResult {
         if (item == null) return StripResult(null, false)
-        if (isRuleGem(item)) {
-            val gemId = getGemUUID(item)
+        val inspection = inspect(item)
+        if (inspection.flagged) {
+            val gemId = inspection.gemId
             if (!shouldRemove(gemId)) return StripResult(item, false)
             accumulator.removedCount++
             if (gemId != null) accumulator.gemIds.add(gemId)
@@ -612,19 +784,17 @@ class GemStateManager(
                 if (changed) {
                     meta.blockState = state
                     item.itemMeta = meta
+                    itemIdentity.forget(item)
                 }
                 return StripResult(item, changed)
             }
         }
 
-        // BundleMeta 从 1.17 才存在；getItems/setItems 都通过反射调用以保留 1.16.5 二进制兼容。
-        val bundleClass = bundleMetaClass
-        val getItems = bundleGetItemsMethod
-        if (bundleClass != null && getItems != null && bundleClass.isInstance(meta)) {
+        // BundleMeta 从 1.17 才存在；getItems/setItems 经 ServerCompat 在运行时解析以保留 1.16.5 二进制兼容。
+        if (ServerCompat.isBundle(meta)) {
             val items = try {
-                @Suppress("UNCHECKED_CAST")
-                getItems.invoke(meta) as List<ItemStack?>
-            } catch (error: ReflectiveOperationException) {
+                ServerCompat.bundleItems(meta) ?: return StripResult(item, false)
+            } catch (error: Exception) {
                 plugin.logger.fine("Failed to read bundle contents while removing gems: " + error.message)
                 return StripResult(item, false)
             }
@@ -638,18 +808,17 @@ class GemStateManager(
             }
             if (!changed) return StripResult(item, false)
 
-            val setItems = bundleSetItemsMethod
-            if (setItems == null) {
-                plugin.logger.warning(
-                    "Unable to rewrite bundle contents on this server version; removing the carrier to prevent a gem duplicate.",
-                )
-                return StripResult(null, true)
-            }
             return try {
-                setItems.invoke(meta, cleaned)
+                if (!ServerCompat.setBundleItems(meta, cleaned)) {
+                    plugin.logger.warning(
+                        "Unable to rewrite bundle contents on this server version; removing the carrier to prevent a gem duplicate.",
+                    )
+                    return StripResult(null, true)
+                }
                 item.itemMeta = meta
+                itemIdentity.forget(item)
                 StripResult(item, true)
-            } catch (error: ReflectiveOperationException) {
+            } catch (error: Exception) {
                 plugin.logger.warning(
                     "Unable to rewrite bundle contents; removing the carrier to prevent a gem duplicate: " + error.message,
                 )
@@ -667,10 +836,7 @@ class GemStateManager(
     }
 
     /** 只有可能装东西的材质才去读 meta，避免在点击热路径上对每件普通物品都克隆一次 BlockState。 */
-    private fun mayHoldItems(item: ItemStack): Boolean {
-        val name = item.type.name
-        return name.endsWith("SHULKER_BOX") || name == "BUNDLE" || name.endsWith("_BUNDLE")
-    }
+    private fun mayHoldItems(item: ItemStack): Boolean = materialFilter.mayHoldItems(item.type)
 
     private fun nestedItems(item: ItemStack): List<ItemStack?> {
         if (!mayHoldItems(item) || !item.hasItemMeta()) return emptyList()
@@ -682,14 +848,11 @@ class GemStateManager(
                 result.addAll(state.inventory.contents.asList())
             }
         }
-        // 收纳袋是 1.17 才有的 API，本插件对 1.16.5 编译，只能反射读取。
-        val bundleClass = bundleMetaClass
-        val getItems = bundleGetItemsMethod
-        if (bundleClass != null && getItems != null && bundleClass.isInstance(meta)) {
+        // 收纳袋是 1.17 才有的 API，本插件对 1.16.5 编译，只能在运行时解析。
+        if (ServerCompat.isBundle(meta)) {
             try {
-                @Suppress("UNCHECKED_CAST")
-                result.addAll(getItems.invoke(meta) as List<ItemStack?>)
-            } catch (e: ReflectiveOperationException) {
+                ServerCompat.bundleItems(meta)?.let { result.addAll(it) }
+            } catch (e: Exception) {
                 plugin.logger.fine("Failed to read bundle contents: " + e.message)
             }
         }
@@ -701,17 +864,7 @@ class GemStateManager(
         return locationToGemUuid.containsKey(block.location)
     }
 
-    fun getGemUUID(item: ItemStack?): UUID? {
-        if (item == null || !item.hasItemMeta()) return null
-        val meta = item.itemMeta ?: return null
-        val pdc = meta.persistentDataContainer
-        val uuidStr = pdc.get(uniqueIdKey, PersistentDataType.STRING) ?: return null
-        return try {
-            UUID.fromString(uuidStr)
-        } catch (_: Exception) {
-            null
-        }
-    }
+    fun getGemUUID(item: ItemStack?): UUID? = inspect(item).gemId
 
     fun getGemUUID(block: Block?): UUID? {
         if (block == null) return null
@@ -741,6 +894,8 @@ class GemStateManager(
                 gemDefinitionCache[key.lowercase(ROOT_LOCALE)] = definition
             }
         }
+        materialFilter.rebuild(defs.map { it.material })
+        definitionVersion++
     }
 
     fun createRuleGem(gemId: UUID): ItemStack {
@@ -798,6 +953,7 @@ class GemStateManager(
         }
 
         ruleGem.itemMeta = meta
+        itemIdentity.forget(ruleGem)
         return ruleGem
     }
 
@@ -897,30 +1053,18 @@ class GemStateManager(
         if (defs.isEmpty()) return
         val key = defs[Random().nextInt(defs.size)].gemKey
         gemUuidToKey[gemId] = key
+        definitionVersion++
+        saveRevisions.markDirty(PLACED_GEMS_ROOT, HELD_GEMS_ROOT)
     }
 
     companion object {
+        private const val NEAREST_CANDIDATES = 4
         private val ROOT_LOCALE: Locale = Locale.ROOT
+        private const val PLACED_GEMS_ROOT = "placed-gems"
+        private const val HELD_GEMS_ROOT = "held-gems"
+        private const val PLAYER_NAMES_ROOT = "player_names"
 
         /** 潜影盒装收纳袋这类嵌套的深度上限，防止构造出的畸形 NBT 打爆递归。 */
         private const val MAX_CONTAINER_NESTING = 4
-
-        private val bundleMetaClass: Class<*>? = try {
-            Class.forName("org.bukkit.inventory.meta.BundleMeta")
-        } catch (_: ClassNotFoundException) {
-            null
-        }
-
-        private val bundleGetItemsMethod: Method? = try {
-            bundleMetaClass?.getMethod("getItems")
-        } catch (_: ReflectiveOperationException) {
-            null
-        }
-
-        private val bundleSetItemsMethod: Method? = try {
-            bundleMetaClass?.getMethod("setItems", List::class.java)
-        } catch (_: ReflectiveOperationException) {
-            null
-        }
     }
 }
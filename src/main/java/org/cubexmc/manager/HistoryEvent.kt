@@ -0,0 +1,90 @@
+package org.cubexmc.manager
+
+import com.google.gson.JsonArray
+import com.google.gson.JsonObject
+import com.google.gson.JsonParseException
+import com.google.gson.JsonParser
+import java.time.Instant
+import java.util.Locale
+
+/**
+ * 结构化历史事件 - 与文本历史同时写入 `history/events/yyyy-MM.jsonl`，每行一个 JSON 对象。
+ * 文本日志面向阅读，事件面向查询，字段不随语言文件变化。
+ */
+class HistoryEvent @JvmOverloads constructor(
+    val type: Type,
+    val timestamp: Instant,
+    val playerUuid: String?,
+    val playerName: String?,
+    val gemKey: String? = null,
+    val permissions: List<String> = emptyList(),
+    val reason: String? = null,
+    val previousOwner: String? = null,
+    val vaultGroup: String? = null,
+    val location: String? = null,
+    val gemCount: Int? = null,
+) {
+    enum class Type {
+        REDEEM,
+        REVOKE,
+        FULL_SET,
+        PLACE,
+        BREAK,
+    }
+
+    fun toJson(): String {
+        val json = JsonObject()
+        json.addProperty("type", type.name.lowercase(Locale.ROOT))
+        json.addProperty("ts", timestamp.toEpochMilli())
+        playerUuid?.let { json.addProperty("player", it) }
+        playerName?.let { json.addProperty("player_name", it) }
+        gemKey?.let { json.addProperty("gem", it) }
+        if (permissions.isNotEmpty()) {
+            val array = JsonArray()
+            permissions.forEach { array.add(it) }
+            json.add("permissions", array)
+        }
+        reason?.let { json.addProperty("reason", it) }
+        previousOwner?.let { json.addProperty("previous_owner", it) }
+        vaultGroup?.let { json.addProperty("vault_group", it) }
+        location?.let { json.addProperty("location", it) }
+        gemCount?.let { json.addProperty("gem_count", it) }
+        return json.toString()
+    }
+
+    companion object {
+        /** 解析一行事件；格式不对或类型未知时返回 null，单行损坏不影响其余记录。 */
+        @JvmStatic
+        fun fromJson(line: String): HistoryEvent? {
+            if (line.isBlank()) return null
+            return try {
+                val json = JsonParser().parse(line).asJsonObject
+                val type = Type.valueOf((json.string("type") ?: return null).uppercase(Locale.ROOT))
+                val timestamp = json.get("ts")?.asLong ?: return null
+                HistoryEvent(
+                    type = type,
+                    timestamp = Instant.ofEpochMilli(timestamp),
+                    playerUuid = json.string("player"),
+                    playerName = json.string("player_name"),
+                    gemKey = json.string("gem"),
+                    permissions = json.getAsJsonArray("permissions")?.map { it.asString } ?: emptyList(),
+                    reason = json.string("reason"),
+                    previousOwner = json.string("previous_owner"),
+                    vaultGroup = json.string("vault_group"),
+                    location = json.string("location"),
+                    gemCount = json.get("gem_count")?.asInt,
+                )
+            } catch (_: JsonParseException) {
+                null
+            } catch (_: RuntimeException) {
+                // 字段类型不符（getAsXxx 抛出的 IllegalState/UnsupportedOperation/NumberFormat 等）。
+                null
+            }
+        }
+
+        private fun JsonObject.string(name: String): String? {
+            val element = get(name) ?: return null
+            return if (element.isJsonNull) null else element.asString
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package org.cubexmc.manager
+
+import java.io.File
+import java.time.YearMonth
+import java.time.ZoneId
+import java.util.logging.Logger
+
+/**
+ * 结构化历史事件日志 - 按月写入 `yyyy-MM.jsonl`，复用 [HistoryWriter] 的后台批量写入。
+ *
+ * 查询交给 [HistoryEventReader]；只需要查询时直接用它，不必为此创建写入线程。
+ */
+class HistoryEventLog @JvmOverloads constructor(
+    directory: File,
+    logger: Logger,
+    private val zone: ZoneId = ZoneId.systemDefault(),
+) {
+    private val writer = HistoryWriter(directory, logger, null, HistoryEventReader.SUFFIX)
+    private val reader = HistoryEventReader(directory, logger, zone)
+
+    fun record(event: HistoryEvent) {
+        writer.append(YearMonth.from(event.timestamp.atZone(zone)).toString(), event.toJson())
+    }
+
+    /** 按时间倒序把匹配 [query] 的事件交给 [consumer]，[consumer] 返回 false 时停止。 */
+    fun query(query: HistoryQuery, consumer: (HistoryEvent) -> Boolean) {
+        reader.query(query, consumer)
+    }
+
+    /** 最多返回 [limit] 条匹配事件，最新的在前。 */
+    fun find(query: HistoryQuery, limit: Int): List<HistoryEvent> = reader.find(query, limit)
+
+    fun close() {
+        writer.close()
+    }
+}
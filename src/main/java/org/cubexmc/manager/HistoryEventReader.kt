@@ -0,0 +1,75 @@
+package org.cubexmc.manager
+
+import java.io.File
+import java.io.IOException
+import java.time.YearMonth
+import java.time.ZoneId
+import java.time.format.DateTimeParseException
+import java.util.logging.Logger
+
+/**
+ * 结构化历史事件的只读查询 - 直接读 `yyyy-MM.jsonl` 文件，不创建写入器、不启动写入线程。
+ *
+ * 从最新的文件、最新的行开始逐行解析，回调返回 false 即停止读取；
+ * 不在时间范围内的月份文件整体跳过，读到早于 [HistoryQuery.from] 的事件后也不再继续向前读。
+ * 仍在 [HistoryEventLog] 写入队列中的事件要等写盘后才能查到。
+ */
+class HistoryEventReader @JvmOverloads constructor(
+    directory: File,
+    private val logger: Logger,
+    private val zone: ZoneId = ZoneId.systemDefault(),
+) {
+    private val reader = HistoryLogReader(directory, SUFFIX)
+
+    /** 按时间倒序把匹配 [query] 的事件交给 [consumer]，[consumer] 返回 false 时停止。 */
+    fun query(query: HistoryQuery, consumer: (HistoryEvent) -> Boolean) {
+        for (file in reader.logFiles()) {
+            val month = monthOf(file)
+            if (month != null && !query.overlaps(month, zone)) continue
+            var finished = false
+            try {
+                reader.forEachLineReversed(file) { line ->
+                    val gemKey = query.gemKey
+                    if (gemKey != null && !line.contains(gemKey, ignoreCase = true)) {
+                        return@forEachLineReversed true
+                    }
+                    val event = HistoryEvent.fromJson(line) ?: return@forEachLineReversed true
+                    val from = query.from
+                    if (from != null && event.timestamp.isBefore(from)) {
+                        finished = true
+                        return@forEachLineReversed false
+                    }
+                    if (query.matches(event) && !consumer(event)) {
+                        finished = true
+                        return@forEachLineReversed false
+                    }
+                    true
+                }
+            } catch (e: IOException) {
+                logger.warning("Failed to read history events: " + file.name)
+            }
+            if (finished) return
+        }
+    }
+
+    /** 最多返回 [limit] 条匹配事件，最新的在前。 */
+    fun find(query: HistoryQuery, limit: Int): List<HistoryEvent> {
+        val result = ArrayList<HistoryEvent>()
+        if (limit <= 0) return result
+        query(query) { event ->
+            result.add(event)
+            result.size < limit
+        }
+        return result
+    }
+
+    private fun monthOf(file: File): YearMonth? = try {
+        YearMonth.parse(file.name.removeSuffix(SUFFIX))
+    } catch (_: DateTimeParseException) {
+        null
+    }
+
+    companion object {
+        const val SUFFIX = ".jsonl"
+    }
+}
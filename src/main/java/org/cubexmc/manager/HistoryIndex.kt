@@ -0,0 +1,282 @@
+package org.cubexmc.manager
+
+import java.io.BufferedWriter
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.io.OutputStreamWriter
+import java.io.RandomAccessFile
+import java.nio.charset.StandardCharsets
+import java.util.Locale
+import java.util.TreeSet
+import java.util.UUID
+import java.util.logging.Logger
+
+/**
+ * 历史日志的玩家倒排索引 - 每个 `yyyy-MM.log` 旁边有一个 `yyyy-MM.idx`，记录每条日志的起始字节偏移
+ * 和它涉及的玩家（`u:<uuid>` 与 `n:<小写名称>`），查询时直接按偏移读取对应行。
+ *
+ * 写入线程在写完一批日志后调用 [record]，条目自带玩家键；索引文件还没覆盖到的旧日志（升级前写入的，
+ * 或手动追加的行）在首次用到时从已索引的位置开始增量扫描，从行文本中解析玩家。
+ * 索引文件只追加：`<offset>\t<key>...` 为条目，`@<length>` 表示日志已索引到的长度。
+ */
+class HistoryIndex(private val directory: File, private val logger: Logger) {
+    private class Offsets {
+        var values = LongArray(8)
+        var size = 0
+
+        fun add(value: Long) {
+            if (size == values.size) {
+                values = values.copyOf(size * 2)
+            }
+            values[size++] = value
+        }
+    }
+
+    private class MonthIndex {
+        var covered = 0L
+        val offsets: MutableMap<String, Offsets> = HashMap()
+
+        /** 名称键 -> 同一条目中出现过的 UUID 键，用于把改名前后的记录归到同一个玩家。 */
+        val aliases: MutableMap<String, MutableSet<String>> = HashMap()
+
+        fun add(offset: Long, keys: Collection<String>) {
+            for (key in keys) {
+                offsets.getOrPut(key) { Offsets() }.add(offset)
+            }
+            val uuids = keys.filter { it.startsWith(UUID_PREFIX) }
+            if (uuids.isEmpty()) return
+            for (key in keys) {
+                if (key.startsWith(NAME_PREFIX)) {
+                    aliases.getOrPut(key) { HashSet() }.addAll(uuids)
+                }
+            }
+        }
+    }
+
+    /** 一条刚写入的日志：[offset] 为行首字节偏移，[keys] 为空时从 [line] 中解析玩家。 */
+    class Record(val offset: Long, val line: String, val keys: Collection<String>)
+
+    private val months: MutableMap<String, MonthIndex> = HashMap()
+
+    /** 登记写入线程刚刚写完并 flush 的一批条目；[length] 为写完后的日志长度。 */
+    @Synchronized
+    fun record(month: String, records: List<Record>, length: Long) {
+        if (records.isEmpty()) return
+        val logFile = logFile(month)
+        val index = load(month, logFile)
+        val first = records[0].offset
+        if (index.covered < first) {
+            catchUp(month, logFile, index, first)
+        }
+        try {
+            appender(month).use { out ->
+                for (record in records) {
+                    if (record.offset < index.covered) continue
+                    val keys = record.keys.ifEmpty { keysOf(record.line) }
+                    index.add(record.offset, keys)
+                    writeEntry(out, record.offset, keys)
+                }
+                index.covered = maxOf(index.covered, length)
+                out.write("@" + index.covered)
+                out.newLine()
+            }
+        } catch (e: IOException) {
+            logger.warning("Failed to update history index for $month: " + e.message)
+        }
+    }
+
+    /** [logFile] 中与任一 [keys] 相关的条目偏移，按写入顺序升序排列。 */
+    @Synchronized
+    fun offsets(logFile: File, keys: Collection<String>): LongArray {
+        val index = ensureCovered(logFile) ?: return LongArray(0)
+        val matched = keys.mapNotNull { index.offsets[it] }
+        if (matched.isEmpty()) return LongArray(0)
+        if (matched.size == 1) return matched[0].values.copyOf(matched[0].size)
+        val merged = TreeSet<Long>()
+        for (offsets in matched) {
+            for (i in 0 until offsets.size) merged.add(offsets.values[i])
+        }
+        return merged.toLongArray()
+    }
+
+    /** 把 [logFiles] 的索引补到文件末尾。 */
+    @Synchronized
+    fun catchUp(logFiles: List<File>) {
+        for (logFile in logFiles) {
+            ensureCovered(logFile)
+        }
+    }
+
+    /** 在 [logFiles] 中出现过与名称键 [nameKey] 同一条目的 UUID 键。 */
+    @Synchronized
+    fun aliasesOf(logFiles: List<File>, nameKey: String): Set<String> {
+        val result = HashSet<String>()
+        for (logFile in logFiles) {
+            ensureCovered(logFile)?.aliases?.get(nameKey)?.let { result.addAll(it) }
+        }
+        return result
+    }
+
+    private fun ensureCovered(logFile: File): MonthIndex? {
+        if (!logFile.isFile) return null
+        val month = logFile.name.removeSuffix(".log")
+        val index = load(month, logFile)
+        val length = logFile.length()
+        if (index.covered < length) {
+            catchUp(month, logFile, index, length)
+        }
+        return index
+    }
+
+    private fun load(month: String, logFile: File): MonthIndex {
+        months[month]?.let { existing ->
+            if (existing.covered <= logFile.length()) return existing
+        }
+        val index = MonthIndex()
+        val indexFile = indexFile(month)
+        if (indexFile.isFile) {
+            try {
+                indexFile.forEachLine(StandardCharsets.UTF_8) { line -> readIndexLine(index, line) }
+            } catch (e: IOException) {
+                logger.warning("Failed to read history index ${indexFile.name}: " + e.message)
+            }
+        }
+        val result = if (index.covered > logFile.length()) {
+            // 日志被截断或替换，旧索引不再可信，从头重建。
+            indexFile.delete()
+            MonthIndex()
+        } else {
+            index
+        }
+        months[month] = result
+        return result
+    }
+
+    private fun readIndexLine(index: MonthIndex, line: String) {
+        if (line.startsWith("@")) {
+            line.substring(1).toLongOrNull()?.let { index.covered = it }
+            return
+        }
+        val parts = line.split('\t')
+        val offset = parts[0].toLongOrNull() ?: return
+        if (parts.size > 1) {
+            index.add(offset, parts.subList(1, parts.size))
+        }
+    }
+
+    /** 从 [MonthIndex.covered] 扫描到 [upTo]，只处理完整的行。 */
+    private fun catchUp(month: String, logFile: File, index: MonthIndex, upTo: Long) {
+        if (!logFile.isFile) return
+        try {
+            appender(month).use { out ->
+                RandomAccessFile(logFile, "r").use { raf ->
+                    val end = minOf(upTo, raf.length())
+                    var position = index.covered
+                    raf.seek(position)
+                    val block = ByteArray(BLOCK_SIZE)
+                    var pending = ByteArray(0)
+                    var lineStart = position
+                    while (position < end) {
+                        val read = raf.read(block, 0, minOf(BLOCK_SIZE.toLong(), end - position).toInt())
+                        if (read <= 0) break
+                        var from = 0
+                        for (i in 0 until read) {
+                            if (block[i] != NEWLINE) continue
+                            val bytes = if (pending.isEmpty()) block.copyOfRange(from, i) else pending + block.copyOfRange(from, i)
+                            pending = ByteArray(0)
+                            val keys = keysOf(decode(bytes))
+                            if (keys.isNotEmpty()) {
+                                index.add(lineStart, keys)
+                                writeEntry(out, lineStart, keys)
+                            }
+                            lineStart = position + i + 1
+                            from = i + 1
+                        }
+                        if (from < read) pending += block.copyOfRange(from, read)
+                        position += read
+                    }
+                    index.covered = lineStart
+                    out.write("@" + index.covered)
+                    out.newLine()
+                }
+            }
+        } catch (e: IOException) {
+            logger.warning("Failed to index history log ${logFile.name}: " + e.message)
+        }
+    }
+
+    private fun writeEntry(out: BufferedWriter, offset: Long, keys: Collection<String>) {
+        if (keys.isEmpty()) return
+        out.write(offset.toString())
+        for (key in keys) {
+            out.write("\t")
+            out.write(key)
+        }
+        out.newLine()
+    }
+
+    private fun appender(month: String): BufferedWriter {
+        if (!directory.exists()) {
+            directory.mkdirs()
+        }
+        return BufferedWriter(OutputStreamWriter(FileOutputStream(indexFile(month), true), StandardCharsets.UTF_8))
+    }
+
+    private fun logFile(month: String): File = File(directory, "$month.log")
+
+    private fun indexFile(month: String): File = File(directory, "$month.idx")
+
+    private fun decode(bytes: ByteArray): String {
+        val length = if (bytes.isNotEmpty() && bytes[bytes.size - 1] == CARRIAGE_RETURN) bytes.size - 1 else bytes.size
+        return String(bytes, 0, length, StandardCharsets.UTF_8)
+    }
+
+    companion object {
+        private const val BLOCK_SIZE = 8192
+        private const val NEWLINE: Byte = 0x0A
+        private const val CARRIAGE_RETURN: Byte = 0x0D
+        private const val UUID_PREFIX = "u:"
+        private const val NAME_PREFIX = "n:"
+        private val UUID_PATTERN = Regex("[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}")
+        private val NAME_WITH_UUID = Regex("([A-Za-z0-9_.]{1,16}) \\(" + UUID_PATTERN.pattern + "\\)")
+        private val LABELLED_NAME = Regex("(?:[Pp]layer|玩家)[:：] ?([A-Za-z0-9_.]{1,16})")
+
+        /** 写入时使用的玩家键：UUID 与小写名称，任一为空时省略。 */
+        @JvmStatic
+        fun keys(uuid: String?, name: String?): List<String> {
+            val keys = ArrayList<String>(2)
+            if (!uuid.isNullOrBlank()) keys.add(UUID_PREFIX + uuid.lowercase(Locale.ROOT))
+            if (!name.isNullOrBlank()) keys.add(nameKey(name))
+            return keys
+        }
+
+        @JvmStatic
+        fun nameKey(name: String): String = NAME_PREFIX + name.lowercase(Locale.ROOT)
+
+        /** 查询参数是 UUID 时返回对应的键，否则返回 null。 */
+        @JvmStatic
+        fun uuidKey(value: String): String? = try {
+            UUID_PREFIX + UUID.fromString(value).toString()
+        } catch (_: IllegalArgumentException) {
+            null
+        }
+
+        /** 从没有附带玩家键的旧日志行中解析玩家，覆盖内置回退格式和默认语言模板。 */
+        @JvmStatic
+        fun keysOf(line: String): List<String> {
+            if (line.isEmpty()) return emptyList()
+            val keys = LinkedHashSet<String>()
+            for (match in UUID_PATTERN.findAll(line)) {
+                keys.add(UUID_PREFIX + match.value.lowercase(Locale.ROOT))
+            }
+            for (match in NAME_WITH_UUID.findAll(line)) {
+                keys.add(nameKey(match.groupValues[1]))
+            }
+            for (match in LABELLED_NAME.findAll(line)) {
+                keys.add(nameKey(match.groupValues[1]))
+            }
+            return keys.toList()
+        }
+    }
+}
@@ -0,0 +1,136 @@
+package org.cubexmc.manager
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * 历史日志读取器 - 从文件末尾按固定大小的块向前读取，翻页只读到所需的行为止。
+ *
+ * 每个月份文件的行数按文件长度缓存；日志只会追加，因此文件变长时只统计新增部分，
+ * 变短（被手动截断或替换）时重新统计。
+ */
+class HistoryLogReader @JvmOverloads constructor(
+    private val directory: File,
+    private val suffix: String = ".log",
+) {
+    private class LineCount(val length: Long, val newlines: Long, val endsWithNewline: Boolean) {
+        val lines: Long
+            get() = if (length == 0L || endsWithNewline) newlines else newlines + 1
+    }
+
+    private val lineCounts: MutableMap<String, LineCount> = ConcurrentHashMap()
+
+    /** 月份日志文件，最新的在前。 */
+    fun logFiles(): List<File> {
+        val files = directory.listFiles { _, name -> name.endsWith(suffix) } ?: return emptyList()
+        return files.sortedByDescending { it.name }
+    }
+
+    fun lineCount(file: File): Long {
+        val length = file.length()
+        val cached = lineCounts[file.name]
+        val counted = when {
+            cached != null && cached.length == length -> return cached.lines
+            cached != null && cached.length < length -> countFrom(file, cached.length, cached.newlines, length)
+            else -> countFrom(file, 0L, 0L, length)
+        }
+        lineCounts[file.name] = counted
+        return counted.lines
+    }
+
+    /**
+     * 从最后一行开始逐行回调 [consumer]，返回 false 时停止读取。
+     * 与 Files.lines 一致：末尾换行符不产生额外的空行，行尾的 '\r' 会被去掉。
+     */
+    fun forEachLineReversed(file: File, consumer: (String) -> Boolean) {
+        RandomAccessFile(file, "r").use { raf ->
+            var position = raf.length()
+            if (position == 0L) return
+            val block = ByteArray(BLOCK_SIZE)
+            var carry = ByteArray(0)
+            var skipTrailingNewline = true
+            while (position > 0L) {
+                val size = minOf(BLOCK_SIZE.toLong(), position).toInt()
+                position -= size
+                raf.seek(position)
+                raf.readFully(block, 0, size)
+                var end = size
+                if (skipTrailingNewline) {
+                    skipTrailingNewline = false
+                    if (block[end - 1] == NEWLINE) end--
+                }
+                var index = end - 1
+                while (index >= 0) {
+                    if (block[index] == NEWLINE) {
+                        if (!consumer(decode(block, index + 1, end, carry))) return
+                        carry = EMPTY
+                        end = index
+                    }
+                    index--
+                }
+                carry = if (end == 0) carry else block.copyOfRange(0, end) + carry
+            }
+            consumer(decode(carry, 0, carry.size, EMPTY))
+        }
+    }
+
+    /** 读取从每个 [offsets] 开始的一行，按参数顺序返回；越界的偏移被忽略。 */
+    fun readLinesAt(file: File, offsets: List<Long>): List<String> {
+        val lines = ArrayList<String>(offsets.size)
+        RandomAccessFile(file, "r").use { raf ->
+            val length = raf.length()
+            val block = ByteArray(LINE_BLOCK_SIZE)
+            for (offset in offsets) {
+                if (offset < 0L || offset >= length) continue
+                raf.seek(offset)
+                var line = EMPTY
+                while (true) {
+                    val read = raf.read(block)
+                    if (read <= 0) break
+                    var end = 0
+                    while (end < read && block[end] != NEWLINE) end++
+                    line += block.copyOfRange(0, end)
+                    if (end < read) break
+                }
+                lines.add(decode(line, 0, line.size, EMPTY))
+            }
+        }
+        return lines
+    }
+
+    private fun countFrom(file: File, offset: Long, newlines: Long, length: Long): LineCount {
+        var count = newlines
+        var last: Byte = 0
+        RandomAccessFile(file, "r").use { raf ->
+            raf.seek(offset)
+            val block = ByteArray(BLOCK_SIZE)
+            var remaining = length - offset
+            while (remaining > 0L) {
+                val read = raf.read(block, 0, minOf(BLOCK_SIZE.toLong(), remaining).toInt())
+                if (read <= 0) break
+                for (i in 0 until read) {
+                    if (block[i] == NEWLINE) count++
+                }
+                last = block[read - 1]
+                remaining -= read
+            }
+        }
+        return LineCount(length, count, length == 0L || last == NEWLINE)
+    }
+
+    private fun decode(bytes: ByteArray, from: Int, to: Int, tail: ByteArray): String {
+        val line = if (tail.isEmpty()) bytes.copyOfRange(from, to) else bytes.copyOfRange(from, to) + tail
+        val length = if (line.isNotEmpty() && line[line.size - 1] == CARRIAGE_RETURN) line.size - 1 else line.size
+        return String(line, 0, length, StandardCharsets.UTF_8)
+    }
+
+    companion object {
+        private const val BLOCK_SIZE = 8192
+        private const val LINE_BLOCK_SIZE = 512
+        private const val NEWLINE: Byte = 0x0A
+        private const val CARRIAGE_RETURN: Byte = 0x0D
+        private val EMPTY = ByteArray(0)
+    }
+}
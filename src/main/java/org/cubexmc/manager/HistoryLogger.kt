@@ -3,22 +3,18 @@ package org.cubexmc.manager
 import org.bukkit.entity.Player
 import org.cubexmc.RuleGems
 import org.cubexmc.utils.ColorUtils
-import java.io.BufferedWriter
 import java.io.File
-import java.io.FileWriter
 import java.io.IOException
-import java.nio.file.Files
-import java.text.SimpleDateFormat
-import java.util.Date
-import java.util.Locale
+import java.time.Instant
+import java.time.LocalDateTime
+import java.time.ZoneId
+import java.time.format.DateTimeFormatter
 
 class HistoryLogger(
     private val plugin: RuleGems,
     private val languageManager: LanguageManager?,
 ) {
     private val logsDirectory = File(plugin.dataFolder, "history")
-    private val dateFormat = SimpleDateFormat("yyyy-MM-dd HH:mm:ss")
-    private val fileNameFormat = SimpleDateFormat("yyyy-MM")
 
     init {
         if (!logsDirectory.exists()) {
@@ -26,6 +22,22 @@ class HistoryLogger(
         }
     }
 
+    /** 写盘在独立线程完成，兑换/撤销路径只负责格式化并入队。 */
+    private val index = HistoryIndex(logsDirectory, plugin.logger)
+    private val writer = HistoryWriter(logsDirectory, plugin.logger, index)
+    private val reader = HistoryLogReader(logsDirectory)
+
+    /** 查询只读文件，不依赖 [eventLog]，也不会为查询启动写入线程。 */
+    private val eventReader = HistoryEventReader(File(logsDirectory, "events"), plugin.logger)
+
+    /**
+     * 结构化事件日志在第一次写入时才创建，未启用 history.structured_log 时不占用写入线程。
+     * 与 [closed] 一起只在 [eventLogLock] 内读写，[close] 之后不会再创建。
+     */
+    private val eventLogLock = Any()
+    private var eventLog: HistoryEventLog? = null
+    private var closed = false
+
     fun logGemRedeem(
         player: Player,
         gemKey: String,
@@ -34,7 +46,8 @@ class HistoryLogger(
         vaultGroup: String?,
         previousOwner: String?,
     ) {
-        val timestamp = dateFormat.format(Date())
+        val now = LocalDateTime.now()
+        val timestamp = DATE_FORMAT.format(now)
         val placeholders: MutableMap<String, String> = HashMap()
         placeholders["player"] = player.name
         placeholders["player_uuid"] = player.uniqueId.toString()
@@ -79,7 +92,19 @@ class HistoryLogger(
             message = buildFallbackRedeem(player, gemKey, gemDisplayName, permissions, vaultGroup, previousOwner)
         }
 
-        writeLog("[$timestamp] $message")
+        writeLog(now, "[$timestamp] $message", HistoryIndex.keys(player.uniqueId.toString(), player.name))
+        recordEvent(
+            HistoryEvent(
+                type = HistoryEvent.Type.REDEEM,
+                timestamp = toInstant(now),
+                playerUuid = player.uniqueId.toString(),
+                playerName = player.name,
+                gemKey = gemKey,
+                permissions = permissions ?: emptyList(),
+                previousOwner = previousOwner,
+                vaultGroup = vaultGroup,
+            ),
+        )
     }
 
     fun logPermissionRevoke(
@@ -91,7 +116,8 @@ class HistoryLogger(
         vaultGroup: String?,
         reason: String?,
     ) {
-        val timestamp = dateFormat.format(Date())
+        val now = LocalDateTime.now()
+        val timestamp = DATE_FORMAT.format(now)
         val placeholders: MutableMap<String, String> = HashMap()
         placeholders["player_name"] = playerName ?: "Unknown"
         placeholders["player_uuid"] = playerUuid
@@ -133,11 +159,24 @@ class HistoryLogger(
             message = buildFallbackRevoke(playerUuid, playerName, gemKey, gemDisplayName, permissions, vaultGroup, reason)
         }
 
-        writeLog("[$timestamp] $message")
+        writeLog(now, "[$timestamp] $message", HistoryIndex.keys(playerUuid, playerName))
+        recordEvent(
+            HistoryEvent(
+                type = HistoryEvent.Type.REVOKE,
+                timestamp = toInstant(now),
+                playerUuid = playerUuid,
+                playerName = playerName,
+                gemKey = gemKey,
+                permissions = permissions ?: emptyList(),
+                reason = reason,
+                vaultGroup = vaultGroup,
+            ),
+        )
     }
 
     fun logFullSetRedeem(player: Player, gemCount: Int, permissions: List<String>?, previousFullSetOwner: String?) {
-        val timestamp = dateFormat.format(Date())
+        val now = LocalDateTime.now()
+        val timestamp = DATE_FORMAT.format(now)
         val placeholders: MutableMap<String, String> = HashMap()
         placeholders["player"] = player.name
         placeholders["player_uuid"] = player.uniqueId.toString()
@@ -171,11 +210,23 @@ class HistoryLogger(
             message = buildFallbackFullSet(player, gemCount, permissions, previousFullSetOwner)
         }
 
-        writeLog("[$timestamp] $message")
+        writeLog(now, "[$timestamp] $message", HistoryIndex.keys(player.uniqueId.toString(), player.name))
+        recordEvent(
+            HistoryEvent(
+                type = HistoryEvent.Type.FULL_SET,
+                timestamp = toInstant(now),
+                playerUuid = player.uniqueId.toString(),
+                playerName = player.name,
+                permissions = permissions ?: emptyList(),
+                previousOwner = previousFullSetOwner,
+                gemCount = gemCount,
+            ),
+        )
     }
 
     fun logGemPlace(player: Player, gemKey: String, location: String) {
-        val timestamp = dateFormat.format(Date())
+        val now = LocalDateTime.now()
+        val timestamp = DATE_FORMAT.format(now)
         val placeholders = mapOf(
             "player" to player.name,
             "gem_key" to gemKey,
@@ -185,11 +236,22 @@ class HistoryLogger(
         if (message.isEmpty()) {
             message = buildFallbackPlace(player, gemKey, location)
         }
-        writeLog("[$timestamp] $message")
+        writeLog(now, "[$timestamp] $message", HistoryIndex.keys(player.uniqueId.toString(), player.name))
+        recordEvent(
+            HistoryEvent(
+                type = HistoryEvent.Type.PLACE,
+                timestamp = toInstant(now),
+                playerUuid = player.uniqueId.toString(),
+                playerName = player.name,
+                gemKey = gemKey,
+                location = location,
+            ),
+        )
     }
 
     fun logGemBreak(player: Player, gemKey: String, location: String) {
-        val timestamp = dateFormat.format(Date())
+        val now = LocalDateTime.now()
+        val timestamp = DATE_FORMAT.format(now)
         val placeholders = mapOf(
             "player" to player.name,
             "gem_key" to gemKey,
@@ -199,7 +261,17 @@ class HistoryLogger(
         if (message.isEmpty()) {
             message = buildFallbackBreak(player, gemKey, location)
         }
-        writeLog("[$timestamp] $message")
+        writeLog(now, "[$timestamp] $message", HistoryIndex.keys(player.uniqueId.toString(), player.name))
+        recordEvent(
+            HistoryEvent(
+                type = HistoryEvent.Type.BREAK,
+                timestamp = toInstant(now),
+                playerUuid = player.uniqueId.toString(),
+                playerName = player.name,
+                gemKey = gemKey,
+                location = location,
+            ),
+        )
     }
 
     private fun formatHistoryMessage(key: String, placeholders: Map<String, String>?): String {
@@ -280,111 +352,149 @@ class HistoryLogger(
     private fun buildFallbackBreak(player: Player, gemKey: String, location: String): String =
         "§c[Gem Broken] Player: " + player.name + " | Gem: " + gemKey + " | Location: " + location
 
-    private fun writeLog(logEntry: String) {
-        val fileName = fileNameFormat.format(Date()) + ".log"
-        val logFile = File(logsDirectory, fileName)
+    private fun writeLog(time: LocalDateTime, logEntry: String, playerKeys: List<String>) {
+        writer.append(MONTH_FORMAT.format(time), COLOR_CODE.replace(logEntry, ""), playerKeys)
+    }
 
-        try {
-            BufferedWriter(FileWriter(logFile, true)).use { writer ->
-                val cleanEntry = logEntry.replace(Regex("§[0-9a-fk-or]"), "")
-                writer.write(cleanEntry)
-                writer.newLine()
+    private fun recordEvent(event: HistoryEvent) {
+        if (!plugin.gameplayConfig.isStructuredHistoryEnabled) return
+        val log = synchronized(eventLogLock) {
+            eventLog ?: if (closed) {
+                null
+            } else {
+                HistoryEventLog(File(logsDirectory, "events"), plugin.logger).also { eventLog = it }
             }
-        } catch (e: IOException) {
-            plugin.logger.warning("Failed to write history log: " + e.message)
+        } ?: return
+        log.record(event)
+    }
+
+    private fun toInstant(time: LocalDateTime): Instant = time.atZone(ZoneId.systemDefault()).toInstant()
+
+    /** 写完队列中的条目并关闭当前月份的日志文件；之后的条目同步写入。 */
+    fun close() {
+        val log = synchronized(eventLogLock) {
+            closed = true
+            eventLog
+        }
+        writer.close()
+        log?.close()
+    }
+
+    /**
+     * 查询结构化事件，最新的在前，[consumer] 返回 false 时停止读取。
+     * 例如"上周谁兑换过 fire"：`HistoryQuery(setOf(HistoryEvent.Type.REDEEM), "fire", from = 一周前)`。
+     * 只读 `history/events` 下的文件，关闭后或未启用 structured_log 时调用也不会创建写入器。
+     */
+    fun queryEvents(query: HistoryQuery, consumer: (HistoryEvent) -> Boolean) {
+        try {
+            eventReader.query(query, consumer)
+        } catch (e: Exception) {
+            plugin.logger.warning("Failed to query history events: " + e.message)
+        }
+    }
+
+    fun findEvents(query: HistoryQuery, limit: Int): List<HistoryEvent> {
+        return try {
+            eventReader.find(query, limit)
+        } catch (e: Exception) {
+            plugin.logger.warning("Failed to query history events: " + e.message)
+            emptyList()
+        }
+    }
+
+    /** 补全所有月份的玩家索引；首次启动时由异步任务调用，之后只扫描新增的部分。 */
+    fun rebuildIndex() {
+        try {
+            index.catchUp(reader.logFiles())
+        } catch (e: Exception) {
+            plugin.logger.warning("Failed to rebuild history index: " + e.message)
         }
     }
 
     fun getRecentHistoryPage(page: Int, pageSize: Int): HistoryPage {
         val entries: MutableList<String> = ArrayList()
-        var total = 0
-        val startIndex = maxOf(0, (page - 1) * pageSize)
-        val endIndex = startIndex + pageSize
+        var total = 0L
+        var skip = maxOf(0, (page - 1) * pageSize).toLong()
 
         try {
-            val logFiles = logsDirectory.listFiles { _, name -> name.endsWith(".log") }
-            if (logFiles.isNullOrEmpty()) {
-                return HistoryPage(entries, total)
-            }
-
-            logFiles.sortWith { a, b -> b.name.compareTo(a.name) }
-            for (logFile in logFiles) {
-                val fileLines = try {
-                    Files.lines(logFile.toPath()).use { stream -> stream.toList() }
-                } catch (e: IOException) {
-                    plugin.logger.warning("Failed to read log file: " + logFile.name)
+            for (logFile in reader.logFiles()) {
+                val fileLines = reader.lineCount(logFile)
+                total += fileLines
+                // 整个文件都在当前页之前（或页已填满）时只需要缓存的行数。
+                if (skip >= fileLines || entries.size >= pageSize) {
+                    skip = maxOf(0L, skip - fileLines)
                     continue
                 }
-
-                for (i in fileLines.indices.reversed()) {
-                    val line = fileLines[i]
-                    if (total >= startIndex && total < endIndex) {
-                        entries.add(line)
+                try {
+                    reader.forEachLineReversed(logFile) { line ->
+                        if (skip > 0L) {
+                            skip--
+                        } else {
+                            entries.add(line)
+                        }
+                        entries.size < pageSize
                     }
-                    total++
+                } catch (e: IOException) {
+                    plugin.logger.warning("Failed to read log file: " + logFile.name)
                 }
+                skip = 0L
             }
         } catch (e: Exception) {
             plugin.logger.warning("Failed to read history: " + e.message)
         }
 
-        return HistoryPage(entries, total)
+        return HistoryPage(entries, total.coerceAtMost(Int.MAX_VALUE.toLong()).toInt())
     }
 
+    /**
+     * 按玩家倒排索引查询：[playerName] 可以是 UUID 或名称（不区分大小写、精确匹配），
+     * 名称还会带上它在日志中对应过的 UUID，改名前的记录也能查到。只读取当前页的行。
+     */
     fun getPlayerHistoryPage(playerName: String, page: Int, pageSize: Int): HistoryPage {
         val entries: MutableList<String> = ArrayList()
-        var total = 0
-        val startIndex = maxOf(0, (page - 1) * pageSize)
-        val endIndex = startIndex + pageSize
-        val lowerPlayer = playerName.lowercase(Locale.ROOT)
+        var total = 0L
+        var skip = maxOf(0, (page - 1) * pageSize).toLong()
 
         try {
-            val logFiles = logsDirectory.listFiles { _, name -> name.endsWith(".log") }
-            if (logFiles.isNullOrEmpty()) {
-                return HistoryPage(entries, total)
+            val logFiles = reader.logFiles()
+            val keys = HistoryIndex.uuidKey(playerName)?.let { setOf(it) } ?: run {
+                val nameKey = HistoryIndex.nameKey(playerName)
+                setOf(nameKey) + index.aliasesOf(logFiles, nameKey)
             }
-
-            logFiles.sortWith { a, b -> b.name.compareTo(a.name) }
             for (logFile in logFiles) {
-                val fileLines = try {
-                    Files.lines(logFile.toPath()).use { stream -> stream.toList() }
-                } catch (e: IOException) {
-                    plugin.logger.warning("Failed to read log file: " + logFile.name)
+                val offsets = index.offsets(logFile, keys)
+                total += offsets.size
+                if (skip >= offsets.size || entries.size >= pageSize) {
+                    skip = maxOf(0L, skip - offsets.size)
                     continue
                 }
-
-                for (i in fileLines.indices.reversed()) {
-                    val line = fileLines[i]
-                    if (!lineMatchesPlayer(line, lowerPlayer)) {
-                        continue
-                    }
-                    if (total >= startIndex && total < endIndex) {
-                        entries.add(line)
-                    }
-                    total++
+                // 偏移按写入顺序升序，最新的在末尾。
+                val last = offsets.size - 1 - skip.toInt()
+                val first = maxOf(0, last - (pageSize - entries.size) + 1)
+                val wanted = (last downTo first).map { offsets[it] }
+                try {
+                    entries.addAll(reader.readLinesAt(logFile, wanted))
+                } catch (e: IOException) {
+                    plugin.logger.warning("Failed to read log file: " + logFile.name)
                 }
+                skip = 0L
             }
         } catch (e: Exception) {
             plugin.logger.warning("Failed to read player history: " + e.message)
         }
 
-        return HistoryPage(entries, total)
+        return HistoryPage(entries, total.coerceAtMost(Int.MAX_VALUE.toLong()).toInt())
     }
 
     fun getRecentHistory(lines: Int): List<String> = getRecentHistoryPage(1, maxOf(1, lines)).entries
 
     fun getPlayerHistory(playerName: String, lines: Int): List<String> = getPlayerHistoryPage(playerName, 1, maxOf(1, lines)).entries
 
-    private fun lineMatchesPlayer(line: String?, lowerPlayer: String): Boolean {
-        if (line.isNullOrEmpty()) {
-            return false
-        }
-        val lowerLine = line.lowercase(Locale.ROOT)
-        return lowerLine.contains("player: $lowerPlayer") ||
-            lowerLine.contains("$lowerPlayer (") ||
-            lowerLine.contains("| $lowerPlayer |") ||
-            lowerLine.contains("玩家: $lowerPlayer")
-    }
-
     class HistoryPage(val entries: List<String>, val totalCount: Int)
+
+    companion object {
+        private val DATE_FORMAT: DateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+        private val MONTH_FORMAT: DateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM")
+        private val COLOR_CODE = Regex("§[0-9a-fk-or]")
+    }
 }
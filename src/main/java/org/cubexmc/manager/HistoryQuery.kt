@@ -0,0 +1,43 @@
+package org.cubexmc.manager
+
+import java.time.Instant
+import java.time.YearMonth
+import java.time.ZoneId
+import java.util.Locale
+
+/**
+ * 结构化历史查询条件，未设置的条件不参与筛选。
+ *
+ * [player] 可以是 UUID 或名称（不区分大小写）；时间范围为 [[from], [until])。
+ */
+class HistoryQuery @JvmOverloads constructor(
+    val types: Set<HistoryEvent.Type> = emptySet(),
+    val gemKey: String? = null,
+    val player: String? = null,
+    val from: Instant? = null,
+    val until: Instant? = null,
+) {
+    private val lowerPlayer = player?.lowercase(Locale.ROOT)
+
+    fun matches(event: HistoryEvent): Boolean {
+        if (types.isNotEmpty() && event.type !in types) return false
+        if (gemKey != null && !gemKey.equals(event.gemKey, ignoreCase = true)) return false
+        if (lowerPlayer != null &&
+            lowerPlayer != event.playerUuid?.lowercase(Locale.ROOT) &&
+            lowerPlayer != event.playerName?.lowercase(Locale.ROOT)
+        ) {
+            return false
+        }
+        return inRange(event.timestamp)
+    }
+
+    fun inRange(timestamp: Instant): Boolean =
+        (from == null || !timestamp.isBefore(from)) && (until == null || timestamp.isBefore(until))
+
+    /** 月份文件是否可能包含范围内的事件，用于跳过整个文件。 */
+    fun overlaps(month: YearMonth, zone: ZoneId): Boolean {
+        val start = month.atDay(1).atStartOfDay(zone).toInstant()
+        val end = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant()
+        return (until == null || start.isBefore(until)) && (from == null || end.isAfter(from))
+    }
+}
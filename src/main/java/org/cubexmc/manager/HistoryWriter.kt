@@ -0,0 +1,212 @@
+package org.cubexmc.manager
+
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicLong
+import java.util.logging.Logger
+
+/**
+ * 历史日志写入线程 - 调用方只把条目放进有界队列，由单独的守护线程批量写盘。
+ *
+ * 每个月的日志文件在写入线程上保持打开，每批条目写完后 flush 一次；跨月时自动切换文件。
+ * 队列满时丢弃新条目并计数，写入线程会定期把丢弃数量报告到控制台。[close] 会写完队列后再关闭文件，
+ * 之后到达的条目直接同步写入，避免关服阶段丢失记录。
+ *
+ * 配置了 [index] 时，写入线程记录每行的起始偏移，flush 后连同玩家键一起登记到索引；
+ * 写入期间持有索引的锁，查询不会看到写了一半的批次。
+ */
+class HistoryWriter @JvmOverloads constructor(
+    private val directory: File,
+    private val logger: Logger,
+    private val index: HistoryIndex? = null,
+    private val suffix: String = ".log",
+    capacity: Int = DEFAULT_CAPACITY,
+) {
+    private class Entry(val month: String, val line: String, val keys: Collection<String>)
+
+    private val queue = ArrayBlockingQueue<Entry>(capacity)
+    private val dropped = AtomicLong()
+    private var reportedDrops = 0L
+    private var lastReportAt = 0L
+    private val writeLock: Any = index ?: Any()
+    private var openMonth: String? = null
+    private var writer: BufferedOutputStream? = null
+    private var position = 0L
+    private val unindexed = ArrayList<HistoryIndex.Record>()
+
+    @Volatile
+    private var running = true
+    private val thread = Thread({ drainLoop() }, "RuleGems-History").apply { isDaemon = true }
+
+    init {
+        thread.start()
+    }
+
+    /** 非阻塞入队；[month] 决定写入哪个 `yyyy-MM.log`（或 [suffix]）文件，[keys] 为 [HistoryIndex.keys] 生成的玩家键。 */
+    @JvmOverloads
+    fun append(month: String, line: String, keys: Collection<String> = emptyList()) {
+        val entry = Entry(month, line, keys)
+        if (running) {
+            if (!queue.offer(entry)) {
+                dropped.incrementAndGet()
+            } else if (!running) {
+                // close() 可能已经排空过队列，补写一次。
+                writeSynchronously(null)
+            }
+            return
+        }
+        writeSynchronously(entry)
+    }
+
+    val droppedCount: Long
+        get() = dropped.get()
+
+    fun close() {
+        if (!running) return
+        running = false
+        thread.interrupt()
+        try {
+            thread.join(CLOSE_TIMEOUT_MILLIS)
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        synchronized(writeLock) {
+            drainBatch(ArrayList())
+            closeWriter()
+        }
+        reportDrops(true)
+    }
+
+    private fun writeSynchronously(entry: Entry?) {
+        synchronized(writeLock) {
+            if (entry != null) write(entry)
+            drainBatch(ArrayList())
+            flushQuietly()
+            closeWriter()
+        }
+    }
+
+    private fun drainLoop() {
+        val batch = ArrayList<Entry>(BATCH_SIZE)
+        while (running) {
+            try {
+                val first = queue.poll(REPORT_INTERVAL_SECONDS, TimeUnit.SECONDS)
+                if (first != null) {
+                    batch.add(first)
+                    synchronized(writeLock) { drainBatch(batch) }
+                }
+                reportDrops()
+            } catch (_: InterruptedException) {
+                break
+            } catch (e: Exception) {
+                logger.warning("History writer failed: " + e.message)
+            }
+        }
+    }
+
+    /** 写出 [batch] 以及队列中已有的条目，最后 flush 一次。调用方持有 [writeLock]。 */
+    private fun drainBatch(batch: MutableList<Entry>) {
+        queue.drainTo(batch)
+        if (batch.isEmpty()) return
+        for (entry in batch) {
+            write(entry)
+        }
+        batch.clear()
+        flushQuietly()
+    }
+
+    private fun write(entry: Entry) {
+        try {
+            val target = writerFor(entry.month)
+            val bytes = entry.line.toByteArray(StandardCharsets.UTF_8)
+            target.write(bytes)
+            target.write(NEWLINE)
+            if (index != null) {
+                unindexed.add(HistoryIndex.Record(position, entry.line, entry.keys))
+            }
+            position += bytes.size + 1
+        } catch (e: IOException) {
+            logger.warning("Failed to write history log: " + e.message)
+            closeWriter()
+        }
+    }
+
+    private fun writerFor(month: String): BufferedOutputStream {
+        val current = writer
+        if (current != null && month == openMonth) {
+            return current
+        }
+        closeWriter()
+        if (!directory.exists()) {
+            directory.mkdirs()
+        }
+        val file = File(directory, month + suffix)
+        val opened = BufferedOutputStream(FileOutputStream(file, true))
+        writer = opened
+        openMonth = month
+        position = file.length()
+        return opened
+    }
+
+    private fun flushQuietly() {
+        val current = writer ?: return
+        try {
+            current.flush()
+            publishOffsets()
+        } catch (e: IOException) {
+            logger.warning("Failed to flush history log: " + e.message)
+            closeWriter()
+        }
+    }
+
+    /** 把已经落盘的行登记到索引；写入失败的批次留给索引下次从日志中补扫。 */
+    private fun publishOffsets() {
+        val month = openMonth
+        if (index != null && month != null && unindexed.isNotEmpty()) {
+            index.record(month, ArrayList(unindexed), position)
+        }
+        unindexed.clear()
+    }
+
+    private fun closeWriter() {
+        val current = writer ?: return
+        try {
+            current.flush()
+            publishOffsets()
+        } catch (e: IOException) {
+            logger.warning("Failed to flush history log: " + e.message)
+        }
+        unindexed.clear()
+        writer = null
+        openMonth = null
+        try {
+            current.close()
+        } catch (e: IOException) {
+            logger.fine("Failed to close history log: " + e.message)
+        }
+    }
+
+    @Synchronized
+    private fun reportDrops(force: Boolean = false) {
+        val total = dropped.get()
+        val now = System.currentTimeMillis()
+        if (total > reportedDrops && (force || now - lastReportAt >= TimeUnit.SECONDS.toMillis(REPORT_INTERVAL_SECONDS))) {
+            lastReportAt = now
+            logger.warning("History queue was full; dropped ${total - reportedDrops} history entries (total $total).")
+            reportedDrops = total
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_CAPACITY = 4096
+        private const val BATCH_SIZE = 256
+        private const val REPORT_INTERVAL_SECONDS = 30L
+        private const val CLOSE_TIMEOUT_MILLIS = 5000L
+        private const val NEWLINE = 0x0A
+    }
+}
@@ -0,0 +1,15 @@
+package org.cubexmc.manager
+
+import org.bukkit.Location
+import java.util.UUID
+import kotlin.math.sqrt
+
+/** 最近邻查询结果；距离按平方保存，只有显示时才开方。 */
+class NearestGem(
+    val gemId: UUID,
+    val location: Location,
+    val distanceSquared: Double,
+) {
+    val distance: Double
+        get() = sqrt(distanceSquared)
+}
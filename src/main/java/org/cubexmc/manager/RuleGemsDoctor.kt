@@ -78,6 +78,8 @@ class RuleGemsDoctor(private val plugin: RuleGems) {
         inspectPermissionProvider(entries, gemDefinitions, gameplayConfig, configManager.config)
         inspectStorageConfig(entries, configManager.config)
         inspectStorageHealth(entries)
+        inspectSaveCoalescing(entries)
+        inspectGrantQueue(entries)
         inspectQuickShopHealth(entries)
 
         if (gameplayConfig != null && gameplayConfig.isPlaceRedeemEnabled && gemDefinitions != null && gemDefinitions.isNotEmpty()) {
@@ -199,7 +201,7 @@ class RuleGemsDoctor(private val plugin: RuleGems) {
             return
         }
         val normalized = type.lowercase(Locale.ROOT)
-        if (normalized != "yaml" && normalized != "sqlite") {
+        if (normalized != "yaml" && normalized != "sqlite" && normalized != "journal" && normalized != "binary") {
             entries.add(Entry(Severity.WARNING, localized("未知 storage.type，将回退到 YAML: ", "Unknown storage.type; YAML storage will be used: ") + type))
         }
     }
@@ -231,6 +233,43 @@ class RuleGemsDoctor(private val plugin: RuleGems) {
         }
     }
 
+    private fun inspectSaveCoalescing(entries: MutableList<Entry>) {
+        val stats: SaveCoalescer.Stats? = plugin.gemManager?.saveStats()
+        if (stats == null || stats.requests == 0L) return
+        entries.add(
+            Entry(
+                Severity.OK,
+                localized(
+                    "增量保存: 请求 ${stats.requests} 次，写出 ${stats.flushes} 次（合并 ${stats.coalesced}，" +
+                        "阈值触发 ${stats.thresholdFlushes}，被完整保存吸收 ${stats.absorbedByFullSave}，" +
+                        "过期跳过 ${stats.staleWritesSkipped}）",
+                    "Incremental saves: ${stats.requests} requested, ${stats.flushes} written (${stats.coalesced} coalesced, " +
+                        "${stats.thresholdFlushes} threshold flushes, ${stats.absorbedByFullSave} absorbed by full saves, " +
+                        "${stats.staleWritesSkipped} stale writes skipped)",
+                ),
+            ),
+        )
+    }
+
+    private fun inspectGrantQueue(entries: MutableList<Entry>) {
+        val stats: GemGrantQueue.Stats? = plugin.gemManager?.grantQueueStats()
+        if (stats == null || stats.requests == 0L) return
+        val ratio = String.format(Locale.ROOT, "%.2f", stats.coalescingRatio)
+        val worstWindow = String.format(Locale.ROOT, "%.2f", stats.worstWindowNanos / 1_000_000.0)
+        val worstDrain = String.format(Locale.ROOT, "%.2f", stats.worstDrainNanos / 1_000_000.0)
+        entries.add(
+            Entry(
+                Severity.OK,
+                localized(
+                    "授权重算: 请求 ${stats.requests} 次，实际重算 ${stats.drains} 次（合并比 $ratio），" +
+                        "任意 50ms 内最高 ${worstWindow}ms，单次最高 ${worstDrain}ms",
+                    "Grant recalculation: ${stats.requests} requested, ${stats.drains} run (coalescing ratio $ratio), " +
+                        "worst 50ms window ${worstWindow}ms, worst single run ${worstDrain}ms",
+                ),
+            ),
+        )
+    }
+
     private fun inspectQuickShopHealth(entries: MutableList<Entry>) {
         val health = plugin.quickShopIntegrationHealth
         when (health.status) {
@@ -0,0 +1,98 @@
+package org.cubexmc.manager
+
+import org.cubexmc.RuleGems
+import org.cubexmc.utils.SchedulerUtil
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 保存合并器 - 把短时间内连续的增量保存请求合并为一次写入。
+ *
+ * 第一次请求会安排一次延迟 flush，保证数据最迟在 `storage.save_coalescing.max_delay_ms`
+ * 后写出；期间累计的请求数达到 `max_pending` 时立即 flush。完整保存会覆盖所有分区，
+ * 调用 [cancelPending] 即可吸收挂起的请求。插件未启用或延迟配置为 0 时直接 flush。
+ */
+class SaveCoalescer(
+    private val plugin: RuleGems,
+    private val gameplayConfig: GameplayConfig,
+    private val flush: () -> Boolean,
+) {
+    private val lock = Any()
+    private var pending = 0
+    private var task: Any? = null
+
+    private val requests = AtomicLong()
+    private val flushes = AtomicLong()
+    private val thresholdFlushes = AtomicLong()
+    private val absorbedByFullSave = AtomicLong()
+    private val staleWritesSkipped = AtomicLong()
+
+    class Stats(
+        val requests: Long,
+        val flushes: Long,
+        val thresholdFlushes: Long,
+        val absorbedByFullSave: Long,
+        val staleWritesSkipped: Long,
+    ) {
+        /** 没有单独触发写入的请求数。 */
+        val coalesced: Long
+            get() = (requests - flushes).coerceAtLeast(0L)
+    }
+
+    /** 登记一次增量保存请求；只有当场 flush 且写入失败时返回 false。 */
+    fun request(): Boolean {
+        requests.incrementAndGet()
+        val delayTicks = gameplayConfig.saveCoalesceMaxDelayTicks
+        if (delayTicks <= 0L || !plugin.isEnabled) {
+            return flushNow()
+        }
+        val flushImmediately = synchronized(lock) {
+            pending++
+            if (pending >= gameplayConfig.saveCoalesceMaxPending.coerceAtLeast(1)) {
+                true
+            } else {
+                if (task == null) {
+                    task = SchedulerUtil.globalRun(plugin, Runnable { flushNow() }, delayTicks, -1L)
+                }
+                false
+            }
+        }
+        if (!flushImmediately) {
+            return true
+        }
+        thresholdFlushes.incrementAndGet()
+        return flushNow()
+    }
+
+    /** 完整保存已覆盖挂起的增量请求时调用；不会写盘。 */
+    fun cancelPending() {
+        val cancelled = synchronized(lock) {
+            if (pending == 0 && task == null) return
+            pending = 0
+            task.also { task = null }
+        }
+        SchedulerUtil.cancelTask(cancelled)
+        absorbedByFullSave.incrementAndGet()
+    }
+
+    fun recordStaleWriteSkipped() {
+        staleWritesSkipped.incrementAndGet()
+    }
+
+    fun stats(): Stats = Stats(
+        requests.get(),
+        flushes.get(),
+        thresholdFlushes.get(),
+        absorbedByFullSave.get(),
+        staleWritesSkipped.get(),
+    )
+
+    private fun flushNow(): Boolean {
+        val cancelled = synchronized(lock) {
+            pending = 0
+            task.also { task = null }
+        }
+        SchedulerUtil.cancelTask(cancelled)
+        flushes.incrementAndGet()
+        return flush()
+    }
+}
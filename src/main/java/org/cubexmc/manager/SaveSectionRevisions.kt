@@ -0,0 +1,30 @@
+package org.cubexmc.manager
+
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * 持久化分区修订号 - 每个管理器为自己负责的 gems.yml 根键各维护一个递增修订号。
+ *
+ * 状态变更时调用 [markDirty]；[GemManager] 记录每个已缓存分区构建时的修订号，
+ * 增量保存只重建修订号发生变化的分区。
+ */
+class SaveSectionRevisions(vararg rootKeys: String) {
+    private val revisions: Map<String, AtomicLong> = rootKeys.associateWith { AtomicLong() }
+
+    val rootKeys: Set<String>
+        get() = revisions.keys
+
+    fun markDirty(vararg rootKeys: String) {
+        for (rootKey in rootKeys) {
+            revisions[rootKey]?.incrementAndGet()
+        }
+    }
+
+    fun markAllDirty() {
+        for (revision in revisions.values) {
+            revision.incrementAndGet()
+        }
+    }
+
+    fun revision(rootKey: String): Long = revisions[rootKey]?.get() ?: 0L
+}
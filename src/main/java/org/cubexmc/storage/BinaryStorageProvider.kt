@@ -0,0 +1,150 @@
+package org.cubexmc.storage
+
+import org.bukkit.configuration.file.FileConfiguration
+import org.bukkit.configuration.file.YamlConfiguration
+import org.cubexmc.RuleGems
+import java.io.File
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.logging.Level
+
+/**
+ * Binary snapshot storage: data/gems.dat in [GemSnapshotFormat].
+ *
+ * A save encodes once, fsyncs a temp file and rotates it in; the previous
+ * snapshot becomes gems.dat.bak. Reads validate the CRC32 trailer instead of
+ * re-parsing. When gems.dat does not exist yet, data/gems.yml is imported, and a
+ * data/gems.import.yml dropped next to it replaces the snapshot on the next load.
+ */
+class BinaryStorageProvider(private val plugin: RuleGems) : StorageProvider {
+    private var snapshotFile: File? = null
+
+    override fun getName(): String = "binary"
+
+    override fun initialize() {
+        val dataFolder = File(plugin.dataFolder, "data")
+        if (!dataFolder.exists()) {
+            dataFolder.mkdirs()
+        }
+        snapshotFile = File(dataFolder, SNAPSHOT_FILE)
+    }
+
+    override fun readGemData(): StorageLoadResult {
+        return try {
+            initialize()
+            val file = snapshotFile ?: return StorageLoadResult.failure(
+                StorageException("Binary storage file was not initialized"),
+            )
+            importYamlIfPresent(File(file.parentFile, IMPORT_FILE), file, true)?.let { return it }
+            val backup = backupFile(file)
+            if (!file.exists()) {
+                if (backup.exists()) {
+                    return StorageLoadResult.success(decode(backup)).also {
+                        plugin.logger.warning(
+                            "Primary data/$SNAPSHOT_FILE is missing; loaded the previous snapshot without overwriting it.",
+                        )
+                    }
+                }
+                return importYamlIfPresent(File(file.parentFile, "gems.yml"), file, false)
+                    ?: StorageLoadResult.notFound(YamlConfiguration())
+            }
+            try {
+                StorageLoadResult.success(decode(file))
+            } catch (primaryFailure: Exception) {
+                if (!backup.exists()) {
+                    throw primaryFailure
+                }
+                try {
+                    StorageLoadResult.success(decode(backup)).also {
+                        plugin.logger.log(
+                            Level.SEVERE,
+                            "Primary data/$SNAPSHOT_FILE is unreadable; using the previous snapshot in memory. " +
+                                "The damaged primary file was left untouched.",
+                            primaryFailure,
+                        )
+                    }
+                } catch (backupFailure: Exception) {
+                    primaryFailure.addSuppressed(backupFailure)
+                    throw primaryFailure
+                }
+            }
+        } catch (e: Exception) {
+            plugin.logger.log(Level.SEVERE, "Failed to read gem data", e)
+            StorageLoadResult.failure(e)
+        }
+    }
+
+    override fun saveGemData(data: FileConfiguration): StorageSaveResult {
+        initialize()
+        return try {
+            val file = snapshotFile
+                ?: return StorageSaveResult.failure(StorageException("Binary storage file was not initialized"))
+            writeSnapshot(GemSnapshotFormat.encode(data), file)
+            StorageSaveResult.success()
+        } catch (e: Exception) {
+            plugin.logger.log(Level.SEVERE, "Failed to save gem data", e)
+            StorageSaveResult.failure(e)
+        }
+    }
+
+    /** Converts [yaml] into [file]; explicit imports are renamed afterwards so they are applied only once. */
+    private fun importYamlIfPresent(yaml: File, file: File, explicit: Boolean): StorageLoadResult? {
+        if (!yaml.isFile) {
+            return null
+        }
+        val data = YamlConfiguration()
+        data.load(yaml)
+        writeSnapshot(GemSnapshotFormat.encode(data), file)
+        if (explicit) {
+            moveFile(yaml, File(yaml.parentFile, yaml.name + ".imported"))
+        }
+        plugin.logger.info("Imported data/${yaml.name} into data/$SNAPSHOT_FILE.")
+        return StorageLoadResult.success(decode(file))
+    }
+
+    private fun writeSnapshot(bytes: ByteArray, file: File) {
+        val temp = File.createTempFile("gems", ".tmp", file.parentFile)
+        try {
+            FileChannel.open(temp.toPath(), StandardOpenOption.WRITE).use { channel ->
+                val buffer = ByteBuffer.wrap(bytes)
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer)
+                }
+                channel.force(true)
+            }
+            if (file.exists()) {
+                moveFile(file, backupFile(file))
+            }
+            moveFile(temp, file)
+        } catch (e: Exception) {
+            Files.deleteIfExists(temp.toPath())
+            throw e
+        }
+    }
+
+    private fun decode(file: File): YamlConfiguration = GemSnapshotFormat.decode(Files.readAllBytes(file.toPath()))
+
+    private fun backupFile(file: File): File = File(file.parentFile, file.name + ".bak")
+
+    private fun moveFile(source: File, target: File) {
+        try {
+            Files.move(
+                source.toPath(),
+                target.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE,
+            )
+        } catch (_: AtomicMoveNotSupportedException) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING)
+        }
+    }
+
+    companion object {
+        const val SNAPSHOT_FILE = "gems.dat"
+        const val IMPORT_FILE = "gems.import.yml"
+    }
+}
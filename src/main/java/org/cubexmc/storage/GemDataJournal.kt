@@ -0,0 +1,272 @@
+package org.cubexmc.storage
+
+import org.bukkit.configuration.ConfigurationSection
+import org.bukkit.configuration.file.YamlConfiguration
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.EOFException
+import java.io.File
+import java.nio.charset.StandardCharsets
+import java.util.zip.CRC32
+
+/**
+ * Record format of the gem data write-ahead journal used by [JournalStorageProvider].
+ *
+ * The journal stores leaf-path mutations of the gems.yml tree. A file starts with
+ * [MAGIC]; every record is `int length, payload, int crc32(payload)`. A save appends
+ * its SET/REMOVE records followed by one COMMIT record, and replay only applies
+ * batches whose COMMIT made it to disk, so a torn tail never leaves half of a
+ * pickup or redeem applied.
+ */
+internal object GemDataJournal {
+    const val MAGIC = 0x52474A31 // "RGJ1"
+    const val HEADER_SIZE = 4L
+
+    private const val OP_SET: Byte = 1
+    private const val OP_REMOVE: Byte = 2
+    private const val OP_COMMIT: Byte = 3
+
+    private const val TAG_STRING: Byte = 0x53 // 'S'
+    private const val TAG_LONG: Byte = 0x4C // 'L'
+    private const val TAG_DOUBLE: Byte = 0x44 // 'D'
+    private const val TAG_BOOLEAN: Byte = 0x42 // 'B'
+    private const val TAG_STRING_LIST: Byte = 0x54 // 'T'
+    private const val TAG_YAML: Byte = 0x59 // 'Y'
+
+    /** Largest payload accepted on replay; anything bigger is treated as a corrupt length prefix. */
+    private const val MAX_PAYLOAD = 16 * 1024 * 1024
+    private const val ENCODED_VALUE_KEY = "value"
+
+    class ReplayResult(val validLength: Long, val committedBatches: Int, val discardedBytes: Long)
+
+    fun header(): ByteArray = ByteArrayOutputStream(4).also { DataOutputStream(it).writeInt(MAGIC) }.toByteArray()
+
+    /** Leaf paths of [data] with values normalized so they compare equal after a journal round trip. */
+    fun flatten(data: ConfigurationSection): LinkedHashMap<String, Any?> {
+        val leaves = LinkedHashMap<String, Any?>()
+        for (path in data.getKeys(true)) {
+            if (data.isConfigurationSection(path)) continue
+            val value = data.get(path) ?: continue
+            leaves[path] = normalize(value)
+        }
+        return leaves
+    }
+
+    /** Leaf paths under the single root key [rootKey] of [data], normalized like [flatten]. */
+    fun flattenRoot(data: ConfigurationSection, rootKey: String): LinkedHashMap<String, Any?> {
+        val leaves = LinkedHashMap<String, Any?>()
+        val section = data.getConfigurationSection(rootKey)
+        if (section == null) {
+            data.get(rootKey)?.let { leaves[rootKey] = normalize(it) }
+            return leaves
+        }
+        for (path in section.getKeys(true)) {
+            if (section.isConfigurationSection(path)) continue
+            val value = section.get(path) ?: continue
+            leaves["$rootKey.$path"] = normalize(value)
+        }
+        return leaves
+    }
+
+    /** Groups leaf paths by their root key so saves can diff only the roots that changed. */
+    fun partition(leaves: Map<String, Any?>): Map<String, Map<String, Any?>> {
+        val roots = LinkedHashMap<String, LinkedHashMap<String, Any?>>()
+        for ((path, value) in leaves) {
+            roots.getOrPut(path.substringBefore('.')) { LinkedHashMap() }[path] = value
+        }
+        return roots
+    }
+
+    fun join(roots: Map<String, Map<String, Any?>>): LinkedHashMap<String, Any?> {
+        val leaves = LinkedHashMap<String, Any?>()
+        for (entries in roots.values) {
+            leaves.putAll(entries)
+        }
+        return leaves
+    }
+
+    fun materialize(leaves: Map<String, Any?>): YamlConfiguration {
+        val yaml = YamlConfiguration()
+        for ((path, value) in leaves) {
+            yaml.set(path, toYamlValue(value))
+        }
+        return yaml
+    }
+
+    /** Encodes the difference between [previous] and [next] as one committed batch, or null when nothing changed. */
+    fun encodeBatch(previous: Map<String, Any?>, next: Map<String, Any?>, timestamp: Long): ByteArray? =
+        encodeBatch(listOf(previous to next), timestamp)
+
+    /** Encodes every (previous, next) pair of [diffs] into a single committed batch, or null when nothing changed. */
+    fun encodeBatch(diffs: Collection<Pair<Map<String, Any?>, Map<String, Any?>>>, timestamp: Long): ByteArray? {
+        val out = ByteArrayOutputStream()
+        val records = DataOutputStream(out)
+        var changes = 0
+        for ((previous, next) in diffs) {
+            for ((path, value) in next) {
+                if (previous[path] == value) continue
+                writeRecord(records) { payload ->
+                    payload.writeByte(OP_SET.toInt())
+                    writeString(payload, path)
+                    writeValue(payload, value)
+                }
+                changes++
+            }
+            for (path in previous.keys) {
+                if (next.containsKey(path)) continue
+                writeRecord(records) { payload ->
+                    payload.writeByte(OP_REMOVE.toInt())
+                    writeString(payload, path)
+                }
+                changes++
+            }
+        }
+        if (changes == 0) return null
+        writeRecord(records) { payload ->
+            payload.writeByte(OP_COMMIT.toInt())
+            payload.writeLong(timestamp)
+        }
+        return out.toByteArray()
+    }
+
+    /**
+     * Applies every committed batch of [file] to [target]. Replay stops at the first
+     * truncated or checksum-failing record; [ReplayResult.validLength] is the offset
+     * just after the last COMMIT so the caller can cut the torn tail off.
+     */
+    fun replay(file: File, target: MutableMap<String, Any?>): ReplayResult {
+        if (!file.exists() || file.length() == 0L) return ReplayResult(0L, 0, 0L)
+        val length = file.length()
+        DataInputStream(file.inputStream().buffered()).use { input ->
+            if (length < HEADER_SIZE || input.readInt() != MAGIC) {
+                throw StorageException("Gem data journal ${file.name} has an unknown header")
+            }
+            var offset = HEADER_SIZE
+            var committedOffset = HEADER_SIZE
+            var committedBatches = 0
+            val pending = ArrayList<Pair<String, Any?>>()
+            while (true) {
+                val payload = readRecord(input) ?: break
+                offset += 8L + payload.size
+                val record = DataInputStream(payload.inputStream())
+                when (record.readByte()) {
+                    OP_SET -> {
+                        val path = readString(record)
+                        pending.add(path to readValue(record))
+                    }
+                    OP_REMOVE -> pending.add(readString(record) to null)
+                    OP_COMMIT -> {
+                        for ((path, value) in pending) {
+                            if (value == null) target.remove(path) else target[path] = value
+                        }
+                        pending.clear()
+                        committedOffset = offset
+                        committedBatches++
+                    }
+                    else -> break
+                }
+            }
+            return ReplayResult(committedOffset, committedBatches, length - committedOffset)
+        }
+    }
+
+    private fun readRecord(input: DataInputStream): ByteArray? {
+        return try {
+            val size = input.readInt()
+            if (size <= 0 || size > MAX_PAYLOAD) return null
+            val payload = ByteArray(size)
+            input.readFully(payload)
+            val expected = input.readInt()
+            val crc = CRC32()
+            crc.update(payload)
+            if (crc.value.toInt() != expected) null else payload
+        } catch (_: EOFException) {
+            null
+        }
+    }
+
+    private inline fun writeRecord(out: DataOutputStream, body: (DataOutputStream) -> Unit) {
+        val bytes = ByteArrayOutputStream()
+        body(DataOutputStream(bytes))
+        val payload = bytes.toByteArray()
+        val crc = CRC32()
+        crc.update(payload)
+        out.writeInt(payload.size)
+        out.write(payload)
+        out.writeInt(crc.value.toInt())
+    }
+
+    private fun writeValue(out: DataOutputStream, value: Any?) {
+        when {
+            value is String -> {
+                out.writeByte(TAG_STRING.toInt())
+                writeString(out, value)
+            }
+            value is Long -> {
+                out.writeByte(TAG_LONG.toInt())
+                out.writeLong(value)
+            }
+            value is Double -> {
+                out.writeByte(TAG_DOUBLE.toInt())
+                out.writeDouble(value)
+            }
+            value is Boolean -> {
+                out.writeByte(TAG_BOOLEAN.toInt())
+                out.writeBoolean(value)
+            }
+            value is List<*> && value.all { it is String } -> {
+                out.writeByte(TAG_STRING_LIST.toInt())
+                out.writeInt(value.size)
+                for (member in value) writeString(out, member as String)
+            }
+            else -> {
+                out.writeByte(TAG_YAML.toInt())
+                writeString(out, YamlConfiguration().also { it.set(ENCODED_VALUE_KEY, value) }.saveToString())
+            }
+        }
+    }
+
+    private fun readValue(input: DataInputStream): Any? {
+        return when (input.readByte()) {
+            TAG_STRING -> readString(input)
+            TAG_LONG -> input.readLong()
+            TAG_DOUBLE -> input.readDouble()
+            TAG_BOOLEAN -> input.readBoolean()
+            TAG_STRING_LIST -> {
+                val size = input.readInt()
+                ArrayList<String>(size).also { list -> repeat(size) { list.add(readString(input)) } }
+            }
+            TAG_YAML -> normalize(
+                YamlConfiguration().also { it.loadFromString(readString(input)) }.get(ENCODED_VALUE_KEY),
+            )
+            else -> throw StorageException("Unknown gem data journal value tag")
+        }
+    }
+
+    private fun writeString(out: DataOutputStream, value: String) {
+        val bytes = value.toByteArray(StandardCharsets.UTF_8)
+        out.writeInt(bytes.size)
+        out.write(bytes)
+    }
+
+    private fun readString(input: DataInputStream): String {
+        val bytes = ByteArray(input.readInt())
+        input.readFully(bytes)
+        return String(bytes, StandardCharsets.UTF_8)
+    }
+
+    private fun normalize(value: Any?): Any? = when (value) {
+        is Byte, is Short, is Int, is Long -> (value as Number).toLong()
+        is Float -> value.toDouble()
+        is List<*> -> ArrayList(value)
+        else -> value
+    }
+
+    private fun toYamlValue(value: Any?): Any? {
+        if (value is Long && value >= Int.MIN_VALUE && value <= Int.MAX_VALUE) {
+            return value.toInt()
+        }
+        return value
+    }
+}
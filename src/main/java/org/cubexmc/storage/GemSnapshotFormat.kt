@@ -0,0 +1,215 @@
+package org.cubexmc.storage
+
+import org.bukkit.configuration.ConfigurationSection
+import org.bukkit.configuration.file.YamlConfiguration
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.ByteBuffer
+import java.nio.charset.StandardCharsets
+import java.util.UUID
+import java.util.zip.CRC32
+
+/**
+ * Versioned binary snapshot of the gems.yml tree used by [BinaryStorageProvider].
+ *
+ * Layout: `int magic, short version, int stringCount, strings, int recordCount,
+ * records, int crc32`. Every path segment and string value is interned once in
+ * the string table (gem keys, world names and player names repeat across
+ * sections), canonical UUIDs are stored as two longs, and each record is
+ * `int length, payload` holding one leaf path and its value. The CRC32 trailer
+ * covers everything before it, so a snapshot is validated without re-parsing.
+ */
+internal object GemSnapshotFormat {
+    const val MAGIC = 0x52475331 // "RGS1"
+    const val VERSION: Short = 1
+
+    private const val SEGMENT_STRING: Byte = 0
+    private const val SEGMENT_UUID: Byte = 1
+
+    private const val TAG_STRING: Byte = 0x53 // 'S'
+    private const val TAG_UUID: Byte = 0x55 // 'U'
+    private const val TAG_LONG: Byte = 0x4C // 'L'
+    private const val TAG_DOUBLE: Byte = 0x44 // 'D'
+    private const val TAG_BOOLEAN: Byte = 0x42 // 'B'
+    private const val TAG_STRING_LIST: Byte = 0x54 // 'T'
+    private const val TAG_YAML: Byte = 0x59 // 'Y'
+
+    private const val UUID_LENGTH = 36
+    private const val ENCODED_VALUE_KEY = "value"
+
+    fun encode(data: ConfigurationSection): ByteArray {
+        val leaves = GemDataJournal.flatten(data)
+        val strings = StringTable()
+        val records = ByteArrayOutputStream()
+        val recordOut = DataOutputStream(records)
+        for ((path, value) in leaves) {
+            val payload = ByteArrayOutputStream()
+            val out = DataOutputStream(payload)
+            val segments = path.split('.')
+            out.writeShort(segments.size)
+            for (segment in segments) {
+                val uuid = canonicalUuid(segment)
+                if (uuid != null) {
+                    out.writeByte(SEGMENT_UUID.toInt())
+                    writeUuid(out, uuid)
+                } else {
+                    out.writeByte(SEGMENT_STRING.toInt())
+                    out.writeInt(strings.intern(segment))
+                }
+            }
+            writeValue(out, value, strings)
+            recordOut.writeInt(payload.size())
+            payload.writeTo(recordOut)
+        }
+
+        val bytes = ByteArrayOutputStream(records.size() + strings.size * 16 + 32)
+        val out = DataOutputStream(bytes)
+        out.writeInt(MAGIC)
+        out.writeShort(VERSION.toInt())
+        out.writeInt(strings.size)
+        for (value in strings.values) {
+            val encoded = value.toByteArray(StandardCharsets.UTF_8)
+            out.writeInt(encoded.size)
+            out.write(encoded)
+        }
+        out.writeInt(leaves.size)
+        records.writeTo(out)
+        val crc = CRC32()
+        crc.update(bytes.toByteArray())
+        out.writeInt(crc.value.toInt())
+        return bytes.toByteArray()
+    }
+
+    /** Decodes [bytes] after checking magic, version and checksum; throws [StorageException] when any fails. */
+    fun decode(bytes: ByteArray): YamlConfiguration {
+        if (bytes.size < 14) {
+            throw StorageException("Gem snapshot is truncated")
+        }
+        val body = bytes.size - 4
+        val crc = CRC32()
+        crc.update(bytes, 0, body)
+        if (crc.value.toInt() != ByteBuffer.wrap(bytes, body, 4).int) {
+            throw StorageException("Gem snapshot checksum mismatch")
+        }
+        val input = DataInputStream(bytes.inputStream(0, body))
+        if (input.readInt() != MAGIC) {
+            throw StorageException("Gem snapshot has an unknown header")
+        }
+        val version = input.readShort()
+        if (version != VERSION) {
+            throw StorageException("Unsupported gem snapshot version $version")
+        }
+        val strings = Array(input.readInt()) { readUtf8(input, input.readInt()) }
+        val leaves = LinkedHashMap<String, Any?>()
+        repeat(input.readInt()) {
+            input.readInt() // record length; records are read in place
+            val segments = input.readUnsignedShort()
+            val path = StringBuilder()
+            repeat(segments) { index ->
+                if (index > 0) path.append('.')
+                when (input.readByte()) {
+                    SEGMENT_UUID -> path.append(readUuid(input))
+                    SEGMENT_STRING -> path.append(strings[input.readInt()])
+                    else -> throw StorageException("Unknown gem snapshot path segment")
+                }
+            }
+            leaves[path.toString()] = readValue(input, strings)
+        }
+        return GemDataJournal.materialize(leaves)
+    }
+
+    private fun writeValue(out: DataOutputStream, value: Any?, strings: StringTable) {
+        when {
+            value is String -> {
+                val uuid = canonicalUuid(value)
+                if (uuid != null) {
+                    out.writeByte(TAG_UUID.toInt())
+                    writeUuid(out, uuid)
+                } else {
+                    out.writeByte(TAG_STRING.toInt())
+                    out.writeInt(strings.intern(value))
+                }
+            }
+            value is Long -> {
+                out.writeByte(TAG_LONG.toInt())
+                out.writeLong(value)
+            }
+            value is Double -> {
+                out.writeByte(TAG_DOUBLE.toInt())
+                out.writeDouble(value)
+            }
+            value is Boolean -> {
+                out.writeByte(TAG_BOOLEAN.toInt())
+                out.writeBoolean(value)
+            }
+            value is List<*> && value.all { it is String } -> {
+                out.writeByte(TAG_STRING_LIST.toInt())
+                out.writeInt(value.size)
+                for (member in value) out.writeInt(strings.intern(member as String))
+            }
+            else -> {
+                out.writeByte(TAG_YAML.toInt())
+                val yaml = YamlConfiguration().also { it.set(ENCODED_VALUE_KEY, value) }.saveToString()
+                val encoded = yaml.toByteArray(StandardCharsets.UTF_8)
+                out.writeInt(encoded.size)
+                out.write(encoded)
+            }
+        }
+    }
+
+    private fun readValue(input: DataInputStream, strings: Array<String>): Any? {
+        return when (input.readByte()) {
+            TAG_STRING -> strings[input.readInt()]
+            TAG_UUID -> readUuid(input).toString()
+            TAG_LONG -> input.readLong()
+            TAG_DOUBLE -> input.readDouble()
+            TAG_BOOLEAN -> input.readBoolean()
+            TAG_STRING_LIST -> {
+                val size = input.readInt()
+                ArrayList<String>(size).also { list -> repeat(size) { list.add(strings[input.readInt()]) } }
+            }
+            TAG_YAML -> YamlConfiguration()
+                .also { it.loadFromString(readUtf8(input, input.readInt())) }
+                .get(ENCODED_VALUE_KEY)
+            else -> throw StorageException("Unknown gem snapshot value tag")
+        }
+    }
+
+    /** Only lowercase canonical UUIDs are packed, so decoding always reproduces the original text. */
+    private fun canonicalUuid(value: String): UUID? {
+        if (value.length != UUID_LENGTH || value[8] != '-') return null
+        val uuid = try {
+            UUID.fromString(value)
+        } catch (_: IllegalArgumentException) {
+            return null
+        }
+        return if (uuid.toString() == value) uuid else null
+    }
+
+    private fun writeUuid(out: DataOutputStream, uuid: UUID) {
+        out.writeLong(uuid.mostSignificantBits)
+        out.writeLong(uuid.leastSignificantBits)
+    }
+
+    private fun readUuid(input: DataInputStream): UUID = UUID(input.readLong(), input.readLong())
+
+    private fun readUtf8(input: DataInputStream, length: Int): String {
+        val bytes = ByteArray(length)
+        input.readFully(bytes)
+        return String(bytes, StandardCharsets.UTF_8)
+    }
+
+    private class StringTable {
+        private val indexes = HashMap<String, Int>()
+        val values = ArrayList<String>()
+
+        val size: Int
+            get() = values.size
+
+        fun intern(value: String): Int = indexes.getOrPut(value) {
+            values.add(value)
+            values.size - 1
+        }
+    }
+}
@@ -0,0 +1,401 @@
+package org.cubexmc.storage
+
+import org.bukkit.configuration.file.FileConfiguration
+import org.bukkit.configuration.file.YamlConfiguration
+import org.cubexmc.RuleGems
+import java.io.File
+import java.io.IOException
+import java.nio.ByteBuffer
+import java.nio.channels.ClosedChannelException
+import java.nio.channels.FileChannel
+import java.nio.file.AtomicMoveNotSupportedException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.ScheduledExecutorService
+import java.util.concurrent.TimeUnit
+import java.util.logging.Level
+
+/**
+ * Write-ahead journal storage for mutable RuleGems runtime data.
+ *
+ * data/gems.yml stays the checkpoint (written through [YamlStorageProvider]); each
+ * save only appends the leaf paths that changed since the previous save to
+ * data/gems.journal, see [GemDataJournal]. When the caller names the changed root
+ * keys, only those roots are flattened and diffed. Appends are fsynced in batches every
+ * `storage.journal.fsync_interval_ms` on a dedicated thread. Compaction runs on a
+ * separate thread and never queues in front of an fsync, so a crash loses at most
+ * one interval plus the duration of a single fsync, even mid-compaction. Once
+ * the journal grows past `storage.journal.compact_threshold_kb` a background
+ * compaction folds it into a fresh checkpoint; startup replays the journal on top
+ * of the checkpoint, and [close] compacts so the plain YAML file is always current
+ * after a clean shutdown.
+ */
+class JournalStorageProvider(
+    private val plugin: RuleGems,
+    private val config: FileConfiguration?,
+) : StorageProvider {
+    private val checkpoint = YamlStorageProvider(plugin)
+    private var journalFile: File? = null
+    private var compactingFile: File? = null
+    /** Written under the lock; read without it by the periodic fsync, which tolerates a concurrent close. */
+    @Volatile
+    private var channel: FileChannel? = null
+    private var syncer: ScheduledExecutorService? = null
+    private var compactor: ExecutorService? = null
+    private var initialized = false
+    private var fsyncIntervalMillis = DEFAULT_FSYNC_INTERVAL_MS
+    private var compactThresholdBytes = DEFAULT_COMPACT_THRESHOLD_KB * 1024L
+
+    /** Leaf state the journal currently reproduces, grouped by root key; replaced, never mutated, after each append. */
+    private var persisted: Map<String, Map<String, Any?>>? = null
+
+    /** Set after a failed append so the next open cuts the torn batch off first. */
+    private var recoverTail = false
+    private var compacting = false
+
+    @Volatile
+    private var unsynced = false
+
+    override fun getName(): String = "journal"
+
+    @Synchronized
+    override fun initialize() {
+        if (initialized) {
+            return
+        }
+        try {
+            checkpoint.initialize()
+            fsyncIntervalMillis = (config?.getLong("storage.journal.fsync_interval_ms", DEFAULT_FSYNC_INTERVAL_MS)
+                ?: DEFAULT_FSYNC_INTERVAL_MS).coerceAtLeast(0L)
+            compactThresholdBytes = (config?.getLong("storage.journal.compact_threshold_kb", DEFAULT_COMPACT_THRESHOLD_KB)
+                ?: DEFAULT_COMPACT_THRESHOLD_KB).coerceAtLeast(1L) * 1024L
+            val file = resolveJournalFile()
+            file.parentFile?.mkdirs()
+            journalFile = file
+            compactingFile = File(file.parentFile, file.name + ".compacting")
+            if (fsyncIntervalMillis > 0L) {
+                val sync = Executors.newSingleThreadScheduledExecutor { runnable ->
+                    Thread(runnable, "RuleGems-Journal-Sync").apply { isDaemon = true }
+                }
+                sync.scheduleWithFixedDelay(
+                    { syncNow() },
+                    fsyncIntervalMillis,
+                    fsyncIntervalMillis,
+                    TimeUnit.MILLISECONDS,
+                )
+                syncer = sync
+            }
+            compactor = Executors.newSingleThreadExecutor { runnable ->
+                Thread(runnable, "RuleGems-Journal").apply { isDaemon = true }
+            }
+            initialized = true
+        } catch (e: Exception) {
+            plugin.logger.log(Level.SEVERE, "Failed to initialize journal storage", e)
+            throw StorageException("Failed to initialize journal storage", e)
+        }
+    }
+
+    @Synchronized
+    override fun readGemData(): StorageLoadResult {
+        return try {
+            initialize()
+            closeChannel()
+            val base = checkpoint.readGemData()
+            if (!base.isUsable) {
+                return base
+            }
+            val leaves = GemDataJournal.flatten(requireNotNull(base.data))
+            var batches = 0
+            val pendingCompaction = requireNotNull(compactingFile)
+            if (pendingCompaction.exists()) {
+                batches += GemDataJournal.replay(pendingCompaction, leaves).committedBatches
+            }
+            batches += replayLiveJournal(leaves)
+            persisted = GemDataJournal.partition(leaves)
+            if (batches > 0) {
+                plugin.logger.info("Replayed $batches gem data journal batch(es) on top of data/gems.yml.")
+            }
+            if (pendingCompaction.exists()) {
+                scheduleCompaction()
+            }
+            if (base.status == StorageLoadStatus.NOT_FOUND && batches == 0) {
+                StorageLoadResult.notFound(YamlConfiguration())
+            } else {
+                StorageLoadResult.success(GemDataJournal.materialize(leaves))
+            }
+        } catch (e: Exception) {
+            persisted = null
+            plugin.logger.log(Level.SEVERE, "Failed to read gem data from the journal", e)
+            StorageLoadResult.failure(e)
+        }
+    }
+
+    override fun saveGemData(data: FileConfiguration): StorageSaveResult = saveGemData(data, null)
+
+    @Synchronized
+    override fun saveGemData(data: FileConfiguration, changedRoots: Set<String>?): StorageSaveResult {
+        return try {
+            initialize()
+            val previous = persisted ?: run {
+                val loaded = readGemData()
+                if (!loaded.isUsable) {
+                    return StorageSaveResult.failure(
+                        loaded.error ?: StorageException("Journal state could not be loaded before saving"),
+                    )
+                }
+                requireNotNull(persisted)
+            }
+            val next: Map<String, Map<String, Any?>>
+            val roots: Set<String>
+            if (changedRoots == null) {
+                next = GemDataJournal.partition(GemDataJournal.flatten(data))
+                roots = previous.keys + next.keys
+            } else {
+                val merged = HashMap(previous)
+                for (rootKey in changedRoots) {
+                    val leaves = GemDataJournal.flattenRoot(data, rootKey)
+                    if (leaves.isEmpty()) merged.remove(rootKey) else merged[rootKey] = leaves
+                }
+                next = merged
+                roots = changedRoots
+            }
+            val diffs = roots.map { (previous[it] ?: emptyMap()) to (next[it] ?: emptyMap()) }
+            val batch = GemDataJournal.encodeBatch(diffs, System.currentTimeMillis())
+                ?: run {
+                    persisted = next
+                    return StorageSaveResult.success()
+                }
+            val out = openChannel()
+            val start = out.size()
+            try {
+                val buffer = ByteBuffer.wrap(batch)
+                while (buffer.hasRemaining()) {
+                    out.write(buffer)
+                }
+                if (fsyncIntervalMillis == 0L) {
+                    out.force(false)
+                } else {
+                    unsynced = true
+                }
+            } catch (e: IOException) {
+                discardTornBatch(out, start)
+                throw e
+            }
+            persisted = next
+            if (out.size() >= compactThresholdBytes) {
+                scheduleCompaction()
+            }
+            StorageSaveResult.success()
+        } catch (e: Exception) {
+            plugin.logger.log(Level.SEVERE, "Failed to append gem data to the journal", e)
+            StorageSaveResult.failure(e)
+        }
+    }
+
+    override fun close() {
+        val sync = synchronized(this) {
+            syncer.also { syncer = null }
+        }
+        sync?.shutdown()
+        val worker = synchronized(this) {
+            compactor.also { compactor = null }
+        } ?: return
+        worker.shutdown()
+        var drained = false
+        try {
+            drained = worker.awaitTermination(CLOSE_TIMEOUT_SECONDS, TimeUnit.SECONDS)
+        } catch (_: InterruptedException) {
+            Thread.currentThread().interrupt()
+        }
+        if (!drained) {
+            plugin.logger.warning(
+                "Gem data journal compaction did not finish in time; the journal will be replayed on next start.",
+            )
+        }
+        synchronized(this) {
+            try {
+                channel?.force(false)
+                closeChannel()
+                val current = persisted
+                // A compaction still writing gems.yml would race this checkpoint; leave the journal for replay instead.
+                if (drained && current != null && hasJournalRecords()) {
+                    writeCheckpoint(current)
+                }
+            } catch (e: Exception) {
+                plugin.logger.log(Level.SEVERE, "Failed to compact the gem data journal on shutdown", e)
+            } finally {
+                initialized = false
+                persisted = null
+                compacting = false
+            }
+        }
+    }
+
+    private fun resolveJournalFile(): File {
+        val configured = config?.getString("storage.journal.file", DEFAULT_JOURNAL) ?: DEFAULT_JOURNAL
+        val file = File(configured)
+        if (file.isAbsolute) {
+            return file
+        }
+        return File(plugin.dataFolder, configured)
+    }
+
+    private fun replayLiveJournal(leaves: MutableMap<String, Any?>): Int {
+        val file = requireNotNull(journalFile)
+        val result = GemDataJournal.replay(file, leaves)
+        if (result.discardedBytes > 0L) {
+            plugin.logger.warning(
+                "Discarding ${result.discardedBytes} byte(s) of uncommitted or damaged data at the end of ${file.name}.",
+            )
+            FileChannel.open(file.toPath(), StandardOpenOption.WRITE).use { it.truncate(result.validLength) }
+        }
+        recoverTail = false
+        return result.committedBatches
+    }
+
+    private fun openChannel(): FileChannel {
+        channel?.let { return it }
+        val file = requireNotNull(journalFile)
+        if (recoverTail) {
+            replayLiveJournal(HashMap())
+        }
+        val opened = FileChannel.open(
+            file.toPath(),
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND,
+        )
+        if (opened.size() == 0L) {
+            opened.write(ByteBuffer.wrap(GemDataJournal.header()))
+            opened.force(true)
+        }
+        channel = opened
+        return opened
+    }
+
+    private fun discardTornBatch(out: FileChannel, start: Long) {
+        try {
+            out.truncate(start)
+        } catch (e: IOException) {
+            plugin.logger.log(Level.WARNING, "Could not roll back a partial journal append", e)
+            closeChannel()
+            recoverTail = true
+        }
+    }
+
+    private fun closeChannel() {
+        val current = channel ?: return
+        channel = null
+        try {
+            current.close()
+        } catch (e: IOException) {
+            plugin.logger.fine("Failed to close gem data journal: " + e.message)
+        }
+    }
+
+    private fun syncNow() {
+        val current = channel ?: return
+        if (!unsynced) return
+        unsynced = false
+        try {
+            current.force(false)
+        } catch (_: ClosedChannelException) {
+            // Closed by a compaction or shutdown, both of which force before closing.
+        } catch (e: IOException) {
+            unsynced = true
+            plugin.logger.warning("Failed to fsync the gem data journal: " + e.message)
+        }
+    }
+
+    private fun hasJournalRecords(): Boolean {
+        val live = journalFile
+        val pending = compactingFile
+        return (live != null && live.length() > GemDataJournal.HEADER_SIZE) || (pending != null && pending.exists())
+    }
+
+    private fun scheduleCompaction() {
+        val worker = compactor ?: return
+        if (compacting) return
+        compacting = true
+        worker.execute { compact() }
+    }
+
+    /**
+     * Rotates the live journal under the lock, then writes the checkpoint outside it so
+     * gameplay saves keep appending to a fresh journal meanwhile. The rotated file is
+     * removed only after the checkpoint is durable; replaying it again on top of that
+     * checkpoint is harmless because every record ends at the checkpoint's own values.
+     */
+    private fun compact() {
+        val snapshot: Map<String, Map<String, Any?>>
+        val rotated: File
+        synchronized(this) {
+            val current = persisted
+            val pending = compactingFile
+            val live = journalFile
+            if (current == null || pending == null || live == null) {
+                compacting = false
+                return
+            }
+            try {
+                channel?.force(false)
+                closeChannel()
+                if (pending.exists()) {
+                    // An earlier compaction was interrupted; fold everything while holding the lock.
+                    writeCheckpoint(current)
+                    compacting = false
+                    return
+                }
+                if (!live.exists()) {
+                    compacting = false
+                    return
+                }
+                moveFile(live, pending)
+            } catch (e: Exception) {
+                plugin.logger.log(Level.WARNING, "Gem data journal compaction could not start", e)
+                compacting = false
+                return
+            }
+            snapshot = current
+            rotated = pending
+        }
+        val saved = checkpoint.saveGemData(GemDataJournal.materialize(GemDataJournal.join(snapshot)))
+        synchronized(this) {
+            if (saved.successful) {
+                Files.deleteIfExists(rotated.toPath())
+            } else {
+                plugin.logger.warning("Gem data journal compaction failed; the rotated journal is kept for replay.")
+            }
+            compacting = false
+        }
+    }
+
+    /** Writes [roots] as the checkpoint and drops every journal file it supersedes. Caller holds the lock. */
+    private fun writeCheckpoint(roots: Map<String, Map<String, Any?>>) {
+        val saved = checkpoint.saveGemData(GemDataJournal.materialize(GemDataJournal.join(roots)))
+        if (!saved.successful) {
+            throw StorageException("Could not write the gem data checkpoint", saved.error)
+        }
+        closeChannel()
+        compactingFile?.let { Files.deleteIfExists(it.toPath()) }
+        journalFile?.let { Files.deleteIfExists(it.toPath()) }
+    }
+
+    private fun moveFile(source: File, target: File) {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE)
+        } catch (_: AtomicMoveNotSupportedException) {
+            Files.move(source.toPath(), target.toPath())
+        }
+    }
+
+    companion object {
+        private const val DEFAULT_JOURNAL = "data/gems.journal"
+        private const val DEFAULT_FSYNC_INTERVAL_MS = 200L
+        private const val DEFAULT_COMPACT_THRESHOLD_KB = 1024L
+        private const val CLOSE_TIMEOUT_SECONDS = 10L
+    }
+}
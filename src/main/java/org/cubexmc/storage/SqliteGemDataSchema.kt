@@ -0,0 +1,221 @@
+package org.cubexmc.storage
+
+import org.bukkit.configuration.ConfigurationSection
+import org.bukkit.configuration.file.YamlConfiguration
+
+/**
+ * Relational layout of the gems.yml tree used by [SqliteStorageProvider].
+ *
+ * Every well-known section maps to one table with one row per gem, player,
+ * list member or allowance counter. Paths that do not match a known shape are
+ * kept verbatim in [SCALARS], so legacy keys and hand-edited data survive a
+ * round trip without the schema having to know about them.
+ */
+internal object SqliteGemDataSchema {
+    class Table(
+        val name: String,
+        val keyColumns: List<String>,
+        val valueColumns: List<String>,
+    ) {
+        val columns: List<String> = keyColumns + valueColumns
+
+        fun createStatement(): String {
+            val definitions = keyColumns.map { "$it TEXT NOT NULL" } + valueColumns
+            return "CREATE TABLE IF NOT EXISTS $name (" +
+                definitions.joinToString(", ") +
+                ", PRIMARY KEY (" + keyColumns.joinToString(", ") + ")" +
+                ") WITHOUT ROWID"
+        }
+
+        fun upsertStatement(): String {
+            val insert = "INSERT INTO $name (" + columns.joinToString(", ") + ") VALUES (" +
+                columns.joinToString(", ") { "?" } + ")"
+            if (valueColumns.isEmpty()) {
+                return "$insert ON CONFLICT DO NOTHING"
+            }
+            return "$insert ON CONFLICT(" + keyColumns.joinToString(", ") + ") DO UPDATE SET " +
+                valueColumns.joinToString(", ") { "$it = excluded.$it" }
+        }
+
+        fun deleteStatement(): String =
+            "DELETE FROM $name WHERE " + keyColumns.joinToString(" AND ") { "$it = ?" }
+    }
+
+    val PLACED_GEMS = Table("rulegems_placed_gems", listOf("gem_id"), listOf("world", "x", "y", "z", "gem_key"))
+    val HELD_GEMS = Table("rulegems_held_gems", listOf("gem_id"), listOf("player", "player_uuid", "gem_key"))
+    val REDEEMERS = Table("rulegems_redeemers", listOf("gem_id"), listOf("player_uuid"))
+    val REDEEMED_KEYS = Table("rulegems_redeemed_keys", listOf("player_uuid", "gem_key"), emptyList())
+    val TOGGLED_OFF = Table("rulegems_toggled_off", listOf("player_uuid", "gem_key"), emptyList())
+    val PENDING_REVOKES = Table("rulegems_pending_revokes", listOf("player_uuid", "category", "entry"), emptyList())
+    val ALLOWANCES = Table(
+        "rulegems_allowances",
+        listOf("player_uuid", "source_type", "source_id", "label"),
+        listOf("remaining"),
+    )
+    val PLAYER_NAMES = Table("rulegems_player_names", listOf("player_uuid"), listOf("name"))
+    val ESCAPE_STATE = Table(
+        "rulegems_escape_state",
+        listOf("gem_id"),
+        listOf("last_moved_at", "failed_rounds", "local_escapes_without_pickup"),
+    )
+    val SCALARS = Table("rulegems_scalars", listOf("path"), listOf("yaml_value"))
+
+    val TABLES: List<Table> = listOf(
+        PLACED_GEMS,
+        HELD_GEMS,
+        REDEEMERS,
+        REDEEMED_KEYS,
+        TOGGLED_OFF,
+        PENDING_REVOKES,
+        ALLOWANCES,
+        PLAYER_NAMES,
+        ESCAPE_STATE,
+        SCALARS,
+    )
+
+    private const val GLOBAL_SOURCE = "global"
+    private val INSTANCE_SOURCES = setOf("held_instances", "redeemed_instances", "instances", "appointments")
+    private const val ENCODED_VALUE_KEY = "value"
+
+    /** Rows of every table, keyed by primary-key values. Values are normalized so they compare stably. */
+    class Rows {
+        private val byTable: Map<Table, MutableMap<List<String>, MutableList<Any?>>> =
+            TABLES.associateWith { LinkedHashMap() }
+
+        fun table(table: Table): MutableMap<List<String>, MutableList<Any?>> = byTable.getValue(table)
+
+        fun size(): Int = byTable.values.sumOf { it.size }
+
+        internal fun putColumn(table: Table, key: List<String>, column: String, value: Any?): Boolean {
+            val index = table.valueColumns.indexOf(column)
+            if (index < 0) return false
+            val normalized = normalizeColumnValue(value) ?: return false
+            byTable.getValue(table).getOrPut(key) { MutableList(table.valueColumns.size) { null } }[index] = normalized
+            return true
+        }
+
+        internal fun putMembers(table: Table, keyPrefix: List<String>, value: Any?): Boolean {
+            if (value !is List<*> || value.isEmpty()) return false
+            if (value.any { it !is String } || value.toSet().size != value.size) return false
+            for (member in value) {
+                byTable.getValue(table)[keyPrefix + (member as String)] = ArrayList()
+            }
+            return true
+        }
+    }
+
+    fun decompose(data: ConfigurationSection): Rows {
+        val rows = Rows()
+        for (path in data.getKeys(true)) {
+            if (data.isConfigurationSection(path)) continue
+            val value = data.get(path) ?: continue
+            if (!decomposeKnown(rows, path.split('.'), value)) {
+                rows.table(SCALARS)[listOf(path)] = arrayListOf(encodeValue(value))
+            }
+        }
+        return rows
+    }
+
+    fun materialize(rows: Rows): YamlConfiguration {
+        val yaml = YamlConfiguration()
+        for ((key, values) in rows.table(PLACED_GEMS)) {
+            setColumns(yaml, "placed-gems." + key[0], PLACED_GEMS, values)
+        }
+        for ((key, values) in rows.table(HELD_GEMS)) {
+            setColumns(yaml, "held-gems." + key[0], HELD_GEMS, values)
+        }
+        for ((key, values) in rows.table(REDEEMERS)) {
+            yaml.set("redeem_owner_by_id." + key[0], values[0])
+        }
+        setMembers(yaml, rows.table(REDEEMED_KEYS).keys) { key -> "redeemed." + key[0] }
+        setMembers(yaml, rows.table(TOGGLED_OFF).keys) { key -> "toggled_off_gems." + key[0] }
+        setMembers(yaml, rows.table(PENDING_REVOKES).keys) { key -> "pending_revokes." + key[1] + "." + key[0] }
+        for ((key, values) in rows.table(ALLOWANCES)) {
+            val base = "allowed_uses." + key[0] + "." + key[1]
+            val path = if (key[1] == GLOBAL_SOURCE) base + "." + key[3] else base + "." + key[2] + "." + key[3]
+            yaml.set(path, toYamlValue(values[0]))
+        }
+        for ((key, values) in rows.table(PLAYER_NAMES)) {
+            yaml.set("player_names." + key[0], values[0])
+        }
+        for ((key, values) in rows.table(ESCAPE_STATE)) {
+            setColumns(yaml, "escape-state.gems." + key[0], ESCAPE_STATE, values)
+        }
+        for ((key, values) in rows.table(SCALARS)) {
+            yaml.set(key[0], decodeValue(values[0] as String))
+        }
+        return yaml
+    }
+
+    /** Normalizes a value read back from JDBC so it compares equal to the value decomposed from YAML. */
+    fun normalizeColumnValue(value: Any?): Any? = when (value) {
+        null -> null
+        is String -> value
+        is Byte, is Short, is Int, is Long -> (value as Number).toLong()
+        is Float, is Double -> (value as Number).toDouble()
+        else -> null
+    }
+
+    private fun decomposeKnown(rows: Rows, parts: List<String>, value: Any): Boolean {
+        return when (parts[0]) {
+            "placed-gems" -> parts.size == 3 && rows.putColumn(PLACED_GEMS, listOf(parts[1]), parts[2], value)
+            "held-gems" -> parts.size == 3 && rows.putColumn(HELD_GEMS, listOf(parts[1]), parts[2], value)
+            "redeem_owner_by_id" ->
+                parts.size == 2 && value is String && rows.putColumn(REDEEMERS, listOf(parts[1]), "player_uuid", value)
+            "redeemed" -> parts.size == 2 && rows.putMembers(REDEEMED_KEYS, listOf(parts[1]), value)
+            "toggled_off_gems" -> parts.size == 2 && rows.putMembers(TOGGLED_OFF, listOf(parts[1]), value)
+            "pending_revokes" -> parts.size == 3 && rows.putMembers(PENDING_REVOKES, listOf(parts[2], parts[1]), value)
+            "player_names" ->
+                parts.size == 2 && value is String && rows.putColumn(PLAYER_NAMES, listOf(parts[1]), "name", value)
+            "allowed_uses" -> decomposeAllowance(rows, parts, value)
+            "escape-state" ->
+                parts.size == 4 && parts[1] == "gems" && value is Number &&
+                    rows.putColumn(ESCAPE_STATE, listOf(parts[2]), parts[3], value)
+            else -> false
+        }
+    }
+
+    private fun decomposeAllowance(rows: Rows, parts: List<String>, value: Any): Boolean {
+        if (value !is Number || value is Float || value is Double) return false
+        val key = when {
+            parts.size == 4 && parts[2] == GLOBAL_SOURCE -> listOf(parts[1], GLOBAL_SOURCE, "", parts[3])
+            parts.size == 5 && parts[2] in INSTANCE_SOURCES -> listOf(parts[1], parts[2], parts[3], parts[4])
+            else -> return false
+        }
+        return rows.putColumn(ALLOWANCES, key, "remaining", value)
+    }
+
+    private fun setColumns(yaml: YamlConfiguration, base: String, table: Table, values: List<Any?>) {
+        for ((index, column) in table.valueColumns.withIndex()) {
+            val value = values[index] ?: continue
+            yaml.set("$base.$column", toYamlValue(value))
+        }
+    }
+
+    private fun setMembers(
+        yaml: YamlConfiguration,
+        keys: Collection<List<String>>,
+        pathOf: (List<String>) -> String,
+    ) {
+        val lists = LinkedHashMap<String, MutableList<String>>()
+        for (key in keys) {
+            lists.getOrPut(pathOf(key)) { ArrayList() }.add(key.last())
+        }
+        for ((path, members) in lists) {
+            yaml.set(path, members)
+        }
+    }
+
+    private fun toYamlValue(value: Any?): Any? {
+        if (value is Long && value >= Int.MIN_VALUE && value <= Int.MAX_VALUE) {
+            return value.toInt()
+        }
+        return value
+    }
+
+    private fun encodeValue(value: Any): String =
+        YamlConfiguration().also { it.set(ENCODED_VALUE_KEY, value) }.saveToString()
+
+    private fun decodeValue(encoded: String): Any? =
+        YamlConfiguration().also { it.loadFromString(encoded) }.get(ENCODED_VALUE_KEY)
+}
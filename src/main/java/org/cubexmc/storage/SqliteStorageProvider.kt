@@ -6,21 +6,41 @@ import org.cubexmc.RuleGems
 import java.io.File
 import java.sql.Connection
 import java.sql.DriverManager
+import java.sql.PreparedStatement
+import java.sql.SQLException
+import java.util.Locale
 import java.util.logging.Level
 
 /**
  * SQLite-backed storage for mutable RuleGems runtime data.
  *
- * The provider stores the existing gems.yml shape as a YAML payload. This keeps
- * the storage boundary stable while allowing operators to use an embedded
- * database file instead of a loose YAML data file.
+ * Runtime data is stored in normalized tables (placed gems, holders,
+ * redeemers, allowance counters, pending revokes, escape state ...), see
+ * [SqliteGemDataSchema]. The provider remembers the rows it last read or
+ * wrote and each save only upserts or deletes the rows that differ, so the
+ * database work per save follows the number of mutations instead of the size
+ * of the whole data set.
+ *
+ * Databases written by earlier versions keep the whole gems.yml tree as one
+ * YAML payload row; that row is migrated once into the tables and then kept
+ * under [LEGACY_BACKUP_KEY] for manual rollback.
+ *
+ * One connection is kept open in WAL mode for the provider's lifetime together
+ * with its prepared statements; [close] releases both. A failed operation drops
+ * the connection so the next call starts from a fresh one.
  */
 class SqliteStorageProvider(
     private val plugin: RuleGems,
     private val config: FileConfiguration?,
 ) : StorageProvider {
     private var databaseFile: File? = null
+    private var connection: Connection? = null
+    private val statements = HashMap<String, PreparedStatement>()
     private var initialized = false
+    private var normalized = false
+
+    /** Rows known to be in the database; null forces the next save to reread them first. */
+    private var persistedRows: SqliteGemDataSchema.Rows? = null
 
     override fun getName(): String = "sqlite"
 
@@ -35,9 +55,9 @@ class SqliteStorageProvider(
             parent.mkdirs()
         }
         try {
-            openConnection().use { connection ->
-                connection.autoCommit = false
-                try {
+            val connection = openConnection()
+            try {
+                transaction(connection) {
                     connection.createStatement().use { statement ->
                         statement.executeUpdate(
                             "CREATE TABLE IF NOT EXISTS $TABLE (" +
@@ -46,73 +66,90 @@ class SqliteStorageProvider(
                                 "updated_at INTEGER NOT NULL" +
                                 ")",
                         )
+                        statement.executeUpdate(
+                            "CREATE TABLE IF NOT EXISTS $META_TABLE (" +
+                                "meta_key TEXT PRIMARY KEY," +
+                                "meta_value TEXT NOT NULL" +
+                                ")",
+                        )
+                        for (table in SqliteGemDataSchema.TABLES) {
+                            statement.executeUpdate(table.createStatement())
+                        }
                     }
+                    normalized = readLayout(connection) == LAYOUT_NORMALIZED
                     migrateYamlIfEmpty(connection)
-                    connection.commit()
-                    initialized = true
-                } catch (e: Exception) {
-                    connection.rollback()
-                    throw e
                 }
+                initialized = true
+            } catch (e: Exception) {
+                normalized = false
+                throw e
             }
         } catch (e: Exception) {
+            discardConnection()
             plugin.logger.log(Level.SEVERE, "Failed to initialize SQLite storage", e)
             throw StorageException("Failed to initialize SQLite storage", e)
         }
     }
 
+    @Synchronized
     override fun readGemData(): StorageLoadResult {
         return try {
             initialize()
-            val data = YamlConfiguration()
-            openConnection().use { connection ->
-                connection.prepareStatement("SELECT yaml_payload FROM $TABLE WHERE storage_key = ?").use { statement ->
-                    statement.setString(1, GEM_DATA_KEY)
-                    statement.executeQuery().use { result ->
-                        if (!result.next()) {
-                            return StorageLoadResult.notFound(data)
-                        }
-                        data.loadFromString(result.getString("yaml_payload"))
-                    }
-                }
+            val connection = openConnection()
+            if (!normalized) {
+                val payload = readLegacyPayload(connection)
+                    ?: return StorageLoadResult.notFound(YamlConfiguration())
+                val data = YamlConfiguration()
+                data.loadFromString(payload)
+                migrateLegacyPayload(connection, data)
+                return StorageLoadResult.success(data)
             }
-            StorageLoadResult.success(data)
+            val rows = transaction(connection) { loadRows(connection) }
+            persistedRows = rows
+            StorageLoadResult.success(SqliteGemDataSchema.materialize(rows))
         } catch (e: Exception) {
+            persistedRows = null
+            discardConnection()
             plugin.logger.log(Level.SEVERE, "Failed to read gem data from SQLite", e)
             StorageLoadResult.failure(e)
         }
     }
 
+    @Synchronized
     override fun saveGemData(data: FileConfiguration): StorageSaveResult {
         return try {
             initialize()
-            val payload = if (data is YamlConfiguration) data.saveToString() else copyToYaml(data).saveToString()
-            openConnection().use { connection ->
-                connection.autoCommit = false
-                try {
-                    connection.prepareStatement(
-                        "INSERT INTO $TABLE (storage_key, yaml_payload, updated_at) VALUES (?, ?, ?) " +
-                            "ON CONFLICT(storage_key) DO UPDATE SET " +
-                            "yaml_payload = excluded.yaml_payload, updated_at = excluded.updated_at",
-                    ).use { statement ->
-                        statement.setString(1, GEM_DATA_KEY)
-                        statement.setString(2, payload)
-                        statement.setLong(3, System.currentTimeMillis())
-                        statement.executeUpdate()
+            val next = SqliteGemDataSchema.decompose(data)
+            val connection = openConnection()
+            try {
+                transaction(connection) {
+                    val previous = persistedRows ?: loadRows(connection)
+                    writeChanges(connection, previous, next)
+                    if (!normalized) {
+                        markNormalized(connection)
                     }
-                    connection.commit()
-                } catch (e: Exception) {
-                    connection.rollback()
-                    throw e
                 }
+                normalized = true
+                persistedRows = next
+            } catch (e: Exception) {
+                persistedRows = null
+                throw e
             }
             StorageSaveResult.success()
         } catch (e: Exception) {
+            discardConnection()
             plugin.logger.log(Level.SEVERE, "Failed to save gem data to SQLite", e)
             StorageSaveResult.failure(e)
         }
     }
 
+    @Synchronized
+    override fun close() {
+        discardConnection()
+        initialized = false
+        persistedRows = null
+    }
+
     private fun resolveDatabaseFile(): File {
         val configured = config?.getString("storage.sqlite.file", DEFAULT_DATABASE) ?: DEFAULT_DATABASE
         val file = File(configured)
@@ -123,54 +160,216 @@ class SqliteStorageProvider(
     }
 
     private fun openConnection(): Connection {
+        connection?.let { if (!it.isClosed) return it }
+        statements.clear()
         val file = databaseFile ?: throw IllegalStateException("SQLite database file has not been initialized")
-        return DriverManager.getConnection("jdbc:sqlite:" + file.absolutePath).also { connection ->
-            connection.createStatement().use { statement ->
+        val opened = DriverManager.getConnection("jdbc:sqlite:" + file.absolutePath)
+        try {
+            opened.createStatement().use { statement ->
                 statement.execute("PRAGMA busy_timeout = 5000")
+                statement.execute("PRAGMA journal_mode = WAL")
+                statement.execute("PRAGMA synchronous = " + resolveSynchronous())
             }
+        } catch (e: SQLException) {
+            opened.close()
+            throw e
         }
+        connection = opened
+        return opened
     }
 
-    private fun migrateYamlIfEmpty(connection: Connection) {
-        if (hasGemData(connection)) {
-            return
+    /** WAL with NORMAL only syncs at checkpoints; a power loss may drop the last commits but never corrupts. */
+    private fun resolveSynchronous(): String {
+        val configured = (config?.getString("storage.sqlite.synchronous", "NORMAL") ?: "NORMAL")
+            .trim()
+            .uppercase(Locale.ROOT)
+        if (configured in SYNCHRONOUS_MODES) {
+            return configured
         }
-        val yamlFile = File(plugin.dataFolder, "data/gems.yml")
-        if (!yamlFile.exists()) {
-            return
+        plugin.logger.warning("storage.sqlite.synchronous '$configured' is not supported. Using NORMAL.")
+        return "NORMAL"
+    }
+
+    private fun discardConnection() {
+        for (statement in statements.values) {
+            try {
+                statement.close()
+            } catch (e: SQLException) {
+                plugin.logger.fine("Failed to close SQLite statement: " + e.message)
+            }
         }
-        val yaml = YamlConfiguration()
-        yaml.load(yamlFile)
-        connection.prepareStatement("INSERT INTO $TABLE (storage_key, yaml_payload, updated_at) VALUES (?, ?, ?)")
-            .use { statement ->
-                statement.setString(1, GEM_DATA_KEY)
-                statement.setString(2, yaml.saveToString())
-                statement.setLong(3, System.currentTimeMillis())
-                statement.executeUpdate()
-                plugin.logger.info("Migrated data/gems.yml into SQLite storage.")
+        statements.clear()
+        val current = connection ?: return
+        connection = null
+        try {
+            current.close()
+        } catch (e: SQLException) {
+            plugin.logger.fine("Failed to close SQLite connection: " + e.message)
+        }
+    }
+
+    private fun prepared(connection: Connection, sql: String): PreparedStatement =
+        statements.getOrPut(sql) { connection.prepareStatement(sql) }
+
+    private inline fun <T> transaction(connection: Connection, body: () -> T): T {
+        connection.autoCommit = false
+        try {
+            val result = body()
+            connection.commit()
+            return result
+        } catch (e: Exception) {
+            connection.rollback()
+            throw e
+        } finally {
+            connection.autoCommit = true
+        }
+    }
+
+    private fun loadRows(connection: Connection): SqliteGemDataSchema.Rows {
+        val rows = SqliteGemDataSchema.Rows()
+        for (table in SqliteGemDataSchema.TABLES) {
+            val target = rows.table(table)
+            val keyCount = table.keyColumns.size
+            val statement = prepared(connection, "SELECT " + table.columns.joinToString(", ") + " FROM " + table.name)
+            statement.executeQuery().use { result ->
+                while (result.next()) {
+                    val key = (1..keyCount).map { result.getString(it) }
+                    val values = ArrayList<Any?>(table.valueColumns.size)
+                    for (index in table.valueColumns.indices) {
+                        values.add(SqliteGemDataSchema.normalizeColumnValue(result.getObject(keyCount + index + 1)))
+                    }
+                    target[key] = values
+                }
+            }
+        }
+        return rows
+    }
+
+    /** Writes only the row-level difference between [previous] and [next]. */
+    private fun writeChanges(
+        connection: Connection,
+        previous: SqliteGemDataSchema.Rows,
+        next: SqliteGemDataSchema.Rows,
+    ) {
+        for (table in SqliteGemDataSchema.TABLES) {
+            val before = previous.table(table)
+            val after = next.table(table)
+            val upserts = after.entries.filter { (key, values) -> before[key] != values }
+            val deletes = before.keys.filter { !after.containsKey(it) }
+            if (upserts.isNotEmpty()) {
+                prepared(connection, table.upsertStatement()).let { statement ->
+                    for ((key, values) in upserts) {
+                        var index = 1
+                        for (part in key) statement.setString(index++, part)
+                        for (value in values) statement.setObject(index++, value)
+                        statement.addBatch()
+                    }
+                    statement.executeBatch()
+                }
+            }
+            if (deletes.isNotEmpty()) {
+                prepared(connection, table.deleteStatement()).let { statement ->
+                    for (key in deletes) {
+                        for ((index, part) in key.withIndex()) statement.setString(index + 1, part)
+                        statement.addBatch()
+                    }
+                    statement.executeBatch()
+                }
+            }
+        }
+    }
+
+    private fun migrateLegacyPayload(connection: Connection, data: FileConfiguration) {
+        val rows = SqliteGemDataSchema.decompose(data)
+        transaction(connection) {
+            clearTables(connection)
+            writeChanges(connection, SqliteGemDataSchema.Rows(), rows)
+            markNormalized(connection)
+        }
+        normalized = true
+        persistedRows = rows
+        plugin.logger.info(
+            "Migrated the SQLite YAML payload into normalized tables (${rows.size()} rows); " +
+                "the original payload is kept as '$LEGACY_BACKUP_KEY'.",
+        )
+    }
+
+    private fun clearTables(connection: Connection) {
+        connection.createStatement().use { statement ->
+            for (table in SqliteGemDataSchema.TABLES) {
+                statement.executeUpdate("DELETE FROM " + table.name)
+            }
+        }
+    }
+
+    /** Records the normalized layout and retires the legacy payload row so it is never imported again. */
+    private fun markNormalized(connection: Connection) {
+        prepared(
+            connection,
+            "INSERT INTO $META_TABLE (meta_key, meta_value) VALUES (?, ?) " +
+                "ON CONFLICT(meta_key) DO UPDATE SET meta_value = excluded.meta_value",
+        ).let { statement ->
+            statement.setString(1, LAYOUT_KEY)
+            statement.setString(2, LAYOUT_NORMALIZED)
+            statement.executeUpdate()
+        }
+        prepared(
+            connection,
+            "INSERT OR REPLACE INTO $TABLE (storage_key, yaml_payload, updated_at) " +
+                "SELECT ?, yaml_payload, updated_at FROM $TABLE WHERE storage_key = ?",
+        ).let { statement ->
+            statement.setString(1, LEGACY_BACKUP_KEY)
+            statement.setString(2, GEM_DATA_KEY)
+            statement.executeUpdate()
+        }
+        prepared(connection, "DELETE FROM $TABLE WHERE storage_key = ?").let { statement ->
+            statement.setString(1, GEM_DATA_KEY)
+            statement.executeUpdate()
+        }
+    }
+
+    private fun readLayout(connection: Connection): String? {
+        prepared(connection, "SELECT meta_value FROM $META_TABLE WHERE meta_key = ?").let { statement ->
+            statement.setString(1, LAYOUT_KEY)
+            statement.executeQuery().use { result ->
+                return if (result.next()) result.getString(1) else null
             }
+        }
     }
 
-    private fun hasGemData(connection: Connection): Boolean {
-        connection.prepareStatement("SELECT 1 FROM $TABLE WHERE storage_key = ?").use { statement ->
+    private fun readLegacyPayload(connection: Connection): String? {
+        prepared(connection, "SELECT yaml_payload FROM $TABLE WHERE storage_key = ?").let { statement ->
             statement.setString(1, GEM_DATA_KEY)
             statement.executeQuery().use { result ->
-                return result.next()
+                return if (result.next()) result.getString("yaml_payload") else null
             }
         }
     }
 
-    private fun copyToYaml(source: FileConfiguration): YamlConfiguration {
-        val yaml = YamlConfiguration()
-        for (key in source.getKeys(true)) {
-            yaml.set(key, source.get(key))
+    private fun migrateYamlIfEmpty(connection: Connection) {
+        if (normalized || readLegacyPayload(connection) != null) {
+            return
         }
-        return yaml
+        val yamlFile = File(plugin.dataFolder, "data/gems.yml")
+        if (!yamlFile.exists()) {
+            return
+        }
+        val yaml = YamlConfiguration()
+        yaml.load(yamlFile)
+        writeChanges(connection, SqliteGemDataSchema.Rows(), SqliteGemDataSchema.decompose(yaml))
+        markNormalized(connection)
+        normalized = true
+        plugin.logger.info("Migrated data/gems.yml into SQLite storage.")
     }
 
     companion object {
         private const val DEFAULT_DATABASE = "data/rulegems.db"
         private const val TABLE = "rulegems_storage"
+        private const val META_TABLE = "rulegems_meta"
         private const val GEM_DATA_KEY = "gems"
+        private const val LEGACY_BACKUP_KEY = "gems.pre-normalized"
+        private const val LAYOUT_KEY = "layout"
+        private const val LAYOUT_NORMALIZED = "normalized-v1"
+        private val SYNCHRONOUS_MODES = setOf("OFF", "NORMAL", "FULL", "EXTRA")
     }
 }
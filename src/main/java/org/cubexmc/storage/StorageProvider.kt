@@ -13,4 +13,13 @@ interface StorageProvider {
     fun readGemData(): StorageLoadResult
 
     fun saveGemData(data: FileConfiguration): StorageSaveResult
+
+    /**
+     * Saves [data] knowing that only the root keys in [changedRoots] may differ from the last
+     * successful save; null means unknown. Providers that rewrite the whole store ignore the hint.
+     */
+    fun saveGemData(data: FileConfiguration, changedRoots: Set<String>?): StorageSaveResult = saveGemData(data)
+
+    /** Releases files, connections or threads held by the provider; called on disable and before it is replaced. */
+    fun close() {}
 }
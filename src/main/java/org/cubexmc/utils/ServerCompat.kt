@@ -0,0 +1,145 @@
+package org.cubexmc.utils
+
+import org.bukkit.entity.Entity
+import org.bukkit.entity.Player
+import org.bukkit.inventory.ItemStack
+import org.bukkit.inventory.meta.ItemMeta
+import org.bukkit.plugin.Plugin
+import java.lang.invoke.MethodHandle
+import java.lang.invoke.MethodHandles
+import java.lang.invoke.MethodType
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.logging.Logger
+
+/**
+ * 高版本 API 兼容层 - 插件对 1.16.5 编译，实体可见性（1.18+）和收纳袋（1.17+）只能在运行时解析。
+ *
+ * 每个方法在类加载时解析一次成 [MethodHandle]，并统一调整成 `Object` 返回值的精确签名，
+ * 调用处用 `invokeExact`，省去 `Method.invoke` 的参数数组、装箱和访问检查。
+ * 解析失败的能力返回 null / false，由调用方走原有的兼容路径。
+ */
+object ServerCompat {
+    private val reported = AtomicBoolean(false)
+    private val lookup = MethodHandles.publicLookup()
+
+    private val bundleMetaClass: Class<*>? = try {
+        Class.forName("org.bukkit.inventory.meta.BundleMeta")
+    } catch (_: ClassNotFoundException) {
+        null
+    }
+
+    /** (Player, Plugin, Entity) -> Object */
+    private val showEntityHandle: MethodHandle? = resolve(
+        Player::class.java,
+        "showEntity",
+        Plugin::class.java,
+        Entity::class.java,
+    )
+
+    private val hideEntityHandle: MethodHandle? = resolve(
+        Player::class.java,
+        "hideEntity",
+        Plugin::class.java,
+        Entity::class.java,
+    )
+
+    /** (Entity, boolean) -> Object */
+    private val visibleByDefaultHandle: MethodHandle? = resolve(
+        Entity::class.java,
+        "setVisibleByDefault",
+        java.lang.Boolean.TYPE,
+    )
+
+    /** (ItemMeta) -> Object */
+    private val bundleGetItemsHandle: MethodHandle? = bundleMetaClass?.let {
+        resolve(it, "getItems", receiverAs = ItemMeta::class.java)
+    }
+
+    /** (ItemMeta, List) -> Object */
+    private val bundleSetItemsHandle: MethodHandle? = bundleMetaClass?.let {
+        resolve(it, "setItems", List::class.java, receiverAs = ItemMeta::class.java)
+    }
+
+    @JvmStatic
+    val supportsEntityVisibility: Boolean
+        get() = showEntityHandle != null && hideEntityHandle != null && visibleByDefaultHandle != null
+
+    @JvmStatic
+    val supportsBundles: Boolean
+        get() = bundleGetItemsHandle != null
+
+    /** 该服务端不支持时返回 false；实现抛出的异常原样抛给调用方。 */
+    @JvmStatic
+    fun showEntity(player: Player, plugin: Plugin, entity: Entity): Boolean {
+        val handle = showEntityHandle ?: return false
+        handle.invokeExact(player, plugin, entity)
+        return true
+    }
+
+    @JvmStatic
+    fun hideEntity(player: Player, plugin: Plugin, entity: Entity): Boolean {
+        val handle = hideEntityHandle ?: return false
+        handle.invokeExact(player, plugin, entity)
+        return true
+    }
+
+    @JvmStatic
+    fun setVisibleByDefault(entity: Entity, visible: Boolean): Boolean {
+        val handle = visibleByDefaultHandle ?: return false
+        handle.invokeExact(entity, visible)
+        return true
+    }
+
+    @JvmStatic
+    fun isBundle(meta: ItemMeta?): Boolean = meta != null && bundleMetaClass?.isInstance(meta) == true
+
+    /** 收纳袋内容；[meta] 不是收纳袋或该服务端不支持时返回 null。 */
+    @JvmStatic
+    fun bundleItems(meta: ItemMeta): List<ItemStack?>? {
+        val handle = bundleGetItemsHandle ?: return null
+        if (!isBundle(meta)) return null
+        val raw: Any? = handle.invokeExact(meta)
+        @Suppress("UNCHECKED_CAST")
+        return raw as List<ItemStack?>?
+    }
+
+    /** 改写收纳袋内容；不支持时返回 false，调用方需要自行兜底。 */
+    @JvmStatic
+    fun setBundleItems(meta: ItemMeta, items: List<ItemStack?>): Boolean {
+        val handle = bundleSetItemsHandle ?: return false
+        if (!isBundle(meta)) return false
+        handle.invokeExact(meta, items)
+        return true
+    }
+
+    /** 启动时输出一次当前服务端可用的兼容能力。 */
+    @JvmStatic
+    fun reportCapabilities(logger: Logger) {
+        if (!reported.compareAndSet(false, true)) return
+        logger.info(
+            "Server capabilities: entity visibility=${if (supportsEntityVisibility) "yes" else "no"}, " +
+                "bundles=${if (supportsBundles) "yes" else "no"}" +
+                if (supportsBundles && bundleSetItemsHandle == null) " (read-only)" else "",
+        )
+    }
+
+    /**
+     * 把 [owner] 上的公开方法解析成 (receiver, params...) -> Object 的句柄；
+     * [receiverAs] 用于把接收者放宽成调用处的静态类型（如 BundleMeta -> ItemMeta）。
+     */
+    private fun resolve(
+        owner: Class<*>,
+        name: String,
+        vararg parameters: Class<*>,
+        receiverAs: Class<*> = owner,
+    ): MethodHandle? {
+        return try {
+            val handle = lookup.unreflect(owner.getMethod(name, *parameters))
+            handle.asType(MethodType.methodType(Any::class.java, receiverAs, *parameters))
+        } catch (_: ReflectiveOperationException) {
+            null
+        } catch (_: IllegalArgumentException) {
+            null
+        }
+    }
+}
@@ -1,23 +1,31 @@
 package org.cubexmc.features;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 
 import kotlin.Pair;
 import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.cubexmc.RuleGems;
+import org.cubexmc.manager.BlockPosition;
 import org.cubexmc.manager.GemManager;
 import org.cubexmc.utils.SchedulerUtil;
 import org.junit.jupiter.api.Test;
@@ -32,6 +40,7 @@ class GemIntelBroadcasterTest {
     @Mock private RuleGems plugin;
     @Mock private GemManager gemManager;
     @Mock private Player player;
+    @Mock private World world;
 
     @Test
     void playerStateIsReadOnlyInsideEntityTaskAndOfflineRecipientIsSkipped() throws Exception {
@@ -85,6 +94,57 @@ class GemIntelBroadcasterTest {
         }
     }
 
+    @Test
+    void clusterCountsMatchBruteForce() throws Exception {
+        GemIntelBroadcaster broadcaster = new GemIntelBroadcaster(plugin, gemManager);
+        Method method = GemIntelBroadcaster.class.getDeclaredMethod("clusterNeighborCounts", List.class, double.class);
+        method.setAccessible(true);
+        UUID overworld = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+        UUID nether = UUID.fromString("00000000-0000-0000-0000-0000000000bb");
+        Random random = new Random(7);
+        List<BlockPosition> positions = new ArrayList<>();
+        for (int i = 0; i < 250; i++) {
+            UUID world = i % 5 == 0 ? nether : overworld;
+            positions.add(new BlockPosition(world, "w", random.nextInt(1200) - 600, random.nextInt(128),
+                    random.nextInt(1200) - 600));
+        }
+
+        int[] counts = (int[]) method.invoke(broadcaster, positions, 96.0);
+
+        for (int i = 0; i < positions.size(); i++) {
+            BlockPosition a = positions.get(i);
+            int expected = 0;
+            for (BlockPosition b : positions) {
+                double dx = a.getX() - b.getX();
+                double dy = a.getY() - b.getY();
+                double dz = a.getZ() - b.getZ();
+                if (a.getWorldId().equals(b.getWorldId()) && dx * dx + dy * dy + dz * dz <= 96.0 * 96.0) {
+                    expected++;
+                }
+            }
+            assertEquals(expected, counts[i]);
+        }
+    }
+
+    @Test
+    void clusterWeightsAreReusedUntilPlacementsChange() throws Exception {
+        GemIntelBroadcaster broadcaster = new GemIntelBroadcaster(plugin, gemManager);
+        Method method = GemIntelBroadcaster.class.getDeclaredMethod("chooseTargetGem", Location.class);
+        method.setAccessible(true);
+        UUID worldId = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+        when(world.getUID()).thenReturn(worldId);
+        when(gemManager.placedGemPositions()).thenReturn(
+                Collections.singletonMap(UUID.randomUUID(), new BlockPosition(worldId, "world", 10, 64, 10)));
+        when(gemManager.getPlacementVersion()).thenReturn(3L, 3L, 4L);
+        Location recipient = new Location(world, 0.0, 64.0, 0.0);
+
+        assertNotNull(method.invoke(broadcaster, recipient));
+        assertNotNull(method.invoke(broadcaster, recipient));
+        assertNotNull(method.invoke(broadcaster, recipient));
+
+        verify(gemManager, times(2)).placedGemPositions();
+    }
+
     private void invokeNoArgs(Object target, String name) throws Exception {
         Method method = target.getClass().getDeclaredMethod(name);
         method.setAccessible(true);
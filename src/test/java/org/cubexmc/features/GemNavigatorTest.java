@@ -4,9 +4,9 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
-import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
@@ -15,7 +15,6 @@ import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.lang.reflect.Method;
-import java.util.Collections;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -25,6 +24,7 @@ import org.bukkit.entity.Player;
 import org.cubexmc.RuleGems;
 import org.cubexmc.manager.GemManager;
 import org.cubexmc.manager.LanguageManager;
+import org.cubexmc.manager.NearestGem;
 import org.cubexmc.utils.SchedulerUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -84,8 +84,8 @@ class GemNavigatorTest {
         when(player.getLocation()).thenReturn(playerLocation);
         when(player.getCompassTarget()).thenReturn(originalTarget);
         when(player.isOnline()).thenReturn(true);
-        when(gemManager.getAllGemLocations())
-                .thenReturn(Collections.singletonMap(gemId, gemLocation), Collections.emptyMap());
+        when(gemManager.findNearestPlacedGem(eq(playerLocation), anyDouble()))
+                .thenReturn(nearest(gemId, playerLocation, gemLocation), (NearestGem) null);
         setActiveSeconds(-1);
 
         try (MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
@@ -121,7 +121,8 @@ class GemNavigatorTest {
         when(player.getLocation()).thenReturn(playerLocation);
         when(player.getCompassTarget()).thenReturn(originalTarget);
         when(player.isOnline()).thenReturn(true);
-        when(gemManager.getAllGemLocations()).thenReturn(Collections.singletonMap(gemId, gemLocation));
+        when(gemManager.findNearestPlacedGem(eq(playerLocation), anyDouble()))
+                .thenReturn(nearest(gemId, playerLocation, gemLocation));
         when(gemManager.getGemLocation(gemId)).thenReturn(null);
 
         try (MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
@@ -142,22 +143,39 @@ class GemNavigatorTest {
     }
 
     @Test
-    void stalePlacedLocationForHeldGemIsIgnored() throws Exception {
-        UUID gemId = UUID.fromString("30000000-0000-0000-0000-000000000003");
-        UUID playerId = UUID.fromString("40000000-0000-0000-0000-000000000004");
+    void gemsBeyondMaxRangeReportOutOfRange() throws Exception {
+        UUID playerId = UUID.fromString("30000000-0000-0000-0000-000000000003");
         Location playerLocation = new Location(world, 10.0, 64.0, 10.0);
-        Location staleLocation = new Location(world, 20.0, 64.0, 20.0);
 
         when(player.getUniqueId()).thenReturn(playerId);
         when(player.getLocation()).thenReturn(playerLocation);
-        when(gemManager.getAllGemLocations()).thenReturn(Collections.singletonMap(gemId, staleLocation));
-        when(gemManager.getGemHolder(gemId)).thenReturn(mock(Player.class));
+        when(gemManager.findNearestPlacedGem(playerLocation, 100.0)).thenReturn(null);
+        when(gemManager.findNearestPlacedGem(playerLocation, Double.MAX_VALUE))
+                .thenReturn(nearest(UUID.randomUUID(), playerLocation, new Location(world, 500.0, 64.0, 10.0)));
+        setMaxRange(100.0);
 
         navigate(player);
 
+        verify(languageManager).formatMessage(eq("feature.navigate.out_of_range"), any());
         verify(player, never()).setCompassTarget(any(Location.class));
     }
 
+    @Test
+    void heldOrMissingGemsReportNoGemFoundEvenWithMaxRange() throws Exception {
+        UUID playerId = UUID.fromString("30000000-0000-0000-0000-000000000004");
+        Location playerLocation = new Location(world, 10.0, 64.0, 10.0);
+
+        when(player.getUniqueId()).thenReturn(playerId);
+        when(player.getLocation()).thenReturn(playerLocation);
+        when(gemManager.findNearestPlacedGem(eq(playerLocation), anyDouble())).thenReturn(null);
+        setMaxRange(100.0);
+
+        navigate(player);
+
+        verify(languageManager).formatMessage(eq("feature.navigate.no_gem_found"), any());
+        verify(languageManager, never()).formatMessage(eq("feature.navigate.out_of_range"), any());
+    }
+
     private void navigate(Player target) throws Exception {
         Method method = GemNavigator.class.getDeclaredMethod("navigateToNearestGem", Player.class);
         method.setAccessible(true);
@@ -170,6 +188,16 @@ class GemNavigatorTest {
         return (Location) method.invoke(null, from, to);
     }
 
+    private NearestGem nearest(UUID gemId, Location from, Location gemLocation) {
+        return new NearestGem(gemId, gemLocation, from.distanceSquared(gemLocation));
+    }
+
+    private void setMaxRange(double range) throws Exception {
+        java.lang.reflect.Field field = GemNavigator.class.getDeclaredField("maxRange");
+        field.setAccessible(true);
+        field.setDouble(navigator, range);
+    }
+
     private void setActiveSeconds(int seconds) throws Exception {
         java.lang.reflect.Field field = GemNavigator.class.getDeclaredField("activeSeconds");
         field.setAccessible(true);
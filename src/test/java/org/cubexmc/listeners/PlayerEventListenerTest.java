@@ -38,6 +38,7 @@ class PlayerEventListenerTest {
                 org.mockito.ArgumentMatchers.any(Item.class),
                 org.mockito.ArgumentMatchers.any(ItemStack.class));
         verify(gemManager, never()).recalculateGrants(org.mockito.ArgumentMatchers.any());
+        verify(gemManager, never()).queueGrantRecalculation(org.mockito.ArgumentMatchers.any());
     }
 
     @Test
@@ -0,0 +1,69 @@
+package org.cubexmc.listeners;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.bukkit.block.Block;
+import org.bukkit.block.BlockFace;
+import org.bukkit.block.BlockState;
+import org.bukkit.event.block.BlockFromToEvent;
+import org.bukkit.event.block.BlockPistonExtendEvent;
+import org.bukkit.event.world.StructureGrowEvent;
+import org.cubexmc.manager.GemManager;
+import org.junit.jupiter.api.Test;
+
+class TerrainChangeListenerTest {
+
+    private final GemManager gemManager = mock(GemManager.class);
+    private final TerrainChangeListener listener = new TerrainChangeListener(gemManager);
+
+    @Test
+    void pistonPushInvalidatesSourceAndDestinationColumns() {
+        Block piston = mock(Block.class);
+        Block head = mock(Block.class);
+        Block moved = mock(Block.class);
+        Block destination = mock(Block.class);
+        Block behind = mock(Block.class);
+        when(piston.getRelative(BlockFace.EAST)).thenReturn(head);
+        when(moved.getRelative(BlockFace.EAST)).thenReturn(destination);
+        when(moved.getRelative(BlockFace.WEST)).thenReturn(behind);
+        BlockPistonExtendEvent event = mock(BlockPistonExtendEvent.class);
+        when(event.getBlock()).thenReturn(piston);
+        when(event.getDirection()).thenReturn(BlockFace.EAST);
+        when(event.getBlocks()).thenReturn(Collections.singletonList(moved));
+
+        listener.onPistonExtend(event);
+
+        verify(gemManager).invalidateTerrainColumn(head);
+        verify(gemManager).invalidateTerrainColumn(moved);
+        verify(gemManager).invalidateTerrainColumn(destination);
+        verify(gemManager).invalidateTerrainColumn(behind);
+    }
+
+    @Test
+    void fluidFlowAndStructureGrowthInvalidateChangedColumns() {
+        Block flowedInto = mock(Block.class);
+        BlockFromToEvent flow = mock(BlockFromToEvent.class);
+        when(flow.getToBlock()).thenReturn(flowedInto);
+
+        Block trunk = mock(Block.class);
+        Block leaves = mock(Block.class);
+        BlockState trunkState = mock(BlockState.class);
+        BlockState leavesState = mock(BlockState.class);
+        when(trunkState.getBlock()).thenReturn(trunk);
+        when(leavesState.getBlock()).thenReturn(leaves);
+        StructureGrowEvent grow = mock(StructureGrowEvent.class);
+        when(grow.getBlocks()).thenReturn(Arrays.asList(trunkState, leavesState));
+
+        listener.onFluidFlow(flow);
+        listener.onStructureGrow(grow);
+
+        verify(gemManager).invalidateTerrainColumn(flowedInto);
+        verify(gemManager).invalidateTerrainColumn(trunk);
+        verify(gemManager).invalidateTerrainColumn(leaves);
+    }
+}
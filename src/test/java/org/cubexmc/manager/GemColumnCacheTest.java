@@ -0,0 +1,90 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+
+import kotlin.jvm.functions.Function0;
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class GemColumnCacheTest {
+
+    private static final UUID WORLD_ID = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+
+    @Mock private World world;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(world.getUID()).thenReturn(WORLD_ID);
+    }
+
+    @Test
+    void heightsAreSampledOnceUntilTheColumnChanges() {
+        when(world.getHighestBlockYAt(5, 9)).thenReturn(70, 72);
+        GemColumnCache cache = new GemColumnCache();
+
+        assertEquals(70, cache.highestY(world, 5, 9));
+        assertEquals(70, cache.highestY(world, 5, 9));
+        cache.invalidate(WORLD_ID, 5, 9);
+        assertEquals(72, cache.highestY(world, 5, 9));
+
+        verify(world, times(2)).getHighestBlockYAt(5, 9);
+    }
+
+    @Test
+    void pickerPrefersVerifiedThenLoadedColumnsAndSkipsRejectedOnes() {
+        GemColumnCache cache = new GemColumnCache();
+        Location rejected = new Location(world, 1.0, 0.0, 1.0);
+        Location unloaded = new Location(world, 400.0, 0.0, 400.0);
+        Location loaded = new Location(world, 40.0, 0.0, 40.0);
+        Location verified = new Location(world, 80.0, 0.0, 80.0);
+        cache.markUnusable(world, 1, 1, 320);
+        when(world.getHighestBlockYAt(80, 80)).thenReturn(64);
+        cache.highestY(world, 80, 80);
+        when(world.isChunkLoaded(25, 25)).thenReturn(false);
+        when(world.isChunkLoaded(2, 2)).thenReturn(true);
+
+        assertSame(loaded, cache.pickColumn(4, sampler(rejected, unloaded, loaded, rejected)));
+        assertSame(verified, cache.pickColumn(4, sampler(unloaded, verified, loaded, loaded)));
+        assertNull(cache.pickColumn(2, sampler(rejected, rejected)));
+        verify(world, never()).isChunkLoaded(0, 0);
+    }
+
+    @Test
+    void capacityIsBounded() {
+        GemColumnCache cache = new GemColumnCache(2);
+        when(world.getHighestBlockYAt(0, 0)).thenReturn(60);
+        when(world.getHighestBlockYAt(1, 0)).thenReturn(61);
+        when(world.getHighestBlockYAt(2, 0)).thenReturn(62);
+
+        cache.highestY(world, 0, 0);
+        cache.highestY(world, 1, 0);
+        cache.highestY(world, 2, 0);
+
+        assertEquals(2, cache.getSize());
+        assertNull(cache.lookup(WORLD_ID, 0, 0));
+        assertNotNull(cache.lookup(WORLD_ID, 1, 0));
+    }
+
+    private static Function0<Location> sampler(Location... candidates) {
+        Iterator<Location> iterator = List.of(candidates).iterator();
+        return () -> iterator.hasNext() ? iterator.next() : null;
+    }
+}
@@ -1,29 +1,39 @@
 package org.cubexmc.manager;
 
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.UUID;
 import java.util.logging.Logger;
 
 import org.bukkit.Location;
 import org.bukkit.World;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
 import org.cubexmc.RuleGems;
+import org.cubexmc.utils.SchedulerUtil;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mock;
+import org.mockito.MockedStatic;
 import org.mockito.junit.jupiter.MockitoExtension;
 
 @ExtendWith(MockitoExtension.class)
 class GemCustodyAuditorTest {
 
     private static final UUID GEM_ID = UUID.fromString("40000000-0000-0000-0000-000000000004");
+    private static final UUID OTHER_GEM_ID = UUID.fromString("40000000-0000-0000-0000-000000000005");
 
     @Mock private RuleGems plugin;
     @Mock private GemStateManager stateManager;
@@ -31,6 +41,7 @@ class GemCustodyAuditorTest {
     @Mock private World world;
     @Mock private Runnable saveAction;
 
+    private final GemCustodyJournal journal = new GemCustodyJournal();
     private GemCustodyAuditor auditor;
 
     @BeforeEach
@@ -38,7 +49,7 @@ class GemCustodyAuditorTest {
         lenient().when(plugin.getLogger()).thenReturn(Logger.getLogger("GemCustodyAuditorTest"));
         when(stateManager.getAllGemUuids()).thenReturn(Collections.singleton(GEM_ID));
         auditor = new GemCustodyAuditor(
-                plugin, stateManager, placementManager, (gemId, location) -> true, saveAction);
+                plugin, stateManager, placementManager, (gemId, location) -> true, saveAction, journal);
     }
 
     @Test
@@ -98,4 +109,65 @@ class GemCustodyAuditorTest {
 
         verify(placementManager, never()).randomPlaceGem(any(UUID.class));
     }
+
+    @Test
+    void roundsBetweenFullSweepsOnlyInspectJournaledGems() {
+        Location location = new Location(world, 10, 64, 10);
+        when(stateManager.getGemHolder(GEM_ID)).thenReturn(null);
+        when(stateManager.getGemLocation(GEM_ID)).thenReturn(location);
+        when(stateManager.getGemHolder(OTHER_GEM_ID)).thenReturn(null);
+        when(stateManager.getGemLocation(OTHER_GEM_ID)).thenReturn(location);
+
+        for (int i = 0; i < 5; i++) {
+            auditor.runRound();
+        }
+        journal.markGem(OTHER_GEM_ID);
+        auditor.runRound();
+        auditor.runRound();
+
+        verify(stateManager, times(1)).getAllGemUuids();
+        verify(placementManager, times(1)).restoreRenderingIfMissing(GEM_ID, location);
+        verify(placementManager, times(1)).restoreRenderingIfMissing(OTHER_GEM_ID, location);
+    }
+
+    @Test
+    void gemsOfAHolderWhoseInventoryChangedShareOneInventoryScan() {
+        Player holder = mock(Player.class);
+        UUID holderId = UUID.fromString("00000000-0000-0000-0000-000000000025");
+        when(holder.getUniqueId()).thenReturn(holderId);
+        when(holder.isOnline()).thenReturn(true);
+        when(stateManager.getGemHolder(GEM_ID)).thenReturn(holder);
+        when(stateManager.getGemHolder(OTHER_GEM_ID)).thenReturn(holder);
+        when(stateManager.heldGemIds(Collections.singleton(holderId)))
+                .thenReturn(Arrays.asList(GEM_ID, OTHER_GEM_ID));
+        when(stateManager.carriedGemIds(holder)).thenReturn(new HashSet<>(Arrays.asList(GEM_ID, OTHER_GEM_ID)));
+
+        auditor.noteInventoryChanged(holderId);
+        try (MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+            scheduler.when(() -> SchedulerUtil.entityRun(any(), any(Entity.class), any(Runnable.class), eq(0L),
+                    eq(-1L))).thenAnswer(invocation -> {
+                        invocation.<Runnable>getArgument(2).run();
+                        return new Object();
+                    });
+            auditor.runRound();
+        }
+
+        verify(stateManager, times(1)).carriedGemIds(holder);
+        verify(placementManager, never()).randomPlaceGem(any(UUID.class));
+    }
+
+    @Test
+    void anAnomalySeenByARoundIsOnlyCorrectedAfterTheConfirmationInterval() {
+        when(stateManager.getGemHolder(GEM_ID)).thenReturn(null);
+        when(stateManager.getGemLocation(GEM_ID)).thenReturn(null);
+
+        for (int i = 0; i < 30; i++) {
+            auditor.runRound();
+        }
+        verify(placementManager, never()).randomPlaceGem(any(UUID.class));
+
+        auditor.runRound();
+        verify(placementManager, times(1)).randomPlaceGem(GEM_ID);
+        verify(saveAction).run();
+    }
 }
@@ -0,0 +1,127 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+
+import java.util.UUID;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.cubexmc.RuleGems;
+import org.cubexmc.utils.SchedulerUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class GemEscapePoolTest {
+
+    private static final UUID WORLD_ID = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+
+    @Mock private RuleGems plugin;
+    @Mock private World world;
+
+    private GemBoundsService.Bounds bounds;
+
+    @BeforeEach
+    void setUp() {
+        bounds = new GemBoundsService.Bounds(world, 0, 63, 0, 63);
+        lenient().when(world.getUID()).thenReturn(WORLD_ID);
+        lenient().when(world.getName()).thenReturn("world");
+        lenient().when(world.getHighestBlockYAt(anyInt(), anyInt())).thenReturn(64);
+        lenient().when(world.isChunkLoaded(anyInt(), anyInt())).thenReturn(false);
+    }
+
+    @Test
+    void chunkLoadsRefillKnownPoolsAndTakeIsServedFromThePool() {
+        GemEscapePool pool = new GemEscapePool(plugin, new GemColumnCache(), target -> true, 4);
+
+        try (MockedStatic<SchedulerUtil> scheduler = runRegionTasksInline()) {
+            pool.onChunkLoad(world, 1, 1);
+            scheduler.verify(() -> SchedulerUtil.regionRun(any(), any(Location.class), any(Runnable.class),
+                    eq(0L), eq(-1L)), never());
+
+            assertNull(pool.take(bounds, 16, position -> true));
+            scheduler.verify(() -> SchedulerUtil.regionRun(any(), any(Location.class), any(Runnable.class),
+                    eq(0L), eq(-1L)), never());
+
+            doReturn(true).when(world).isChunkLoaded(1, 1);
+            pool.onChunkLoad(world, 1, 1);
+            pool.onChunkLoad(world, 9, 9);
+            assertEquals(1, pool.size(bounds));
+
+            Location target = pool.take(bounds, 16, position -> true);
+            assertNotNull(target);
+            assertEquals(65, target.getBlockY());
+            assertTrue(target.getBlockX() >= 16 && target.getBlockX() < 32);
+            assertTrue(target.getBlockZ() >= 16 && target.getBlockZ() < 32);
+        }
+    }
+
+    @Test
+    void rejectedTargetsStayOutAndUnmatchedTargetsStayPooled() {
+        GemEscapePool rejecting = new GemEscapePool(plugin, new GemColumnCache(), target -> false, 2);
+        GemEscapePool accepting = new GemEscapePool(plugin, new GemColumnCache(), target -> true, 2);
+        doReturn(true).when(world).isChunkLoaded(0, 0);
+
+        try (MockedStatic<SchedulerUtil> scheduler = runRegionTasksInline()) {
+            rejecting.take(bounds, 16, position -> true);
+            accepting.take(bounds, 16, position -> true);
+            rejecting.onChunkLoad(world, 0, 0);
+            accepting.onChunkLoad(world, 0, 0);
+
+            assertEquals(0, rejecting.size(bounds));
+            int pooled = accepting.size(bounds);
+            assertTrue(pooled > 0);
+            assertNull(accepting.take(bounds, 16, position -> false));
+            assertEquals(pooled, accepting.size(bounds));
+        }
+    }
+
+    @Test
+    void terrainChangesEvictPooledTargetsAndUnmatchedScansDoNotTopUp() {
+        GemEscapePool pool = new GemEscapePool(plugin, new GemColumnCache(), target -> true, 4);
+
+        try (MockedStatic<SchedulerUtil> scheduler = runRegionTasksInline()) {
+            doReturn(true).when(world).isChunkLoaded(1, 1);
+            pool.onChunkLoad(world, 1, 1);
+            assertEquals(1, pool.size(bounds));
+
+            assertNull(pool.take(bounds, 16, position -> false));
+            scheduler.verify(() -> SchedulerUtil.regionRun(any(), any(Location.class), any(Runnable.class),
+                    eq(0L), eq(-1L)));
+
+            Location[] pooled = new Location[1];
+            pool.take(bounds, 16, position -> {
+                pooled[0] = new Location(world, position.getX(), position.getY(), position.getZ());
+                return false;
+            });
+            pool.invalidate(UUID.randomUUID(), pooled[0].getBlockX(), pooled[0].getBlockZ());
+            assertEquals(1, pool.size(bounds));
+            pool.invalidate(WORLD_ID, pooled[0].getBlockX(), pooled[0].getBlockZ());
+            assertEquals(0, pool.size(bounds));
+        }
+    }
+
+    private MockedStatic<SchedulerUtil> runRegionTasksInline() {
+        MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class);
+        scheduler.when(() -> SchedulerUtil.regionRun(any(), any(Location.class), any(Runnable.class), eq(0L), eq(-1L)))
+                .thenAnswer(invocation -> {
+                    invocation.<Runnable>getArgument(2).run();
+                    return new Object();
+                });
+        return scheduler;
+    }
+}
@@ -0,0 +1,114 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.UUID;
+
+import kotlin.Unit;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.plugin.Plugin;
+import org.cubexmc.utils.SchedulerUtil;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+
+class GemGrantQueueTest {
+
+    private final Plugin plugin = mock(Plugin.class);
+    private final List<GemGrantWork> drained = new ArrayList<>();
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final GemGrantQueue queue = new GemGrantQueue(plugin, (player, work) -> {
+        drained.add(work);
+        return Unit.INSTANCE;
+    });
+
+    @Test
+    void eventsInTheSameTickMergeIntoOneDrain() {
+        Player player = player();
+
+        try (MockedStatic<SchedulerUtil> ignored = deferTasks()) {
+            queue.markSlots(player, Arrays.asList(1, 2));
+            queue.markSlots(player, Collections.singletonList(3));
+            queue.markSlots(player, Collections.singletonList(2));
+        }
+
+        assertEquals(1, scheduled.size());
+        scheduled.get(0).run();
+        assertEquals(1, drained.size());
+        GemGrantWork work = drained.get(0);
+        assertTrue(work.getInventory());
+        assertFalse(work.getRestoreRedeemed());
+        assertEquals(new HashSet<>(Arrays.asList(1, 2, 3)), work.getSlots());
+
+        GemGrantQueue.Stats stats = queue.stats();
+        assertEquals(3, stats.getRequests());
+        assertEquals(1, stats.getDrains());
+        assertEquals(3.0, stats.getCoalescingRatio());
+        assertTrue(stats.getWorstWindowNanos() >= stats.getWorstDrainNanos());
+    }
+
+    @Test
+    void joinWorkForcesAFullRescanAndKeepsTheJoinSteps() {
+        Player player = player();
+
+        try (MockedStatic<SchedulerUtil> ignored = deferTasks()) {
+            queue.markSlots(player, Collections.singletonList(5));
+            queue.markJoin(player);
+            queue.markSlots(player, Collections.singletonList(6));
+        }
+
+        scheduled.get(0).run();
+        GemGrantWork work = drained.get(0);
+        assertTrue(work.getRestoreRedeemed());
+        assertTrue(work.getApplyPendingRevokes());
+        assertNull(work.getSlots());
+    }
+
+    @Test
+    void forgottenPlayersAreNotDrainedAndFailedSchedulingDrainsInline() {
+        Player player = player();
+
+        try (MockedStatic<SchedulerUtil> ignored = deferTasks()) {
+            queue.markSlots(player, Collections.singletonList(0));
+        }
+        queue.forget(player.getUniqueId());
+        scheduled.get(0).run();
+        assertTrue(drained.isEmpty());
+
+        try (MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+            scheduler.when(() -> SchedulerUtil.entityRun(any(), any(Entity.class), any(Runnable.class), eq(1L),
+                    eq(-1L))).thenReturn(null);
+            queue.markSlots(player, Collections.singletonList(0));
+        }
+        assertEquals(1, drained.size());
+    }
+
+    private Player player() {
+        Player player = mock(Player.class);
+        when(player.getUniqueId()).thenReturn(UUID.fromString("00000000-0000-0000-0000-000000000024"));
+        return player;
+    }
+
+    private MockedStatic<SchedulerUtil> deferTasks() {
+        MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class);
+        scheduler.when(() -> SchedulerUtil.entityRun(any(), any(Entity.class), any(Runnable.class), eq(1L), eq(-1L)))
+                .thenAnswer(invocation -> {
+                    scheduled.add(invocation.getArgument(2));
+                    return new Object();
+                });
+        return scheduler;
+    }
+}
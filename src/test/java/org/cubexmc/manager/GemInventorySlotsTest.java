@@ -0,0 +1,70 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+class GemInventorySlotsTest {
+
+    private final GemInventorySlots slots = new GemInventorySlots();
+    private final String[] inventory = new String[4];
+
+    @Test
+    void fullScanReportsNewKeysInSlotOrder() {
+        inventory[1] = "ice";
+        inventory[3] = "fire";
+
+        assertTrue(update(null));
+        assertEquals(Arrays.asList("ice", "fire"), slots.presentKeys());
+        assertFalse(update(null));
+    }
+
+    @Test
+    void movingOrDuplicatingAKeyDoesNotChangeTheKeySet() {
+        inventory[0] = "fire";
+        update(null);
+
+        inventory[0] = null;
+        inventory[2] = "fire";
+        assertFalse(update(Arrays.asList(0, 2)));
+
+        inventory[3] = "fire";
+        assertFalse(update(Collections.singletonList(3)));
+        assertEquals(Collections.singletonList("fire"), slots.presentKeys());
+    }
+
+    @Test
+    void removingTheLastCopyOrAddingANewKeyIsReported() {
+        inventory[0] = "fire";
+        inventory[1] = "fire";
+        update(null);
+
+        inventory[0] = null;
+        assertFalse(update(Collections.singletonList(0)));
+        inventory[1] = null;
+        assertTrue(update(Collections.singletonList(1)));
+        inventory[2] = "ice";
+        assertTrue(update(Collections.singletonList(2)));
+        assertEquals(Collections.singletonList("ice"), slots.presentKeys());
+    }
+
+    @Test
+    void sizeChangesForceAFullScanAndOutOfRangeSlotsAreIgnored() {
+        update(null);
+        assertFalse(update(Collections.singletonList(9)));
+
+        String[] larger = { null, null, null, null, "fire" };
+        assertTrue(slots.update(larger.length, Collections.singletonList(0), slot -> larger[slot]));
+        assertEquals(Collections.singletonList("fire"), slots.presentKeys());
+    }
+
+    private boolean update(Collection<Integer> changed) {
+        return slots.update(inventory.length, changed, slot -> inventory[slot]);
+    }
+}
@@ -0,0 +1,101 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.UUID;
+
+import org.bukkit.Material;
+import org.bukkit.NamespacedKey;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.persistence.PersistentDataContainer;
+import org.bukkit.persistence.PersistentDataType;
+import org.junit.jupiter.api.Test;
+
+class GemItemIdentityTest {
+
+    private static final UUID GEM_ID = UUID.fromString("60000000-0000-0000-0000-000000000006");
+    private static final NamespacedKey RULE_GEM = new NamespacedKey("rulegems", "rule_gem");
+    private static final NamespacedKey UNIQUE_ID = new NamespacedKey("rulegems", "unique_id");
+
+    private final GemItemIdentity identity = new GemItemIdentity(RULE_GEM, UNIQUE_ID, 16, item -> true);
+
+    @Test
+    void flagAndIdComeFromOneMetaReadAndRepeatChecksHitTheCache() {
+        ItemStack item = item(Material.NETHER_STAR, true, GEM_ID.toString());
+
+        GemItemInspection first = identity.inspect(item);
+        GemItemInspection second = identity.inspect(item);
+
+        assertTrue(first.getFlagged());
+        assertEquals(GEM_ID, first.getGemId());
+        assertSame(first, second);
+        verify(item, times(1)).getItemMeta();
+    }
+
+    @Test
+    void forgetAndMaterialChangesForceAFreshRead() {
+        ItemStack item = item(Material.NETHER_STAR, true, GEM_ID.toString());
+
+        identity.inspect(item);
+        identity.forget(item);
+        identity.inspect(item);
+        when(item.getType()).thenReturn(Material.DIAMOND);
+        identity.inspect(item);
+
+        verify(item, times(3)).getItemMeta();
+    }
+
+    @Test
+    void plainItemsAreRejectedWithoutCloningMetaAndBadIdsAreIgnored() {
+        ItemStack plain = mock(ItemStack.class);
+        when(plain.hasItemMeta()).thenReturn(false);
+        ItemStack unflagged = item(Material.PAPER, false, "not-a-uuid");
+
+        assertSame(GemItemInspection.NONE, identity.inspect(plain));
+        assertSame(GemItemInspection.NONE, identity.inspect(null));
+        GemItemInspection inspection = identity.inspect(unflagged);
+
+        assertFalse(inspection.getFlagged());
+        assertNull(inspection.getGemId());
+        verify(plain, never()).getItemMeta();
+    }
+
+    @Test
+    void plainStacksSeeMetaReplacedWithinTheTtl() {
+        GemItemIdentity serverOnly = new GemItemIdentity(RULE_GEM, UNIQUE_ID, 16);
+        ItemStack item = item(Material.NETHER_STAR, true, GEM_ID.toString());
+
+        assertTrue(serverOnly.inspect(item).getFlagged());
+
+        // 另一个插件在 TTL 内把同一个 ItemStack 的 meta 换成了非宝石的。
+        ItemMeta replaced = mock(ItemMeta.class);
+        PersistentDataContainer empty = mock(PersistentDataContainer.class);
+        when(replaced.getPersistentDataContainer()).thenReturn(empty);
+        when(item.getItemMeta()).thenReturn(replaced);
+
+        assertSame(GemItemInspection.NONE, serverOnly.inspect(item));
+    }
+
+    private static ItemStack item(Material type, boolean flagged, String rawId) {
+        ItemStack item = mock(ItemStack.class);
+        ItemMeta meta = mock(ItemMeta.class);
+        PersistentDataContainer pdc = mock(PersistentDataContainer.class);
+        when(item.hasItemMeta()).thenReturn(true);
+        when(item.getType()).thenReturn(type);
+        when(item.getItemMeta()).thenReturn(meta);
+        when(meta.getPersistentDataContainer()).thenReturn(pdc);
+        when(pdc.has(RULE_GEM, PersistentDataType.BYTE)).thenReturn(flagged);
+        when(pdc.get(UNIQUE_ID, PersistentDataType.STRING)).thenReturn(rawId);
+        return item;
+    }
+}
@@ -5,7 +5,9 @@ import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.lenient;
@@ -93,7 +95,7 @@ class GemManagerEscapeIntegrationTest {
         YamlConfiguration gemsData = new YamlConfiguration();
         gemsData.set("escape-state.legacy", true);
         when(configManager.getGemsData()).thenReturn(gemsData);
-        when(configManager.saveGemData(gemsData)).thenReturn(StorageSaveResult.success());
+        when(configManager.saveGemData(eq(gemsData), any())).thenReturn(StorageSaveResult.success());
 
         try (MockedConstruction<GemPlacementManager> construction = mockPlacementManager()) {
             GemManager manager = createManager();
@@ -107,7 +109,7 @@ class GemManagerEscapeIntegrationTest {
             manager.saveGemsSync();
 
             verify(placementManager).populateEscapeSaveSnapshot(anyMap());
-            verify(configManager).saveGemData(gemsData);
+            verify(configManager).saveGemData(eq(gemsData), any());
             assertTrue(gemsData.contains("escape-state"));
             assertEquals(42_000L, gemsData.getLong("escape-state.next_cycle_at"));
             assertFalse(gemsData.contains("escape-state.legacy"));
@@ -179,7 +181,7 @@ class GemManagerEscapeIntegrationTest {
         YamlConfiguration gemsData = new YamlConfiguration();
         IllegalStateException storageFailure = new IllegalStateException("disk full");
         when(configManager.getGemsData()).thenReturn(gemsData);
-        when(configManager.saveGemData(gemsData)).thenReturn(
+        when(configManager.saveGemData(eq(gemsData), any())).thenReturn(
                 StorageSaveResult.failure(storageFailure),
                 StorageSaveResult.success());
         when(configManager.saveEmergencyGemData(gemsData)).thenReturn(new File("gems-emergency-test.yml"));
@@ -201,7 +203,7 @@ class GemManagerEscapeIntegrationTest {
         YamlConfiguration gemsData = new YamlConfiguration();
         when(plugin.isEnabled()).thenReturn(true);
         when(configManager.getGemsData()).thenReturn(gemsData);
-        when(configManager.saveGemData(gemsData)).thenReturn(StorageSaveResult.success());
+        when(configManager.saveGemData(eq(gemsData), any())).thenReturn(StorageSaveResult.success());
         List<Runnable> scheduled = new ArrayList<>();
         mockedSchedulerUtil.when(() -> SchedulerUtil.asyncRun(
                         org.mockito.Mockito.eq(plugin),
@@ -226,7 +228,7 @@ class GemManagerEscapeIntegrationTest {
             scheduled.get(0).run();
 
             assertEquals(2, gemsData.getInt("allowed_uses." + GEM_ID + ".global.home"));
-            verify(configManager, org.mockito.Mockito.times(1)).saveGemData(gemsData);
+            verify(configManager, org.mockito.Mockito.times(1)).saveGemData(eq(gemsData), any());
         }
     }
 
@@ -260,6 +262,34 @@ class GemManagerEscapeIntegrationTest {
         }
     }
 
+    @Test
+    void incrementalSaveRebuildsOnlySectionsWhoseRevisionMoved() {
+        YamlConfiguration gemsData = new YamlConfiguration();
+        when(configManager.getGemsData()).thenReturn(gemsData);
+        when(configManager.saveGemData(eq(gemsData), any())).thenReturn(StorageSaveResult.success());
+        UUID redeemer = player.getUniqueId();
+
+        try (MockedConstruction<GemPlacementManager> construction = mockPlacementManager()) {
+            GemManager manager = createManager();
+            GemPlacementManager placementManager = construction.constructed().get(0);
+            assertTrue(manager.saveGemsSync());
+
+            manager.getAllowanceManager().getPlayerGlobalAllowedUses()
+                    .computeIfAbsent(redeemer, ignoredKey -> new java.util.HashMap<>())
+                    .put("home", 3);
+            manager.getPermissionManager().assignRedeemer(GEM_ID, redeemer);
+            assertTrue(manager.saveGemsIncremental());
+
+            assertEquals(redeemer.toString(), gemsData.getString("redeem_owner_by_id." + GEM_ID));
+            assertFalse(gemsData.contains("allowed_uses." + redeemer + ".global.home"));
+            verify(placementManager, org.mockito.Mockito.times(1)).populateEscapeSaveSnapshot(anyMap());
+
+            assertTrue(manager.saveGemsSync());
+            assertEquals(3, gemsData.getInt("allowed_uses." + redeemer + ".global.home"));
+            assertEquals(redeemer.toString(), gemsData.getString("redeem_owner_by_id." + GEM_ID));
+        }
+    }
+
     private MockedConstruction<GemPlacementManager> mockPlacementManager() {
         return mockConstruction(GemPlacementManager.class);
     }
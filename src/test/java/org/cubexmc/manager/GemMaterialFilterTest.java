@@ -0,0 +1,50 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+
+import org.bukkit.Material;
+import org.junit.jupiter.api.Test;
+
+class GemMaterialFilterTest {
+
+    @Test
+    void containersAndTheDefaultGemMaterialPassEverythingElseIsRejected() {
+        GemMaterialFilter filter = new GemMaterialFilter();
+
+        assertTrue(filter.mayHoldItems(Material.SHULKER_BOX));
+        assertTrue(filter.mayHoldItems(Material.RED_SHULKER_BOX));
+        assertTrue(filter.mayContainGem(Material.SHULKER_BOX));
+        assertFalse(filter.mayBeGem(Material.SHULKER_BOX));
+        assertTrue(filter.mayBeGem(Material.RED_STAINED_GLASS));
+        assertFalse(filter.mayContainGem(Material.STONE));
+        assertFalse(filter.mayHoldItems(Material.CHEST));
+    }
+
+    @Test
+    void rebuildsOnlyAddGemMaterialsSoOldGemItemsStayVisible() {
+        GemMaterialFilter filter = new GemMaterialFilter();
+
+        filter.rebuild(Collections.singletonList(Material.NETHER_STAR));
+        filter.rebuild(Collections.singletonList(Material.DIAMOND));
+
+        assertTrue(filter.mayBeGem(Material.NETHER_STAR));
+        assertTrue(filter.mayBeGem(Material.DIAMOND));
+        assertFalse(filter.mayBeGem(Material.EMERALD));
+    }
+
+    @Test
+    void learnedMaterialsAndUnknownTypesAreTreatedAsPossibleGems() {
+        GemMaterialFilter filter = new GemMaterialFilter();
+
+        filter.learn(Material.EMERALD);
+
+        assertTrue(filter.mayBeGem(Material.EMERALD));
+        assertTrue(filter.mayContainGem(Material.EMERALD));
+        assertTrue(filter.mayBeGem(null));
+        assertTrue(filter.mayContainGem(null));
+        assertFalse(filter.mayHoldItems(null));
+    }
+}
@@ -0,0 +1,109 @@
+package org.cubexmc.manager;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Particle;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.cubexmc.RuleGems;
+import org.cubexmc.utils.SchedulerUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class GemParticleEmitterTest {
+
+    private static final UUID WORLD_ID = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+    private static final UUID PLAYER_ID = UUID.fromString("10000000-0000-0000-0000-000000000001");
+
+    @Mock private RuleGems plugin;
+    @Mock private GemStateManager stateManager;
+    @Mock private World world;
+    @Mock private Player player;
+
+    @Test
+    void emitsOncePerWatchedChunkAndReusesThePlan() {
+        Map<UUID, BlockPosition> placed = new LinkedHashMap<>();
+        placed.put(UUID.randomUUID(), position(1, 64, 1));
+        placed.put(UUID.randomUUID(), position(14, 70, 9));
+        placed.put(UUID.randomUUID(), position(800, 64, 800));
+        when(stateManager.placedGemPositions()).thenReturn(placed);
+        GemParticleEmitter emitter = trackedPlayerAt(new Location(world, 5.0, 64.0, 5.0));
+
+        try (MockedStatic<Bukkit> bukkit = mockStatic(Bukkit.class);
+                MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+            bukkit.when(() -> Bukkit.getWorld(WORLD_ID)).thenReturn(world);
+            runRegionTasksInline(scheduler);
+
+            emitter.tick(Particle.FLAME);
+            emitter.tick(Particle.FLAME);
+
+            verify(stateManager, times(1)).placedGemPositions();
+            scheduler.verify(() -> SchedulerUtil.regionRun(eq(plugin), any(Location.class), any(Runnable.class),
+                    eq(0L), eq(-1L)), times(2));
+            verify(world, times(2)).spawnParticle(Particle.FLAME, 1.5, 64.5, 1.5, 1);
+            verify(world, times(2)).spawnParticle(Particle.FLAME, 14.5, 70.5, 9.5, 1);
+            verify(world, never()).spawnParticle(eq(Particle.FLAME), eq(800.5), anyDouble(), anyDouble(), anyInt());
+        }
+    }
+
+    @Test
+    void placementChangesRebuildThePlan() {
+        Map<UUID, BlockPosition> placed = new LinkedHashMap<>();
+        placed.put(UUID.randomUUID(), position(1, 64, 1));
+        when(stateManager.placedGemPositions()).thenReturn(placed);
+        when(stateManager.getPlacementVersion()).thenReturn(0L, 0L, 1L);
+        GemParticleEmitter emitter = trackedPlayerAt(new Location(world, 3.0, 64.0, 3.0));
+
+        try (MockedStatic<Bukkit> bukkit = mockStatic(Bukkit.class);
+                MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+            bukkit.when(() -> Bukkit.getWorld(WORLD_ID)).thenReturn(world);
+            runRegionTasksInline(scheduler);
+
+            emitter.tick(Particle.FLAME);
+            emitter.tick(Particle.FLAME);
+            emitter.tick(Particle.FLAME);
+
+            verify(stateManager, times(2)).placedGemPositions();
+        }
+    }
+
+    private GemParticleEmitter trackedPlayerAt(Location location) {
+        lenient().when(world.getUID()).thenReturn(WORLD_ID);
+        when(player.getUniqueId()).thenReturn(PLAYER_ID);
+        GemProximityTracker tracker = new GemProximityTracker(plugin, stateManager, 16.0);
+        tracker.evaluate(player, location);
+        return new GemParticleEmitter(plugin, stateManager, tracker);
+    }
+
+    private void runRegionTasksInline(MockedStatic<SchedulerUtil> scheduler) {
+        scheduler.when(() -> SchedulerUtil.regionRun(eq(plugin), any(Location.class), any(Runnable.class),
+                eq(0L), eq(-1L)))
+                .thenAnswer(invocation -> {
+                    ((Runnable) invocation.getArgument(2)).run();
+                    return new Object();
+                });
+    }
+
+    private static BlockPosition position(int x, int y, int z) {
+        return new BlockPosition(WORLD_ID, "world", x, y, z);
+    }
+}
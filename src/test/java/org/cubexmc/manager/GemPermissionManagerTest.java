@@ -2,12 +2,15 @@ package org.cubexmc.manager;
 
 import org.bukkit.Bukkit;
 import org.bukkit.entity.Player;
+import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
 import org.bukkit.potion.PotionEffectType;
 import org.cubexmc.RuleGems;
 import org.cubexmc.features.FeatureManager;
 import org.cubexmc.features.appoint.AppointFeature;
 import org.cubexmc.model.*;
 import org.cubexmc.provider.PermissionProvider;
+import org.cubexmc.utils.SchedulerUtil;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Nested;
@@ -804,4 +807,59 @@ class GemPermissionManagerTest {
             assertTrue(manager.getPendingEffectRevokes().isEmpty());
         }
     }
+
+    // ==================== inventory_grants ====================
+
+    @Nested
+    class InventoryGrants {
+
+        @Test
+        void permissionsAreOnlyTouchedWhenTheActiveKeySetChanges() {
+            PowerStructureManager psm = mock(PowerStructureManager.class);
+            when(plugin.getPowerStructureManager()).thenReturn(psm);
+            when(gameplayConfig.isInventoryGrantsEnabled()).thenReturn(true);
+            GemDefinition fire = createSimpleGemDef("fire", Collections.singletonList("fire.use"), null);
+            when(stateManager.findGemDefinition("fire")).thenReturn(fire);
+            Map<UUID, String> keys = new HashMap<>();
+            keys.put(GEM_1, "Fire");
+            when(stateManager.getGemUuidToKey()).thenReturn(keys);
+
+            ItemStack gem = mock(ItemStack.class);
+            when(stateManager.isRuleGem(gem)).thenReturn(true);
+            when(stateManager.isRuleGem(null)).thenReturn(false);
+            when(stateManager.getGemUUID(gem)).thenReturn(GEM_1);
+            Player player = mock(Player.class);
+            PlayerInventory inventory = mock(PlayerInventory.class);
+            when(player.getUniqueId()).thenReturn(PLAYER_A);
+            when(player.getInventory()).thenReturn(inventory);
+            when(player.isOnline()).thenReturn(true);
+            when(inventory.getContents()).thenReturn(new ItemStack[] { gem, null });
+            when(inventory.getSize()).thenReturn(2);
+
+            manager.recalculateGrants(player);
+            manager.recalculateGrants(player);
+
+            verify(psm, times(1)).applyStructure(eq(player), any(PowerStructure.class), eq("gem_inv"), eq("fire"),
+                    eq(false));
+            verify(player, times(1)).recalculatePermissions();
+
+            try (MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+                scheduler.when(() -> SchedulerUtil.entityRun(any(), any(), any(Runnable.class), eq(1L), eq(-1L)))
+                        .thenAnswer(invocation -> {
+                            invocation.<Runnable>getArgument(2).run();
+                            return new Object();
+                        });
+
+                when(inventory.getItem(1)).thenReturn(null);
+                manager.refreshGrantSlots(player, Collections.singletonList(1));
+                verify(player, times(1)).recalculatePermissions();
+
+                when(inventory.getItem(0)).thenReturn(null);
+                manager.refreshGrantSlots(player, Collections.singletonList(0));
+            }
+
+            verify(psm).removeStructure(player, fire.getPowerStructure(), "gem_inv", "fire");
+            verify(player, times(2)).recalculatePermissions();
+        }
+    }
 }
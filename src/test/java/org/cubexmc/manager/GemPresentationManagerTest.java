@@ -5,6 +5,7 @@ import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.inOrder;
 import static org.mockito.Mockito.mockStatic;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -20,6 +21,7 @@ import org.bukkit.Material;
 import org.bukkit.World;
 import org.bukkit.block.Block;
 import org.bukkit.entity.EntityType;
+import org.bukkit.entity.Player;
 import org.cubexmc.RuleGems;
 import org.cubexmc.utils.SchedulerUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -39,6 +41,7 @@ class GemPresentationManagerTest {
     @Mock private World world;
     @Mock private Block block;
     @Mock private Logger logger;
+    @Mock private Player player;
 
     private UUID gemId;
     private Location location;
@@ -78,6 +81,43 @@ class GemPresentationManagerTest {
         }
     }
 
+    @Test
+    void refreshOnlyMeasuresRecordsInNearbyCellsAndKeepsViewerState() {
+        when(gameplayConfig.getGemPresentationMode()).thenReturn(GemPresentationMode.PROXIMITY_DISPLAY);
+        when(gameplayConfig.getGemDisplayRevealRange()).thenReturn(16.0);
+        when(gameplayConfig.getGemDisplayHideRange()).thenReturn(20.0);
+        Location far = new Location(world, 500.0, 64.0, 500.0);
+        Location playerLocation = spy(new Location(world, 12.0, 64.0, 20.0));
+        when(player.isOnline()).thenReturn(true);
+        when(player.getUniqueId()).thenReturn(UUID.fromString("20000000-0000-0000-0000-000000000001"));
+        when(player.getLocation()).thenReturn(playerLocation);
+        GemPresentationManager manager = new GemPresentationManager(plugin, gameplayConfig, stateManager);
+
+        try (MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+            scheduler.when(() -> SchedulerUtil.entityRun(eq(plugin), eq(player), any(Runnable.class), eq(0L), eq(-1L)))
+                    .thenAnswer(invocation -> {
+                        invocation.<Runnable>getArgument(2).run();
+                        return new Object();
+                    });
+
+            manager.renderPlacedGem(gemId, location, Material.DIAMOND_BLOCK);
+            manager.renderPlacedGem(UUID.randomUUID(), far, Material.EMERALD_BLOCK);
+            manager.refreshPlayer(player);
+            manager.refreshPlayer(player);
+
+            verify(playerLocation, times(2)).distanceSquared(any(Location.class));
+            scheduler.verify(() -> SchedulerUtil.regionRun(
+                    eq(plugin), eq(location), any(Runnable.class), eq(0L), eq(-1L)), times(1));
+            scheduler.verify(() -> SchedulerUtil.regionRun(
+                    eq(plugin), eq(far), any(Runnable.class), eq(0L), eq(-1L)), never());
+
+            manager.removeViewer(player);
+
+            scheduler.verify(() -> SchedulerUtil.regionRun(
+                    eq(plugin), eq(location), any(Runnable.class), eq(0L), eq(-1L)), times(2));
+        }
+    }
+
     @Test
     void delayedCleanupDoesNotEraseReplacementAtReusedLocation() {
         Map<Location, UUID> occupiedLocations = new HashMap<>();
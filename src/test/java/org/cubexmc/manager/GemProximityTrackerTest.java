@@ -0,0 +1,140 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
+import static org.mockito.ArgumentMatchers.anyFloat;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+import org.bukkit.Bukkit;
+import org.bukkit.Location;
+import org.bukkit.Sound;
+import org.bukkit.World;
+import org.bukkit.entity.Player;
+import org.cubexmc.RuleGems;
+import org.cubexmc.utils.SchedulerUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class GemProximityTrackerTest {
+
+    private static final UUID WORLD_ID = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+    private static final UUID NEAR_ID = UUID.fromString("10000000-0000-0000-0000-000000000001");
+    private static final UUID FAR_ID = UUID.fromString("10000000-0000-0000-0000-000000000002");
+
+    @Mock private RuleGems plugin;
+    @Mock private GemStateManager stateManager;
+    @Mock private World world;
+    @Mock private Player near;
+    @Mock private Player far;
+
+    @Test
+    void onlyPlayersWithGemsNearbyArePingedAndSameBlockMovesAreFree() {
+        lenient().when(world.getUID()).thenReturn(WORLD_ID);
+        Location nearLocation = new Location(world, 4.2, 64.0, 0.5);
+        Location farLocation = new Location(world, 500.0, 64.0, 500.0);
+        BlockPosition gem = new BlockPosition(WORLD_ID, "world", 0, 64, 0);
+        when(near.getUniqueId()).thenReturn(NEAR_ID);
+        when(far.getUniqueId()).thenReturn(FAR_ID);
+        when(near.getLocation()).thenReturn(nearLocation);
+        when(near.isOnline()).thenReturn(true);
+        when(stateManager.placedGemsWithin(eq(nearLocation), anyDouble()))
+                .thenReturn(List.of(new GemSpatialIndex.Hit(UUID.randomUUID(), gem, 16.0)));
+        when(stateManager.placedGemsWithin(eq(farLocation), anyDouble())).thenReturn(Collections.emptyList());
+        GemProximityTracker tracker = new GemProximityTracker(plugin, stateManager, 16.0);
+
+        try (MockedStatic<Bukkit> bukkit = mockStatic(Bukkit.class);
+                MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+            bukkit.when(() -> Bukkit.getPlayer(NEAR_ID)).thenReturn(near);
+            scheduler.when(() -> SchedulerUtil.entityRun(eq(plugin), any(Player.class), any(Runnable.class), eq(0L), eq(-1L)))
+                    .thenAnswer(invocation -> {
+                        ((Runnable) invocation.getArgument(2)).run();
+                        return new Object();
+                    });
+            tracker.tick();
+
+            tracker.onMove(near, nearLocation);
+            tracker.onMove(far, farLocation);
+            tracker.onMove(near, new Location(world, 4.9, 64.3, 0.1));
+            tracker.tick();
+
+            verify(stateManager, times(1)).placedGemsWithin(eq(nearLocation), anyDouble());
+            verify(near).playSound(eq(nearLocation), eq(Sound.BLOCK_NOTE_BLOCK_PLING), anyFloat(), eq(1.0f));
+            verify(far, never()).playSound(any(Location.class), any(Sound.class), anyFloat(), anyFloat());
+            scheduler.verify(() -> SchedulerUtil.entityRun(eq(plugin), eq(far), any(Runnable.class), eq(0L), eq(-1L)),
+                    never());
+        }
+    }
+
+    @Test
+    void placementChangesReevaluateOnlyPlayersNearTheChangedPositions() {
+        lenient().when(world.getUID()).thenReturn(WORLD_ID);
+        Location nearLocation = new Location(world, 1.0, 64.0, 1.0);
+        Location farLocation = new Location(world, 500.0, 64.0, 500.0);
+        BlockPosition gem = new BlockPosition(WORLD_ID, "world", 0, 64, 0);
+        when(near.getUniqueId()).thenReturn(NEAR_ID);
+        when(far.getUniqueId()).thenReturn(FAR_ID);
+        when(near.getLocation()).thenReturn(nearLocation);
+        when(near.isOnline()).thenReturn(true);
+        when(stateManager.placedGemsWithin(any(Location.class), anyDouble())).thenReturn(Collections.emptyList());
+        when(stateManager.getPlacementVersion()).thenReturn(0L, 1L);
+        when(stateManager.placedGemPositions()).thenReturn(Collections.emptyMap(),
+                Collections.singletonMap(UUID.randomUUID(), gem));
+        GemProximityTracker tracker = new GemProximityTracker(plugin, stateManager, 16.0);
+
+        try (MockedStatic<Bukkit> bukkit = mockStatic(Bukkit.class);
+                MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class)) {
+            bukkit.when(() -> Bukkit.getPlayer(NEAR_ID)).thenReturn(near);
+            scheduler.when(() -> SchedulerUtil.entityRun(eq(plugin), eq(near), any(Runnable.class), eq(0L), eq(-1L)))
+                    .thenAnswer(invocation -> {
+                        ((Runnable) invocation.getArgument(2)).run();
+                        return new Object();
+                    });
+
+            tracker.tick();
+            tracker.onMove(near, nearLocation);
+            tracker.onMove(far, farLocation);
+            tracker.tick();
+
+            verify(stateManager, times(2)).placedGemsWithin(eq(nearLocation), anyDouble());
+            verify(stateManager, times(1)).placedGemsWithin(eq(farLocation), anyDouble());
+            scheduler.verify(() -> SchedulerUtil.entityRun(eq(plugin), eq(far), any(Runnable.class), eq(0L), eq(-1L)),
+                    never());
+        }
+    }
+
+    @Test
+    void hasPlayerNearFollowsPlayersAcrossChunkBuckets() {
+        lenient().when(world.getUID()).thenReturn(WORLD_ID);
+        when(near.getUniqueId()).thenReturn(NEAR_ID);
+        when(stateManager.placedGemsWithin(any(Location.class), anyDouble())).thenReturn(Collections.emptyList());
+        GemProximityTracker tracker = new GemProximityTracker(plugin, stateManager, 16.0);
+
+        tracker.onMove(near, new Location(world, 40.0, 64.0, -20.0));
+        assertTrue(tracker.hasPlayerNear(WORLD_ID, 10.0, -10.0, 44.0));
+        assertFalse(tracker.hasPlayerNear(WORLD_ID, 500.0, 500.0, 44.0));
+        assertFalse(tracker.hasPlayerNear(UUID.randomUUID(), 40.0, -20.0, 44.0));
+
+        tracker.onMove(near, new Location(world, 480.0, 64.0, 490.0));
+        assertFalse(tracker.hasPlayerNear(WORLD_ID, 10.0, -10.0, 44.0));
+        assertTrue(tracker.hasPlayerNear(WORLD_ID, 500.0, 500.0, 44.0));
+
+        tracker.forget(NEAR_ID);
+        assertFalse(tracker.hasPlayerNear(WORLD_ID, 500.0, 500.0, 44.0));
+    }
+}
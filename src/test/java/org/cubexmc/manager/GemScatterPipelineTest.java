@@ -0,0 +1,122 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Logger;
+
+import org.bukkit.Location;
+import org.bukkit.World;
+import org.cubexmc.RuleGems;
+import org.cubexmc.utils.SchedulerUtil;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class GemScatterPipelineTest {
+
+    private static final UUID WORLD_ID = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+    private static final UUID FIRST = UUID.fromString("10000000-0000-0000-0000-000000000001");
+    private static final UUID SECOND = UUID.fromString("10000000-0000-0000-0000-000000000002");
+    private static final UUID THIRD = UUID.fromString("10000000-0000-0000-0000-000000000003");
+
+    @Mock private RuleGems plugin;
+    @Mock private GemBoundsService boundsService;
+    @Mock private World world;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(plugin.getLogger()).thenReturn(Logger.getLogger("GemScatterPipelineTest"));
+        lenient().when(world.getUID()).thenReturn(WORLD_ID);
+        lenient().when(world.isChunkLoaded(anyInt(), anyInt())).thenReturn(false);
+    }
+
+    @Test
+    void columnsInTheSameChunkAreCommittedByOneRegionTask() {
+        Location first = column(1, 1);
+        Location second = column(2, 3);
+        Location third = column(40, 40);
+        when(boundsService.randomColumn(eq(FIRST), any())).thenReturn(first);
+        when(boundsService.randomColumn(eq(SECOND), any())).thenReturn(second);
+        when(boundsService.randomColumn(eq(THIRD), any())).thenReturn(third);
+        when(world.isChunkLoaded(0, 0)).thenReturn(true);
+        List<UUID> committed = new ArrayList<>();
+        GemScatterPipeline pipeline = new GemScatterPipeline(plugin, boundsService, new GemColumnCache(),
+                (gemId, target, center) -> committed.add(gemId), GemScatterPipeline.DEFAULT_MAX_ROUNDS);
+        AtomicReference<GemScatterReport> report = new AtomicReference<>();
+
+        try (MockedStatic<SchedulerUtil> scheduler = runTasksInline()) {
+            pipeline.scatter(Arrays.asList(FIRST, SECOND, THIRD), report::set);
+
+            scheduler.verify(() -> SchedulerUtil.regionRun(any(), any(Location.class), any(Runnable.class),
+                    eq(0L), eq(-1L)), times(2));
+        }
+
+        assertEquals(Arrays.asList(FIRST, SECOND, THIRD), committed);
+        assertNotNull(report.get());
+        assertEquals(3, report.get().getPlaced());
+        assertEquals(0, report.get().getUnplaced());
+        assertEquals(2, report.get().getRegionTasks());
+        assertEquals(1, report.get().getChunkLoads());
+    }
+
+    @Test
+    void rejectedColumnsAreRetriedAndTheLastRoundFallsBackToTheCenter() {
+        when(boundsService.randomColumn(eq(FIRST), any())).thenReturn(column(5, 5));
+        when(boundsService.centerColumn(FIRST)).thenReturn(column(32, 32));
+        when(boundsService.randomColumn(eq(SECOND), any())).thenReturn(null);
+        when(boundsService.centerColumn(SECOND)).thenReturn(null);
+        List<Boolean> attempts = new ArrayList<>();
+        GemScatterPipeline pipeline = new GemScatterPipeline(plugin, boundsService, new GemColumnCache(),
+                (gemId, target, center) -> {
+                    attempts.add(center);
+                    return center;
+                }, 2);
+        AtomicReference<GemScatterReport> report = new AtomicReference<>();
+
+        try (MockedStatic<SchedulerUtil> ignored = runTasksInline()) {
+            pipeline.scatter(Arrays.asList(FIRST, SECOND), report::set);
+        }
+
+        assertEquals(Arrays.asList(false, true), attempts);
+        assertEquals(1, report.get().getPlaced());
+        assertEquals(1, report.get().getCenterFallbacks());
+        assertEquals(1, report.get().getUnplaced());
+        assertEquals(2, report.get().getRegionTasks());
+    }
+
+    private Location column(int x, int z) {
+        return new Location(world, x, 64.0, z);
+    }
+
+    private MockedStatic<SchedulerUtil> runTasksInline() {
+        MockedStatic<SchedulerUtil> scheduler = mockStatic(SchedulerUtil.class);
+        scheduler.when(() -> SchedulerUtil.regionRun(any(), any(Location.class), any(Runnable.class), eq(0L), eq(-1L)))
+                .thenAnswer(invocation -> {
+                    invocation.<Runnable>getArgument(2).run();
+                    return new Object();
+                });
+        scheduler.when(() -> SchedulerUtil.globalRun(any(), any(Runnable.class), eq(0L), eq(-1L)))
+                .thenAnswer(invocation -> {
+                    invocation.<Runnable>getArgument(1).run();
+                    return new Object();
+                });
+        return scheduler;
+    }
+}
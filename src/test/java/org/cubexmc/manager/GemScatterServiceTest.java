@@ -16,6 +16,7 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.UUID;
 
@@ -96,7 +97,16 @@ class GemScatterServiceTest {
         when(ice.getOnScatter()).thenReturn(null);
         when(gemParser.getGemDefinitions()).thenReturn(Arrays.asList(fire, ice));
 
-        service.scatterGems();
+        Runnable onComplete = mock(Runnable.class);
+        service.scatterGems(onComplete);
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<UUID>> placedIds = ArgumentCaptor.forClass(List.class);
+        ArgumentCaptor<GemScatterCompletion> completion = ArgumentCaptor.forClass(GemScatterCompletion.class);
+        verify(placementManager, times(1)).scatterGems(placedIds.capture(), completion.capture());
+        verify(saveAction, never()).run();
+        verify(onComplete, never()).run();
+        completion.getValue().onComplete(new GemScatterReport(3, 0, 0, 2, 1, 5L));
 
         InOrder escapeResetOrder = inOrder(placementManager, languageManager);
         escapeResetOrder.verify(placementManager).resetEscapeStateForScatter();
@@ -107,15 +117,17 @@ class GemScatterServiceTest {
         verify(stateManager, times(1)).clearGemKeys();
         verify(resetOwnershipStateAction, times(1)).run();
         verify(stateManager, times(3)).setGemKey(any(UUID.class), any(String.class));
-        ArgumentCaptor<UUID> placedIds = ArgumentCaptor.forClass(UUID.class);
-        verify(placementManager, times(3)).randomPlaceGem(placedIds.capture());
-        assertTrue(placedIds.getAllValues().contains(existingGem));
-        assertTrue(placedIds.getAllValues().contains(existingIce));
-        assertEquals(3, placedIds.getAllValues().stream().distinct().count());
+        verify(placementManager, never()).randomPlaceGem(any(UUID.class));
+        assertTrue(placedIds.getValue().contains(existingGem));
+        assertTrue(placedIds.getValue().contains(existingIce));
+        assertEquals(3, placedIds.getValue().stream().distinct().count());
         verify(inventory, times(1)).remove(gemItem);
         verify(languageManager, times(1)).logMessage("scatter_start");
         verify(languageManager, times(1)).logMessage(eq("gems_scattered"), anyMap());
-        verify(saveAction, times(1)).run();
+        verify(languageManager, times(1)).logMessage(eq("scatter_report"), anyMap());
+        InOrder saveOrder = inOrder(saveAction, onComplete);
+        saveOrder.verify(saveAction, times(1)).run();
+        saveOrder.verify(onComplete, times(1)).run();
     }
 
     @Test
@@ -129,6 +141,7 @@ class GemScatterServiceTest {
         verify(placementManager).resetEscapeStateForScatter();
         verify(stateManager, never()).setGemKey(any(UUID.class), any(String.class));
         verify(placementManager, never()).randomPlaceGem(any(UUID.class));
+        verify(placementManager, never()).scatterGems(any(), any());
         verify(languageManager).logMessage(eq("gems_scattered"), anyMap());
         verify(saveAction).run();
     }
@@ -0,0 +1,116 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.Test;
+
+class GemSpatialIndexTest {
+
+    private static final UUID WORLD = UUID.fromString("00000000-0000-0000-0000-0000000000aa");
+    private static final UUID NETHER = UUID.fromString("00000000-0000-0000-0000-0000000000bb");
+
+    @Test
+    void rangeQueryCrossesChunkBordersAndIgnoresOtherWorlds() {
+        GemSpatialIndex index = new GemSpatialIndex();
+        UUID east = UUID.randomUUID();
+        UUID west = UUID.randomUUID();
+        UUID far = UUID.randomUUID();
+        index.add(position(WORLD, 17, 64, 0), east);
+        index.add(position(WORLD, -3, 64, 0), west);
+        index.add(position(WORLD, 40, 64, 0), far);
+        index.add(position(NETHER, 1, 64, 0), UUID.randomUUID());
+
+        Set<UUID> hits = new HashSet<>();
+        for (GemSpatialIndex.Hit hit : index.withinRange(WORLD, 5.0, 64.0, 0.0, 16.0)) {
+            hits.add(hit.getGemId());
+        }
+
+        assertEquals(Set.of(east, west), hits);
+    }
+
+    @Test
+    void chunkQueryReturnsOnlyGemsInsideThatChunkForAnyCellSize() {
+        UUID inside = UUID.randomUUID();
+        UUID negative = UUID.randomUUID();
+        for (int cellBits : new int[] { GemSpatialIndex.CHUNK_BITS, 6 }) {
+            GemSpatialIndex index = new GemSpatialIndex(cellBits);
+            index.add(position(WORLD, 20, 64, 31), inside);
+            index.add(position(WORLD, 32, 64, 20), UUID.randomUUID());
+            index.add(position(WORLD, -1, 64, -16), negative);
+            index.add(position(NETHER, 20, 64, 20), UUID.randomUUID());
+
+            assertEquals(List.of(inside), index.inChunk(WORLD, 1, 1));
+            assertEquals(List.of(negative), index.inChunk(WORLD, -1, -1));
+            assertTrue(index.inChunk(WORLD, 5, 5).isEmpty());
+        }
+    }
+
+    @Test
+    void nearestMatchesBruteForceAndHonoursMaxRange() {
+        GemSpatialIndex index = new GemSpatialIndex();
+        Random random = new Random(42);
+        List<GemSpatialIndex.Hit> all = new ArrayList<>();
+        for (int i = 0; i < 300; i++) {
+            BlockPosition position = position(WORLD, random.nextInt(2000) - 1000, random.nextInt(100), random.nextInt(2000) - 1000);
+            UUID id = UUID.randomUUID();
+            index.add(position, id);
+            all.add(new GemSpatialIndex.Hit(id, position, 0.0));
+        }
+
+        for (int query = 0; query < 20; query++) {
+            double x = random.nextInt(2400) - 1200.5;
+            double z = random.nextInt(2400) - 1200.5;
+            List<UUID> expected = all.stream()
+                    .sorted(Comparator.comparingDouble(hit -> distanceSquared(hit.getPosition(), x, 50.0, z)))
+                    .limit(5)
+                    .map(GemSpatialIndex.Hit::getGemId)
+                    .collect(Collectors.toList());
+            List<UUID> actual = index.nearest(WORLD, x, 50.0, z, 5, Double.MAX_VALUE).stream()
+                    .map(GemSpatialIndex.Hit::getGemId)
+                    .collect(Collectors.toList());
+            assertEquals(expected, actual);
+        }
+
+        for (GemSpatialIndex.Hit hit : index.nearest(WORLD, 0.0, 50.0, 0.0, 50, 100.0)) {
+            assertTrue(hit.getDistanceSquared() <= 100.0 * 100.0);
+        }
+    }
+
+    @Test
+    void removedGemsDisappearAndSparseWorldsStillResolve() {
+        GemSpatialIndex index = new GemSpatialIndex();
+        UUID near = UUID.randomUUID();
+        UUID remote = UUID.randomUUID();
+        BlockPosition nearPosition = position(WORLD, 0, 64, 0);
+        index.add(nearPosition, near);
+        index.add(position(WORLD, 250_000, 64, -250_000), remote);
+
+        index.remove(nearPosition, near);
+
+        assertEquals(1, index.getSize());
+        List<GemSpatialIndex.Hit> nearest = index.nearest(WORLD, 0.0, 64.0, 0.0, 1, Double.MAX_VALUE);
+        assertEquals(List.of(remote), nearest.stream().map(GemSpatialIndex.Hit::getGemId).collect(Collectors.toList()));
+        assertTrue(index.withinRange(WORLD, 0.0, 64.0, 0.0, 32.0).isEmpty());
+    }
+
+    private static BlockPosition position(UUID world, int x, int y, int z) {
+        return new BlockPosition(world, world.equals(WORLD) ? "world" : "world_nether", x, y, z);
+    }
+
+    private static double distanceSquared(BlockPosition position, double x, double y, double z) {
+        double dx = position.getX() - x;
+        double dy = position.getY() - y;
+        double dz = position.getZ() - z;
+        return dx * dx + dy * dy + dz * dz;
+    }
+}
@@ -81,6 +81,17 @@ class GemStateManagerNestedItemTest {
         assertFalse(manager.containsGem(stone));
     }
 
+    @Test
+    void itemsWhoseMaterialCanNeverHoldAGemAreRejectedBeforeReadingMeta() {
+        ItemStack stone = mock(ItemStack.class);
+        when(stone.getType()).thenReturn(Material.STONE);
+        lenient().when(stone.hasItemMeta()).thenReturn(true);
+
+        assertFalse(manager.containsGem(stone));
+        assertFalse(manager.isRuleGem(stone));
+        verify(stone, never()).getItemMeta();
+    }
+
     @Test
     void strippingANestedGemPreservesTheShulkerAndItsOrdinaryContents() {
         ItemStack gem = gemItem();
@@ -9,6 +9,7 @@ import org.bukkit.block.Block;
 import org.bukkit.configuration.file.YamlConfiguration;
 import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
 import org.bukkit.inventory.meta.ItemMeta;
 import org.bukkit.persistence.PersistentDataContainer;
 import org.bukkit.persistence.PersistentDataType;
@@ -131,6 +132,44 @@ class GemStateManagerTest {
         }
     }
 
+    // ==================== Spatial Queries ====================
+
+    @Nested
+    class SpatialQueries {
+
+        @Test
+        void nearestSkipsStaleHeldGemsAndPrunesByRange() {
+            Location player = mockLocation("world", 0, 64, 0);
+            Location near = mockLocation("world", 5, 64, 0);
+            Location far = mockLocation("world", 60, 64, 0);
+            manager.bindPlacedGem(near, GEM_1);
+            manager.bindPlacedGem(far, GEM_2);
+            manager.getGemUuidToHolder().put(GEM_1, PLAYER_A);
+
+            NearestGem nearest = manager.findNearestPlacedGem(player);
+            assertNotNull(nearest);
+            assertEquals(GEM_2, nearest.getGemId());
+            assertEquals(3600.0, nearest.getDistanceSquared(), 1.0e-9);
+            assertNull(manager.findNearestPlacedGem(player, 50.0));
+        }
+
+        @Test
+        void rangeQueryFollowsRebindAndUnbind() {
+            Location center = mockLocation("world", 0, 64, 0);
+            Location first = mockLocation("world", 8, 64, 8);
+            Location moved = mockLocation("world", 200, 64, 200);
+            manager.bindPlacedGem(first, GEM_1);
+            assertEquals(1, manager.placedGemsWithin(center, 16.0).size());
+
+            manager.bindPlacedGem(moved, GEM_1);
+            assertTrue(manager.placedGemsWithin(center, 16.0).isEmpty());
+            assertTrue(manager.hasConsistentPlacementState());
+
+            manager.unbindPlacedGem(moved, GEM_1);
+            assertTrue(manager.nearestPlacedGems(center, 1).isEmpty());
+        }
+    }
+
     // ==================== Counts ====================
 
     @Nested
@@ -812,4 +851,25 @@ class GemStateManagerTest {
             assertTrue(created.isEmpty());
         }
     }
+
+    // ==================== inventory edits ====================
+
+    @Nested
+    class InventoryEdits {
+
+        @Test
+        void removingAGemItemAlwaysReportsTheEditedInventory() {
+            Player player = mock(Player.class);
+            PlayerInventory inventory = mock(PlayerInventory.class);
+            when(player.getInventory()).thenReturn(inventory);
+            when(inventory.getContents()).thenReturn(new ItemStack[0]);
+            List<Player> edited = new ArrayList<>();
+            manager.setInventoryEditCallback(edited::add);
+
+            // 放置时服务端已经扣掉了手上的宝石，这里找不到物品，但背包确实变了。
+            manager.removeGemItemFromInventory(player, GEM_1);
+
+            assertEquals(Collections.singletonList(player), edited);
+        }
+    }
 }
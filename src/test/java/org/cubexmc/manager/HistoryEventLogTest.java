@@ -0,0 +1,102 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryEventLogTest {
+
+    private static final String STEVE = "20000000-0000-0000-0000-000000000002";
+    private static final String ALEX = "30000000-0000-0000-0000-000000000003";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void queriesFilterByTypeGemPlayerAndTimeNewestFirst() {
+        HistoryEventLog log = newLog();
+        log.record(redeem("2026-09-28T10:00:00Z", STEVE, "Steve", "fire"));
+        log.record(redeem("2026-10-02T10:00:00Z", ALEX, "Alex", "fire"));
+        log.record(new HistoryEvent(HistoryEvent.Type.REVOKE, Instant.parse("2026-10-03T10:00:00Z"), ALEX, "Alex",
+                "fire", List.of("rulegems.fire"), "expired"));
+        log.record(redeem("2026-10-04T10:00:00Z", STEVE, "Steve", "water"));
+        log.close();
+
+        HistoryEventLog reader = newLog();
+        List<HistoryEvent> fire = reader.find(new HistoryQuery(Set.of(HistoryEvent.Type.REDEEM), "FIRE"), 10);
+        assertEquals(List.of("Alex", "Steve"), names(fire));
+
+        List<HistoryEvent> lastWeek = reader.find(new HistoryQuery(Set.of(), "fire", null,
+                Instant.parse("2026-10-01T00:00:00Z"), Instant.parse("2026-10-08T00:00:00Z")), 10);
+        assertEquals(2, lastWeek.size());
+        assertEquals(HistoryEvent.Type.REVOKE, lastWeek.get(0).getType());
+        assertEquals(List.of("rulegems.fire"), lastWeek.get(0).getPermissions());
+        assertEquals("expired", lastWeek.get(0).getReason());
+
+        assertEquals(List.of("Steve", "Steve"), names(reader.find(new HistoryQuery(Set.of(), null, "steve"), 10)));
+        assertEquals(List.of("Steve"), names(reader.find(new HistoryQuery(Set.of(), null, STEVE), 1)));
+    }
+
+    @Test
+    void malformedLinesAreSkipped() throws Exception {
+        HistoryEventLog log = newLog();
+        log.record(redeem("2026-10-02T10:00:00Z", ALEX, "Alex", "fire"));
+        log.close();
+        Files.writeString(new File(tempDir.toFile(), "2026-10.jsonl").toPath(), "{\"type\":\"bogus\"}\nnot json\n",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+
+        assertEquals(List.of("Alex"), names(newLog().find(new HistoryQuery(), 10)));
+        assertNull(HistoryEvent.fromJson("{\"type\":\"redeem\"}"));
+    }
+
+    @Test
+    void readOnlyReaderQueriesWithoutStartingAWriterThread() {
+        HistoryEventLog log = newLog();
+        log.record(redeem("2026-10-02T10:00:00Z", ALEX, "Alex", "fire"));
+        log.close();
+
+        long writersBefore = historyThreads();
+        HistoryEventReader reader = new HistoryEventReader(tempDir.toFile(), Logger.getLogger("HistoryEventLogTest"),
+                ZoneOffset.UTC);
+        List<HistoryEvent> found = reader.find(new HistoryQuery(Set.of(HistoryEvent.Type.REDEEM), "fire"), 10);
+
+        assertEquals(List.of("Alex"), names(found));
+        assertEquals(writersBefore, historyThreads());
+    }
+
+    private long historyThreads() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.getName().equals("RuleGems-History"))
+                .count();
+    }
+
+    private HistoryEventLog newLog() {
+        return new HistoryEventLog(tempDir.toFile(), Logger.getLogger("HistoryEventLogTest"), ZoneOffset.UTC);
+    }
+
+    private HistoryEvent redeem(String time, String uuid, String name, String gem) {
+        return new HistoryEvent(HistoryEvent.Type.REDEEM, Instant.parse(time), uuid, name, gem);
+    }
+
+    private List<String> names(List<HistoryEvent> events) {
+        List<String> names = new ArrayList<>();
+        for (HistoryEvent event : events) {
+            names.add(event.getPlayerName());
+        }
+        return names;
+    }
+}
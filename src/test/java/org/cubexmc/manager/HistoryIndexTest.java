@@ -0,0 +1,81 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryIndexTest {
+
+    private static final String STEVE = "20000000-0000-0000-0000-000000000002";
+    private static final String STEVEN = "30000000-0000-0000-0000-000000000003";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void writerRecordsOffsetsForExactPlayerKeys() throws Exception {
+        HistoryIndex index = new HistoryIndex(tempDir.toFile(), logger());
+        HistoryWriter writer = new HistoryWriter(tempDir.toFile(), logger(), index);
+        writer.append("2026-10", "[1] Player: Steve redeemed", HistoryIndex.keys(STEVE, "Steve"));
+        writer.append("2026-10", "[2] Player: Steven redeemed", HistoryIndex.keys(STEVEN, "Steven"));
+        writer.append("2026-10", "[3] 玩家: Steve placed", HistoryIndex.keys(STEVE, "Steve"));
+        writer.close();
+
+        File log = new File(tempDir.toFile(), "2026-10.log");
+        HistoryLogReader reader = new HistoryLogReader(tempDir.toFile());
+
+        assertEquals(List.of("[1] Player: Steve redeemed", "[3] 玩家: Steve placed"),
+                reader.readLinesAt(log, offsets(index, log, HistoryIndex.nameKey("STEVE"))));
+        assertEquals(List.of("[2] Player: Steven redeemed"),
+                reader.readLinesAt(log, offsets(index, log, HistoryIndex.uuidKey(STEVEN))));
+        assertEquals(Set.of(HistoryIndex.uuidKey(STEVE)), index.aliasesOf(List.of(log), HistoryIndex.nameKey("steve")));
+        assertTrue(new File(tempDir.toFile(), "2026-10.idx").isFile());
+    }
+
+    @Test
+    void existingLogsAreIndexedFromTheLastCoveredOffset() throws Exception {
+        File log = new File(tempDir.toFile(), "2026-09.log");
+        Files.writeString(log.toPath(),
+                "[a] [Gem Redeem] Player: Alex (" + STEVE + ") | Gem: Flight (flight)\n"
+                        + "[b] 【宝石放置】 玩家: Steven | 宝石: flight | 位置: world 1 2 3\n",
+                StandardCharsets.UTF_8);
+        HistoryIndex first = new HistoryIndex(tempDir.toFile(), logger());
+        assertEquals(1, first.offsets(log, List.of(HistoryIndex.nameKey("alex"))).length);
+
+        Files.writeString(log.toPath(), "[c] [Gem Broken] Player: Alex | Gem: flight | Location: x\n",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        HistoryIndex reloaded = new HistoryIndex(tempDir.toFile(), logger());
+
+        HistoryLogReader reader = new HistoryLogReader(tempDir.toFile());
+        List<String> alex = reader.readLinesAt(log, offsets(reloaded, log, HistoryIndex.nameKey("Alex")));
+        assertEquals(2, alex.size());
+        assertTrue(alex.get(1).startsWith("[c]"));
+        assertEquals(List.of("[b] 【宝石放置】 玩家: Steven | 宝石: flight | 位置: world 1 2 3"),
+                reader.readLinesAt(log, offsets(reloaded, log, HistoryIndex.nameKey("steven"))));
+        assertEquals(0, reloaded.offsets(log, List.of(HistoryIndex.nameKey("steve"))).length);
+    }
+
+    private List<Long> offsets(HistoryIndex index, File log, String key) {
+        List<Long> result = new ArrayList<>();
+        for (long offset : index.offsets(log, List.of(key))) {
+            result.add(offset);
+        }
+        return result;
+    }
+
+    private Logger logger() {
+        return Logger.getLogger("HistoryIndexTest");
+    }
+}
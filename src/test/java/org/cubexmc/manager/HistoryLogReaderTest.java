@@ -0,0 +1,79 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryLogReaderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void reverseReadMatchesForwardReadAcrossBlockBoundaries() throws Exception {
+        StringBuilder content = new StringBuilder();
+        List<String> expected = new ArrayList<>();
+        for (int i = 0; i < 2000; i++) {
+            String line = i % 7 == 0 ? "" : "[2026-10-01] 玩家: Steve 兑换了宝石 #" + i;
+            expected.add(line);
+            content.append(line).append(i % 3 == 0 ? "\r\n" : "\n");
+        }
+        content.append("no trailing newline");
+        expected.add("no trailing newline");
+        File file = write("2026-10.log", content.toString());
+        HistoryLogReader reader = new HistoryLogReader(tempDir.toFile());
+
+        List<String> reversed = new ArrayList<>();
+        reader.forEachLineReversed(file, line -> {
+            reversed.add(line);
+            return true;
+        });
+        Collections.reverse(reversed);
+
+        assertEquals(expected, reversed);
+        assertEquals(expected.size(), reader.lineCount(file));
+    }
+
+    @Test
+    void lineCountFollowsAppendedLines() throws Exception {
+        File file = write("2026-09.log", "a\nb\n");
+        HistoryLogReader reader = new HistoryLogReader(tempDir.toFile());
+        assertEquals(2L, reader.lineCount(file));
+
+        Files.writeString(file.toPath(), "c\nd", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(4L, reader.lineCount(file));
+
+        Files.writeString(file.toPath(), "\n", StandardCharsets.UTF_8, StandardOpenOption.APPEND);
+        assertEquals(4L, reader.lineCount(file));
+    }
+
+    @Test
+    void stopsAsSoonAsTheConsumerDeclines() throws Exception {
+        File file = write("2026-08.log", "one\ntwo\nthree\n");
+        HistoryLogReader reader = new HistoryLogReader(tempDir.toFile());
+
+        List<String> seen = new ArrayList<>();
+        reader.forEachLineReversed(file, line -> {
+            seen.add(line);
+            return seen.size() < 2;
+        });
+
+        assertEquals(List.of("three", "two"), seen);
+    }
+
+    private File write(String name, String content) throws Exception {
+        File file = new File(tempDir.toFile(), name);
+        Files.writeString(file.toPath(), content, StandardCharsets.UTF_8);
+        return file;
+    }
+}
@@ -0,0 +1,51 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class HistoryWriterTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void closeDrainsQueuedEntriesIntoTheirMonthlyFiles() throws Exception {
+        HistoryWriter writer = new HistoryWriter(tempDir.toFile(), Logger.getLogger("HistoryWriterTest"));
+        for (int i = 0; i < 100; i++) {
+            writer.append("2026-09", "september " + i);
+        }
+        writer.append("2026-10", "october 0");
+
+        writer.close();
+
+        List<String> september = read("2026-09.log");
+        assertEquals(100, september.size());
+        assertEquals("september 0", september.get(0));
+        assertEquals("september 99", september.get(99));
+        assertEquals(List.of("october 0"), read("2026-10.log"));
+        assertEquals(0L, writer.getDroppedCount());
+    }
+
+    @Test
+    void entriesAfterCloseAreWrittenSynchronously() throws Exception {
+        HistoryWriter writer = new HistoryWriter(tempDir.toFile(), Logger.getLogger("HistoryWriterTest"));
+        writer.close();
+
+        writer.append("2026-10", "late entry");
+
+        assertEquals(List.of("late entry"), read("2026-10.log"));
+    }
+
+    private List<String> read(String name) throws Exception {
+        return Files.readAllLines(new File(tempDir.toFile(), name).toPath(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,107 @@
+package org.cubexmc.manager;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cubexmc.RuleGems;
+import org.cubexmc.utils.SchedulerUtil;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.MockedStatic;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class SaveCoalescerTest {
+
+    @Mock private RuleGems plugin;
+    @Mock private GameplayConfig gameplayConfig;
+
+    private MockedStatic<SchedulerUtil> mockedSchedulerUtil;
+    private final List<Runnable> scheduled = new ArrayList<>();
+    private final AtomicInteger writes = new AtomicInteger();
+    private SaveCoalescer coalescer;
+
+    @BeforeEach
+    void setUp() {
+        mockedSchedulerUtil = mockStatic(SchedulerUtil.class);
+        mockedSchedulerUtil.when(() -> SchedulerUtil.globalRun(eq(plugin), any(Runnable.class), eq(10L), eq(-1L)))
+                .thenAnswer(invocation -> {
+                    scheduled.add(invocation.getArgument(1, Runnable.class));
+                    return new Object();
+                });
+        lenient().when(plugin.isEnabled()).thenReturn(true);
+        lenient().when(gameplayConfig.getSaveCoalesceMaxDelayTicks()).thenReturn(10L);
+        lenient().when(gameplayConfig.getSaveCoalesceMaxPending()).thenReturn(4);
+        coalescer = new SaveCoalescer(plugin, gameplayConfig, () -> {
+            writes.incrementAndGet();
+            return true;
+        });
+    }
+
+    @AfterEach
+    void tearDown() {
+        mockedSchedulerUtil.close();
+    }
+
+    @Test
+    void burstCollapsesIntoOneDelayedWrite() {
+        assertTrue(coalescer.request());
+        assertTrue(coalescer.request());
+        assertTrue(coalescer.request());
+
+        assertEquals(0, writes.get());
+        assertEquals(1, scheduled.size());
+
+        scheduled.get(0).run();
+
+        assertEquals(1, writes.get());
+        SaveCoalescer.Stats stats = coalescer.stats();
+        assertEquals(3L, stats.getRequests());
+        assertEquals(1L, stats.getFlushes());
+        assertEquals(2L, stats.getCoalesced());
+    }
+
+    @Test
+    void reachingMaxPendingWritesImmediately() {
+        for (int i = 0; i < 4; i++) {
+            coalescer.request();
+        }
+
+        assertEquals(1, writes.get());
+        assertEquals(1L, coalescer.stats().getThresholdFlushes());
+
+        coalescer.request();
+        assertEquals(2, scheduled.size());
+    }
+
+    @Test
+    void fullSaveAbsorbsPendingRequests() {
+        coalescer.request();
+        coalescer.cancelPending();
+
+        assertEquals(0, writes.get());
+        assertEquals(1L, coalescer.stats().getAbsorbedByFullSave());
+    }
+
+    @Test
+    void disabledPluginWritesThrough() {
+        when(plugin.isEnabled()).thenReturn(false);
+        SaveCoalescer failing = new SaveCoalescer(plugin, gameplayConfig, () -> false);
+
+        assertFalse(failing.request());
+        assertTrue(scheduled.isEmpty());
+    }
+}
@@ -0,0 +1,110 @@
+package org.cubexmc.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.cubexmc.RuleGems;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class BinaryStorageProviderTest {
+
+    private static final String GEM_ID = "10000000-0000-0000-0000-000000000001";
+    private static final String PLAYER_ID = "20000000-0000-0000-0000-000000000002";
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void snapshotRoundTripsUuidsKeysAndLists() {
+        BinaryStorageProvider provider = new BinaryStorageProvider(plugin());
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("placed-gems." + GEM_ID + ".world", "world");
+        data.set("placed-gems." + GEM_ID + ".x", 12.5);
+        data.set("placed-gems." + GEM_ID + ".gem_key", "flight");
+        data.set("held-gems." + PLAYER_ID + "." + GEM_ID, "flight");
+        data.set("redeem_owner_by_id." + GEM_ID, PLAYER_ID);
+        data.set("toggled_off_gems." + PLAYER_ID, List.of("flight", "justice"));
+        data.set("escape-state.next_cycle_at", 1_900_000_000_000L);
+
+        assertTrue(provider.saveGemData(data).getSuccessful());
+        StorageLoadResult loaded = new BinaryStorageProvider(plugin()).readGemData();
+
+        assertEquals(StorageLoadStatus.SUCCESS, loaded.getStatus());
+        assertEquals("world", loaded.getData().getString("placed-gems." + GEM_ID + ".world"));
+        assertEquals(12.5, loaded.getData().getDouble("placed-gems." + GEM_ID + ".x"));
+        assertEquals("flight", loaded.getData().getString("held-gems." + PLAYER_ID + "." + GEM_ID));
+        assertEquals(PLAYER_ID, loaded.getData().getString("redeem_owner_by_id." + GEM_ID));
+        assertEquals(List.of("flight", "justice"), loaded.getData().getStringList("toggled_off_gems." + PLAYER_ID));
+        assertEquals(1_900_000_000_000L, loaded.getData().getLong("escape-state.next_cycle_at"));
+    }
+
+    @Test
+    void checksumMismatchFallsBackToPreviousSnapshot() throws Exception {
+        BinaryStorageProvider provider = new BinaryStorageProvider(plugin());
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("redeemed.gem", "justice");
+        assertTrue(provider.saveGemData(data).getSuccessful());
+        data.set("redeemed.gem", "flight");
+        assertTrue(provider.saveGemData(data).getSuccessful());
+
+        File primary = new File(tempDir.toFile(), "data/gems.dat");
+        byte[] bytes = Files.readAllBytes(primary.toPath());
+        bytes[bytes.length / 2] ^= 0x7F;
+        Files.write(primary.toPath(), bytes);
+
+        StorageLoadResult loaded = provider.readGemData();
+
+        assertEquals(StorageLoadStatus.SUCCESS, loaded.getStatus());
+        assertEquals("justice", loaded.getData().getString("redeemed.gem"));
+    }
+
+    @Test
+    void existingYamlIsImportedWhenNoSnapshotExists() throws Exception {
+        File dataDir = new File(tempDir.toFile(), "data");
+        assertTrue(dataDir.mkdirs());
+        Files.writeString(new File(dataDir, "gems.yml").toPath(), "redeemed:\n  gem: flight\n", StandardCharsets.UTF_8);
+
+        StorageLoadResult loaded = new BinaryStorageProvider(plugin()).readGemData();
+
+        assertEquals(StorageLoadStatus.SUCCESS, loaded.getStatus());
+        assertEquals("flight", loaded.getData().getString("redeemed.gem"));
+        assertTrue(new File(dataDir, "gems.dat").isFile());
+        assertTrue(new File(dataDir, "gems.yml").isFile());
+    }
+
+    @Test
+    void importFileReplacesSnapshotOnce() throws Exception {
+        BinaryStorageProvider provider = new BinaryStorageProvider(plugin());
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("redeemed.gem", "justice");
+        assertTrue(provider.saveGemData(data).getSuccessful());
+        File dataDir = new File(tempDir.toFile(), "data");
+        Files.writeString(new File(dataDir, "gems.import.yml").toPath(), "redeemed:\n  gem: flight\n", StandardCharsets.UTF_8);
+
+        StorageLoadResult loaded = provider.readGemData();
+
+        assertEquals("flight", loaded.getData().getString("redeemed.gem"));
+        assertFalse(new File(dataDir, "gems.import.yml").exists());
+        assertTrue(new File(dataDir, "gems.import.yml.imported").isFile());
+        assertEquals("flight", provider.readGemData().getData().getString("redeemed.gem"));
+    }
+
+    private RuleGems plugin() {
+        RuleGems plugin = mock(RuleGems.class);
+        when(plugin.getDataFolder()).thenReturn(tempDir.toFile());
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("BinaryStorageProviderTest"));
+        return plugin;
+    }
+}
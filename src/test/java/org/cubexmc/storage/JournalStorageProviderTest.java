@@ -0,0 +1,122 @@
+package org.cubexmc.storage;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import org.bukkit.configuration.file.YamlConfiguration;
+import org.cubexmc.RuleGems;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class JournalStorageProviderTest {
+
+    @TempDir
+    Path tempDir;
+
+    @Test
+    void freshProviderReplaysCommittedBatchesOnTopOfCheckpoint() {
+        JournalStorageProvider writer = new JournalStorageProvider(plugin(), config());
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("held-gems.player.gem", "flight");
+        data.set("allowed_uses.player.flight.count", 3);
+        assertTrue(writer.saveGemData(data).getSuccessful());
+
+        data.set("held-gems.player.gem", null);
+        data.set("placed-gems.gem.world", "world");
+        data.set("toggled_off_gems.player", List.of("flight"));
+        assertTrue(writer.saveGemData(data).getSuccessful());
+
+        StorageLoadResult loaded = new JournalStorageProvider(plugin(), config()).readGemData();
+
+        assertEquals(StorageLoadStatus.SUCCESS, loaded.getStatus());
+        assertNull(loaded.getData().getString("held-gems.player.gem"));
+        assertEquals("world", loaded.getData().getString("placed-gems.gem.world"));
+        assertEquals(3, loaded.getData().getInt("allowed_uses.player.flight.count"));
+        assertEquals(List.of("flight"), loaded.getData().getStringList("toggled_off_gems.player"));
+        assertFalse(new File(tempDir.toFile(), "data/gems.yml").exists());
+    }
+
+    @Test
+    void tornTailIsDiscardedWithoutLosingCommittedBatches() throws Exception {
+        JournalStorageProvider writer = new JournalStorageProvider(plugin(), config());
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("held-gems.player.gem", "justice");
+        assertTrue(writer.saveGemData(data).getSuccessful());
+        data.set("held-gems.player.gem", "flight");
+        assertTrue(writer.saveGemData(data).getSuccessful());
+
+        File journal = new File(tempDir.toFile(), "data/gems.journal");
+        long committed = journal.length();
+        try (RandomAccessFile file = new RandomAccessFile(journal, "rw")) {
+            file.setLength(committed - 3);
+        }
+
+        StorageLoadResult loaded = new JournalStorageProvider(plugin(), config()).readGemData();
+
+        assertEquals(StorageLoadStatus.SUCCESS, loaded.getStatus());
+        assertEquals("justice", loaded.getData().getString("held-gems.player.gem"));
+        assertTrue(journal.length() < committed - 3);
+    }
+
+    @Test
+    void changedRootsHintLimitsTheDiffToThoseRoots() {
+        JournalStorageProvider writer = new JournalStorageProvider(plugin(), config());
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("held-gems.player.gem", "justice");
+        data.set("redeemed.gem", "player");
+        data.set("toggled_off_gems.player", List.of("flight"));
+        assertTrue(writer.saveGemData(data).getSuccessful());
+
+        data.set("held-gems.player.gem", "flight");
+        data.set("redeemed.gem", "other");
+        data.set("toggled_off_gems", null);
+        assertTrue(writer.saveGemData(data, Set.of("held-gems", "toggled_off_gems")).getSuccessful());
+
+        StorageLoadResult loaded = new JournalStorageProvider(plugin(), config()).readGemData();
+
+        assertEquals(StorageLoadStatus.SUCCESS, loaded.getStatus());
+        assertEquals("flight", loaded.getData().getString("held-gems.player.gem"));
+        assertEquals("player", loaded.getData().getString("redeemed.gem"));
+        assertFalse(loaded.getData().contains("toggled_off_gems"));
+    }
+
+    @Test
+    void closeCompactsJournalIntoCheckpoint() {
+        JournalStorageProvider provider = new JournalStorageProvider(plugin(), config());
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("redeemed.gem", "player");
+        assertTrue(provider.saveGemData(data).getSuccessful());
+
+        provider.close();
+
+        assertFalse(new File(tempDir.toFile(), "data/gems.journal").exists());
+        StorageLoadResult checkpoint = new YamlStorageProvider(plugin()).readGemData();
+        assertEquals(StorageLoadStatus.SUCCESS, checkpoint.getStatus());
+        assertEquals("player", checkpoint.getData().getString("redeemed.gem"));
+    }
+
+    private YamlConfiguration config() {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("storage.type", "journal");
+        config.set("storage.journal.fsync_interval_ms", 0);
+        return config;
+    }
+
+    private RuleGems plugin() {
+        RuleGems plugin = mock(RuleGems.class);
+        when(plugin.getDataFolder()).thenReturn(tempDir.toFile());
+        when(plugin.getLogger()).thenReturn(Logger.getLogger("JournalStorageProviderTest"));
+        return plugin;
+    }
+}
@@ -1,6 +1,7 @@
 package org.cubexmc.storage;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -19,6 +20,9 @@ import org.junit.jupiter.api.io.TempDir;
 
 class SqliteStorageProviderTest {
 
+    private static final String GEM_ID = "6f1c2c53-0d1c-4c2a-9d55-3f0c8d3e7a11";
+    private static final String PLAYER_ID = "0b6a7c1e-5a9f-4f54-9f0a-2c9d6f1e8b22";
+
     @TempDir
     Path tempDir;
 
@@ -121,6 +125,108 @@ class SqliteStorageProviderTest {
         assertNotNull(result.getError());
     }
 
+    @Test
+    void migratesLegacyPayloadRowIntoNormalizedTables() throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("storage.sqlite.file", "data/legacy.db");
+        SqliteStorageProvider provider = new SqliteStorageProvider(plugin(), config);
+        provider.initialize();
+
+        YamlConfiguration legacy = new YamlConfiguration();
+        legacy.set("placed-gems." + GEM_ID + ".world", "world");
+        legacy.set("placed-gems." + GEM_ID + ".x", 10);
+        legacy.set("placed-gems." + GEM_ID + ".y", 64);
+        legacy.set("placed-gems." + GEM_ID + ".z", -3);
+        legacy.set("placed-gems." + GEM_ID + ".gem_key", "fire");
+        legacy.set("redeemed." + PLAYER_ID, List.of("fire", "water"));
+        legacy.set("allowed_uses." + PLAYER_ID + ".global.fly", 3);
+        legacy.set("full_set_owner.uuid", PLAYER_ID);
+
+        File database = new File(tempDir.toFile(), "data/legacy.db");
+        try (var connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath());
+             var statement = connection.prepareStatement(
+                     "INSERT INTO rulegems_storage (storage_key, yaml_payload, updated_at) VALUES (?, ?, ?)")) {
+            statement.setString(1, "gems");
+            statement.setString(2, legacy.saveToString());
+            statement.setLong(3, System.currentTimeMillis());
+            statement.executeUpdate();
+        }
+
+        assertEquals(StorageLoadStatus.SUCCESS, provider.readGemData().getStatus());
+        assertEquals(1, count(database, "SELECT COUNT(*) FROM rulegems_placed_gems"));
+        assertEquals(2, count(database, "SELECT COUNT(*) FROM rulegems_redeemed_keys"));
+        assertEquals(0, count(database, "SELECT COUNT(*) FROM rulegems_storage WHERE storage_key = 'gems'"));
+
+        SqliteStorageProvider reopened = new SqliteStorageProvider(plugin(), config);
+        YamlConfiguration read = (YamlConfiguration) reopened.readGemData().getData();
+        assertEquals(10, read.getInt("placed-gems." + GEM_ID + ".x"));
+        assertEquals(-3, read.getInt("placed-gems." + GEM_ID + ".z"));
+        assertEquals("fire", read.getString("placed-gems." + GEM_ID + ".gem_key"));
+        assertEquals(List.of("fire", "water"), read.getStringList("redeemed." + PLAYER_ID));
+        assertEquals(3, read.getInt("allowed_uses." + PLAYER_ID + ".global.fly"));
+        assertEquals(PLAYER_ID, read.getString("full_set_owner.uuid"));
+    }
+
+    @Test
+    void saveDeletesRowsThatLeftTheSnapshot() throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("storage.sqlite.file", "data/rows.db");
+        SqliteStorageProvider provider = new SqliteStorageProvider(plugin(), config);
+
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("held-gems." + GEM_ID + ".player_uuid", PLAYER_ID);
+        data.set("held-gems." + GEM_ID + ".gem_key", "fire");
+        data.set("allowed_uses." + PLAYER_ID + ".held_instances." + GEM_ID + ".heal", 2);
+        assertTrue(provider.saveGemData(data).getSuccessful());
+
+        data.set("held-gems", null);
+        data.set("allowed_uses." + PLAYER_ID + ".held_instances." + GEM_ID + ".heal", 1);
+        assertTrue(provider.saveGemData(data).getSuccessful());
+
+        File database = new File(tempDir.toFile(), "data/rows.db");
+        assertEquals(0, count(database, "SELECT COUNT(*) FROM rulegems_held_gems"));
+        assertEquals(1, count(database, "SELECT remaining FROM rulegems_allowances WHERE label = 'heal'"));
+        YamlConfiguration read = (YamlConfiguration) provider.readGemData().getData();
+        assertEquals(1, read.getInt("allowed_uses." + PLAYER_ID + ".held_instances." + GEM_ID + ".heal"));
+    }
+
+    @Test
+    void keepsOneWalConnectionAndReleasesItOnClose() throws Exception {
+        YamlConfiguration config = new YamlConfiguration();
+        config.set("storage.sqlite.file", "data/wal.db");
+        SqliteStorageProvider provider = new SqliteStorageProvider(plugin(), config);
+        YamlConfiguration data = new YamlConfiguration();
+        data.set("held-gems." + GEM_ID + ".player_uuid", PLAYER_ID);
+        data.set("held-gems." + GEM_ID + ".gem_key", "fire");
+        assertTrue(provider.saveGemData(data).getSuccessful());
+
+        File database = new File(tempDir.toFile(), "data/wal.db");
+        File wal = new File(tempDir.toFile(), "data/wal.db-wal");
+        assertTrue(wal.exists());
+        try (var connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath());
+             var statement = connection.createStatement();
+             var result = statement.executeQuery("PRAGMA journal_mode")) {
+            assertTrue(result.next());
+            assertEquals("wal", result.getString(1));
+        }
+
+        provider.close();
+        assertFalse(wal.exists());
+
+        data.set("held-gems." + GEM_ID + ".gem_key", "water");
+        assertTrue(provider.saveGemData(data).getSuccessful());
+        assertEquals("water", provider.readGemData().getData().getString("held-gems." + GEM_ID + ".gem_key"));
+        provider.close();
+    }
+
+    private static int count(File database, String sql) throws Exception {
+        try (var connection = DriverManager.getConnection("jdbc:sqlite:" + database.getAbsolutePath());
+             var statement = connection.createStatement();
+             var result = statement.executeQuery(sql)) {
+            return result.next() ? result.getInt(1) : 0;
+        }
+    }
+
     private RuleGems plugin() {
         RuleGems plugin = mock(RuleGems.class);
         when(plugin.getDataFolder()).thenReturn(tempDir.toFile());
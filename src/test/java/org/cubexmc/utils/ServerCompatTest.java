@@ -0,0 +1,72 @@
+package org.cubexmc.utils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+
+import java.util.Collections;
+import java.util.logging.Logger;
+
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.inventory.meta.ItemMeta;
+import org.bukkit.plugin.Plugin;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class ServerCompatTest {
+
+    @Mock private Player player;
+    @Mock private Plugin plugin;
+    @Mock private Entity entity;
+    @Mock private ItemMeta meta;
+    @Mock private Logger logger;
+
+    @Test
+    void entityVisibilityFollowsTheApiOnTheClasspath() throws Exception {
+        boolean available = hasMethod(Player.class, "showEntity", Plugin.class, Entity.class)
+                && hasMethod(Entity.class, "setVisibleByDefault", boolean.class);
+
+        assertEquals(available, ServerCompat.getSupportsEntityVisibility());
+        assertEquals(available, ServerCompat.showEntity(player, plugin, entity));
+        if (available) {
+            Player.class.getMethod("showEntity", Plugin.class, Entity.class).invoke(verify(player), plugin, entity);
+        } else {
+            verifyNoInteractions(player);
+        }
+    }
+
+    @Test
+    void plainItemMetaIsNotTreatedAsBundle() {
+        assertFalse(ServerCompat.isBundle(meta));
+        assertNull(ServerCompat.bundleItems(meta));
+        assertFalse(ServerCompat.setBundleItems(meta, Collections.emptyList()));
+        verifyNoInteractions(meta);
+    }
+
+    @Test
+    void capabilitiesAreReportedOnce() {
+        ServerCompat.reportCapabilities(logger);
+        ServerCompat.reportCapabilities(logger);
+
+        verify(logger, times(1)).info(anyString());
+        verify(logger, never()).warning(anyString());
+    }
+
+    private static boolean hasMethod(Class<?> owner, String name, Class<?>... parameters) {
+        try {
+            owner.getMethod(name, parameters);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}